@@ -1,6 +1,8 @@
 package com.tqmane.notesapp;
 
 import android.app.AlertDialog;
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
 import android.graphics.Bitmap;
 import android.graphics.Color;
 import android.os.Bundle;
@@ -15,10 +17,19 @@ import android.widget.Toast;
 
 import androidx.appcompat.app.AppCompatActivity;
 
+import com.tqmane.notesapp.metrics.Metrics;
 import com.tqmane.notesapp.models.Note;
+import com.tqmane.notesapp.models.StrokeData;
+import com.tqmane.notesapp.storage.DrawingSnapshot;
 import com.tqmane.notesapp.storage.NoteStorage;
+import com.tqmane.notesapp.storage.StrokeJournal;
 import com.tqmane.notesapp.views.DrawingView;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 /**
  * 描画アクティビティ - ノートの編集画面
  */
@@ -26,6 +37,12 @@ public class DrawingActivity extends AppCompatActivity {
     
     private static final String TAG = "DrawingActivity";
     
+    // 開くノートのID
+    public static final String EXTRA_NOTE_ID = "note_id";
+    // 読み込みが終わるまで表示するタイトル
+    public static final String EXTRA_NOTE_TITLE = "note_title";
+    private static final String STATE_TITLE = "title";
+    
     private DrawingView drawingView;
     private NoteStorage storage;
     private Note currentNote;
@@ -33,10 +50,13 @@ public class DrawingActivity extends AppCompatActivity {
     // ツールバー
     private LinearLayout toolBar;
     private ImageButton btnUndo;
+    private ImageButton btnRedo;
     private ImageButton btnClear;
     private ImageButton btnColor;
     private ImageButton btnStrokeWidth;
+    private ImageButton btnTool;
     private TextView tvStylusInfo;
+    private TextView tvMetrics;
     
     // カラーパレット
     private int[] colors = {
@@ -52,38 +72,131 @@ public class DrawingActivity extends AppCompatActivity {
     
     private int currentColorIndex = 0;
     
+    // 最後に保存を要求した時点の描画内容のバージョン
+    private int savedVersion;
+    private CompletableFuture<Boolean> pendingSave;
+    
+    // 保存前の筆跡変更を記録するジャーナル
+    private StrokeJournal journal;
+    
+    // 計測の表示を更新する間隔
+    private static final long METRICS_REFRESH_MILLIS = 500;
+    private final Runnable refreshMetrics = new Runnable() {
+        @Override
+        public void run() {
+            tvMetrics.setText(Metrics.toSummary());
+            tvMetrics.postDelayed(this, METRICS_REFRESH_MILLIS);
+        }
+    };
+    
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_drawing);
         
         // ストレージを初期化
-        storage = new NoteStorage(this);
+        storage = NoteStorage.getInstance(this);
         
-        // ノートを読み込み
-        String noteId = getIntent().getStringExtra("note_id");
-        if (noteId != null) {
-            currentNote = storage.getNoteById(noteId);
-            if (currentNote != null) {
-                setTitle(currentNote.getTitle());
-            }
+        // ノート本体は保存スレッドで読み直すので、それまでは受け取ったタイトルを仮に表示
+        // （作り直したときは変更後のタイトルを表示する）
+        String noteId = getIntent().getStringExtra(EXTRA_NOTE_ID);
+        String title = savedInstanceState != null
+                ? savedInstanceState.getString(STATE_TITLE)
+                : getIntent().getStringExtra(EXTRA_NOTE_TITLE);
+        if (title != null) {
+            setTitle(title);
         }
         
         // ビューを初期化
         setupViews();
         
-        // 既存の描画を読み込み
-        loadDrawing();
+        // ノートと既存の描画を保存スレッドで読み込み（読み込みが終わるまでは描画を受け付けない）
+        if (noteId != null) {
+            drawingView.setEnabled(false);
+            storage.openDrawingAsync(noteId, this::onDrawingLoaded);
+        }
+    }
+    
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        if (currentNote != null) {
+            outState.putString(STATE_TITLE, currentNote.getTitle());
+        } else if (getTitle() != null) {
+            outState.putString(STATE_TITLE, getTitle().toString());
+        }
+    }
+    
+    private void onDrawingLoaded(Note note, Bitmap baseImage, List<StrokeData> strokes, StrokeJournal loadedJournal) {
+        if (isDestroyed()) {
+            if (loadedJournal != null) {
+                loadedJournal.close();
+            }
+            return;
+        }
+        
+        // 一覧を開いている間に削除されたノート
+        if (note == null) {
+            Toast.makeText(this, "ノートが見つかりません", Toast.LENGTH_SHORT).show();
+            finish();
+            return;
+        }
+        
+        // 保存済みの最新のノート情報（名前の変更も反映済み）
+        currentNote = note;
+        setTitle(note.getTitle());
+        
+        // 旧形式のノートはラスター画像をベースとして敷く
+        if (baseImage != null) {
+            drawingView.setBitmap(baseImage);
+        }
+        // 筆跡を復元（Undo履歴も引き継がれる）
+        if (strokes != null) {
+            drawingView.setStrokes(strokes);
+        }
+        savedVersion = drawingView.getContentVersion();
+        drawingView.setEnabled(true);
+        
+        // 保存前に強制終了されても筆跡を失わないようにジャーナルへ記録
+        journal = loadedJournal;
+        drawingView.setOnStrokesChangedListener(new DrawingView.OnStrokesChangedListener() {
+            @Override
+            public void onStrokeAdded(int index, StrokeData stroke) {
+                journal.appendStroke(index, stroke);
+            }
+            
+            @Override
+            public void onStrokesTruncated(int count) {
+                journal.truncate(count);
+            }
+            
+            @Override
+            public void onStrokeRemoved(int index, StrokeData stroke) {
+                journal.removeStroke(index, stroke);
+            }
+            
+            @Override
+            public void onStrokeInserted(int index, StrokeData stroke) {
+                journal.insertStroke(index, stroke);
+            }
+        });
     }
     
     private void setupViews() {
         drawingView = findViewById(R.id.drawing_view);
         toolBar = findViewById(R.id.tool_bar);
         btnUndo = findViewById(R.id.btn_undo);
+        btnRedo = findViewById(R.id.btn_redo);
         btnClear = findViewById(R.id.btn_clear);
         btnColor = findViewById(R.id.btn_color);
         btnStrokeWidth = findViewById(R.id.btn_stroke_width);
+        btnTool = findViewById(R.id.btn_tool);
         tvStylusInfo = findViewById(R.id.tv_stylus_info);
+        tvMetrics = findViewById(R.id.tv_metrics);
+        // 計測はプロセス内で続いているので、画面を作り直したときは表示も戻す
+        if (Metrics.isEnabled()) {
+            setMetricsVisible(true);
+        }
         
         // スタイラス情報を表示
         if (drawingView != null) {
@@ -91,8 +204,17 @@ public class DrawingActivity extends AppCompatActivity {
             tvStylusInfo.setText("タップして描画開始");
         }
         
+        // 低遅延モード用のオーバーレイと、筆跡ごとの遅延の表示
+        drawingView.setInkOverlay(findViewById(R.id.ink_overlay));
+        drawingView.setOnLatencyUpdatedListener((lowLatency, stats) -> tvStylusInfo.setText(getString(
+                R.string.latency_format,
+                getString(lowLatency ? R.string.latency_mode_low : R.string.latency_mode_normal),
+                stats.getMeanMillis(),
+                stats.getPercentileMillis(95))));
+                
         // ボタンのリスナーを設定
         btnUndo.setOnClickListener(v -> drawingView.undo());
+        btnRedo.setOnClickListener(v -> drawingView.redo());
         
         btnClear.setOnClickListener(v -> {
             new AlertDialog.Builder(this)
@@ -107,19 +229,12 @@ public class DrawingActivity extends AppCompatActivity {
         
         btnStrokeWidth.setOnClickListener(v -> showStrokeWidthPicker());
         
+        btnTool.setOnClickListener(v -> showToolPicker());
+        
         // カラーボタンの色を設定
         updateColorButton();
     }
     
-    private void loadDrawing() {
-        if (currentNote != null && currentNote.getImagePath() != null) {
-            Bitmap bitmap = storage.loadImage(currentNote.getImagePath());
-            if (bitmap != null) {
-                drawingView.setBitmap(bitmap);
-            }
-        }
-    }
-    
     private void showColorPicker() {
         String[] colorNames = {"黒", "赤", "青", "緑", "オレンジ", "紫", "ピンク", "茶色"};
         
@@ -146,34 +261,80 @@ public class DrawingActivity extends AppCompatActivity {
                 .show();
     }
     
+    private void showToolPicker() {
+        String[] toolNames = {"ペン", "消しゴム", "投げ縄"};
+        DrawingView.Tool[] tools = {DrawingView.Tool.PEN, DrawingView.Tool.ERASER, DrawingView.Tool.LASSO};
+        
+        new AlertDialog.Builder(this)
+                .setTitle("ツールを選択")
+                .setSingleChoiceItems(toolNames, drawingView.getTool().ordinal(), (dialog, which) -> {
+                    drawingView.setTool(tools[which]);
+                    dialog.dismiss();
+                })
+                .show();
+    }
+    
     private void updateColorButton() {
         btnColor.setColorFilter(colors[currentColorIndex]);
     }
     
     private void saveDrawing() {
-        if (currentNote == null) {
+        // 読み込みが終わるまでは保存しない（空の描画で上書きしない）
+        if (currentNote == null || journal == null) {
+            return;
+        }
+        
+        // 前回の保存から変更がなければ書き込まない（戻る操作とonPauseの二重保存を防ぐ）
+        int version = drawingView.getContentVersion();
+        if (version == savedVersion) {
             return;
         }
+        savedVersion = version;
         
-        // ビットマップを取得
-        Bitmap bitmap = drawingView.getBitmap();
-        if (bitmap != null) {
-            // 画像を保存
-            String imagePath = storage.saveImage(bitmap, currentNote.getId());
-            if (imagePath != null) {
-                currentNote.setImagePath(imagePath);
+        currentNote.setImagePath(storage.getImagePath(currentNote.getId()));
+        
+        // 描画内容のスナップショットを取り、書き込みはバックグラウンドで行う
+        DrawingSnapshot snapshot = new DrawingSnapshot(
+                currentNote,
+                drawingView.getStrokes(),
+                drawingView.getBackgroundBitmap(),
+                drawingView.getWidth(),
+                drawingView.getHeight());
                 
-                // ノートを保存
-                if (storage.saveNote(currentNote)) {
-                    Toast.makeText(this, "保存しました", Toast.LENGTH_SHORT).show();
-                } else {
-                    Toast.makeText(this, "保存に失敗しました", Toast.LENGTH_SHORT).show();
-                }
+        CompletableFuture<Boolean> future = storage.saveDrawingAsync(snapshot);
+        
+        // 保存が終わればスナップショットまでのジャーナルは不要
+        StrokeJournal savedJournal = journal;
+        int journalSequence = journal.getSequence();
+        future.thenAccept(success -> {
+            if (success) {
+                savedJournal.checkpoint(journalSequence);
             }
+        });
+        
+        if (future == pendingSave) {
+            // 未開始の保存にまとめられた
+            return;
         }
+        pendingSave = future;
+        
+        Context appContext = getApplicationContext();
+        future.thenAccept(success -> runOnUiThread(() -> {
+            if (success) {
+                Toast.makeText(appContext, "保存しました", Toast.LENGTH_SHORT).show();
+            } else {
+                savedVersion = -1;
+                Toast.makeText(appContext, "保存に失敗しました", Toast.LENGTH_SHORT).show();
+            }
+        }));
     }
     
     private void showRenamedialog() {
+        // 読み込みが終わるまでは変更できない
+        if (currentNote == null) {
+            return;
+        }
+        
         EditText editText = new EditText(this);
         editText.setText(currentNote.getTitle());
         editText.setSelectAllOnFocus(true);
@@ -186,7 +347,7 @@ public class DrawingActivity extends AppCompatActivity {
                     if (!newTitle.isEmpty()) {
                         currentNote.setTitle(newTitle);
                         setTitle(newTitle);
-                        storage.saveNote(currentNote);
+                        storage.saveNoteAsync(currentNote);
                     }
                 })
                 .setNegativeButton("キャンセル", null)
@@ -196,6 +357,12 @@ public class DrawingActivity extends AppCompatActivity {
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         getMenuInflater().inflate(R.menu.menu_drawing, menu);
+        menu.findItem(R.id.action_low_latency).setChecked(drawingView.isLowLatencyEnabled());
+        boolean debuggable = (getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0;
+        menu.findItem(R.id.action_show_metrics)
+                .setVisible(debuggable)
+                .setChecked(Metrics.isEnabled());
+        menu.findItem(R.id.action_dump_metrics).setVisible(debuggable);
         return true;
     }
     
@@ -204,11 +371,25 @@ public class DrawingActivity extends AppCompatActivity {
         int id = item.getItemId();
         
         if (id == R.id.action_save) {
+            savedVersion = -1;
             saveDrawing();
             return true;
         } else if (id == R.id.action_rename) {
             showRenamedialog();
             return true;
+        } else if (id == R.id.action_low_latency) {
+            boolean enabled = !item.isChecked();
+            item.setChecked(enabled);
+            drawingView.setLowLatencyEnabled(enabled);
+            return true;
+        } else if (id == R.id.action_show_metrics) {
+            boolean show = !item.isChecked();
+            item.setChecked(show);
+            setMetricsVisible(show);
+            return true;
+        } else if (id == R.id.action_dump_metrics) {
+            dumpMetrics();
+            return true;
         } else if (id == android.R.id.home) {
             onBackPressed();
             return true;
@@ -217,9 +398,40 @@ public class DrawingActivity extends AppCompatActivity {
         return super.onOptionsItemSelected(item);
     }
     
+    /**
+     * 計測の表示を切り替え（表示中だけ計測を有効にする）
+     */
+    private void setMetricsVisible(boolean visible) {
+        Metrics.setEnabled(visible);
+        tvMetrics.removeCallbacks(refreshMetrics);
+        if (visible) {
+            tvMetrics.setVisibility(View.VISIBLE);
+            refreshMetrics.run();
+        } else {
+            tvMetrics.setVisibility(View.GONE);
+        }
+    }
+    
+    /**
+     * 計測結果をファイルに書き出す（計測が無効なら直前に有効だった間の集計）
+     */
+    private void dumpMetrics() {
+        File external = getExternalFilesDir("metrics");
+        File dir = external != null ? external : new File(getFilesDir(), "metrics");
+        Context appContext = getApplicationContext();
+        new Thread(() -> {
+            try {
+                File file = Metrics.dump(dir);
+                runOnUiThread(() -> Toast.makeText(appContext, file.getName(), Toast.LENGTH_SHORT).show());
+            } catch (IOException e) {
+                android.util.Log.e(TAG, "Error writing metrics", e);
+            }
+        }, "MetricsWriter").start();
+    }
+    
     @Override
     public void onBackPressed() {
-        // 自動保存
+        // 自動保存（完了を待たずに画面を閉じる）
         saveDrawing();
         
         setResult(RESULT_OK);
@@ -236,9 +448,15 @@ public class DrawingActivity extends AppCompatActivity {
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        if (tvMetrics != null) {
+            tvMetrics.removeCallbacks(refreshMetrics);
+        }
         if (drawingView != null) {
             drawingView.cleanup();
         }
+        if (journal != null) {
+            journal.close();
+        }
     }
 }
 
@@ -1,22 +1,43 @@
 package com.tqmane.notesapp;
 
 import android.app.AlertDialog;
+import android.content.Context;
 import android.content.Intent;
+import android.net.Uri;
 import android.os.Bundle;
+import android.os.Process;
+import android.os.SystemClock;
 import android.view.Menu;
 import android.view.MenuItem;
+import android.view.View;
+import android.view.ViewTreeObserver;
 import android.widget.Toast;
 
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.widget.SearchView;
 import androidx.recyclerview.widget.GridLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
 import com.tqmane.notesapp.adapters.NotesAdapter;
 import com.tqmane.notesapp.models.Note;
+import com.tqmane.notesapp.storage.NoteChange;
+import com.tqmane.notesapp.storage.NoteQuery;
 import com.tqmane.notesapp.storage.NoteStorage;
+import com.tqmane.notesapp.storage.PagedNoteList;
+import com.tqmane.notesapp.thumbnails.ThumbnailLoader;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * メインアクティビティ - ノート一覧を表示
@@ -25,25 +46,51 @@ public class MainActivity extends AppCompatActivity {
     
     private static final String TAG = "MainActivity";
     private static final int REQUEST_DRAWING = 1001;
+    private static final int REQUEST_EXPORT = 1002;
+    private static final int REQUEST_IMPORT = 1003;
     
     private RecyclerView recyclerView;
     private NotesAdapter adapter;
     private NoteStorage storage;
     private FloatingActionButton fab;
+    private NoteChange.Listener changeListener;
+    // 検索中の条件（一覧をすべて表示しているときはnull）
+    private NoteQuery searchQuery;
+    // 検索や一覧の読み直しを要求するたびに増やし、追い越された古い結果を捨てる
+    private int searchGeneration;
     
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        android.os.Trace.beginSection("MainActivity.onCreate");
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
         
-        // ストレージを初期化
-        storage = new NoteStorage(this);
+        // ストレージを初期化（カタログは保存スレッドで開く）
+        storage = NoteStorage.getInstance(this);
         
         // ビューを初期化
         setupViews();
+        traceFirstFrame();
+        
+        // 保存・削除を一覧に反映（変更のあったセルだけ更新、検索中は検索し直す）
+        changeListener = change -> {
+            if (searchQuery != null) {
+                runSearch();
+            } else {
+                adapter.applyChange(change);
+            }
+        };
+        storage.addChangeListener(changeListener);
         
         // ノート一覧を読み込み
         loadNotes();
+        android.os.Trace.endSection();
+    }
+    
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        storage.removeChangeListener(changeListener);
     }
     
     private void setupViews() {
@@ -71,29 +118,76 @@ public class MainActivity extends AppCompatActivity {
     }
     
     private void loadNotes() {
-        List<Note> notes = storage.getAllNotes();
-        adapter.setNotes(notes);
-        
-        if (notes.isEmpty()) {
-            Toast.makeText(this, "右下の+ボタンで新しいノートを作成", Toast.LENGTH_LONG).show();
+        // 前回の一覧の先頭をスナップショットからすぐに表示する
+        List<Note> snapshot = storage.loadListSnapshot();
+        if (!snapshot.isEmpty()) {
+            List<String> snapshotIds = new ArrayList<>(snapshot.size());
+            for (Note note : snapshot) {
+                snapshotIds.add(note.getId());
+            }
+            adapter.setNotes(snapshotIds, snapshot);
         }
+        
+        // カタログを開いたら、すべてのノートの並びと最新の先頭ページで置き換える
+        // （ノート本体は表示する分だけ一覧が読み込む）
+        storage.loadListAsync(PagedNoteList.PAGE_SIZE, (noteIds, firstPage) -> {
+            if (isDestroyed()) {
+                return;
+            }
+            if (searchQuery == null) {
+                adapter.setNotes(noteIds, firstPage);
+            }
+            reportFullyDrawn();
+            
+            if (noteIds.isEmpty()) {
+                Toast.makeText(this, "右下の+ボタンで新しいノートを作成", Toast.LENGTH_LONG).show();
+            }
+        });
+    }
+    
+    /**
+     * プロセスの起動から最初のフレームまでの時間をログに出す（起動時間の確認用）
+     */
+    private void traceFirstFrame() {
+        View decorView = getWindow().getDecorView();
+        decorView.getViewTreeObserver().addOnDrawListener(new ViewTreeObserver.OnDrawListener() {
+            private boolean drawn;
+            
+            @Override
+            public void onDraw() {
+                if (drawn) {
+                    return;
+                }
+                drawn = true;
+                long elapsed = SystemClock.uptimeMillis() - Process.getStartUptimeMillis();
+                android.util.Log.i(TAG, "First frame " + elapsed + "ms after process start ("
+                        + adapter.getItemCount() + " notes)");
+                // 描画中はリスナーを外せないので次のループで外す
+                decorView.post(() -> decorView.getViewTreeObserver().removeOnDrawListener(this));
+            }
+        });
     }
     
     private void createNewNote() {
         Note note = new Note();
         note.setTitle("新規ノート " + (adapter.getItemCount() + 1));
         
-        // ノートを保存
-        if (storage.saveNote(note)) {
-            openNote(note);
-        } else {
-            Toast.makeText(this, "ノートの作成に失敗しました", Toast.LENGTH_SHORT).show();
-        }
+        // ノートの保存はバックグラウンドで行い、すぐに描画画面を開く
+        // （描画画面の読み込みは同じ保存スレッドで保存の後に行われる）
+        Context appContext = getApplicationContext();
+        storage.saveNoteAsync(note).thenAccept(success -> {
+            if (!success) {
+                runOnUiThread(() -> Toast.makeText(appContext, "ノートの作成に失敗しました", Toast.LENGTH_SHORT).show());
+            }
+        });
+        openNote(note);
     }
     
     private void openNote(Note note) {
         Intent intent = new Intent(this, DrawingActivity.class);
-        intent.putExtra("note_id", note.getId());
+        // ノート本体は描画画面が保存スレッドで読み直す（タイトルは読み込みまでの仮の表示用）
+        intent.putExtra(DrawingActivity.EXTRA_NOTE_ID, note.getId());
+        intent.putExtra(DrawingActivity.EXTRA_NOTE_TITLE, note.getTitle());
         startActivityForResult(intent, REQUEST_DRAWING);
     }
     
@@ -102,30 +196,25 @@ public class MainActivity extends AppCompatActivity {
                 .setTitle("ノートを削除")
                 .setMessage("「" + note.getTitle() + "」を削除しますか？")
                 .setPositiveButton("削除", (dialog, which) -> {
-                    if (storage.deleteNote(note)) {
-                        adapter.removeNote(note);
-                        Toast.makeText(this, "削除しました", Toast.LENGTH_SHORT).show();
-                    } else {
-                        Toast.makeText(this, "削除に失敗しました", Toast.LENGTH_SHORT).show();
-                    }
+                    // 削除はバックグラウンドで行い、一覧は変更の通知で更新される
+                    Context appContext = getApplicationContext();
+                    storage.deleteNoteAsync(note).thenAccept(success -> runOnUiThread(() -> {
+                        if (success) {
+                            ThumbnailLoader.getInstance(appContext).remove(note.getId());
+                            Toast.makeText(appContext, "削除しました", Toast.LENGTH_SHORT).show();
+                        } else {
+                            Toast.makeText(appContext, "削除に失敗しました", Toast.LENGTH_SHORT).show();
+                        }
+                    }));
                 })
                 .setNegativeButton("キャンセル", null)
                 .show();
     }
     
-    @Override
-    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
-        super.onActivityResult(requestCode, resultCode, data);
-        
-        if (requestCode == REQUEST_DRAWING && resultCode == RESULT_OK) {
-            // ノート一覧を更新
-            loadNotes();
-        }
-    }
-    
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         getMenuInflater().inflate(R.menu.menu_main, menu);
+        setupSearch(menu.findItem(R.id.action_search));
         return true;
     }
     
@@ -136,11 +225,152 @@ public class MainActivity extends AppCompatActivity {
         if (id == R.id.action_about) {
             showAboutDialog();
             return true;
+        } else if (id == R.id.action_export) {
+            Intent intent = new Intent(Intent.ACTION_CREATE_DOCUMENT);
+            intent.addCategory(Intent.CATEGORY_OPENABLE);
+            intent.setType("application/json");
+            intent.putExtra(Intent.EXTRA_TITLE, "notes.json");
+            startActivityForResult(intent, REQUEST_EXPORT);
+            return true;
+        } else if (id == R.id.action_import) {
+            Intent intent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+            intent.addCategory(Intent.CATEGORY_OPENABLE);
+            intent.setType("*/*");
+            startActivityForResult(intent, REQUEST_IMPORT);
+            return true;
         }
         
         return super.onOptionsItemSelected(item);
     }
     
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (resultCode != RESULT_OK || data == null || data.getData() == null) {
+            return;
+        }
+        if (requestCode == REQUEST_EXPORT) {
+            exportNotes(data.getData());
+        } else if (requestCode == REQUEST_IMPORT) {
+            importNotes(data.getData());
+        }
+    }
+    
+    /**
+     * ノートの一覧をJSONで書き出す（カタログ全体を読むのでバックグラウンドで）
+     */
+    private void exportNotes(Uri uri) {
+        new Thread(() -> {
+            String message;
+            try (OutputStream stream = getContentResolver().openOutputStream(uri)) {
+                if (stream == null) {
+                    throw new IOException("Cannot open " + uri);
+                }
+                Writer writer = new OutputStreamWriter(stream, StandardCharsets.UTF_8);
+                int count = storage.exportJson(writer);
+                message = count + "件のノートを書き出しました";
+                
+            } catch (IOException e) {
+                android.util.Log.e(TAG, "Error exporting notes", e);
+                message = "書き出しに失敗しました";
+            }
+            String result = message;
+            runOnUiThread(() -> Toast.makeText(this, result, Toast.LENGTH_SHORT).show());
+        }, "NotesExport").start();
+    }
+    
+    /**
+     * JSONのノートを取り込む（ファイルの読み込みはバックグラウンドで、保存は保存スレッドで行い、
+     * 一覧には変更の通知で反映される）
+     */
+    private void importNotes(Uri uri) {
+        new Thread(() -> {
+            CompletableFuture<Integer> imported;
+            try (InputStream stream = getContentResolver().openInputStream(uri)) {
+                if (stream == null) {
+                    throw new IOException("Cannot open " + uri);
+                }
+                Reader reader = new InputStreamReader(stream, StandardCharsets.UTF_8);
+                imported = storage.importJsonAsync(reader);
+                
+            } catch (IOException e) {
+                android.util.Log.e(TAG, "Error importing notes", e);
+                runOnUiThread(() -> Toast.makeText(this, "取り込みに失敗しました", Toast.LENGTH_SHORT).show());
+                return;
+            }
+            imported.whenComplete((count, error) -> {
+                if (error != null) {
+                    android.util.Log.e(TAG, "Error importing notes", error);
+                }
+                String message = error == null ? count + "件のノートを取り込みました" : "取り込みに失敗しました";
+                runOnUiThread(() -> Toast.makeText(this, message, Toast.LENGTH_SHORT).show());
+            });
+        }, "NotesImport").start();
+    }
+    
+    /**
+     * 検索欄（入力のたびに絞り込み、閉じたら一覧に戻す）
+     */
+    private void setupSearch(MenuItem searchItem) {
+        SearchView searchView = (SearchView) searchItem.getActionView();
+        searchView.setQueryHint(getString(R.string.search_hint));
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                searchView.clearFocus();
+                return true;
+            }
+            
+            @Override
+            public boolean onQueryTextChange(String text) {
+                search(text);
+                return true;
+            }
+        });
+        searchItem.setOnActionExpandListener(new MenuItem.OnActionExpandListener() {
+            @Override
+            public boolean onMenuItemActionExpand(MenuItem item) {
+                return true;
+            }
+            
+            @Override
+            public boolean onMenuItemActionCollapse(MenuItem item) {
+                search("");
+                return true;
+            }
+        });
+    }
+    
+    private void search(String text) {
+        NoteQuery query = NoteQuery.parse(text);
+        if (query.isEmpty()) {
+            if (searchQuery != null) {
+                searchQuery = null;
+                int generation = ++searchGeneration;
+                storage.loadListAsync(PagedNoteList.PAGE_SIZE, (noteIds, firstPage) -> {
+                    if (!isDestroyed() && generation == searchGeneration) {
+                        adapter.setNotes(noteIds, firstPage);
+                    }
+                });
+            }
+            return;
+        }
+        searchQuery = query;
+        runSearch();
+    }
+    
+    /**
+     * 今の条件で検索し直す（結果は保存スレッドとは別のスレッドで求め、入力中の画面を止めない）
+     */
+    private void runSearch() {
+        int generation = ++searchGeneration;
+        storage.searchNoteIdsAsync(searchQuery, noteIds -> {
+            if (!isDestroyed() && generation == searchGeneration) {
+                adapter.setNoteIds(noteIds);
+            }
+        });
+    }
+    
     private void showAboutDialog() {
         new AlertDialog.Builder(this)
                 .setTitle("NotesAppについて")
@@ -1,6 +1,5 @@
 package com.tqmane.notesapp.adapters;
 
-import android.graphics.Bitmap;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -11,18 +10,29 @@ import androidx.annotation.NonNull;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.tqmane.notesapp.R;
+import com.tqmane.notesapp.metrics.Histogram;
+import com.tqmane.notesapp.metrics.Metrics;
 import com.tqmane.notesapp.models.Note;
+import com.tqmane.notesapp.storage.NoteChange;
 import com.tqmane.notesapp.storage.NoteStorage;
+import com.tqmane.notesapp.storage.PagedNoteList;
+import com.tqmane.notesapp.thumbnails.ThumbnailLoader;
 
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
  * ノート一覧表示用アダプター
+ *
+ * 一覧の並び（ノートID）だけを持ち、ノート本体はPagedNoteListで表示位置の周りだけ読み込む。
+ * 読み込み前のセルは空の状態で表示し、読み込みが終わったら再バインドする。
+ * 保存・削除の通知は変更されたセルだけに反映する。
  */
 public class NotesAdapter extends RecyclerView.Adapter<NotesAdapter.NoteViewHolder> {
     
-    private List<Note> notes;
+    private static final Histogram BIND = Metrics.histogram("list.bind", "us");
+    
+    private final PagedNoteList notes;
     private NoteStorage storage;
     private OnNoteClickListener listener;
     
@@ -32,26 +42,60 @@ public class NotesAdapter extends RecyclerView.Adapter<NotesAdapter.NoteViewHold
     }
     
     public NotesAdapter(NoteStorage storage, OnNoteClickListener listener) {
-        this.notes = new ArrayList<>();
+        this.notes = new PagedNoteList(storage, this::notifyItemRangeChanged);
         this.storage = storage;
         this.listener = listener;
     }
     
-    public void setNotes(List<Note> notes) {
-        this.notes = notes;
-        notifyDataSetChanged();
+    /**
+     * 一覧の並びを入れ替える（ノート本体は表示するときに読み込む）
+     */
+    public void setNoteIds(List<String> noteIds) {
+        setNotes(noteIds, Collections.emptyList());
     }
     
-    public void addNote(Note note) {
-        notes.add(0, note);
-        notifyItemInserted(0);
+    /**
+     * 一覧の並びと読み込み済みのノートを入れ替える（読み込み済みのノートはすぐに表示する）
+     */
+    public void setNotes(List<String> noteIds, List<Note> loaded) {
+        notes.setIds(noteIds, loaded);
+        notifyDataSetChanged();
     }
     
-    public void removeNote(Note note) {
-        int position = notes.indexOf(note);
-        if (position >= 0) {
-            notes.remove(position);
-            notifyItemRemoved(position);
+    /**
+     * ストレージの変更通知を一覧に反映
+     * 同じ変更を2回適用しても結果は変わらない
+     */
+    public void applyChange(NoteChange change) {
+        int position;
+        switch (change.getType()) {
+            case INSERTED:
+            case MOVED:
+                position = notes.moveToFront(change.getNote());
+                if (position < 0) {
+                    notifyItemInserted(0);
+                } else {
+                    if (position > 0) {
+                        notifyItemMoved(position, 0);
+                    }
+                    notifyItemChanged(0);
+                }
+                break;
+            case UPDATED:
+                position = notes.update(change.getNote());
+                if (position >= 0) {
+                    notifyItemChanged(position);
+                } else {
+                    notes.moveToFront(change.getNote());
+                    notifyItemInserted(0);
+                }
+                break;
+            case DELETED:
+                position = notes.remove(change.getNoteId());
+                if (position >= 0) {
+                    notifyItemRemoved(position);
+                }
+                break;
         }
     }
     
@@ -65,8 +109,17 @@ public class NotesAdapter extends RecyclerView.Adapter<NotesAdapter.NoteViewHold
     
     @Override
     public void onBindViewHolder(@NonNull NoteViewHolder holder, int position) {
+        long traceStart = BIND.start();
         Note note = notes.get(position);
         holder.bind(note);
+        BIND.stop(traceStart);
+    }
+    
+    @Override
+    public void onViewRecycled(@NonNull NoteViewHolder holder) {
+        super.onViewRecycled(holder);
+        // 再利用されるビューへの古い読み込みを止める
+        holder.cancelThumbnail();
     }
     
     @Override
@@ -87,37 +140,46 @@ public class NotesAdapter extends RecyclerView.Adapter<NotesAdapter.NoteViewHold
             thumbnailImage = itemView.findViewById(R.id.note_thumbnail);
             
             itemView.setOnClickListener(v -> {
-                int position = getAdapterPosition();
-                if (position != RecyclerView.NO_POSITION && listener != null) {
-                    listener.onNoteClick(notes.get(position));
+                Note note = noteAt(getAdapterPosition());
+                if (note != null && listener != null) {
+                    listener.onNoteClick(note);
                 }
             });
             
             itemView.setOnLongClickListener(v -> {
-                int position = getAdapterPosition();
-                if (position != RecyclerView.NO_POSITION && listener != null) {
-                    listener.onNoteLongClick(notes.get(position));
+                Note note = noteAt(getAdapterPosition());
+                if (note != null && listener != null) {
+                    listener.onNoteLongClick(note);
                     return true;
                 }
                 return false;
             });
         }
         
+        /**
+         * ノートを表示（nullなら読み込み中の空のセル）
+         */
         public void bind(Note note) {
+            if (note == null) {
+                titleText.setText("");
+                dateText.setText("");
+                cancelThumbnail();
+                thumbnailImage.setImageResource(R.drawable.ic_note);
+                return;
+            }
             titleText.setText(note.getTitle());
             dateText.setText(note.getFormattedDate());
             
-            // サムネイル画像を読み込み
-            if (note.getImagePath() != null) {
-                Bitmap bitmap = storage.loadImage(note.getImagePath());
-                if (bitmap != null) {
-                    thumbnailImage.setImageBitmap(bitmap);
-                } else {
-                    thumbnailImage.setImageResource(R.drawable.ic_note);
-                }
-            } else {
-                thumbnailImage.setImageResource(R.drawable.ic_note);
-            }
+            // サムネイル画像をバックグラウンドで読み込み
+            ThumbnailLoader.getInstance(itemView.getContext()).load(note, thumbnailImage);
+        }
+        
+        private Note noteAt(int position) {
+            return position != RecyclerView.NO_POSITION ? notes.peek(position) : null;
+        }
+        
+        void cancelThumbnail() {
+            ThumbnailLoader.getInstance(itemView.getContext()).cancel(thumbnailImage);
         }
     }
 }
@@ -0,0 +1,36 @@
+package com.tqmane.notesapp.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 回数や量の累計（無効な間は何もしない）
+ */
+public final class Counter {
+    
+    final String name;
+    private final AtomicLong value = new AtomicLong();
+    
+    Counter(String name) {
+        this.name = name;
+    }
+    
+    public void increment() {
+        if (Metrics.enabled) {
+            value.incrementAndGet();
+        }
+    }
+    
+    public void add(long amount) {
+        if (Metrics.enabled) {
+            value.addAndGet(amount);
+        }
+    }
+    
+    public long get() {
+        return value.get();
+    }
+    
+    void reset() {
+        value.set(0);
+    }
+}
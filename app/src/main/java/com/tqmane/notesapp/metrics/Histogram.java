@@ -0,0 +1,140 @@
+package com.tqmane.notesapp.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 値の分布（無効な間は何もしない）
+ *
+ * 値を2のべき乗ごとの区間をさらに8分割したバケットで数える（誤差は1割強）。
+ * 記録はバケットの加算だけで、どのスレッドからでもメモリを確保せずに呼べる。
+ * 時間を測る場合はstart()/stop()で囲むと、同じ名前のトレース区間（systrace/Perfetto）にもなる。
+ */
+public final class Histogram {
+    
+    // 2のべき乗の区間ごとのバケット数（2^SUB_BITS）
+    private static final int SUB_BITS = 3;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int BUCKET_COUNT = (64 - SUB_BITS + 1) * SUB_COUNT;
+    
+    final String name;
+    final String unit;
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+    
+    Histogram(String name, String unit) {
+        this.name = name;
+        this.unit = unit;
+    }
+    
+    public void record(long value) {
+        if (!Metrics.enabled) {
+            return;
+        }
+        value = Math.max(0, value);
+        buckets.incrementAndGet(bucketOf(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            // 他のスレッドが更新したので読み直す
+        }
+    }
+    
+    /**
+     * 時間の計測を開始（無効なら0を返し、stopでも何もしない）
+     */
+    public long start() {
+        if (!Metrics.enabled) {
+            return 0;
+        }
+        android.os.Trace.beginSection(name);
+        return System.nanoTime();
+    }
+    
+    /**
+     * 時間の計測を終了してマイクロ秒で記録
+     *
+     * @param startNanos start()の戻り値
+     */
+    public void stop(long startNanos) {
+        if (startNanos == 0) {
+            return;
+        }
+        android.os.Trace.endSection();
+        record((System.nanoTime() - startNanos) / 1000);
+    }
+    
+    public long getCount() {
+        return count.get();
+    }
+    
+    public double getMean() {
+        long n = count.get();
+        return n == 0 ? 0 : (double) sum.get() / n;
+    }
+    
+    public long getMax() {
+        return max.get();
+    }
+    
+    /**
+     * パーセンタイル（バケットの中央の値、記録がなければ0）
+     *
+     * @param percentile 0〜100
+     */
+    public long getPercentile(double percentile) {
+        long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(n * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                long lower = lowerBound(i);
+                return Math.min(max.get(), lower + (lowerBound(i + 1) - 1 - lower) / 2);
+            }
+        }
+        return max.get();
+    }
+    
+    void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+    
+    /**
+     * 値のバケット番号（SUB_COUNT未満はそのまま、それ以上は指数と上位ビットで決める）
+     */
+    private static int bucketOf(long value) {
+        if (value < SUB_COUNT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+        return (exponent - SUB_BITS + 1) * SUB_COUNT + sub;
+    }
+    
+    /**
+     * バケットに入る最小の値
+     */
+    private static long lowerBound(int bucket) {
+        if (bucket < SUB_COUNT) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_COUNT + SUB_BITS - 1;
+        if (exponent >= 63) {
+            return Long.MAX_VALUE;
+        }
+        long sub = bucket % SUB_COUNT;
+        return (1L << exponent) | (sub << (exponent - SUB_BITS));
+    }
+}
@@ -0,0 +1,178 @@
+package com.tqmane.notesapp.metrics;
+
+import android.os.SystemClock;
+
+import com.google.gson.GsonBuilder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 実行中の計測（カウンター・分布・トレース区間）
+ *
+ * 計測箇所ではクラスの初期化時にcounter()/histogram()で取得したものを保持しておき、
+ * 記録のたびに有効かどうかのフラグだけを見る。無効な間はフラグの読み出し1回で戻る。
+ * 集計は有効にした時点（またはreset）からの累計で、画面の表示やファイルへの書き出しに使う。
+ */
+public final class Metrics {
+    
+    // 名前 → 計測（登録順を保持）
+    private static final Map<String, Counter> counters = new LinkedHashMap<>();
+    private static final Map<String, Histogram> histograms = new LinkedHashMap<>();
+    
+    static volatile boolean enabled;
+    private static long startedAt = SystemClock.elapsedRealtime();
+    
+    private Metrics() {
+    }
+    
+    public static synchronized Counter counter(String name) {
+        Counter counter = counters.get(name);
+        if (counter == null) {
+            counter = new Counter(name);
+            counters.put(name, counter);
+        }
+        return counter;
+    }
+    
+    /**
+     * @param unit 値の単位（表示用。時間はstart()/stop()で測るならus）
+     */
+    public static synchronized Histogram histogram(String name, String unit) {
+        Histogram histogram = histograms.get(name);
+        if (histogram == null) {
+            histogram = new Histogram(name, unit);
+            histograms.put(name, histogram);
+        }
+        return histogram;
+    }
+    
+    public static boolean isEnabled() {
+        return enabled;
+    }
+    
+    /**
+     * 計測の有効・無効を切り替え（有効にするときは集計をやり直す）
+     */
+    public static void setEnabled(boolean enable) {
+        if (enable && !enabled) {
+            reset();
+        }
+        enabled = enable;
+    }
+    
+    public static synchronized void reset() {
+        for (Counter counter : counters.values()) {
+            counter.reset();
+        }
+        for (Histogram histogram : histograms.values()) {
+            histogram.reset();
+        }
+        startedAt = SystemClock.elapsedRealtime();
+    }
+    
+    /**
+     * 表示用の要約（カウンターは累計と毎秒、分布は平均・p50・p99・最大）
+     */
+    public static synchronized String toSummary() {
+        double seconds = getElapsedSeconds();
+        StringBuilder builder = new StringBuilder();
+        for (Counter counter : counters.values()) {
+            long value = counter.get();
+            builder.append(String.format(Locale.US, "%s %d (%.1f/s)%n",
+                    counter.name, value, seconds > 0 ? value / seconds : 0));
+        }
+        for (Histogram histogram : histograms.values()) {
+            if (histogram.getCount() == 0) {
+                continue;
+            }
+            builder.append(String.format(Locale.US, "%s mean %.0f p50 %d p99 %d max %d %s (n=%d)%n",
+                    histogram.name, histogram.getMean(), histogram.getPercentile(50),
+                    histogram.getPercentile(99), histogram.getMax(), histogram.unit, histogram.getCount()));
+        }
+        return builder.toString();
+    }
+    
+    /**
+     * 集計をJSONでディレクトリに書き出す（ファイル名は書き出した日時）
+     */
+    public static File dump(File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        Dump dump = snapshot();
+        String name = new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date(dump.timestamp));
+        File file = new File(dir, "metrics-" + name + ".json");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            new GsonBuilder().setPrettyPrinting().create().toJson(dump, writer);
+        }
+        return file;
+    }
+    
+    private static synchronized Dump snapshot() {
+        Dump dump = new Dump();
+        dump.elapsedSeconds = getElapsedSeconds();
+        for (Counter counter : counters.values()) {
+            Dump.CounterValue value = new Dump.CounterValue();
+            value.name = counter.name;
+            value.count = counter.get();
+            value.perSecond = dump.elapsedSeconds > 0 ? value.count / dump.elapsedSeconds : 0;
+            dump.counters.add(value);
+        }
+        for (Histogram histogram : histograms.values()) {
+            Dump.HistogramValue value = new Dump.HistogramValue();
+            value.name = histogram.name;
+            value.unit = histogram.unit;
+            value.count = histogram.getCount();
+            value.mean = histogram.getMean();
+            value.p50 = histogram.getPercentile(50);
+            value.p90 = histogram.getPercentile(90);
+            value.p99 = histogram.getPercentile(99);
+            value.max = histogram.getMax();
+            dump.histograms.add(value);
+        }
+        return dump;
+    }
+    
+    private static double getElapsedSeconds() {
+        return (SystemClock.elapsedRealtime() - startedAt) / 1000.0;
+    }
+    
+    /**
+     * 書き出す内容
+     */
+    private static final class Dump {
+        final long timestamp = System.currentTimeMillis();
+        double elapsedSeconds;
+        final List<CounterValue> counters = new ArrayList<>();
+        final List<HistogramValue> histograms = new ArrayList<>();
+        
+        static final class CounterValue {
+            String name;
+            long count;
+            double perSecond;
+        }
+        
+        static final class HistogramValue {
+            String name;
+            String unit;
+            long count;
+            double mean;
+            long p50;
+            long p90;
+            long p99;
+            long max;
+        }
+    }
+}
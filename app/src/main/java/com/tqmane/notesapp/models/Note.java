@@ -29,6 +29,17 @@ public class Note implements Serializable {
         this.title = title;
     }
     
+    /**
+     * 保存済みの値から作成（IDの生成を省く）
+     */
+    public Note(String id, String title, String imagePath, long createdAt, long updatedAt) {
+        this.id = id;
+        this.title = title;
+        this.imagePath = imagePath;
+        this.createdAt = createdAt;
+        this.updatedAt = updatedAt;
+    }
+    
     public String getId() {
         return id;
     }
@@ -71,6 +82,13 @@ public class Note implements Serializable {
         this.updatedAt = updatedAt;
     }
     
+    /**
+     * 同じ内容のコピーを作成（バックグラウンド保存用のスナップショット）
+     */
+    public Note copy() {
+        return new Note(id, title, imagePath, createdAt, updatedAt);
+    }
+    
     public String getFormattedDate() {
         SimpleDateFormat sdf = new SimpleDateFormat("yyyy/MM/dd HH:mm", Locale.getDefault());
         return sdf.format(new Date(updatedAt));
@@ -0,0 +1,187 @@
+package com.tqmane.notesapp.models;
+
+import com.tqmane.notesapp.stylus.StylusHandler;
+import com.tqmane.notesapp.stylus.TouchPointBuffer;
+
+/**
+ * 一つの筆跡のベクターデータ
+ * 描画ビューと保存形式の間で受け渡す
+ *
+ * 入力されたすべてのサンプル（座標・筆圧・傾き・時刻）を項目ごとのプリミティブ配列で持つ。
+ * ポイントごとのオブジェクトを作らないため、1ポイントあたり24バイトで済む。
+ * 作成後は変更されない（配列は外に公開しない）。
+ *
+ * 描画に使うのは間引き後のキーポイントだけで、元のサンプルはエクスポート用にすべて残す。
+ */
+public class StrokeData {
+    
+    // 1ポイントあたりのバイト数（float×5 + 時刻のint）
+    private static final int BYTES_PER_POINT = 5 * 4 + 4;
+    // オブジェクトと配列のヘッダー（ART/64bitでの概算）
+    private static final int OBJECT_OVERHEAD = 32 + 6 * 16;
+    
+    private final int color;
+    private final float width;
+    private final float[] xs;
+    private final float[] ys;
+    private final float[] pressures;
+    private final float[] tiltXs;
+    private final float[] tiltYs;
+    // 時刻は最初のサンプルからの経過ミリ秒で持つ
+    private final long startTime;
+    private final int[] timeOffsets;
+    // 間引き後に残すポイントの番号（昇順、nullなら未間引き）
+    private final int[] keyIndices;
+    
+    /**
+     * 配列から作成（配列はコピーせずにそのまま保持するので、呼び出し側で変更しないこと）
+     */
+    public StrokeData(int color, float width, float[] xs, float[] ys, float[] pressures,
+                      float[] tiltXs, float[] tiltYs, long startTime, int[] timeOffsets) {
+        this(color, width, xs, ys, pressures, tiltXs, tiltYs, startTime, timeOffsets, null);
+    }
+    
+    /**
+     * 配列と間引き後のキーポイントから作成
+     *
+     * @param keyIndices 残すポイントの番号（昇順、nullなら未間引き）
+     */
+    public StrokeData(int color, float width, float[] xs, float[] ys, float[] pressures,
+                      float[] tiltXs, float[] tiltYs, long startTime, int[] timeOffsets, int[] keyIndices) {
+        int count = xs.length;
+        if (ys.length != count || pressures.length != count || tiltXs.length != count
+                || tiltYs.length != count || timeOffsets.length != count) {
+            throw new IllegalArgumentException("Point arrays must have the same length");
+        }
+        if (keyIndices != null && keyIndices.length > count) {
+            throw new IllegalArgumentException("More key points than points");
+        }
+        this.color = color;
+        this.width = width;
+        this.xs = xs;
+        this.ys = ys;
+        this.pressures = pressures;
+        this.tiltXs = tiltXs;
+        this.tiltYs = tiltYs;
+        this.startTime = startTime;
+        this.timeOffsets = timeOffsets;
+        this.keyIndices = keyIndices;
+    }
+    
+    /**
+     * 入力中のバッファから作成（筆跡の確定時に1回だけ配列を確保する）
+     * バッファの時刻はイベント時刻なので、開始時刻だけを壁時計に直して保存する
+     */
+    public static StrokeData fromBuffer(int color, float width, TouchPointBuffer buffer) {
+        int count = buffer.size();
+        float[] xs = new float[count];
+        float[] ys = new float[count];
+        float[] pressures = new float[count];
+        float[] tiltXs = new float[count];
+        float[] tiltYs = new float[count];
+        int[] timeOffsets = new int[count];
+        long firstTime = count > 0 ? buffer.getTime(0) : 0;
+        long startTime = count > 0 ? StylusHandler.toWallClockTime(firstTime) : 0;
+        for (int i = 0; i < count; i++) {
+            xs[i] = buffer.getX(i);
+            ys[i] = buffer.getY(i);
+            pressures[i] = buffer.getPressure(i);
+            tiltXs[i] = buffer.getTiltX(i);
+            tiltYs[i] = buffer.getTiltY(i);
+            timeOffsets[i] = (int) (buffer.getTime(i) - firstTime);
+        }
+        return new StrokeData(color, width, xs, ys, pressures, tiltXs, tiltYs, startTime, timeOffsets);
+    }
+    
+    public int getColor() {
+        return color;
+    }
+    
+    /**
+     * 筆圧補正前の基本の太さ
+     */
+    public float getWidth() {
+        return width;
+    }
+    
+    public int getPointCount() {
+        return xs.length;
+    }
+    
+    public boolean isEmpty() {
+        return xs.length == 0;
+    }
+    
+    public float getX(int index) {
+        return xs[index];
+    }
+    
+    public float getY(int index) {
+        return ys[index];
+    }
+    
+    public float getPressure(int index) {
+        return pressures[index];
+    }
+    
+    public float getTiltX(int index) {
+        return tiltXs[index];
+    }
+    
+    public float getTiltY(int index) {
+        return tiltYs[index];
+    }
+    
+    /**
+     * サンプルの時刻（壁時計のミリ秒）
+     */
+    public long getTime(int index) {
+        return startTime + timeOffsets[index];
+    }
+    
+    /**
+     * 間引きの結果を付けた筆跡（サンプルの配列は共有する）
+     */
+    public StrokeData withKeyIndices(int[] keyIndices) {
+        return new StrokeData(color, width, xs, ys, pressures, tiltXs, tiltYs, startTime, timeOffsets, keyIndices);
+    }
+    
+    public boolean isSimplified() {
+        return keyIndices != null;
+    }
+    
+    /**
+     * 描画に使うポイントの数（未間引きなら全ポイント）
+     */
+    public int getKeyCount() {
+        return keyIndices != null ? keyIndices.length : xs.length;
+    }
+    
+    /**
+     * k番目のキーポイントのポイント番号
+     */
+    public int getKeyIndex(int k) {
+        return keyIndices != null ? keyIndices[k] : k;
+    }
+    
+    /**
+     * 平行移動した筆跡（座標以外の配列は共有する）
+     */
+    public StrokeData offset(float dx, float dy) {
+        float[] movedXs = new float[xs.length];
+        float[] movedYs = new float[ys.length];
+        for (int i = 0; i < xs.length; i++) {
+            movedXs[i] = xs[i] + dx;
+            movedYs[i] = ys[i] + dy;
+        }
+        return new StrokeData(color, width, movedXs, movedYs, pressures, tiltXs, tiltYs, startTime, timeOffsets, keyIndices);
+    }
+    
+    /**
+     * この筆跡がメモリ上で占めるおおよそのバイト数
+     */
+    public long getFootprintBytes() {
+        long keyBytes = keyIndices != null ? 16 + 4L * keyIndices.length : 0;
+        return OBJECT_OVERHEAD + (long) xs.length * BYTES_PER_POINT + keyBytes;
+    }
+}
@@ -0,0 +1,24 @@
+package com.tqmane.notesapp.recognition;
+
+import com.tqmane.notesapp.models.StrokeData;
+
+import java.util.List;
+
+/**
+ * 手書き文字の認識エンジン
+ *
+ * 続けて書いた筆跡のまとまりを受け取り、認識した文字列を返す。
+ * 認識ワーカーのスレッドから呼ばれる（端末内で完結し、ネットワークは使わないこと）。
+ */
+public interface HandwritingRecognizer {
+    
+    /**
+     * エンジンの名前（保存した認識結果と比べ、変わっていればすべて認識し直す）
+     */
+    String getName();
+    
+    /**
+     * 筆跡のまとまりを認識（認識できなければ空文字）
+     */
+    String recognize(List<StrokeData> strokes);
+}
@@ -0,0 +1,230 @@
+package com.tqmane.notesapp.recognition;
+
+import android.os.Process;
+
+import com.tqmane.notesapp.metrics.Counter;
+import com.tqmane.notesapp.metrics.Histogram;
+import com.tqmane.notesapp.metrics.Metrics;
+import com.tqmane.notesapp.models.StrokeData;
+import com.tqmane.notesapp.storage.NoteStorage;
+import com.tqmane.notesapp.storage.RecognizedInk;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 保存したノートの手書き文字を認識して検索索引に反映するワーカー
+ *
+ * ノートの保存が終わるたびに筆跡を受け取り、優先度の低い単一スレッドで認識する。
+ * 同じノートの要求がまだ開始されていなければ最新の筆跡で置き換える。
+ * 前回の認識結果のうち筆跡がすべて残っているまとまりはそのまま使い、
+ * 追加・変更された筆跡だけを認識するので、書き足すたびにノート全体を認識し直すことはない。
+ * 認識エンジンが設定されるまでは何もしない（検索索引には認識結果を入れない）。
+ * 端末の認識エンジンはまだ組み込んでいないので、保存処理からは呼んでいない
+ * （エンジンを設定するときに、保存の後でsubmitを呼ぶようにする）。
+ */
+public final class RecognitionWorker {
+    
+    private static final String TAG = "RecognitionWorker";
+    
+    // 前の筆跡からこれ以上空いたら別のまとまり（単語・行）とみなす
+    private static final long BATCH_GAP_MS = 1500;
+    // 1回の認識に渡す筆跡の上限
+    private static final int MAX_BATCH_STROKES = 64;
+    
+    private static final Histogram RECOGNIZE = Metrics.histogram("recognition.recognize", "us");
+    private static final Counter RECOGNIZED_STROKES = Metrics.counter("recognition.strokes");
+    private static final Counter REUSED_STROKES = Metrics.counter("recognition.reusedStrokes");
+    
+    private static RecognitionWorker instance;
+    
+    private final ExecutorService executor;
+    // ノートID → 開始前の認識要求
+    private final Map<String, List<StrokeData>> pending = new HashMap<>();
+    // 端末で使える認識エンジン（未設定なら認識しない）
+    private volatile HandwritingRecognizer recognizer;
+    
+    public static synchronized RecognitionWorker getInstance() {
+        if (instance == null) {
+            instance = new RecognitionWorker();
+        }
+        return instance;
+    }
+    
+    private RecognitionWorker() {
+        executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(() -> {
+                // 描画や保存を邪魔しないようにバックグラウンドの優先度で動かす
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                runnable.run();
+            }, "Recognition");
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+    
+    /**
+     * 認識エンジンを差し替え（次の認識から使い、保存済みの結果は名前が違えば認識し直す。nullなら認識をやめる）
+     */
+    public void setRecognizer(HandwritingRecognizer recognizer) {
+        this.recognizer = recognizer;
+    }
+    
+    /**
+     * ノートの筆跡の認識を要求（保存が終わった後に呼ぶ。筆跡のリストは変更しないこと）
+     */
+    public void submit(NoteStorage storage, String noteId, List<StrokeData> strokes) {
+        if (recognizer == null) {
+            return;
+        }
+        synchronized (pending) {
+            boolean queued = pending.containsKey(noteId);
+            pending.put(noteId, strokes);
+            if (queued) {
+                return;
+            }
+        }
+        executor.execute(() -> run(storage, noteId));
+    }
+    
+    private void run(NoteStorage storage, String noteId) {
+        List<StrokeData> strokes;
+        synchronized (pending) {
+            strokes = pending.remove(noteId);
+        }
+        if (strokes == null) {
+            return;
+        }
+        
+        try {
+            HandwritingRecognizer engine = recognizer;
+            if (engine == null) {
+                return;
+            }
+            RecognizedInk previous = storage.loadRecognizedInk(noteId);
+            if (previous != null && !previous.getRecognizerName().equals(engine.getName())) {
+                previous = null;
+            }
+            RecognizedInk ink = recognize(engine, previous, strokes);
+            if (ink != null) {
+                storage.saveRecognizedInk(noteId, ink);
+            }
+        } catch (Exception e) {
+            android.util.Log.e(TAG, "Error recognizing note " + noteId, e);
+        }
+    }
+    
+    /**
+     * 前回の結果を使って認識（変化がなければnull）
+     */
+    static RecognizedInk recognize(HandwritingRecognizer engine, RecognizedInk previous,
+                                   List<StrokeData> strokes) {
+        long[] keys = new long[strokes.size()];
+        Set<Long> present = new HashSet<>(keys.length * 2);
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = strokeKey(strokes.get(i));
+            present.add(keys[i]);
+        }
+        
+        // 筆跡がすべて残っているまとまりはそのまま使う
+        RecognizedInk ink = new RecognizedInk(engine.getName());
+        Set<Long> covered = new HashSet<>();
+        int droppedBatches = 0;
+        if (previous != null) {
+            for (RecognizedInk.Batch batch : previous.getBatches()) {
+                if (containsAll(present, batch)) {
+                    ink.addBatch(batch);
+                    for (int i = 0; i < batch.getStrokeCount(); i++) {
+                        covered.add(batch.getStrokeKey(i));
+                    }
+                } else {
+                    droppedBatches++;
+                }
+            }
+        }
+        REUSED_STROKES.add(covered.size());
+        
+        // 残りの筆跡を書いた順に時間の空きで区切って認識
+        boolean changed = previous == null || droppedBatches > 0;
+        List<StrokeData> batch = new ArrayList<>();
+        List<Long> batchKeys = new ArrayList<>();
+        long lastEnd = Long.MIN_VALUE;
+        for (int i = 0; i < keys.length; i++) {
+            StrokeData stroke = strokes.get(i);
+            if (covered.contains(keys[i]) || stroke.isEmpty()) {
+                continue;
+            }
+            long start = stroke.getTime(0);
+            if (!batch.isEmpty() && (start - lastEnd > BATCH_GAP_MS || batch.size() >= MAX_BATCH_STROKES)) {
+                ink.addBatch(recognizeBatch(engine, batch, batchKeys));
+                batch.clear();
+                batchKeys.clear();
+            }
+            batch.add(stroke);
+            batchKeys.add(keys[i]);
+            covered.add(keys[i]);
+            lastEnd = stroke.getTime(stroke.getPointCount() - 1);
+            changed = true;
+        }
+        if (!batch.isEmpty()) {
+            ink.addBatch(recognizeBatch(engine, batch, batchKeys));
+        }
+        return changed ? ink : null;
+    }
+    
+    private static RecognizedInk.Batch recognizeBatch(HandwritingRecognizer engine, List<StrokeData> strokes,
+                                                      List<Long> keys) {
+        long traceStart = RECOGNIZE.start();
+        String text;
+        try {
+            text = engine.recognize(strokes);
+        } finally {
+            RECOGNIZE.stop(traceStart);
+        }
+        RECOGNIZED_STROKES.add(strokes.size());
+        
+        long[] keyArray = new long[keys.size()];
+        for (int i = 0; i < keyArray.length; i++) {
+            keyArray[i] = keys.get(i);
+        }
+        return new RecognizedInk.Batch(keyArray, text != null ? text : "");
+    }
+    
+    private static boolean containsAll(Set<Long> present, RecognizedInk.Batch batch) {
+        for (int i = 0; i < batch.getStrokeCount(); i++) {
+            if (!present.contains(batch.getStrokeKey(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * 筆跡の内容から作るキー（色・太さ・全サンプルの座標と時刻のハッシュ）
+     */
+    static long strokeKey(StrokeData stroke) {
+        long hash = 0xcbf29ce484222325L;
+        hash = mix(hash, stroke.getColor());
+        hash = mix(hash, Float.floatToIntBits(stroke.getWidth()));
+        int count = stroke.getPointCount();
+        hash = mix(hash, count);
+        for (int i = 0; i < count; i++) {
+            hash = mix(hash, Float.floatToIntBits(stroke.getX(i)));
+            hash = mix(hash, Float.floatToIntBits(stroke.getY(i)));
+            hash = mix(hash, stroke.getTime(i));
+        }
+        return hash;
+    }
+    
+    private static long mix(long hash, long value) {
+        hash ^= value;
+        hash *= 0x100000001b3L;
+        return hash ^ (hash >>> 29);
+    }
+}
@@ -0,0 +1,56 @@
+package com.tqmane.notesapp.storage;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 一時ファイルに書き込んでfsyncしてから置き換える安全な書き込み
+ * 書き込み中にプロセスが終了しても、元のファイルか新しいファイルのどちらかが残る
+ */
+final class AtomicFileWriter {
+    
+    private static final String TEMP_SUFFIX = ".tmp";
+    
+    interface WriteAction {
+        void write(OutputStream out) throws IOException;
+    }
+    
+    private AtomicFileWriter() {
+    }
+    
+    static void write(File target, WriteAction action) throws IOException {
+        write(target, action, true);
+    }
+    
+    /**
+     * fsyncせずに一時ファイルから置き換える（作り直せる派生データ用）
+     * 置き換えは不可分なので読み手が書きかけを見ることはないが、電源断では中身が失われることがある
+     */
+    static void writeUnsynced(File target, WriteAction action) throws IOException {
+        write(target, action, false);
+    }
+    
+    private static void write(File target, WriteAction action, boolean sync) throws IOException {
+        File tmp = new File(target.getPath() + TEMP_SUFFIX);
+        
+        try (FileOutputStream fos = new FileOutputStream(tmp)) {
+            BufferedOutputStream out = new BufferedOutputStream(fos);
+            action.write(out);
+            out.flush();
+            if (sync) {
+                fos.getFD().sync();
+            }
+        } catch (IOException e) {
+            tmp.delete();
+            throw e;
+        }
+        
+        if (!tmp.renameTo(target)) {
+            tmp.delete();
+            throw new IOException("Failed to replace " + target);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.tqmane.notesapp.storage;
+
+import android.graphics.Bitmap;
+
+import com.tqmane.notesapp.models.Note;
+import com.tqmane.notesapp.models.StrokeData;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * バックグラウンド保存に渡す描画内容のスナップショット
+ *
+ * 筆跡は確定後に変更されないため、リストだけをコピーすれば
+ * 保存中に描画が続いても内容は変わらない。
+ */
+public class DrawingSnapshot {
+    
+    private final Note note;
+    private final List<StrokeData> strokes;
+    private final Bitmap background;
+    private final int width;
+    private final int height;
+    
+    /**
+     * @param background 旧形式のベース画像（変更されないもの）、なければnull
+     * @param width キャンバスの幅（サムネイルの縦横比に使う）
+     * @param height キャンバスの高さ
+     */
+    public DrawingSnapshot(Note note, List<StrokeData> strokes, Bitmap background, int width, int height) {
+        this.note = note.copy();
+        this.strokes = Collections.unmodifiableList(new ArrayList<>(strokes));
+        this.background = background;
+        this.width = width;
+        this.height = height;
+    }
+    
+    public Note getNote() {
+        return note;
+    }
+    
+    public List<StrokeData> getStrokes() {
+        return strokes;
+    }
+    
+    public Bitmap getBackground() {
+        return background;
+    }
+    
+    public int getWidth() {
+        return width;
+    }
+    
+    public int getHeight() {
+        return height;
+    }
+}
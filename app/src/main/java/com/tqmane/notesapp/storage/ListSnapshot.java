@@ -0,0 +1,126 @@
+package com.tqmane.notesapp.storage;
+
+import com.tqmane.notesapp.models.Note;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 一覧の先頭のノートのスナップショット（起動直後の最初の表示用）
+ *
+ * カタログを開くにはログ全体を走査する必要があるため、一覧の先頭に表示するノートの情報だけを
+ * 固定長のエントリと文字列表に分けて保存しておき、起動時はマップして読むだけで表示する。
+ * カタログの変更に追いついていない場合があるので、カタログを開いた後に読み直した一覧で置き換えること。
+ *
+ * ファイル形式: [magic:4][version:4][entryCount:4][entry...][strings]
+ *              entry = [createdAt:8][updatedAt:8][id:ref][title:ref][imagePath:ref]
+ *              ref = [offset:4][length:4]（文字列表の中のUTF-8、lengthが-1ならnull）
+ */
+final class ListSnapshot {
+    
+    static final String SNAPSHOT_FILE = "notes.snapshot";
+    
+    private static final int MAGIC = 0x4E534E50; // "NSNP"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+    private static final int ENTRY_SIZE = 8 + 8 + 3 * 8;
+    
+    private ListSnapshot() {
+    }
+    
+    /**
+     * スナップショットを読む（なければ空のリスト）
+     */
+    static List<Note> read(File file) throws IOException {
+        List<Note> notes = new ArrayList<>();
+        if (!file.exists()) {
+            return notes;
+        }
+        
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("Not a list snapshot: " + file);
+            }
+            int entryCount = buffer.getInt(8);
+            if (entryCount < 0 || entryCount > (buffer.limit() - HEADER_SIZE) / ENTRY_SIZE) {
+                throw new IOException("Corrupt list snapshot: " + file);
+            }
+            int stringsStart = HEADER_SIZE + entryCount * ENTRY_SIZE;
+            
+            for (int i = 0; i < entryCount; i++) {
+                int entry = HEADER_SIZE + i * ENTRY_SIZE;
+                notes.add(new Note(readString(buffer, stringsStart, entry + 16),
+                        readString(buffer, stringsStart, entry + 24),
+                        readString(buffer, stringsStart, entry + 32),
+                        buffer.getLong(entry),
+                        buffer.getLong(entry + 8)));
+            }
+        }
+        return notes;
+    }
+    
+    /**
+     * 一覧の先頭のノート（新しい順）を書き込む
+     */
+    static void write(File file, List<Note> notes) throws IOException {
+        ByteArrayOutputStream strings = new ByteArrayOutputStream();
+        ByteBuffer entries = ByteBuffer.allocate(notes.size() * ENTRY_SIZE);
+        for (Note note : notes) {
+            entries.putLong(note.getCreatedAt());
+            entries.putLong(note.getUpdatedAt());
+            putString(entries, strings, note.getId());
+            putString(entries, strings, note.getTitle());
+            putString(entries, strings, note.getImagePath());
+        }
+        
+        AtomicFileWriter.write(file, stream -> {
+            DataOutputStream out = new DataOutputStream(stream);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(notes.size());
+            out.write(entries.array());
+            strings.writeTo(out);
+            out.flush();
+        });
+    }
+    
+    private static void putString(ByteBuffer entries, ByteArrayOutputStream strings, String value) {
+        if (value == null) {
+            entries.putInt(0);
+            entries.putInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        entries.putInt(strings.size());
+        entries.putInt(bytes.length);
+        strings.write(bytes, 0, bytes.length);
+    }
+    
+    private static String readString(MappedByteBuffer buffer, int stringsStart, int ref) throws IOException {
+        int offset = buffer.getInt(ref);
+        int length = buffer.getInt(ref + 4);
+        if (length == -1) {
+            return null;
+        }
+        int start = stringsStart + offset;
+        if (offset < 0 || length < 0 || start + length > buffer.limit() || start + length < start) {
+            throw new IOException("Corrupt list snapshot");
+        }
+        byte[] bytes = new byte[length];
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(start);
+        slice.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
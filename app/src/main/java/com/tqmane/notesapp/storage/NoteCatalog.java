@@ -0,0 +1,760 @@
+package com.tqmane.notesapp.storage;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.tqmane.notesapp.metrics.Counter;
+import com.tqmane.notesapp.metrics.Metrics;
+import com.tqmane.notesapp.models.Note;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * 追記専用ログによるノートカタログ
+ *
+ * ノートの追加・更新はPUTレコード、削除はDELETEレコードとしてログ末尾に追記し、
+ * メモリ上のID→オフセット索引で最新レコードを引く。
+ * 索引は最後に保存した順に並び、一覧は最近保存したノートが先頭になる。
+ * 1件の保存・削除はレコード1件分の書き込みで済み、
+ * 無効レコードが一定割合を超えたら生きているレコードだけでログを書き直す。
+ *
+ * PUTのペイロードは固定長で、タイトルと画像パスはSTRINGレコード（文字列表）へのオフセットで持つ。
+ * 同じ文字列は1回だけ書き（タイトルを変えない保存では文字列を書かない）、
+ * 読み込みはログをマップしたバッファから直接行う（JSONの解析やリフレクションは使わない）。
+ * JSONは旧形式からの移行と、NoteStorageのインポート・エクスポートだけで使う。
+ *
+ * レコード形式: [op:1][idLen:2][id][payloadLen:4][payload][crc32:4]
+ *              PUT = [createdAt:8][updatedAt:8][titleRef:4][imagePathRef:4]（refはSTRINGレコードの位置、-1ならnull）
+ *              STRING = idは空、ペイロードはUTF-8の文字列
+ */
+final class NoteCatalog {
+    
+    private static final String TAG = "NoteCatalog";
+    
+    // 追記と圧縮で書き込んだバイト数
+    private static final Counter BYTES_WRITTEN = Metrics.counter("storage.catalogBytesWritten");
+    
+    static final String CATALOG_FILE = "notes.catalog";
+    static final String LEGACY_FILE = "notes.json";
+    private static final String MIGRATED_SUFFIX = ".migrated";
+    
+    private static final int MAGIC = 0x4E434154; // "NCAT"
+    private static final int VERSION = 2;
+    // ペイロードがJSONだったバージョン（開いたときにバイナリ形式へ書き直す）
+    private static final int JSON_VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    
+    private static final byte OP_PUT = 1;
+    private static final byte OP_DELETE = 2;
+    private static final byte OP_STRING = 3;
+    
+    // PUTのペイロード内の位置
+    private static final int CREATED_AT = 0;
+    private static final int UPDATED_AT = 8;
+    private static final int TITLE_REF = 16;
+    private static final int IMAGE_PATH_REF = 20;
+    private static final int PUT_PAYLOAD_SIZE = 24;
+    private static final int NO_STRING = -1;
+    
+    // 書き込み時に再利用する文字列の上限（超えたら忘れて、以降は前回の保存とだけ比べる）
+    private static final int MAX_INTERNED_STRINGS = 4096;
+    
+    // 無効レコードがこの件数以上かつ有効レコード数の半分を超えたら圧縮
+    private static final int COMPACT_MIN_DEAD_RECORDS = 64;
+    private static final float COMPACT_DEAD_RATIO = 0.5f;
+    
+    // 同じファイルを複数のインスタンスから追記すると索引が壊れるため、ディレクトリごとに共有する
+    private static final Map<String, NoteCatalog> instances = new HashMap<>();
+    
+    private final File file;
+    private final File snapshotFile;
+    private final Gson gson;
+    private RandomAccessFile log;
+    // ログ全体をマップしたバッファ（追記で伸びたらマップし直す）
+    private MappedByteBuffer mapped;
+    
+    // ID → 最新PUTレコードのオフセット（保存順を保持）
+    private final LinkedHashMap<String, Long> index = new LinkedHashMap<>();
+    // 最後に保存したノート（一覧の先頭。先頭を削除した後は、次に必要になるまで求めない）
+    private String newestId;
+    private int deadRecords;
+    private int unsyncedRecords;
+    // 追加・更新・削除のたびに増やし、一覧のスナップショットを書いた時点の値と比べる
+    private long changeCount;
+    private long snapshotChangeCount;
+    // 文字列 → STRINGレコードのオフセット（この起動中に書いたもの）
+    private final Map<String, Integer> internedStrings = new HashMap<>();
+    
+    /**
+     * PUTレコードのメタデータを受け取る（Noteを作らずに読む場合）
+     */
+    interface MetadataVisitor {
+        void visit(String noteId, String title, long createdAt, long updatedAt);
+    }
+    
+    /**
+     * ログのレコードを受け取る（走査と移行で使う）
+     */
+    private interface RecordVisitor {
+        /**
+         * @return 不明なレコードならfalse（そこで走査を止める）
+         */
+        boolean visit(byte op, String noteId, long offset, byte[] payload);
+    }
+    
+    /**
+     * ディレクトリに対応するカタログを取得（初回はログを開いて索引を構築）
+     */
+    static synchronized NoteCatalog open(File dir) throws IOException {
+        String key = dir.getAbsolutePath();
+        NoteCatalog catalog = instances.get(key);
+        if (catalog == null) {
+            catalog = new NoteCatalog(dir);
+            instances.put(key, catalog);
+        }
+        return catalog;
+    }
+    
+    /**
+     * ディレクトリのカタログを閉じる（次のopenでログを読み直す）
+     */
+    static synchronized void close(File dir) throws IOException {
+        NoteCatalog catalog = instances.remove(dir.getAbsolutePath());
+        if (catalog != null) {
+            catalog.closeLog();
+        }
+    }
+    
+    private NoteCatalog(File dir) throws IOException {
+        this.file = new File(dir, CATALOG_FILE);
+        this.snapshotFile = new File(dir, ListSnapshot.SNAPSHOT_FILE);
+        this.gson = new Gson();
+        // スナップショットがなければ最初の更新の機会に書く
+        this.snapshotChangeCount = snapshotFile.exists() ? 0 : -1;
+        
+        if (!file.exists()) {
+            File legacy = new File(dir, LEGACY_FILE);
+            if (legacy.exists()) {
+                migrateLegacy(legacy);
+            }
+        } else if (readVersion() == JSON_VERSION) {
+            migrateJsonPayloads();
+        }
+        
+        openLog();
+    }
+    
+    /**
+     * すべてのノートを新しい順に取得
+     */
+    synchronized List<Note> getAll() throws IOException {
+        List<Note> notes = new ArrayList<>(index.size());
+        if (index.isEmpty()) {
+            return notes;
+        }
+        
+        MappedByteBuffer buffer = map();
+        List<Long> offsets = new ArrayList<>(index.values());
+        for (int i = offsets.size() - 1; i >= 0; i--) {
+            notes.add(readNote(buffer, (int) (long) offsets.get(i)));
+        }
+        return notes;
+    }
+    
+    /**
+     * すべてのノートのメタデータを保存順に読む（Noteを作らず、マップしたログから直接読む）
+     */
+    synchronized void forEachMetadata(MetadataVisitor visitor) throws IOException {
+        if (index.isEmpty()) {
+            return;
+        }
+        MappedByteBuffer buffer = map();
+        for (Map.Entry<String, Long> entry : index.entrySet()) {
+            int payload = payloadOffset(buffer, (int) (long) entry.getValue());
+            visitor.visit(entry.getKey(),
+                    readString(buffer, buffer.getInt(payload + TITLE_REF)),
+                    buffer.getLong(payload + CREATED_AT),
+                    buffer.getLong(payload + UPDATED_AT));
+        }
+    }
+    
+    /**
+     * IDでノートを取得
+     */
+    synchronized Note get(String noteId) throws IOException {
+        Long offset = index.get(noteId);
+        if (offset == null) {
+            return null;
+        }
+        
+        return readNote(map(), (int) (long) offset);
+    }
+    
+    /**
+     * IDを指定した順に取得（見つからないIDは飛ばす）
+     */
+    synchronized List<Note> get(List<String> noteIds) throws IOException {
+        List<Note> notes = new ArrayList<>(noteIds.size());
+        if (noteIds.isEmpty() || index.isEmpty()) {
+            return notes;
+        }
+        
+        MappedByteBuffer buffer = map();
+        for (String noteId : noteIds) {
+            Long offset = index.get(noteId);
+            if (offset != null) {
+                notes.add(readNote(buffer, (int) (long) offset));
+            }
+        }
+        return notes;
+    }
+    
+    /**
+     * すべてのノートのID（保存順）
+     */
+    synchronized List<String> getIds() {
+        return new ArrayList<>(index.keySet());
+    }
+    
+    /**
+     * すべてのノートのIDを新しい順に取得（ノート本体は読まない）
+     */
+    synchronized List<String> getIdsNewestFirst() {
+        String[] ids = index.keySet().toArray(new String[0]);
+        List<String> newestFirst = new ArrayList<>(ids.length);
+        for (int i = ids.length - 1; i >= 0; i--) {
+            newestFirst.add(ids[i]);
+        }
+        return newestFirst;
+    }
+    
+    synchronized boolean contains(String noteId) {
+        return index.containsKey(noteId);
+    }
+    
+    synchronized int size() {
+        return index.size();
+    }
+    
+    /**
+     * ノートを追加または更新（一覧の先頭に移動する）
+     *
+     * @return 一覧に対する変更の種類
+     */
+    synchronized NoteChange.Type put(Note note) throws IOException {
+        Long previous = index.get(note.getId());
+        int titleRef = intern(note.getTitle(), previous, TITLE_REF);
+        int imagePathRef = intern(note.getImagePath(), previous, IMAGE_PATH_REF);
+        byte[] payload = encodePut(note.getCreatedAt(), note.getUpdatedAt(), titleRef, imagePathRef);
+        long offset = append(OP_PUT, note.getId(), payload);
+        
+        NoteChange.Type type;
+        if (!index.containsKey(note.getId())) {
+            type = NoteChange.Type.INSERTED;
+        } else if (note.getId().equals(newestId())) {
+            type = NoteChange.Type.UPDATED;
+        } else {
+            type = NoteChange.Type.MOVED;
+        }
+        putIndex(note.getId(), offset);
+        changeCount++;
+        maybeCompact();
+        return type;
+    }
+    
+    /**
+     * ノートを削除（削除レコードを追記）
+     */
+    synchronized boolean delete(String noteId) throws IOException {
+        if (!index.containsKey(noteId)) {
+            return false;
+        }
+        
+        append(OP_DELETE, noteId, new byte[0]);
+        removeIndex(noteId);
+        changeCount++;
+        // 旧PUTと削除レコード自身の2件が無効になる
+        deadRecords += 2;
+        maybeCompact();
+        return true;
+    }
+    
+    /**
+     * 一覧の先頭count件のスナップショットを書き直す（前回から変更がなければ何もしない）
+     */
+    synchronized void writeSnapshot(int count) throws IOException {
+        if (snapshotChangeCount == changeCount) {
+            return;
+        }
+        List<String> ids = getIdsNewestFirst();
+        ListSnapshot.write(snapshotFile, get(ids.subList(0, Math.min(count, ids.size()))));
+        snapshotChangeCount = changeCount;
+    }
+    
+    /**
+     * 無効レコードを取り除いてログを書き直す
+     * 使われなくなった文字列もここで取り除く（文字列表は生きているPUTから作り直す）
+     */
+    synchronized void compact() throws IOException {
+        MappedByteBuffer buffer = map();
+        
+        AtomicFileWriter.write(file, stream -> {
+            LogWriter writer = new LogWriter(stream);
+            for (Map.Entry<String, Long> entry : index.entrySet()) {
+                int payload = payloadOffset(buffer, (int) (long) entry.getValue());
+                writer.put(entry.getKey(),
+                        readString(buffer, buffer.getInt(payload + TITLE_REF)),
+                        readString(buffer, buffer.getInt(payload + IMAGE_PATH_REF)),
+                        buffer.getLong(payload + CREATED_AT),
+                        buffer.getLong(payload + UPDATED_AT));
+            }
+            writer.finish();
+        });
+        
+        log.close();
+        openLog();
+        BYTES_WRITTEN.add(file.length());
+        android.util.Log.i(TAG, "Compacted catalog: " + index.size() + " notes");
+    }
+    
+    /**
+     * 追記済みのレコードをディスクに確定させる
+     * 保存のたびではなく、連続した保存の最後にまとめて呼ぶ
+     */
+    synchronized void sync() throws IOException {
+        if (unsyncedRecords > 0) {
+            log.getFD().sync();
+            unsyncedRecords = 0;
+        }
+    }
+    
+    private synchronized void closeLog() throws IOException {
+        log.close();
+    }
+    
+    /**
+     * 索引の末尾（最新）に登録し、既存のエントリは無効レコードとして数える
+     */
+    private void putIndex(String noteId, long offset) {
+        if (index.remove(noteId) != null) {
+            deadRecords++;
+        }
+        index.put(noteId, offset);
+        newestId = noteId;
+    }
+    
+    private boolean removeIndex(String noteId) {
+        if (index.remove(noteId) == null) {
+            return false;
+        }
+        if (noteId.equals(newestId)) {
+            newestId = null;
+        }
+        return true;
+    }
+    
+    /**
+     * 一覧の先頭のノート（先頭を削除した後の最初の保存でだけ索引をたどり直す）
+     */
+    private String newestId() {
+        if (newestId == null) {
+            for (String id : index.keySet()) {
+                newestId = id;
+            }
+        }
+        return newestId;
+    }
+    
+    private void maybeCompact() throws IOException {
+        if (deadRecords >= COMPACT_MIN_DEAD_RECORDS
+                && deadRecords > index.size() * COMPACT_DEAD_RATIO) {
+            compact();
+        }
+    }
+    
+    private long append(byte op, String noteId, byte[] payload) throws IOException {
+        byte[] record = encodeRecord(op, noteId, payload);
+        long offset = log.length();
+        log.seek(offset);
+        log.write(record);
+        unsyncedRecords++;
+        BYTES_WRITTEN.add(record.length);
+        return offset;
+    }
+    
+    private static byte[] encodeRecord(byte op, String noteId, byte[] payload) throws IOException {
+        byte[] id = noteId.getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 + 2 + id.length + 4 + payload.length + 4);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(op);
+        out.writeShort(id.length);
+        out.write(id);
+        out.writeInt(payload.length);
+        out.write(payload);
+        
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray(), 0, bytes.size());
+        out.writeInt((int) crc.getValue());
+        return bytes.toByteArray();
+    }
+    
+    /**
+     * PUTのペイロード（固定長）
+     */
+    private static byte[] encodePut(long createdAt, long updatedAt, int titleRef, int imagePathRef) {
+        ByteBuffer payload = ByteBuffer.allocate(PUT_PAYLOAD_SIZE);
+        payload.putLong(CREATED_AT, createdAt);
+        payload.putLong(UPDATED_AT, updatedAt);
+        payload.putInt(TITLE_REF, titleRef);
+        payload.putInt(IMAGE_PATH_REF, imagePathRef);
+        return payload.array();
+    }
+    
+    /**
+     * 文字列のSTRINGレコードの位置（同じ文字列がすでにあれば再利用し、なければ追記）
+     *
+     * @param previous 同じノートの前回のPUTレコードの位置（なければnull）
+     * @param refField 前回のPUTで比べる項目の位置
+     */
+    private int intern(String value, Long previous, int refField) throws IOException {
+        if (value == null) {
+            return NO_STRING;
+        }
+        Integer ref = internedStrings.get(value);
+        if (ref == null && previous != null) {
+            // 前回の保存から変わっていなければ同じレコードを使う（描画の保存ではタイトルもパスも変わらない）
+            int previousRef = readPreviousRef(previous, refField);
+            if (previousRef != NO_STRING && value.equals(readStringAt(previousRef))) {
+                ref = previousRef;
+            }
+        }
+        if (ref == null) {
+            ref = (int) append(OP_STRING, "", value.getBytes(StandardCharsets.UTF_8));
+        }
+        if (internedStrings.size() >= MAX_INTERNED_STRINGS) {
+            internedStrings.clear();
+        }
+        internedStrings.put(value, ref);
+        return ref;
+    }
+    
+    /**
+     * 前回のPUTレコードが持つ文字列の位置
+     */
+    private int readPreviousRef(long previous, int refField) throws IOException {
+        int idLength = readAt(previous + 1, 2).getShort(0) & 0xFFFF;
+        return readAt(previous + 3 + idLength + 4 + refField, 4).getInt(0);
+    }
+    
+    /**
+     * STRINGレコードの文字列（idは空なのでペイロード長はレコードの3バイト目から）
+     */
+    private String readStringAt(int ref) throws IOException {
+        int length = readAt(ref + 3, 4).getInt(0);
+        return readUtf8(readAt(ref + 7, length), 0, length);
+    }
+    
+    /**
+     * ログの一部を読む（マップ済みの範囲ならマップから、そうでなければその部分だけファイルから）
+     * 書き込み中は追記のたびにログ全体をマップし直さないよう、map()ではなくこちらを使う
+     */
+    private ByteBuffer readAt(long position, int length) throws IOException {
+        if (mapped != null && position + length <= mapped.capacity()) {
+            ByteBuffer view = mapped.duplicate();
+            view.position((int) position);
+            view.limit((int) position + length);
+            return view.slice();
+        }
+        
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        FileChannel channel = log.getChannel();
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Catalog record out of range at " + position);
+            }
+        }
+        return buffer;
+    }
+    
+    /**
+     * ログ全体をマップしたバッファ
+     * 追記専用なのでマップ済みの範囲は変わらず、伸びたときだけマップし直す
+     */
+    private MappedByteBuffer map() throws IOException {
+        long length = log.length();
+        if (mapped == null || mapped.capacity() < length) {
+            mapped = log.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+        }
+        return mapped;
+    }
+    
+    private static Note readNote(ByteBuffer buffer, int offset) {
+        int idLength = buffer.getShort(offset + 1) & 0xFFFF;
+        int payload = offset + 3 + idLength + 4;
+        return new Note(readUtf8(buffer, offset + 3, idLength),
+                readString(buffer, buffer.getInt(payload + TITLE_REF)),
+                readString(buffer, buffer.getInt(payload + IMAGE_PATH_REF)),
+                buffer.getLong(payload + CREATED_AT),
+                buffer.getLong(payload + UPDATED_AT));
+    }
+    
+    private static int payloadOffset(ByteBuffer buffer, int offset) {
+        int idLength = buffer.getShort(offset + 1) & 0xFFFF;
+        return offset + 3 + idLength + 4;
+    }
+    
+    /**
+     * STRINGレコードの文字列
+     */
+    private static String readString(ByteBuffer buffer, int ref) {
+        if (ref == NO_STRING) {
+            return null;
+        }
+        int payload = payloadOffset(buffer, ref);
+        return readUtf8(buffer, payload, buffer.getInt(payload - 4));
+    }
+    
+    private static String readUtf8(ByteBuffer buffer, int position, int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer view = buffer.duplicate();
+        view.position(position);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+    
+    /**
+     * ログを開き、先頭から走査して索引を再構築
+     * 末尾の書きかけレコードは切り捨てる
+     */
+    private void openLog() throws IOException {
+        index.clear();
+        internedStrings.clear();
+        mapped = null;
+        newestId = null;
+        deadRecords = 0;
+        
+        log = new RandomAccessFile(file, "rw");
+        if (log.length() < HEADER_SIZE) {
+            log.setLength(0);
+            log.writeInt(MAGIC);
+            log.writeInt(VERSION);
+            return;
+        }
+        
+        long validLength = scan(VERSION, (op, noteId, offset, payload) -> {
+            if (op == OP_PUT) {
+                putIndex(noteId, offset);
+            } else if (op == OP_DELETE) {
+                if (removeIndex(noteId)) {
+                    deadRecords++;
+                }
+                deadRecords++;
+            } else if (op != OP_STRING) {
+                return false;
+            }
+            return true;
+        });
+        
+        if (validLength < log.length()) {
+            android.util.Log.w(TAG, "Truncating torn catalog tail at " + validLength);
+            log.setLength(validLength);
+        }
+    }
+    
+    /**
+     * ログを先頭から走査（CRCが合わないレコード以降は読まない）
+     *
+     * @return 正しく読めた範囲の長さ
+     */
+    private long scan(int version, RecordVisitor visitor) throws IOException {
+        long fileLength = file.length();
+        long validLength = HEADER_SIZE;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != version) {
+                throw new IOException("Unknown catalog format: " + file);
+            }
+            
+            CRC32 crc = new CRC32();
+            long offset = HEADER_SIZE;
+            while (true) {
+                byte op;
+                try {
+                    op = in.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+                
+                try {
+                    int idLength = in.readUnsignedShort();
+                    byte[] id = new byte[idLength];
+                    in.readFully(id);
+                    int payloadLength = in.readInt();
+                    if (payloadLength < 0 || offset + payloadLength > fileLength) {
+                        break;
+                    }
+                    byte[] payload = new byte[payloadLength];
+                    in.readFully(payload);
+                    int storedCrc = in.readInt();
+                    
+                    byte[] header = encodeRecordHeader(op, id, payloadLength);
+                    crc.reset();
+                    crc.update(header, 0, header.length);
+                    crc.update(payload, 0, payload.length);
+                    if ((int) crc.getValue() != storedCrc) {
+                        break;
+                    }
+                    
+                    if (!visitor.visit(op, new String(id, StandardCharsets.UTF_8), offset, payload)) {
+                        break;
+                    }
+                    
+                    offset += 1 + 2 + idLength + 4 + payloadLength + 4;
+                    validLength = offset;
+                } catch (EOFException e) {
+                    break;
+                }
+            }
+        }
+        return validLength;
+    }
+    
+    private static byte[] encodeRecordHeader(byte op, byte[] id, int payloadLength) {
+        byte[] header = new byte[1 + 2 + id.length + 4];
+        header[0] = op;
+        header[1] = (byte) (id.length >>> 8);
+        header[2] = (byte) id.length;
+        System.arraycopy(id, 0, header, 3, id.length);
+        int p = 3 + id.length;
+        header[p] = (byte) (payloadLength >>> 24);
+        header[p + 1] = (byte) (payloadLength >>> 16);
+        header[p + 2] = (byte) (payloadLength >>> 8);
+        header[p + 3] = (byte) payloadLength;
+        return header;
+    }
+    
+    private int readVersion() throws IOException {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return in.readInt() == MAGIC ? in.readInt() : -1;
+        } catch (EOFException e) {
+            // 空のファイルはopenLogで作り直す
+            return VERSION;
+        }
+    }
+    
+    /**
+     * ペイロードがJSONだった旧バージョンのログをバイナリ形式に書き直す
+     */
+    private void migrateJsonPayloads() throws IOException {
+        LinkedHashMap<String, Note> notes = new LinkedHashMap<>();
+        scan(JSON_VERSION, (op, noteId, offset, payload) -> {
+            if (op == OP_PUT) {
+                // 保存順を保つため、更新されたノートは末尾に移す
+                notes.remove(noteId);
+                notes.put(noteId, gson.fromJson(new String(payload, StandardCharsets.UTF_8), Note.class));
+            } else if (op == OP_DELETE) {
+                notes.remove(noteId);
+            } else {
+                return false;
+            }
+            return true;
+        });
+        
+        AtomicFileWriter.write(file, stream -> {
+            LogWriter writer = new LogWriter(stream);
+            for (Note note : notes.values()) {
+                writer.put(note);
+            }
+            writer.finish();
+        });
+        android.util.Log.i(TAG, "Converted " + notes.size() + " notes to the binary catalog format");
+    }
+    
+    /**
+     * 旧形式のnotes.jsonをカタログへ移行
+     */
+    private void migrateLegacy(File legacy) throws IOException {
+        byte[] data = new byte[(int) legacy.length()];
+        try (DataInputStream in = new DataInputStream(new FileInputStream(legacy))) {
+            in.readFully(data);
+        }
+        
+        Type listType = new TypeToken<ArrayList<Note>>(){}.getType();
+        List<Note> notes = gson.fromJson(new String(data, StandardCharsets.UTF_8), listType);
+        
+        AtomicFileWriter.write(file, stream -> {
+            LogWriter writer = new LogWriter(stream);
+            if (notes != null) {
+                // notes.jsonは新しい順なので、古いものから追記して挿入順を再現する
+                for (int i = notes.size() - 1; i >= 0; i--) {
+                    writer.put(notes.get(i));
+                }
+            }
+            writer.finish();
+        });
+        
+        legacy.renameTo(new File(legacy.getPath() + MIGRATED_SUFFIX));
+        android.util.Log.i(TAG, "Migrated " + (notes != null ? notes.size() : 0) + " notes from " + LEGACY_FILE);
+    }
+    
+    /**
+     * 新しいログを先頭から書く（圧縮と移行で使う。同じ文字列は1回だけ書く）
+     */
+    private static final class LogWriter {
+        private final DataOutputStream out;
+        private final Map<String, Integer> strings = new HashMap<>();
+        
+        LogWriter(OutputStream stream) throws IOException {
+            out = new DataOutputStream(stream);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+        }
+        
+        void put(Note note) throws IOException {
+            put(note.getId(), note.getTitle(), note.getImagePath(), note.getCreatedAt(), note.getUpdatedAt());
+        }
+        
+        void put(String noteId, String title, String imagePath, long createdAt, long updatedAt) throws IOException {
+            int titleRef = string(title);
+            int imagePathRef = string(imagePath);
+            out.write(encodeRecord(OP_PUT, noteId, encodePut(createdAt, updatedAt, titleRef, imagePathRef)));
+        }
+        
+        void finish() throws IOException {
+            out.flush();
+        }
+        
+        private int string(String value) throws IOException {
+            if (value == null) {
+                return NO_STRING;
+            }
+            Integer ref = strings.get(value);
+            if (ref == null) {
+                // DataOutputStreamの書き込み済みバイト数がそのままファイル内の位置になる
+                ref = out.size();
+                out.write(encodeRecord(OP_STRING, "", value.getBytes(StandardCharsets.UTF_8)));
+                strings.put(value, ref);
+            }
+            return ref;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.tqmane.notesapp.storage;
+
+import com.tqmane.notesapp.models.Note;
+
+/**
+ * ノート1件の変更通知
+ *
+ * 一覧は最近保存した順に並ぶため、既存ノートの保存は先頭への移動（MOVED）か、
+ * すでに先頭にある場合はその場での更新（UPDATED）になる。
+ */
+public final class NoteChange {
+    
+    public enum Type {
+        INSERTED,
+        UPDATED,
+        MOVED,
+        DELETED
+    }
+    
+    /**
+     * 変更通知を受け取るリスナー（メインスレッドで呼ばれる）
+     */
+    public interface Listener {
+        void onNoteChanged(NoteChange change);
+    }
+    
+    private final Type type;
+    private final String noteId;
+    private final Note note;
+    
+    NoteChange(Type type, String noteId, Note note) {
+        this.type = type;
+        this.noteId = noteId;
+        this.note = note;
+    }
+    
+    public Type getType() {
+        return type;
+    }
+    
+    public String getNoteId() {
+        return noteId;
+    }
+    
+    /**
+     * 変更後のノート（削除の場合はnull）
+     */
+    public Note getNote() {
+        return note;
+    }
+}
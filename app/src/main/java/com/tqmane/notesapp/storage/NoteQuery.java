@@ -0,0 +1,122 @@
+package com.tqmane.notesapp.storage;
+
+import java.util.Calendar;
+import java.util.Locale;
+
+/**
+ * ノートの検索条件
+ *
+ * タイトルの語（すべてを含むノート）と、作成日時・更新日時の範囲で絞り込む。
+ * 検索欄の入力はparseで変換し、「created:2026-03」「updated:2026-03-15」のような語は期間の指定になる。
+ */
+public final class NoteQuery {
+    
+    private static final String CREATED_PREFIX = "created:";
+    private static final String UPDATED_PREFIX = "updated:";
+    
+    private String text = "";
+    // 期間は[from, to)のミリ秒
+    private long createdFrom = Long.MIN_VALUE;
+    private long createdTo = Long.MAX_VALUE;
+    private long updatedFrom = Long.MIN_VALUE;
+    private long updatedTo = Long.MAX_VALUE;
+    
+    /**
+     * 検索欄の入力から条件を作る（日付として読めない期間の指定はタイトルの語として扱う）
+     */
+    public static NoteQuery parse(String input) {
+        NoteQuery query = new NoteQuery();
+        StringBuilder text = new StringBuilder();
+        for (String word : SearchTokenizer.normalize(input).trim().split("\\s+")) {
+            long[] range = null;
+            if (word.startsWith(CREATED_PREFIX)) {
+                range = parseDateRange(word.substring(CREATED_PREFIX.length()));
+                if (range != null) {
+                    query.setCreatedRange(range[0], range[1]);
+                }
+            } else if (word.startsWith(UPDATED_PREFIX)) {
+                range = parseDateRange(word.substring(UPDATED_PREFIX.length()));
+                if (range != null) {
+                    query.setUpdatedRange(range[0], range[1]);
+                }
+            }
+            if (range == null && !word.isEmpty()) {
+                text.append(text.length() > 0 ? " " : "").append(word);
+            }
+        }
+        query.setText(text.toString());
+        return query;
+    }
+    
+    public String getText() {
+        return text;
+    }
+    
+    public void setText(String text) {
+        this.text = text != null ? text : "";
+    }
+    
+    public long getCreatedFrom() {
+        return createdFrom;
+    }
+    
+    public long getCreatedTo() {
+        return createdTo;
+    }
+    
+    public void setCreatedRange(long from, long to) {
+        this.createdFrom = from;
+        this.createdTo = to;
+    }
+    
+    public long getUpdatedFrom() {
+        return updatedFrom;
+    }
+    
+    public long getUpdatedTo() {
+        return updatedTo;
+    }
+    
+    public void setUpdatedRange(long from, long to) {
+        this.updatedFrom = from;
+        this.updatedTo = to;
+    }
+    
+    /**
+     * 何も絞り込まない条件か
+     */
+    public boolean isEmpty() {
+        return text.isEmpty()
+                && createdFrom == Long.MIN_VALUE && createdTo == Long.MAX_VALUE
+                && updatedFrom == Long.MIN_VALUE && updatedTo == Long.MAX_VALUE;
+    }
+    
+    /**
+     * 「2026」「2026-03」「2026-03-15」をその年・月・日の期間（端末のタイムゾーン）にする
+     */
+    private static long[] parseDateRange(String value) {
+        String[] parts = value.split("[-/]");
+        if (parts.length == 0 || parts.length > 3) {
+            return null;
+        }
+        int[] fields = new int[parts.length];
+        try {
+            for (int i = 0; i < parts.length; i++) {
+                fields[i] = Integer.parseInt(parts[i]);
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if ((parts.length > 1 && (fields[1] < 1 || fields[1] > 12))
+                || (parts.length > 2 && (fields[2] < 1 || fields[2] > 31))) {
+            return null;
+        }
+        
+        Calendar calendar = Calendar.getInstance(Locale.getDefault());
+        calendar.clear();
+        calendar.set(fields[0], parts.length > 1 ? fields[1] - 1 : 0, parts.length > 2 ? fields[2] : 1);
+        long from = calendar.getTimeInMillis();
+        calendar.add(parts.length == 1 ? Calendar.YEAR : parts.length == 2 ? Calendar.MONTH : Calendar.DAY_OF_MONTH, 1);
+        return new long[] {from, calendar.getTimeInMillis()};
+    }
+}
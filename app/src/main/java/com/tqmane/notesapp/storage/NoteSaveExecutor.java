@@ -0,0 +1,211 @@
+package com.tqmane.notesapp.storage;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+
+import com.tqmane.notesapp.models.Note;
+import com.tqmane.notesapp.models.StrokeData;
+import com.tqmane.notesapp.views.StrokeRenderer;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * ノートの保存をバックグラウンドで実行するクラス
+ *
+ * 保存は単一スレッドで順番に処理する。同じノートの保存要求がまだ開始されていなければ
+ * 最新のスナップショットで置き換え、書き込みは1回にまとめる。
+ * カタログのfsyncと一覧のスナップショットの更新は保存ごとではなく、キューが空になった時点でまとめて行う。
+ */
+final class NoteSaveExecutor {
+    
+    private static final String TAG = "NoteSaveExecutor";
+    
+    private static NoteSaveExecutor instance;
+    
+    private final ExecutorService executor;
+    // ノートID → 開始前の保存要求
+    private final Map<String, PendingSave> pending = new HashMap<>();
+    // 実行待ち・実行中のタスク数
+    private final AtomicInteger outstanding = new AtomicInteger();
+    // キューが空になったときにfsyncするストレージ
+    private volatile NoteStorage syncTarget;
+    
+    private static class PendingSave {
+        DrawingSnapshot snapshot;
+        final CompletableFuture<Boolean> future = new CompletableFuture<>();
+        
+        PendingSave(DrawingSnapshot snapshot) {
+            this.snapshot = snapshot;
+        }
+    }
+    
+    static synchronized NoteSaveExecutor getInstance() {
+        if (instance == null) {
+            instance = new NoteSaveExecutor();
+        }
+        return instance;
+    }
+    
+    private NoteSaveExecutor() {
+        executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "NoteSave");
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        });
+    }
+    
+    /**
+     * 保存を要求（同じノートの未開始の要求があればまとめる）
+     */
+    CompletableFuture<Boolean> submit(NoteStorage storage, DrawingSnapshot snapshot) {
+        String noteId = snapshot.getNote().getId();
+        synchronized (pending) {
+            PendingSave save = pending.get(noteId);
+            if (save != null) {
+                save.snapshot = snapshot;
+                return save.future;
+            }
+            
+            save = new PendingSave(snapshot);
+            pending.put(noteId, save);
+            execute(storage, () -> run(storage, noteId));
+            return save.future;
+        }
+    }
+    
+    /**
+     * ノート情報だけを保存（描画の保存と順序を揃えるため同じスレッドで実行）
+     */
+    CompletableFuture<Boolean> submitNote(NoteStorage storage, Note note) {
+        Note copy = note.copy();
+        return call(storage, () -> storage.saveNote(copy));
+    }
+    
+    /**
+     * 保存スレッドで結果を返すタスクを実行（終わればキューが空になった時点でカタログをfsyncする）
+     */
+    <T> CompletableFuture<T> call(NoteStorage storage, Supplier<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        execute(storage, () -> {
+            try {
+                future.complete(task.get());
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+    
+    /**
+     * 保存スレッドでタスクを実行
+     */
+    void execute(Runnable task) {
+        execute(null, task);
+    }
+    
+    /**
+     * それまでに要求された保存がすべて終わると完了するFuture
+     */
+    CompletableFuture<Void> whenIdle() {
+        return CompletableFuture.runAsync(() -> { }, executor);
+    }
+    
+    private void execute(NoteStorage storage, Runnable task) {
+        if (storage != null) {
+            syncTarget = storage;
+        }
+        outstanding.incrementAndGet();
+        executor.execute(() -> {
+            try {
+                task.run();
+            } finally {
+                // キューが空になったら、まとめてカタログをfsync（グループコミット）し、一覧のスナップショットを更新
+                NoteStorage target = syncTarget;
+                if (outstanding.decrementAndGet() == 0 && target != null) {
+                    target.syncCatalog();
+                    target.updateListSnapshot();
+                }
+            }
+        });
+    }
+    
+    private void run(NoteStorage storage, String noteId) {
+        PendingSave save;
+        synchronized (pending) {
+            save = pending.remove(noteId);
+        }
+        if (save == null) {
+            return;
+        }
+        
+        try {
+            save.future.complete(write(storage, save.snapshot));
+        } catch (Exception e) {
+            android.util.Log.e(TAG, "Error saving note " + noteId, e);
+            save.future.complete(false);
+        }
+    }
+    
+    private boolean write(NoteStorage storage, DrawingSnapshot snapshot) {
+        Note note = snapshot.getNote();
+        
+        // 筆跡をベクター形式で保存
+        if (!storage.saveStrokes(note.getId(), snapshot.getStrokes())) {
+            return false;
+        }
+        if (snapshot.getBackground() == null) {
+            storage.deleteBaseImage(note.getId());
+        }
+        
+        // 一覧表示用のサムネイルを筆跡から直接生成
+        Bitmap thumbnail = renderThumbnail(snapshot);
+        if (thumbnail != null) {
+            String imagePath = storage.saveImage(thumbnail, note.getId());
+            thumbnail.recycle();
+            if (imagePath != null) {
+                // 更新日時は編集画面で更新済みなので変えない（編集中のノートと保存した値を揃える）
+                long updatedAt = note.getUpdatedAt();
+                note.setImagePath(imagePath);
+                note.setUpdatedAt(updatedAt);
+            }
+        }
+        
+        return storage.saveNote(note);
+    }
+    
+    private Bitmap renderThumbnail(DrawingSnapshot snapshot) {
+        int width = snapshot.getWidth();
+        int height = snapshot.getHeight();
+        if (width <= 0 || height <= 0) {
+            return null;
+        }
+        
+        float scale = Math.min(1f, (float) NoteStorage.THUMBNAIL_MAX_SIZE / Math.max(width, height));
+        Bitmap thumbnail = Bitmap.createBitmap(
+                Math.max(1, Math.round(width * scale)),
+                Math.max(1, Math.round(height * scale)),
+                Bitmap.Config.ARGB_8888);
+                
+        Canvas canvas = new Canvas(thumbnail);
+        canvas.drawColor(Color.WHITE);
+        canvas.scale(scale, scale);
+        
+        if (snapshot.getBackground() != null && !snapshot.getBackground().isRecycled()) {
+            canvas.drawBitmap(snapshot.getBackground(), 0, 0, new Paint(Paint.FILTER_BITMAP_FLAG));
+        }
+        
+        Paint paint = StrokeRenderer.createPaint();
+        for (StrokeData stroke : snapshot.getStrokes()) {
+            StrokeRenderer.draw(canvas, stroke, paint);
+        }
+        return thumbnail;
+    }
+}
@@ -3,39 +3,144 @@ package com.tqmane.notesapp.storage;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
 
 import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
 import com.google.gson.reflect.TypeToken;
+import com.tqmane.notesapp.metrics.Counter;
+import com.tqmane.notesapp.metrics.Histogram;
+import com.tqmane.notesapp.metrics.Metrics;
 import com.tqmane.notesapp.models.Note;
+import com.tqmane.notesapp.models.StrokeData;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * ノートの保存・読み込みを管理するクラス
+ *
+ * アプリではgetInstance()でプロセス内の1つのインスタンスを共有する。
+ * ディレクトリの作成とカタログを開く処理は保存スレッドで行い、作成時にメインスレッドでI/Oしない。
  */
 public class NoteStorage {
     
     private static final String TAG = "NoteStorage";
-    private static final String NOTES_FILE = "notes.json";
     private static final String IMAGES_DIR = "note_images";
+    private static final String STROKES_DIR = "note_strokes";
+    
+    // 保存する画像はサムネイル用なので長辺をこのサイズに縮小する
+    static final int THUMBNAIL_MAX_SIZE = 512;
+    
+    private static final String JOURNAL_SUFFIX = ".journal";
+    private static final String INK_SUFFIX = ".ink";
+    
+    // 保存・読み込みの計測（カタログに書き込んだバイト数はNoteCatalogで数える）
+    private static final Histogram SAVE_NOTE = Metrics.histogram("storage.saveNote", "us");
+    private static final Histogram SAVE_STROKES = Metrics.histogram("storage.saveStrokes", "us");
+    private static final Histogram SAVE_IMAGE = Metrics.histogram("storage.saveImage", "us");
+    private static final Histogram LOAD_IMAGE = Metrics.histogram("storage.loadImage", "us");
+    private static final Histogram SEARCH = Metrics.histogram("storage.search", "us");
+    private static final Counter STROKE_BYTES = Metrics.counter("storage.strokeBytesWritten");
+    private static final Counter IMAGE_BYTES = Metrics.counter("storage.imageBytesWritten");
+    
+    // 筆跡ファイルの読み込みとジャーナルの反映が交差しないようにする
+    private static final Object JOURNAL_LOCK = new Object();
+    private static boolean journalsRecovered;
+    // ジャーナルごとに振る世代（ファイル名に入れ、再生する順番にも使う）
+    private static final AtomicLong lastJournalGeneration = new AtomicLong();
+    
+    private static NoteStorage instance;
+    
+    // 変更通知のリスナー（カタログと同じくプロセス内で共有）
+    private static final List<NoteChange.Listener> changeListeners = new CopyOnWriteArrayList<>();
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // 検索は保存を待たないように別の1本のスレッドで順番に行う
+    private static final ExecutorService searchExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "NoteSearch");
+        thread.setPriority(Thread.NORM_PRIORITY - 1);
+        return thread;
+    });
     
     private Context context;
-    private Gson gson;
+    private volatile boolean directoriesCreated;
+    
+    /**
+     * 一覧の読み込み結果の通知
+     */
+    public interface ListCallback {
+        /**
+         * @param noteIds すべてのノートのID（新しい順）
+         * @param firstPage 先頭のページのノート
+         */
+        void onListLoaded(List<String> noteIds, List<Note> firstPage);
+    }
     
-    public NoteStorage(Context context) {
+    /**
+     * 検索結果の通知
+     */
+    public interface SearchCallback {
+        /**
+         * @param noteIds 条件に合うノートのID（更新日時の新しい順）
+         */
+        void onSearchFinished(List<String> noteIds);
+    }
+    
+    /**
+     * 描画の読み込み結果の通知
+     */
+    public interface DrawingCallback {
+        /**
+         * @param note 保存済みのノート（見つからなければnull、その場合ほかの引数もnull）
+         * @param baseImage 筆跡の下に敷くベース画像（なければnull）
+         * @param strokes 保存済みの筆跡（なければnull）
+         * @param journal 以降の筆跡の変更を記録するジャーナル
+         */
+        void onDrawingLoaded(Note note, Bitmap baseImage, List<StrokeData> strokes, StrokeJournal journal);
+    }
+    
+    /**
+     * アプリ全体で共有するインスタンス
+     */
+    public static synchronized NoteStorage getInstance(Context context) {
+        if (instance == null) {
+            instance = new NoteStorage(context.getApplicationContext());
+        }
+        return instance;
+    }
+    
+    private NoteStorage(Context context) {
         this.context = context;
-        this.gson = new Gson();
         
-        // 画像ディレクトリを作成
-        File imagesDir = new File(context.getFilesDir(), IMAGES_DIR);
-        if (!imagesDir.exists()) {
-            imagesDir.mkdirs();
+        // ディレクトリの作成とカタログを開く処理は保存スレッドで行う
+        NoteSaveExecutor.getInstance().execute(this::initialize);
+        
+        // プロセス起動後の最初の1回だけ、残ったジャーナルをバックグラウンドで復旧
+        synchronized (JOURNAL_LOCK) {
+            if (!journalsRecovered) {
+                journalsRecovered = true;
+                NoteSaveExecutor.getInstance().execute(this::recoverJournals);
+                // 検索索引も先に開いておく（索引ファイルがなければカタログから作るため時間がかかる）
+                NoteSaveExecutor.getInstance().execute(this::openSearchIndex);
+            }
         }
     }
     
@@ -44,21 +149,64 @@ public class NoteStorage {
      */
     public List<Note> getAllNotes() {
         try {
-            File file = new File(context.getFilesDir(), NOTES_FILE);
-            if (!file.exists()) {
-                return new ArrayList<>();
-            }
+            return catalog().getAll();
+            
+        } catch (IOException e) {
+            android.util.Log.e(TAG, "Error reading notes", e);
+            return new ArrayList<>();
+        }
+    }
+    
+    /**
+     * 前回表示した一覧の先頭のノート（カタログを開かずに読めるので起動直後の最初の表示に使う）
+     * 最新とは限らないので、loadListAsyncの結果で置き換えること
+     */
+    public List<Note> loadListSnapshot() {
+        android.os.Trace.beginSection("NoteStorage.loadListSnapshot");
+        try {
+            return ListSnapshot.read(new File(context.getFilesDir(), ListSnapshot.SNAPSHOT_FILE));
             
-            FileInputStream fis = new FileInputStream(file);
-            byte[] data = new byte[(int) file.length()];
-            fis.read(data);
-            fis.close();
+        } catch (IOException e) {
+            android.util.Log.e(TAG, "Error reading list snapshot", e);
+            return new ArrayList<>();
             
-            String json = new String(data, "UTF-8");
-            Type listType = new TypeToken<ArrayList<Note>>(){}.getType();
-            List<Note> notes = gson.fromJson(json, listType);
+        } finally {
+            android.os.Trace.endSection();
+        }
+    }
+    
+    /**
+     * すべてのノートのIDと先頭のページをバックグラウンドで読み込み、メインスレッドに通知
+     */
+    public void loadListAsync(int firstPageSize, ListCallback callback) {
+        NoteSaveExecutor.getInstance().execute(() -> {
+            android.os.Trace.beginSection("NoteStorage.loadList");
+            List<String> noteIds = getNoteIds();
+            List<Note> firstPage = getNotes(noteIds.subList(0, Math.min(firstPageSize, noteIds.size())));
+            android.os.Trace.endSection();
+            mainHandler.post(() -> callback.onListLoaded(noteIds, firstPage));
+        });
+    }
+    
+    /**
+     * すべてのノートのIDを新しい順に取得（一覧のページ読み込み用、ノート本体は読まない）
+     */
+    public List<String> getNoteIds() {
+        try {
+            return catalog().getIdsNewestFirst();
             
-            return notes != null ? notes : new ArrayList<>();
+        } catch (IOException e) {
+            android.util.Log.e(TAG, "Error reading note ids", e);
+            return new ArrayList<>();
+        }
+    }
+    
+    /**
+     * IDを指定した順にノートを取得（見つからないIDは飛ばす）
+     */
+    public List<Note> getNotes(List<String> noteIds) {
+        try {
+            return catalog().get(noteIds);
             
         } catch (IOException e) {
             android.util.Log.e(TAG, "Error reading notes", e);
@@ -67,94 +215,402 @@ public class NoteStorage {
     }
     
     /**
-     * ノートを保存
+     * ノートを保存（既存のノートは更新、なければ追加）
      */
     public boolean saveNote(Note note) {
+        long traceStart = SAVE_NOTE.start();
         try {
-            List<Note> notes = getAllNotes();
+            NoteChange.Type type = catalog().put(note);
+            searchIndex().put(note);
+            notifyChange(new NoteChange(type, note.getId(), note.copy()));
+            return true;
             
-            // 既存のノートを更新、なければ追加
-            boolean found = false;
-            for (int i = 0; i < notes.size(); i++) {
-                if (notes.get(i).getId().equals(note.getId())) {
-                    notes.set(i, note);
-                    found = true;
-                    break;
-                }
+        } catch (Exception e) {
+            android.util.Log.e(TAG, "Error saving note", e);
+            return false;
+            
+        } finally {
+            SAVE_NOTE.stop(traceStart);
+        }
+    }
+    
+    /**
+     * ノートを削除
+     */
+    public boolean deleteNote(Note note) {
+        try {
+            searchIndex().delete(note.getId());
+            if (catalog().delete(note.getId())) {
+                notifyChange(new NoteChange(NoteChange.Type.DELETED, note.getId(), null));
             }
             
-            if (!found) {
-                notes.add(0, note); // 先頭に追加
+            // 画像と筆跡も削除
+            if (note.getImagePath() != null) {
+                deleteImage(note.getImagePath());
+            }
+            getStrokesFile(note.getId()).delete();
+            for (File journalFile : getJournalFiles(note.getId())) {
+                journalFile.delete();
             }
+            getInkFile(note.getId()).delete();
+            getBaseImageFile(note.getId()).delete();
             
-            return saveAllNotes(notes);
+            return true;
             
         } catch (Exception e) {
-            android.util.Log.e(TAG, "Error saving note", e);
+            android.util.Log.e(TAG, "Error deleting note", e);
             return false;
         }
     }
     
     /**
-     * すべてのノートを保存
+     * 条件に合うノートを更新日時の新しい順に取得
+     */
+    public List<Note> searchNotes(NoteQuery query) {
+        return getNotes(searchNoteIds(query));
+    }
+    
+    /**
+     * 条件に合うノートのIDを更新日時の新しい順に取得（ノート本体は読まない）
+     */
+    public List<String> searchNoteIds(NoteQuery query) {
+        long traceStart = SEARCH.start();
+        try {
+            return searchIndex().search(query);
+            
+        } catch (IOException e) {
+            android.util.Log.e(TAG, "Error searching notes", e);
+            return new ArrayList<>();
+            
+        } finally {
+            SEARCH.stop(traceStart);
+        }
+    }
+    
+    /**
+     * 検索をバックグラウンドで行い、結果をメインスレッドに通知
+     * （索引を開く処理や照会で入力中の画面を止めない）
+     */
+    public void searchNoteIdsAsync(NoteQuery query, SearchCallback callback) {
+        searchExecutor.execute(() -> {
+            List<String> noteIds = searchNoteIds(query);
+            mainHandler.post(() -> callback.onSearchFinished(noteIds));
+        });
+    }
+    
+    /**
+     * ノートの追加・更新・削除の通知を受け取る
+     */
+    public void addChangeListener(NoteChange.Listener listener) {
+        changeListeners.add(listener);
+    }
+    
+    public void removeChangeListener(NoteChange.Listener listener) {
+        changeListeners.remove(listener);
+    }
+    
+    /**
+     * 描画内容をバックグラウンドで保存（筆跡・サムネイル・ノート情報）
+     * 同じノートの保存がまだ始まっていなければ1回の書き込みにまとめられる
+     *
+     * @return 保存が終わると成否で完了するFuture
+     */
+    public CompletableFuture<Boolean> saveDrawingAsync(DrawingSnapshot snapshot) {
+        return NoteSaveExecutor.getInstance().submit(this, snapshot);
+    }
+    
+    /**
+     * ノート情報をバックグラウンドで保存（描画の保存と同じ順序で書き込まれる）
+     */
+    public CompletableFuture<Boolean> saveNoteAsync(Note note) {
+        return NoteSaveExecutor.getInstance().submitNote(this, note);
+    }
+    
+    /**
+     * ノートをバックグラウンドで削除（保存と同じ順序で実行される）
+     */
+    public CompletableFuture<Boolean> deleteNoteAsync(Note note) {
+        return NoteSaveExecutor.getInstance().call(this, () -> deleteNote(note));
+    }
+    
+    /**
+     * 要求済みのバックグラウンド保存がすべて終わると完了するFuture
      */
-    private boolean saveAllNotes(List<Note> notes) {
+    public CompletableFuture<Void> whenSavesComplete() {
+        return NoteSaveExecutor.getInstance().whenIdle();
+    }
+    
+    /**
+     * 筆跡を保存
+     */
+    public boolean saveStrokes(String noteId, List<StrokeData> strokes) {
+        long traceStart = SAVE_STROKES.start();
         try {
-            String json = gson.toJson(notes);
+            ensureDirectories();
+            File strokesFile = getStrokesFile(noteId);
             
-            File file = new File(context.getFilesDir(), NOTES_FILE);
-            FileOutputStream fos = new FileOutputStream(file);
-            fos.write(json.getBytes("UTF-8"));
-            fos.close();
+            // 旧形式のノートは全面PNGが唯一の描画内容なので、サムネイルで上書きされる前にベース画像として退避
+            if (!strokesFile.exists()) {
+                File legacyImage = getImageFile(noteId);
+                File baseImage = getBaseImageFile(noteId);
+                if (legacyImage.exists() && !baseImage.exists()) {
+                    legacyImage.renameTo(baseImage);
+                }
+            }
             
+            AtomicFileWriter.write(strokesFile, out -> StrokeCodec.encode(strokes, out));
+            if (Metrics.isEnabled()) {
+                STROKE_BYTES.add(strokesFile.length());
+            }
             return true;
             
         } catch (IOException e) {
-            android.util.Log.e(TAG, "Error saving all notes", e);
+            android.util.Log.e(TAG, "Error saving strokes", e);
             return false;
+            
+        } finally {
+            SAVE_STROKES.stop(traceStart);
         }
     }
     
     /**
-     * ノートを削除
+     * ノートとその描画を保存スレッドで読み込み、ジャーナルを開いてメインスレッドに通知
+     *
+     * それまでに要求された保存と閉じたジャーナルの書き込みが終わってから読むので、
+     * 保存が終わる前に同じノートを開き直しても古い筆跡や変更前の名前を読まない。
      */
-    public boolean deleteNote(Note note) {
-        try {
-            List<Note> notes = getAllNotes();
-            notes.removeIf(n -> n.getId().equals(note.getId()));
+    public void openDrawingAsync(String noteId, DrawingCallback callback) {
+        NoteSaveExecutor.getInstance().execute(() -> {
+            Note note = getNoteById(noteId);
+            if (note == null) {
+                mainHandler.post(() -> callback.onDrawingLoaded(null, null, null, null));
+                return;
+            }
             
-            // 画像も削除
-            if (note.getImagePath() != null) {
-                deleteImage(note.getImagePath());
+            android.os.Trace.beginSection("NoteStorage.openDrawing");
+            StrokeJournal.awaitClosed();
+            // 前回のジャーナルが残っていれば先に筆跡ファイルへ反映してから新しく記録を始める
+            recoverJournal(note.getId());
+            Bitmap baseImage = loadBaseImage(note);
+            List<StrokeData> strokes = loadStrokes(note.getId());
+            StrokeJournal journal = openJournal(note.getId());
+            android.os.Trace.endSection();
+            mainHandler.post(() -> callback.onDrawingLoaded(note, baseImage, strokes, journal));
+        });
+    }
+    
+    /**
+     * 筆跡を読み込み（筆跡ファイルがない旧形式のノートはnull）
+     * 保存前に終了したときのジャーナルが残っていれば再生した結果を返す
+     */
+    public List<StrokeData> loadStrokes(String noteId) {
+        File strokesFile = getStrokesFile(noteId);
+        
+        synchronized (JOURNAL_LOCK) {
+            List<File> journalFiles = getJournalFiles(noteId);
+            if (!strokesFile.exists() && journalFiles.isEmpty()) {
+                return null;
             }
             
-            return saveAllNotes(notes);
+            try {
+                List<StrokeData> strokes = readStrokesFile(strokesFile);
+                for (File journalFile : journalFiles) {
+                    strokes = StrokeJournal.replay(journalFile, strokes);
+                }
+                return strokes;
+                
+            } catch (IOException e) {
+                android.util.Log.e(TAG, "Error loading strokes", e);
+                return null;
+            }
+        }
+    }
+    
+    /**
+     * 筆跡の変更を記録するジャーナルを開く（ジャーナルごとに別のファイルに書く）
+     */
+    private StrokeJournal openJournal(String noteId) {
+        ensureDirectories();
+        long generation = lastJournalGeneration.updateAndGet(
+                last -> Math.max(last + 1, System.currentTimeMillis()));
+        return new StrokeJournal(new File(new File(context.getFilesDir(), STROKES_DIR),
+                "note_" + noteId + "." + generation + JOURNAL_SUFFIX));
+    }
+    
+    /**
+     * 前回の起動で保存されずに残ったジャーナルを筆跡ファイルへ反映
+     */
+    private void recoverJournals() {
+        File[] journals = new File(context.getFilesDir(), STROKES_DIR).listFiles(
+                (dir, name) -> name.endsWith(JOURNAL_SUFFIX));
+        if (journals == null) {
+            return;
+        }
+        
+        Set<String> noteIds = new LinkedHashSet<>();
+        for (File journalFile : journals) {
+            String name = journalFile.getName();
+            int end = name.indexOf('.');
+            if (name.startsWith("note_") && end > 0) {
+                noteIds.add(name.substring("note_".length(), end));
+            }
+        }
+        for (String noteId : noteIds) {
+            recoverJournal(noteId);
+        }
+    }
+    
+    private void initialize() {
+        android.os.Trace.beginSection("NoteStorage.initialize");
+        try {
+            ensureDirectories();
+            catalog();
+            
+        } catch (IOException e) {
+            android.util.Log.e(TAG, "Error opening catalog", e);
             
-        } catch (Exception e) {
-            android.util.Log.e(TAG, "Error deleting note", e);
-            return false;
+        } finally {
+            android.os.Trace.endSection();
+        }
+    }
+    
+    /**
+     * 画像と筆跡のディレクトリを作成（書き込む前に呼ぶ）
+     */
+    private void ensureDirectories() {
+        if (directoriesCreated) {
+            return;
+        }
+        File imagesDir = new File(context.getFilesDir(), IMAGES_DIR);
+        if (!imagesDir.exists()) {
+            imagesDir.mkdirs();
+        }
+        File strokesDir = new File(context.getFilesDir(), STROKES_DIR);
+        if (!strokesDir.exists()) {
+            strokesDir.mkdirs();
+        }
+        directoriesCreated = true;
+    }
+    
+    private void openSearchIndex() {
+        try {
+            searchIndex();
+            
+        } catch (IOException e) {
+            android.util.Log.e(TAG, "Error opening search index", e);
+        }
+    }
+    
+    /**
+     * 書き込み中でないジャーナルを古い順に筆跡ファイルへ反映して削除
+     */
+    private void recoverJournal(String noteId) {
+        synchronized (JOURNAL_LOCK) {
+            List<File> journalFiles = new ArrayList<>();
+            for (File journalFile : getJournalFiles(noteId)) {
+                // 書き込み中のジャーナルより新しいものは順番が崩れるので反映しない
+                if (StrokeJournal.isOpen(journalFile)) {
+                    break;
+                }
+                journalFiles.add(journalFile);
+            }
+            if (journalFiles.isEmpty()) {
+                return;
+            }
+            
+            try {
+                File strokesFile = getStrokesFile(noteId);
+                List<StrokeData> replayed = readStrokesFile(strokesFile);
+                for (File journalFile : journalFiles) {
+                    replayed = StrokeJournal.replay(journalFile, replayed);
+                }
+                List<StrokeData> strokes = replayed;
+                AtomicFileWriter.write(strokesFile, out -> StrokeCodec.encode(strokes, out));
+                for (File journalFile : journalFiles) {
+                    journalFile.delete();
+                }
+                android.util.Log.i(TAG, "Recovered " + strokes.size() + " strokes for note " + noteId);
+                
+            } catch (IOException e) {
+                android.util.Log.e(TAG, "Error recovering journal for note " + noteId, e);
+            }
+        }
+    }
+    
+    private List<StrokeData> readStrokesFile(File strokesFile) throws IOException {
+        if (!strokesFile.exists()) {
+            return new ArrayList<>();
+        }
+        try (BufferedInputStream in = new BufferedInputStream(new FileInputStream(strokesFile))) {
+            return StrokeCodec.decode(in);
+        }
+    }
+    
+    /**
+     * 筆跡の下に敷くベース画像を読み込み（旧形式のノートのみ）
+     */
+    public Bitmap loadBaseImage(Note note) {
+        File baseImage = getBaseImageFile(note.getId());
+        if (baseImage.exists()) {
+            return loadImage(baseImage.getAbsolutePath());
+        }
+        
+        // まだ一度も筆跡形式で保存していないノートは画像そのものがベース
+        if (!getStrokesFile(note.getId()).exists() && note.getImagePath() != null) {
+            return loadImage(note.getImagePath());
+        }
+        return null;
+    }
+    
+    /**
+     * ベース画像を削除（キャンバスをクリアした場合など）
+     */
+    public void deleteBaseImage(String noteId) {
+        File baseImage = getBaseImageFile(noteId);
+        if (baseImage.exists()) {
+            baseImage.delete();
         }
     }
     
     /**
-     * 画像を保存
+     * サムネイル画像を保存
+     * 描画内容は筆跡ファイルが正なので、画像は縮小してから書き出す
      */
     public String saveImage(Bitmap bitmap, String noteId) {
+        long traceStart = SAVE_IMAGE.start();
         try {
-            File imagesDir = new File(context.getFilesDir(), IMAGES_DIR);
-            String fileName = "note_" + noteId + ".png";
-            File imageFile = new File(imagesDir, fileName);
+            ensureDirectories();
+            File imageFile = getImageFile(noteId);
+            
+            Bitmap thumbnail = bitmap;
+            int longSide = Math.max(bitmap.getWidth(), bitmap.getHeight());
+            if (longSide > THUMBNAIL_MAX_SIZE) {
+                float scale = (float) THUMBNAIL_MAX_SIZE / longSide;
+                thumbnail = Bitmap.createScaledBitmap(bitmap,
+                        Math.max(1, Math.round(bitmap.getWidth() * scale)),
+                        Math.max(1, Math.round(bitmap.getHeight() * scale)),
+                        true);
+            }
             
-            FileOutputStream fos = new FileOutputStream(imageFile);
-            bitmap.compress(Bitmap.CompressFormat.PNG, 100, fos);
-            fos.flush();
-            fos.close();
+            // サムネイルは筆跡から作り直せるのでfsyncしない（保存ごとのfsyncは筆跡ファイルとカタログだけ）
+            Bitmap source = thumbnail;
+            AtomicFileWriter.writeUnsynced(imageFile, out -> source.compress(Bitmap.CompressFormat.PNG, 100, out));
+            
+            if (thumbnail != bitmap) {
+                thumbnail.recycle();
+            }
+            if (Metrics.isEnabled()) {
+                IMAGE_BYTES.add(imageFile.length());
+            }
             
             return imageFile.getAbsolutePath();
             
         } catch (IOException e) {
             android.util.Log.e(TAG, "Error saving image", e);
             return null;
+            
+        } finally {
+            SAVE_IMAGE.stop(traceStart);
         }
     }
     
@@ -162,6 +618,7 @@ public class NoteStorage {
      * 画像を読み込み
      */
     public Bitmap loadImage(String imagePath) {
+        long traceStart = LOAD_IMAGE.start();
         try {
             File file = new File(imagePath);
             if (!file.exists()) {
@@ -173,6 +630,9 @@ public class NoteStorage {
         } catch (Exception e) {
             android.util.Log.e(TAG, "Error loading image", e);
             return null;
+            
+        } finally {
+            LOAD_IMAGE.stop(traceStart);
         }
     }
     
@@ -193,17 +653,221 @@ public class NoteStorage {
         }
     }
     
+    /**
+     * 手書き文字の認識結果を読み込む（まだ認識していなければnull）
+     */
+    public RecognizedInk loadRecognizedInk(String noteId) {
+        File inkFile = getInkFile(noteId);
+        if (!inkFile.exists()) {
+            return null;
+        }
+        try (BufferedInputStream in = new BufferedInputStream(new FileInputStream(inkFile))) {
+            return RecognizedInk.readFrom(in);
+            
+        } catch (IOException e) {
+            android.util.Log.e(TAG, "Error loading recognized ink", e);
+            return null;
+        }
+    }
+    
+    /**
+     * 手書き文字の認識結果を保存して検索索引に反映（認識中に削除されたノートは保存しない）
+     */
+    public boolean saveRecognizedInk(String noteId, RecognizedInk ink) {
+        try {
+            if (catalog().get(noteId) == null) {
+                return false;
+            }
+            ensureDirectories();
+            File inkFile = getInkFile(noteId);
+            AtomicFileWriter.write(inkFile, ink::writeTo);
+            // 書き込み中に削除された場合は残さない
+            if (catalog().get(noteId) == null) {
+                inkFile.delete();
+                return false;
+            }
+            searchIndex().putText(noteId, ink.getText());
+            return true;
+            
+        } catch (IOException e) {
+            android.util.Log.e(TAG, "Error saving recognized ink", e);
+            return false;
+        }
+    }
+    
+    /**
+     * すべてのノートをJSON（以前のnotes.jsonと同じ形式、新しい順）で書き出す
+     *
+     * @return 書き出した件数
+     */
+    public int exportJson(Writer writer) throws IOException {
+        List<Note> notes = catalog().getAll();
+        Gson gson = new GsonBuilder().setPrettyPrinting().create();
+        try {
+            gson.toJson(notes, writer);
+            writer.flush();
+            
+        } catch (JsonParseException e) {
+            throw new IOException("Error writing notes", e);
+        }
+        return notes.size();
+    }
+    
+    /**
+     * exportJsonで書き出したJSONのノートを取り込む（同じIDのノートは上書き）
+     * 筆跡や画像のファイルは含まれないので、別の端末から取り込んだノートはタイトルと日時だけになる
+     *
+     * 一覧は保存した順に並ぶので、取り込んだノートは更新日時の古いものから保存し、
+     * 取り込んだ中で最も新しいノートが先頭になるようにする
+     * （取り込んだノートは更新日時によらず既存のノートより上に並ぶ）。
+     *
+     * JSONの読み込みは呼び出し元のスレッドで行い、保存は保存スレッドで描画の保存と同じ順序で行う
+     * （カタログのfsyncと一覧のスナップショットの更新は保存の後にまとめて行われる）
+     *
+     * @return 保存が終わると取り込んだ件数で完了するFuture
+     */
+    public CompletableFuture<Integer> importJsonAsync(Reader reader) throws IOException {
+        Type listType = new TypeToken<ArrayList<Note>>(){}.getType();
+        List<Note> notes;
+        try {
+            notes = new Gson().fromJson(reader, listType);
+            
+        } catch (JsonParseException e) {
+            throw new IOException("Not a notes file", e);
+        }
+        if (notes == null) {
+            return CompletableFuture.completedFuture(0);
+        }
+        
+        List<Note> valid = new ArrayList<>(notes.size());
+        for (Note note : notes) {
+            if (note != null && note.getId() != null) {
+                valid.add(note);
+            }
+        }
+        // ファイルの並びによらず更新日時の古い順に保存する
+        valid.sort(Comparator.comparingLong(Note::getUpdatedAt));
+        
+        return NoteSaveExecutor.getInstance().call(this, () -> {
+            int imported = 0;
+            for (Note note : valid) {
+                if (saveNote(note)) {
+                    imported++;
+                }
+            }
+            return imported;
+        });
+    }
+    
+    /**
+     * カタログへの追記をディスクに確定（連続した保存の最後にまとめて呼ぶ）
+     */
+    public void syncCatalog() {
+        try {
+            catalog().sync();
+            
+        } catch (IOException e) {
+            android.util.Log.e(TAG, "Error syncing catalog", e);
+        }
+    }
+    
+    /**
+     * 一覧の先頭のスナップショットを更新（保存が一段落したときに保存スレッドから呼ぶ）
+     */
+    void updateListSnapshot() {
+        try {
+            catalog().writeSnapshot(PagedNoteList.PAGE_SIZE);
+            
+        } catch (IOException e) {
+            android.util.Log.e(TAG, "Error writing list snapshot", e);
+        }
+    }
+    
     /**
      * IDでノートを取得
      */
     public Note getNoteById(String noteId) {
-        List<Note> notes = getAllNotes();
-        for (Note note : notes) {
-            if (note.getId().equals(noteId)) {
-                return note;
+        try {
+            return catalog().get(noteId);
+            
+        } catch (IOException e) {
+            android.util.Log.e(TAG, "Error reading note " + noteId, e);
+            return null;
+        }
+    }
+    
+    /**
+     * サムネイル画像のパス
+     */
+    public String getImagePath(String noteId) {
+        return getImageFile(noteId).getAbsolutePath();
+    }
+    
+    private File getImageFile(String noteId) {
+        return new File(new File(context.getFilesDir(), IMAGES_DIR), "note_" + noteId + ".png");
+    }
+    
+    private File getBaseImageFile(String noteId) {
+        return new File(new File(context.getFilesDir(), IMAGES_DIR), "note_" + noteId + "_base.png");
+    }
+    
+    private File getStrokesFile(String noteId) {
+        return new File(new File(context.getFilesDir(), STROKES_DIR), "note_" + noteId + ".strokes");
+    }
+    
+    /**
+     * ノートのジャーナルを古い順に取得（世代のない以前の形式のファイルが最も古い）
+     */
+    private List<File> getJournalFiles(String noteId) {
+        String legacyName = "note_" + noteId + JOURNAL_SUFFIX;
+        String prefix = "note_" + noteId + ".";
+        File[] files = new File(context.getFilesDir(), STROKES_DIR).listFiles(
+                (dir, name) -> name.startsWith(prefix) && name.endsWith(JOURNAL_SUFFIX));
+        TreeMap<Long, File> ordered = new TreeMap<>();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.equals(legacyName)) {
+                    ordered.put(0L, file);
+                    continue;
+                }
+                try {
+                    ordered.put(Long.parseLong(name.substring(
+                            prefix.length(), name.length() - JOURNAL_SUFFIX.length())), file);
+                } catch (NumberFormatException e) {
+                    android.util.Log.w(TAG, "Ignoring journal " + file);
+                }
             }
         }
-        return null;
+        return new ArrayList<>(ordered.values());
+    }
+    
+    private File getInkFile(String noteId) {
+        return new File(new File(context.getFilesDir(), STROKES_DIR), "note_" + noteId + INK_SUFFIX);
+    }
+    
+    private NoteCatalog catalog() throws IOException {
+        return NoteCatalog.open(context.getFilesDir());
+    }
+    
+    private SearchIndex searchIndex() throws IOException {
+        return SearchIndex.open(context.getFilesDir(), catalog(), noteId -> {
+            RecognizedInk ink = loadRecognizedInk(noteId);
+            return ink != null ? ink.getText() : "";
+        });
+    }
+    
+    /**
+     * 変更をメインスレッドでリスナーに通知（保存スレッドからの呼び出しも順番通りに届く）
+     */
+    private static void notifyChange(NoteChange change) {
+        if (changeListeners.isEmpty()) {
+            return;
+        }
+        mainHandler.post(() -> {
+            for (NoteChange.Listener listener : changeListeners) {
+                listener.onNoteChanged(change);
+            }
+        });
     }
 }
-
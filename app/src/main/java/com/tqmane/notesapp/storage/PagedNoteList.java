@@ -0,0 +1,249 @@
+package com.tqmane.notesapp.storage;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.tqmane.notesapp.metrics.Counter;
+import com.tqmane.notesapp.metrics.Histogram;
+import com.tqmane.notesapp.metrics.Metrics;
+import com.tqmane.notesapp.models.Note;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * ノート一覧をページ単位で読み込むデータソース
+ *
+ * 一覧の並び（新しい順のノートID）だけを最初に持ち、ノート本体は表示位置の周りの
+ * 固定件数のページをバックグラウンドで読み込む。スクロールの向きに合わせて先のページを先読みし、
+ * 表示位置から離れたノートは捨てるので、カタログの件数によらず起動時間とメモリが一定になる。
+ * メインスレッドから使うこと（読み込みの完了もメインスレッドに通知する）。
+ */
+public class PagedNoteList {
+    
+    // 1回に読み込む件数（2列のグリッドで数画面分）
+    public static final int PAGE_SIZE = 60;
+    // 表示位置から前後に何ページ分のノートを保持するか
+    private static final int KEEP_PAGES = 3;
+    // 保持するノートがこの件数を超えたら、表示位置から離れたものを捨てる
+    private static final int MAX_CACHED_NOTES = PAGE_SIZE * (KEEP_PAGES * 2 + 2);
+    
+    private static final Histogram PAGE_LOAD = Metrics.histogram("list.pageLoad", "us");
+    private static final Counter EVICTED = Metrics.counter("list.evictedNotes");
+    
+    // 読み込みは1本のスレッドで順番に行う（一覧の外のページが表示中のページを追い越さないように）
+    private static final ExecutorService loader = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "NotePageLoader");
+        thread.setPriority(Thread.NORM_PRIORITY - 1);
+        return thread;
+    });
+    
+    /**
+     * ノートの読み込みが終わったときの通知
+     */
+    public interface Listener {
+        /**
+         * positionからcount件のノートが読み込まれた（該当するセルを再バインドする）
+         */
+        void onNotesLoaded(int position, int count);
+    }
+    
+    private final NoteStorage storage;
+    private final Listener listener;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    
+    private List<String> ids = new ArrayList<>();
+    // ノートID → 読み込み済みのノート
+    private Map<String, Note> cache = new HashMap<>();
+    // 読み込み中のページ番号
+    private final Set<Integer> loadingPages = new HashSet<>();
+    // 一覧を入れ替えるたびに増やす（古い一覧に対する読み込み結果を捨てる）
+    private int generation;
+    // 並びが変わるたびに増やす（読み込み中に位置がずれたかどうかの判定）
+    private int structureVersion;
+    // 最後に要求された位置（先読みの向きと保持する範囲の中心）
+    private int lastPosition;
+    
+    public PagedNoteList(NoteStorage storage, Listener listener) {
+        this.storage = storage;
+        this.listener = listener;
+    }
+    
+    /**
+     * 一覧の並びを入れ替える（読み込み済みのノートは捨てる）
+     *
+     * @param loaded 読み込み済みのノート（先頭のページなど、なければ空）
+     */
+    public void setIds(List<String> noteIds, List<Note> loaded) {
+        ids = new ArrayList<>(noteIds);
+        cache = new HashMap<>();
+        for (Note note : loaded) {
+            cache.put(note.getId(), note);
+        }
+        loadingPages.clear();
+        generation++;
+        structureVersion++;
+        lastPosition = 0;
+    }
+    
+    public int size() {
+        return ids.size();
+    }
+    
+    /**
+     * 位置のノート（読み込みは始めない。未読み込みならnull）
+     */
+    public Note peek(int position) {
+        return cache.get(ids.get(position));
+    }
+    
+    /**
+     * 位置のノート（未読み込みならnullを返し、そのページと先のページの読み込みを始める）
+     */
+    public Note get(int position) {
+        int direction = position >= lastPosition ? 1 : -1;
+        lastPosition = position;
+        
+        int page = position / PAGE_SIZE;
+        requestPage(page);
+        requestPage(page + direction);
+        return cache.get(ids.get(position));
+    }
+    
+    /**
+     * ノートを先頭に追加（すでにあれば先頭に移動）
+     *
+     * @return 元の位置（なかった場合は-1）
+     */
+    public int moveToFront(Note note) {
+        int position = ids.indexOf(note.getId());
+        if (position >= 0) {
+            ids.remove(position);
+        }
+        ids.add(0, note.getId());
+        cache.put(note.getId(), note);
+        if (position != 0) {
+            structureVersion++;
+        }
+        return position;
+    }
+    
+    /**
+     * 読み込み済みのノートを新しい内容に置き換える
+     *
+     * @return 位置（一覧になければ-1）
+     */
+    public int update(Note note) {
+        int position = ids.indexOf(note.getId());
+        if (position >= 0) {
+            cache.put(note.getId(), note);
+        }
+        return position;
+    }
+    
+    /**
+     * ノートを一覧から除く
+     *
+     * @return 元の位置（なかった場合は-1）
+     */
+    public int remove(String noteId) {
+        int position = ids.indexOf(noteId);
+        if (position >= 0) {
+            ids.remove(position);
+            cache.remove(noteId);
+            structureVersion++;
+        }
+        return position;
+    }
+    
+    private void requestPage(int page) {
+        int start = page * PAGE_SIZE;
+        if (page < 0 || start >= ids.size() || loadingPages.contains(page)) {
+            return;
+        }
+        int end = Math.min(start + PAGE_SIZE, ids.size());
+        if (isLoaded(start, end)) {
+            return;
+        }
+        
+        loadingPages.add(page);
+        List<String> pageIds = new ArrayList<>(ids.subList(start, end));
+        int requestGeneration = generation;
+        int requestVersion = structureVersion;
+        loader.execute(() -> {
+            long traceStart = PAGE_LOAD.start();
+            List<Note> notes = storage.getNotes(pageIds);
+            PAGE_LOAD.stop(traceStart);
+            mainHandler.post(() -> onPageLoaded(requestGeneration, requestVersion, page, notes));
+        });
+    }
+    
+    private void onPageLoaded(int requestGeneration, int requestVersion, int page, List<Note> notes) {
+        if (requestGeneration != generation) {
+            return;
+        }
+        loadingPages.remove(page);
+        for (Note note : notes) {
+            // 読み込み中に保存された新しい内容は上書きしない
+            if (!cache.containsKey(note.getId())) {
+                cache.put(note.getId(), note);
+            }
+        }
+        evictFarNotes();
+        
+        int start;
+        int end;
+        if (requestVersion == structureVersion) {
+            start = page * PAGE_SIZE;
+            end = Math.min(start + PAGE_SIZE, ids.size());
+        } else {
+            // 読み込み中に並びが変わったので、保持している範囲をまとめて再バインドする
+            start = keepStart();
+            end = keepEnd();
+        }
+        if (start < end) {
+            listener.onNotesLoaded(start, end - start);
+        }
+    }
+    
+    private boolean isLoaded(int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (!cache.containsKey(ids.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * 表示位置から離れたノートを捨てる
+     */
+    private void evictFarNotes() {
+        if (cache.size() <= MAX_CACHED_NOTES) {
+            return;
+        }
+        Map<String, Note> kept = new HashMap<>();
+        for (int i = keepStart(); i < keepEnd(); i++) {
+            Note note = cache.get(ids.get(i));
+            if (note != null) {
+                kept.put(note.getId(), note);
+            }
+        }
+        EVICTED.add(cache.size() - kept.size());
+        cache = kept;
+    }
+    
+    private int keepStart() {
+        return Math.max(0, Math.min(lastPosition, ids.size()) - KEEP_PAGES * PAGE_SIZE);
+    }
+    
+    private int keepEnd() {
+        return Math.min(ids.size(), lastPosition + (KEEP_PAGES + 1) * PAGE_SIZE);
+    }
+}
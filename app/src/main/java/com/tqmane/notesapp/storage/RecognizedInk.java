@@ -0,0 +1,131 @@
+package com.tqmane.notesapp.storage;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * ノートの手書き文字の認識結果
+ *
+ * 続けて書いた筆跡のまとまり（バッチ）ごとに、含まれる筆跡のキーと認識した文字列を持つ。
+ * 次の認識では、キーがすべて残っているバッチはそのまま使い、それ以外の筆跡だけを認識し直す。
+ *
+ * ファイル形式: [magic:4][version:4][recognizer:UTF][batchCount:4]
+ *              batch = [keyCount:4][key:8]...[text:UTF]
+ */
+public final class RecognizedInk {
+    
+    private static final int MAGIC = 0x4E494E4B; // "NINK"
+    private static final int VERSION = 1;
+    // writeUTFの上限に収める
+    private static final int MAX_TEXT_LENGTH = 16384;
+    
+    /**
+     * 続けて書いた筆跡のまとまりと、その認識結果
+     */
+    public static final class Batch {
+        private final long[] strokeKeys;
+        private final String text;
+        
+        public Batch(long[] strokeKeys, String text) {
+            this.strokeKeys = strokeKeys.clone();
+            this.text = text.length() > MAX_TEXT_LENGTH ? text.substring(0, MAX_TEXT_LENGTH) : text;
+        }
+        
+        public int getStrokeCount() {
+            return strokeKeys.length;
+        }
+        
+        public long getStrokeKey(int index) {
+            return strokeKeys[index];
+        }
+        
+        public String getText() {
+            return text;
+        }
+    }
+    
+    private final String recognizerName;
+    private final List<Batch> batches = new ArrayList<>();
+    
+    public RecognizedInk(String recognizerName) {
+        this.recognizerName = recognizerName;
+    }
+    
+    /**
+     * 認識に使ったエンジンの名前（変わったらすべて認識し直す）
+     */
+    public String getRecognizerName() {
+        return recognizerName;
+    }
+    
+    public List<Batch> getBatches() {
+        return Collections.unmodifiableList(batches);
+    }
+    
+    public void addBatch(Batch batch) {
+        batches.add(batch);
+    }
+    
+    /**
+     * 検索索引に入れる文字列（バッチごとに改行で区切る）
+     */
+    public String getText() {
+        StringBuilder builder = new StringBuilder();
+        for (Batch batch : batches) {
+            if (batch.text.isEmpty()) {
+                continue;
+            }
+            if (builder.length() > 0) {
+                builder.append('\n');
+            }
+            builder.append(batch.text);
+        }
+        return builder.toString();
+    }
+    
+    void writeTo(OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeUTF(recognizerName);
+        out.writeInt(batches.size());
+        for (Batch batch : batches) {
+            out.writeInt(batch.strokeKeys.length);
+            for (long key : batch.strokeKeys) {
+                out.writeLong(key);
+            }
+            out.writeUTF(batch.text);
+        }
+        out.flush();
+    }
+    
+    static RecognizedInk readFrom(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("Not a recognition result");
+        }
+        RecognizedInk ink = new RecognizedInk(in.readUTF());
+        int batchCount = in.readInt();
+        if (batchCount < 0) {
+            throw new IOException("Corrupt recognition result");
+        }
+        for (int b = 0; b < batchCount; b++) {
+            int keyCount = in.readInt();
+            if (keyCount < 0) {
+                throw new IOException("Corrupt recognition result");
+            }
+            long[] keys = new long[keyCount];
+            for (int i = 0; i < keyCount; i++) {
+                keys[i] = in.readLong();
+            }
+            ink.batches.add(new Batch(keys, in.readUTF()));
+        }
+        return ink;
+    }
+}
@@ -0,0 +1,822 @@
+package com.tqmane.notesapp.storage;
+
+import com.tqmane.notesapp.metrics.Counter;
+import com.tqmane.notesapp.metrics.Metrics;
+import com.tqmane.notesapp.models.Note;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * ノートの検索索引
+ *
+ * タイトルと手書き文字の認識結果の語（SearchTokenizer）→ノートの転置索引と、
+ * 作成日時・更新日時の整列済み索引をメモリ上に持つ。
+ * ノートには番号（スロット）を振り、転置索引はスロットの昇順の配列で持つ。
+ * 保存・削除のたびに該当ノートの分だけ更新し、カタログと同じく追記専用のログ（notes.search）に記録する。
+ * 索引はカタログ（と認識結果のファイル）から作り直せるので、
+ * 開いたときにカタログとノートの集合が一致しなければ作り直す。
+ *
+ * レコード形式: [op:1][payloadLen:4][payload][crc32:4]
+ *              PUT = [id:UTF][title:UTF][createdAt:8][updatedAt:8]、DELETE = [id:UTF]、TEXT = [id:UTF][text:UTF]
+ */
+final class SearchIndex {
+    
+    private static final String TAG = "SearchIndex";
+    
+    // 追記と書き直しで書き込んだバイト数
+    private static final Counter BYTES_WRITTEN = Metrics.counter("storage.searchIndexBytesWritten");
+    
+    static final String INDEX_FILE = "notes.search";
+    
+    private static final int MAGIC = 0x4E534958; // "NSIX"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    
+    private static final byte OP_PUT = 1;
+    private static final byte OP_DELETE = 2;
+    private static final byte OP_TEXT = 3;
+    
+    // 無効レコードがこの件数以上かつ有効レコード数の半分を超えたら書き直す
+    private static final int COMPACT_MIN_DEAD_RECORDS = 64;
+    private static final float COMPACT_DEAD_RATIO = 0.5f;
+    
+    // 索引に入れるタイトルと認識結果の長さ（writeUTFの上限に収める）
+    private static final int MAX_TITLE_LENGTH = 4096;
+    private static final int MAX_TEXT_LENGTH = 16384;
+    
+    /**
+     * 索引を作り直すときに認識結果を読む
+     */
+    interface TextSource {
+        /**
+         * ノートの手書き文字の認識結果（なければ空文字）
+         */
+        String getText(String noteId);
+    }
+    
+    // カタログと同じくディレクトリごとに共有する
+    private static final Map<String, SearchIndex> instances = new HashMap<>();
+    
+    private final File file;
+    private RandomAccessFile log;
+    private int deadRecords;
+    
+    // ノートID → スロット
+    private final Map<String, Integer> slots = new HashMap<>();
+    // スロットごとのID・正規化したタイトルと認識結果・日時（空きスロットのIDはnull）
+    private String[] ids = new String[64];
+    private String[] titles = new String[64];
+    private String[] texts = new String[64];
+    private long[] createdAts = new long[64];
+    private long[] updatedAts = new long[64];
+    private int slotCount;
+    private int[] freeSlots = new int[16];
+    private int freeCount;
+    
+    // 語 → その語を含むノートのスロット（語の順に並べ、前方一致で引けるようにする）
+    private final TreeMap<String, Postings> terms = new TreeMap<>();
+    private final SortedLongIndex byCreated = new SortedLongIndex();
+    private final SortedLongIndex byUpdated = new SortedLongIndex();
+    
+    // 語の切り出しに使い回す
+    private final Set<String> scratchTerms = new HashSet<>();
+    // まとめて登録している間は日時の索引を更新せず、最後に並べ直す
+    private boolean bulkLoading;
+    
+    /**
+     * ディレクトリに対応する索引を取得（初回はログを読み、カタログと食い違えば作り直す）
+     */
+    static synchronized SearchIndex open(File dir, NoteCatalog catalog, TextSource textSource) throws IOException {
+        String key = dir.getAbsolutePath();
+        SearchIndex index = instances.get(key);
+        if (index == null) {
+            index = new SearchIndex(dir, catalog, textSource);
+            instances.put(key, index);
+        }
+        return index;
+    }
+    
+    /**
+     * ディレクトリの索引を閉じる（次のopenでログを読み直す）
+     */
+    static synchronized void close(File dir) throws IOException {
+        SearchIndex index = instances.remove(dir.getAbsolutePath());
+        if (index != null) {
+            index.closeLog();
+        }
+    }
+    
+    private SearchIndex(File dir, NoteCatalog catalog, TextSource textSource) throws IOException {
+        this.file = new File(dir, INDEX_FILE);
+        openLog();
+        
+        if (!matches(catalog.getIds())) {
+            android.util.Log.i(TAG, "Rebuilding search index from catalog");
+            clear();
+            bulkLoading = true;
+            // 保存順に登録してスロットを振る（Noteを作らずにカタログから直接読む）
+            catalog.forEachMetadata((noteId, title, createdAt, updatedAt) ->
+                    putEntry(noteId, limit(title, MAX_TITLE_LENGTH),
+                            limit(textSource.getText(noteId), MAX_TEXT_LENGTH), createdAt, updatedAt));
+            finishBulkLoad();
+            compact();
+        }
+    }
+    
+    /**
+     * ノートを登録または更新
+     */
+    synchronized void put(Note note) throws IOException {
+        String title = indexTitle(note);
+        Integer slot = slots.get(note.getId());
+        if (slot != null && title.equals(titles[slot])
+                && note.getCreatedAt() == createdAts[slot] && note.getUpdatedAt() == updatedAts[slot]) {
+            return;
+        }
+        
+        append(OP_PUT, encodePut(note.getId(), title, note.getCreatedAt(), note.getUpdatedAt()));
+        if (slot != null) {
+            deadRecords++;
+        }
+        putEntry(note.getId(), title, slot != null ? texts[slot] : "", note.getCreatedAt(), note.getUpdatedAt());
+        maybeCompact();
+    }
+    
+    /**
+     * ノートの手書き文字の認識結果を登録（索引にないノートは無視する）
+     */
+    synchronized void putText(String noteId, String text) throws IOException {
+        Integer slot = slots.get(noteId);
+        String normalized = limit(text, MAX_TEXT_LENGTH);
+        if (slot == null || normalized.equals(texts[slot])) {
+            return;
+        }
+        
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(32 + normalized.length() * 3);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF(noteId);
+        out.writeUTF(normalized);
+        append(OP_TEXT, bytes.toByteArray());
+        if (!texts[slot].isEmpty()) {
+            deadRecords++;
+        }
+        putEntry(noteId, titles[slot], normalized, createdAts[slot], updatedAts[slot]);
+        maybeCompact();
+    }
+    
+    /**
+     * ノートを索引から削除
+     */
+    synchronized void delete(String noteId) throws IOException {
+        if (!slots.containsKey(noteId)) {
+            return;
+        }
+        
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new DataOutputStream(bytes).writeUTF(noteId);
+        append(OP_DELETE, bytes.toByteArray());
+        removeEntry(noteId);
+        // 旧PUTと削除レコード自身の2件が無効になる
+        deadRecords += 2;
+        maybeCompact();
+    }
+    
+    synchronized int size() {
+        return slots.size();
+    }
+    
+    /**
+     * 条件に合うノートのIDを更新日時の新しい順に取得
+     */
+    synchronized List<String> search(NoteQuery query) {
+        List<String> result = new ArrayList<>();
+        BitSet filter = null;
+        List<String> phrases = new ArrayList<>();
+        
+        for (String word : SearchTokenizer.normalize(query.getText()).split("\\s+")) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            BitSet matches = matchWord(word, phrases);
+            if (matches == null) {
+                continue;
+            }
+            if (filter == null) {
+                filter = matches;
+            } else {
+                filter.and(matches);
+            }
+            if (filter.isEmpty()) {
+                return result;
+            }
+        }
+        
+        if (query.getCreatedFrom() != Long.MIN_VALUE || query.getCreatedTo() != Long.MAX_VALUE) {
+            BitSet created = new BitSet(slotCount);
+            byCreated.collect(query.getCreatedFrom(), query.getCreatedTo(), created);
+            if (filter == null) {
+                filter = created;
+            } else {
+                filter.and(created);
+            }
+            if (filter.isEmpty()) {
+                return result;
+            }
+        }
+        
+        // 更新日時の索引を新しい順にたどり、絞り込みに残ったものだけを返す
+        int from = byUpdated.lowerBound(query.getUpdatedFrom());
+        int to = byUpdated.lowerBound(query.getUpdatedTo());
+        for (int i = to - 1; i >= from; i--) {
+            int slot = byUpdated.slotAt(i);
+            if ((filter == null || filter.get(slot)) && containsPhrases(slot, phrases)) {
+                result.add(ids[slot]);
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * 検索語1つに合うスロット（絞り込みに使える語がなければnull）
+     * 3文字以上の漢字・かなの連続はbi-gramがすべて含まれることで絞り、連続していることはphrasesで確かめる
+     */
+    private BitSet matchWord(String word, List<String> phrases) {
+        BitSet matches = null;
+        
+        // タグは「#」付きの語と完全に一致するものだけ
+        if (word.length() > 1 && word.charAt(0) == SearchTokenizer.TAG_PREFIX && isWord(word, 1)) {
+            matches = new BitSet(slotCount);
+            addPostings(terms.get(word), matches);
+            return matches;
+        }
+        
+        int length = word.length();
+        int i = 0;
+        while (i < length) {
+            char c = word.charAt(i);
+            int end = i + 1;
+            BitSet run;
+            if (SearchTokenizer.isCjk(c)) {
+                while (end < length && SearchTokenizer.isCjk(word.charAt(end))) {
+                    end++;
+                }
+                run = new BitSet(slotCount);
+                if (end - i == 1) {
+                    addPostings(terms.get(word.substring(i, end)), run);
+                } else {
+                    addPostings(terms.get(word.substring(i, i + 2)), run);
+                    for (int j = i + 1; j + 1 < end && !run.isEmpty(); j++) {
+                        BitSet bigram = new BitSet(slotCount);
+                        addPostings(terms.get(word.substring(j, j + 2)), bigram);
+                        run.and(bigram);
+                    }
+                    if (end - i > 2) {
+                        phrases.add(word.substring(i, end));
+                    }
+                }
+            } else if (SearchTokenizer.isWordChar(c)) {
+                while (end < length && SearchTokenizer.isWordChar(word.charAt(end))
+                        && !SearchTokenizer.isCjk(word.charAt(end))) {
+                    end++;
+                }
+                // 英数字の語は前方一致
+                String prefix = word.substring(i, end);
+                run = new BitSet(slotCount);
+                for (Postings postings : terms.subMap(prefix, prefix + Character.MAX_VALUE).values()) {
+                    addPostings(postings, run);
+                }
+            } else {
+                i = end;
+                continue;
+            }
+            
+            if (matches == null) {
+                matches = run;
+            } else {
+                matches.and(run);
+            }
+            i = end;
+        }
+        return matches;
+    }
+    
+    private static boolean isWord(String word, int start) {
+        for (int i = start; i < word.length(); i++) {
+            if (!SearchTokenizer.isWordChar(word.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private static void addPostings(Postings postings, BitSet out) {
+        if (postings == null) {
+            return;
+        }
+        for (int i = 0; i < postings.size; i++) {
+            out.set(postings.slots[i]);
+        }
+    }
+    
+    private boolean containsPhrases(int slot, List<String> phrases) {
+        for (int i = 0; i < phrases.size(); i++) {
+            String phrase = phrases.get(i);
+            if (!titles[slot].contains(phrase) && !texts[slot].contains(phrase)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * 索引に入れるタイトル（正規化して長さを制限したもの）
+     */
+    private static String indexTitle(Note note) {
+        return limit(note.getTitle(), MAX_TITLE_LENGTH);
+    }
+    
+    private static String limit(String text, int maxLength) {
+        String normalized = SearchTokenizer.normalize(text);
+        return normalized.length() > maxLength ? normalized.substring(0, maxLength) : normalized;
+    }
+    
+    private void putEntry(String noteId, String title, String text, long createdAt, long updatedAt) {
+        Integer existing = slots.get(noteId);
+        int slot;
+        if (existing != null) {
+            slot = existing;
+            removeSlotData(slot);
+        } else {
+            slot = allocateSlot();
+            slots.put(noteId, slot);
+        }
+        ids[slot] = noteId;
+        titles[slot] = title;
+        texts[slot] = text;
+        createdAts[slot] = createdAt;
+        updatedAts[slot] = updatedAt;
+        
+        scratchTerms.clear();
+        SearchTokenizer.tokenize(title, scratchTerms);
+        SearchTokenizer.tokenize(text, scratchTerms);
+        for (String term : scratchTerms) {
+            Postings postings = terms.get(term);
+            if (postings == null) {
+                postings = new Postings();
+                terms.put(term, postings);
+            }
+            postings.add(slot);
+        }
+        if (!bulkLoading) {
+            byCreated.add(createdAt, slot);
+            byUpdated.add(updatedAt, slot);
+        }
+    }
+    
+    private void removeEntry(String noteId) {
+        Integer slot = slots.remove(noteId);
+        if (slot == null) {
+            return;
+        }
+        removeSlotData(slot);
+        ids[slot] = null;
+        titles[slot] = null;
+        texts[slot] = null;
+        if (freeCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+        }
+        freeSlots[freeCount++] = slot;
+    }
+    
+    /**
+     * スロットの語と日時を索引から外す
+     */
+    private void removeSlotData(int slot) {
+        scratchTerms.clear();
+        SearchTokenizer.tokenize(titles[slot], scratchTerms);
+        SearchTokenizer.tokenize(texts[slot], scratchTerms);
+        for (String term : scratchTerms) {
+            Postings postings = terms.get(term);
+            if (postings != null && postings.remove(slot) && postings.size == 0) {
+                terms.remove(term);
+            }
+        }
+        if (!bulkLoading) {
+            byCreated.remove(createdAts[slot], slot);
+            byUpdated.remove(updatedAts[slot], slot);
+        }
+    }
+    
+    /**
+     * まとめて登録した後に日時の索引を作る（1件ずつ挿入するより速い）
+     */
+    private void finishBulkLoad() {
+        bulkLoading = false;
+        byCreated.clear();
+        byUpdated.clear();
+        for (int slot = 0; slot < slotCount; slot++) {
+            if (ids[slot] != null) {
+                byCreated.append(createdAts[slot], slot);
+                byUpdated.append(updatedAts[slot], slot);
+            }
+        }
+        byCreated.sort();
+        byUpdated.sort();
+    }
+    
+    private int allocateSlot() {
+        if (freeCount > 0) {
+            return freeSlots[--freeCount];
+        }
+        if (slotCount == ids.length) {
+            int capacity = slotCount * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            titles = Arrays.copyOf(titles, capacity);
+            texts = Arrays.copyOf(texts, capacity);
+            createdAts = Arrays.copyOf(createdAts, capacity);
+            updatedAts = Arrays.copyOf(updatedAts, capacity);
+        }
+        return slotCount++;
+    }
+    
+    private void clear() {
+        slots.clear();
+        Arrays.fill(ids, null);
+        Arrays.fill(titles, null);
+        Arrays.fill(texts, null);
+        slotCount = 0;
+        freeCount = 0;
+        terms.clear();
+        byCreated.clear();
+        byUpdated.clear();
+    }
+    
+    /**
+     * 索引のノートの集合がカタログと一致するか
+     */
+    private boolean matches(List<String> catalogIds) {
+        if (catalogIds.size() != slots.size()) {
+            return false;
+        }
+        for (String id : catalogIds) {
+            if (!slots.containsKey(id)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private void maybeCompact() throws IOException {
+        if (deadRecords >= COMPACT_MIN_DEAD_RECORDS
+                && deadRecords > slots.size() * COMPACT_DEAD_RATIO) {
+            compact();
+        }
+    }
+    
+    /**
+     * メモリ上の索引だけでログを書き直す
+     */
+    private void compact() throws IOException {
+        AtomicFileWriter.write(file, stream -> {
+            DataOutputStream out = new DataOutputStream(stream);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            // スロットの順に書き、読み直したときも同じスロットになるようにする
+            for (int slot = 0; slot < slotCount; slot++) {
+                if (ids[slot] != null) {
+                    out.write(encodeRecord(OP_PUT,
+                            encodePut(ids[slot], titles[slot], createdAts[slot], updatedAts[slot])));
+                    if (!texts[slot].isEmpty()) {
+                        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                        DataOutputStream text = new DataOutputStream(bytes);
+                        text.writeUTF(ids[slot]);
+                        text.writeUTF(texts[slot]);
+                        out.write(encodeRecord(OP_TEXT, bytes.toByteArray()));
+                    }
+                }
+            }
+            out.flush();
+        });
+        
+        log.close();
+        log = new RandomAccessFile(file, "rw");
+        deadRecords = 0;
+        BYTES_WRITTEN.add(file.length());
+    }
+    
+    private synchronized void closeLog() throws IOException {
+        log.close();
+    }
+    
+    /**
+     * 索引はカタログから作り直せるので、追記のたびにfsyncはしない
+     */
+    private void append(byte op, byte[] payload) throws IOException {
+        byte[] record = encodeRecord(op, payload);
+        log.seek(log.length());
+        log.write(record);
+        BYTES_WRITTEN.add(record.length);
+    }
+    
+    private static byte[] encodePut(String noteId, String title, long createdAt, long updatedAt) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + title.length() * 3);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeUTF(noteId);
+        out.writeUTF(title);
+        out.writeLong(createdAt);
+        out.writeLong(updatedAt);
+        return bytes.toByteArray();
+    }
+    
+    private static byte[] encodeRecord(byte op, byte[] payload) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 + 4 + payload.length + 4);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(op);
+        out.writeInt(payload.length);
+        out.write(payload);
+        
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray(), 0, bytes.size());
+        out.writeInt((int) crc.getValue());
+        return bytes.toByteArray();
+    }
+    
+    /**
+     * ログを開いて先頭から再生する
+     * 末尾の書きかけレコードは切り捨て、形式が違えば空から始める（カタログとの照合で作り直される）
+     */
+    private void openLog() throws IOException {
+        clear();
+        deadRecords = 0;
+        
+        log = new RandomAccessFile(file, "rw");
+        if (log.length() < HEADER_SIZE) {
+            resetLog();
+            return;
+        }
+        
+        long validLength = HEADER_SIZE;
+        bulkLoading = true;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                android.util.Log.w(TAG, "Unknown search index format, rebuilding: " + file);
+                resetLog();
+                return;
+            }
+            
+            CRC32 crc = new CRC32();
+            long offset = HEADER_SIZE;
+            while (true) {
+                byte op;
+                try {
+                    op = in.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+                
+                try {
+                    int payloadLength = in.readInt();
+                    if (payloadLength < 0 || offset + payloadLength > log.length()) {
+                        break;
+                    }
+                    byte[] payload = new byte[payloadLength];
+                    in.readFully(payload);
+                    int storedCrc = in.readInt();
+                    
+                    crc.reset();
+                    crc.update(op);
+                    crc.update(payloadLength >>> 24);
+                    crc.update(payloadLength >>> 16);
+                    crc.update(payloadLength >>> 8);
+                    crc.update(payloadLength);
+                    crc.update(payload, 0, payload.length);
+                    if ((int) crc.getValue() != storedCrc) {
+                        break;
+                    }
+                    
+                    DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+                    String noteId = record.readUTF();
+                    Integer slot = slots.get(noteId);
+                    if (op == OP_PUT) {
+                        if (slot != null) {
+                            deadRecords++;
+                        }
+                        putEntry(noteId, record.readUTF(), slot != null ? texts[slot] : "",
+                                record.readLong(), record.readLong());
+                    } else if (op == OP_TEXT) {
+                        if (slot == null) {
+                            deadRecords++;
+                        } else {
+                            if (!texts[slot].isEmpty()) {
+                                deadRecords++;
+                            }
+                            putEntry(noteId, titles[slot], record.readUTF(), createdAts[slot], updatedAts[slot]);
+                        }
+                    } else if (op == OP_DELETE) {
+                        if (slots.containsKey(noteId)) {
+                            removeEntry(noteId);
+                            deadRecords++;
+                        }
+                        deadRecords++;
+                    } else {
+                        break;
+                    }
+                    
+                    offset += 1 + 4 + payloadLength + 4;
+                    validLength = offset;
+                } catch (EOFException e) {
+                    break;
+                }
+            }
+        } finally {
+            finishBulkLoad();
+        }
+        
+        if (validLength < log.length()) {
+            android.util.Log.w(TAG, "Truncating torn search index tail at " + validLength);
+            log.setLength(validLength);
+        }
+    }
+    
+    private void resetLog() throws IOException {
+        clear();
+        log.setLength(0);
+        log.writeInt(MAGIC);
+        log.writeInt(VERSION);
+    }
+    
+    /**
+     * 語を含むノートのスロット（昇順）
+     */
+    private static final class Postings {
+        int[] slots = new int[4];
+        int size;
+        
+        void add(int slot) {
+            int position = Arrays.binarySearch(slots, 0, size, slot);
+            if (position >= 0) {
+                return;
+            }
+            position = -position - 1;
+            if (size == slots.length) {
+                slots = Arrays.copyOf(slots, size * 2);
+            }
+            System.arraycopy(slots, position, slots, position + 1, size - position);
+            slots[position] = slot;
+            size++;
+        }
+        
+        boolean remove(int slot) {
+            int position = Arrays.binarySearch(slots, 0, size, slot);
+            if (position < 0) {
+                return false;
+            }
+            System.arraycopy(slots, position + 1, slots, position, size - position - 1);
+            size--;
+            return true;
+        }
+    }
+    
+    /**
+     * 日時の整列済み索引（日時、同じ日時はスロットの昇順）
+     */
+    private static final class SortedLongIndex {
+        private long[] keys = new long[64];
+        private int[] slots = new int[64];
+        private int size;
+        
+        void add(long key, int slot) {
+            int position = find(key, slot);
+            if (position >= 0) {
+                return;
+            }
+            position = -position - 1;
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                slots = Arrays.copyOf(slots, size * 2);
+            }
+            System.arraycopy(keys, position, keys, position + 1, size - position);
+            System.arraycopy(slots, position, slots, position + 1, size - position);
+            keys[position] = key;
+            slots[position] = slot;
+            size++;
+        }
+        
+        void remove(long key, int slot) {
+            int position = find(key, slot);
+            if (position < 0) {
+                return;
+            }
+            System.arraycopy(keys, position + 1, keys, position, size - position - 1);
+            System.arraycopy(slots, position + 1, slots, position, size - position - 1);
+            size--;
+        }
+        
+        void clear() {
+            size = 0;
+        }
+        
+        /**
+         * 並び順を保たずに末尾に追加（最後にsortを呼ぶこと）
+         */
+        void append(long key, int slot) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                slots = Arrays.copyOf(slots, size * 2);
+            }
+            keys[size] = key;
+            slots[size] = slot;
+            size++;
+        }
+        
+        void sort() {
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            long[] sortedKeys = keys;
+            int[] sortedSlots = slots;
+            Arrays.sort(order, (a, b) -> sortedKeys[a] != sortedKeys[b]
+                    ? Long.compare(sortedKeys[a], sortedKeys[b])
+                    : Integer.compare(sortedSlots[a], sortedSlots[b]));
+            long[] newKeys = new long[keys.length];
+            int[] newSlots = new int[slots.length];
+            for (int i = 0; i < size; i++) {
+                newKeys[i] = keys[order[i]];
+                newSlots[i] = slots[order[i]];
+            }
+            keys = newKeys;
+            slots = newSlots;
+        }
+        
+        int slotAt(int position) {
+            return slots[position];
+        }
+        
+        /**
+         * key以上の最初の位置
+         */
+        int lowerBound(long key) {
+            int low = 0;
+            int high = size;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (keys[mid] < key) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+        
+        /**
+         * [from, to)のスロットを集める
+         */
+        void collect(long from, long to, BitSet out) {
+            for (int i = lowerBound(from); i < size && keys[i] < to; i++) {
+                out.set(slots[i]);
+            }
+        }
+        
+        /**
+         * (key, slot)の位置（なければ -(挿入位置) - 1）
+         */
+        private int find(long key, int slot) {
+            int low = 0;
+            int high = size - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int compare = keys[mid] != key ? Long.compare(keys[mid], key) : Integer.compare(slots[mid], slot);
+                if (compare < 0) {
+                    low = mid + 1;
+                } else if (compare > 0) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -(low + 1);
+        }
+    }
+}
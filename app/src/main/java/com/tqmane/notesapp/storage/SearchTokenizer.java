@@ -0,0 +1,90 @@
+package com.tqmane.notesapp.storage;
+
+import java.text.Normalizer;
+import java.util.Collection;
+import java.util.Locale;
+
+/**
+ * 検索用の正規化と語の切り出し
+ *
+ * 漢字・ひらがな・カタカナの連続は1文字と2文字（bi-gram）の語にし、
+ * それ以外の文字・数字の連続は1語とする。「#」で始まる連続はタグとして「#」付きの語にもする。
+ */
+final class SearchTokenizer {
+    
+    static final char TAG_PREFIX = '#';
+    
+    private SearchTokenizer() {
+    }
+    
+    /**
+     * 全角・半角と大文字・小文字の違いをなくす
+     */
+    static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        return Normalizer.normalize(text, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+    }
+    
+    /**
+     * 正規化済みの文字列から索引に登録する語を切り出す
+     */
+    static void tokenize(String normalized, Collection<String> out) {
+        int length = normalized.length();
+        int i = 0;
+        while (i < length) {
+            char c = normalized.charAt(i);
+            if (c == TAG_PREFIX && i + 1 < length && isWordChar(normalized.charAt(i + 1))) {
+                int end = i + 1;
+                while (end < length && isWordChar(normalized.charAt(end))) {
+                    end++;
+                }
+                out.add(normalized.substring(i, end));
+                i++;
+                continue;
+            }
+            if (isCjk(c)) {
+                int end = i;
+                while (end < length && isCjk(normalized.charAt(end))) {
+                    end++;
+                }
+                for (int j = i; j < end; j++) {
+                    out.add(normalized.substring(j, j + 1));
+                    if (j + 1 < end) {
+                        out.add(normalized.substring(j, j + 2));
+                    }
+                }
+                i = end;
+                continue;
+            }
+            if (isWordChar(c)) {
+                int end = i;
+                while (end < length && isWordChar(normalized.charAt(end)) && !isCjk(normalized.charAt(end))) {
+                    end++;
+                }
+                out.add(normalized.substring(i, end));
+                i = end;
+                continue;
+            }
+            i++;
+        }
+    }
+    
+    /**
+     * 漢字・ひらがな・カタカナ（長音記号を含む）
+     */
+    static boolean isCjk(char c) {
+        if (c == 'ー' || c == '々') {
+            return true;
+        }
+        Character.UnicodeScript script = Character.UnicodeScript.of(c);
+        return script == Character.UnicodeScript.HAN
+                || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA;
+    }
+    
+    static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || isCjk(c);
+    }
+}
@@ -0,0 +1,241 @@
+package com.tqmane.notesapp.storage;
+
+import com.tqmane.notesapp.models.StrokeData;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 筆跡のバイナリ形式エンコーダー／デコーダー
+ *
+ * 各ポイントの座標・筆圧・傾き・時刻を量子化し、直前のポイントとの差分を
+ * ZigZag可変長整数で書き出す。ファイルサイズは画面解像度ではなく描いた量に比例する。
+ *
+ * 間引き後のキーポイントは、ポイントの番号の差分として元のサンプルの後ろに書く。
+ *
+ * 形式: [magic:4][version:1][strokeCount:varint]
+ *       stroke = [color:4][width:4][pointCount:varint][startTime:varlong]
+ *                point = [dx][dy][dPressure][dTiltX][dTiltY][dTime] (すべてZigZag varint)
+ *                [keyCount:varint（0なら未間引き）][dIndex:varint]... (version 2以降)
+ */
+final class StrokeCodec {
+    
+    private static final int MAGIC = 0x4E53544B; // "NSTK"
+    private static final int VERSION = 2;
+    // キーポイントのない形式
+    private static final int VERSION_WITHOUT_KEYS = 1;
+    
+    // 量子化の分解能
+    private static final float POSITION_SCALE = 8f;      // 1/8 px
+    private static final float PRESSURE_SCALE = 1023f;   // 10bit
+    private static final float TILT_SCALE = 1000f;       // ミリラジアン
+    
+    private StrokeCodec() {
+    }
+    
+    static void encode(List<StrokeData> strokes, OutputStream out) throws IOException {
+        Writer writer = new Writer(out);
+        writer.writeInt(MAGIC);
+        writer.writeByte(VERSION);
+        writer.writeVarLong(strokes.size());
+        
+        for (StrokeData stroke : strokes) {
+            int pointCount = stroke.getPointCount();
+            writer.writeInt(stroke.getColor());
+            writer.writeInt(Float.floatToIntBits(stroke.getWidth()));
+            writer.writeVarLong(pointCount);
+            
+            long startTime = pointCount == 0 ? 0 : stroke.getTime(0);
+            writer.writeVarLong(startTime);
+            
+            int lastX = 0, lastY = 0, lastPressure = 0, lastTiltX = 0, lastTiltY = 0;
+            long lastTime = startTime;
+            for (int i = 0; i < pointCount; i++) {
+                int x = Math.round(stroke.getX(i) * POSITION_SCALE);
+                int y = Math.round(stroke.getY(i) * POSITION_SCALE);
+                int pressure = Math.round(stroke.getPressure(i) * PRESSURE_SCALE);
+                int tiltX = Math.round(stroke.getTiltX(i) * TILT_SCALE);
+                int tiltY = Math.round(stroke.getTiltY(i) * TILT_SCALE);
+                long time = stroke.getTime(i);
+                
+                writer.writeSignedVarLong(x - lastX);
+                writer.writeSignedVarLong(y - lastY);
+                writer.writeSignedVarLong(pressure - lastPressure);
+                writer.writeSignedVarLong(tiltX - lastTiltX);
+                writer.writeSignedVarLong(tiltY - lastTiltY);
+                writer.writeSignedVarLong(time - lastTime);
+                
+                lastX = x;
+                lastY = y;
+                lastPressure = pressure;
+                lastTiltX = tiltX;
+                lastTiltY = tiltY;
+                lastTime = time;
+            }
+            
+            int keyCount = stroke.isSimplified() ? stroke.getKeyCount() : 0;
+            writer.writeVarLong(keyCount);
+            int lastIndex = 0;
+            for (int k = 0; k < keyCount; k++) {
+                int index = stroke.getKeyIndex(k);
+                writer.writeVarLong(index - lastIndex);
+                lastIndex = index;
+            }
+        }
+        writer.flush();
+    }
+    
+    static List<StrokeData> decode(InputStream in) throws IOException {
+        Reader reader = new Reader(in);
+        if (reader.readInt() != MAGIC) {
+            throw new IOException("Not a stroke file");
+        }
+        int version = reader.readByte();
+        if (version != VERSION && version != VERSION_WITHOUT_KEYS) {
+            throw new IOException("Unsupported stroke format version: " + version);
+        }
+        
+        int strokeCount = (int) reader.readVarLong();
+        List<StrokeData> strokes = new ArrayList<>(strokeCount);
+        for (int s = 0; s < strokeCount; s++) {
+            int color = reader.readInt();
+            float width = Float.intBitsToFloat(reader.readInt());
+            int pointCount = (int) reader.readVarLong();
+            long startTime = reader.readVarLong();
+            
+            // 配列はStrokeDataがそのまま保持する
+            float[] xs = new float[pointCount];
+            float[] ys = new float[pointCount];
+            float[] pressures = new float[pointCount];
+            float[] tiltXs = new float[pointCount];
+            float[] tiltYs = new float[pointCount];
+            int[] timeOffsets = new int[pointCount];
+            int x = 0, y = 0, pressure = 0, tiltX = 0, tiltY = 0;
+            long time = startTime;
+            for (int i = 0; i < pointCount; i++) {
+                x += (int) reader.readSignedVarLong();
+                y += (int) reader.readSignedVarLong();
+                pressure += (int) reader.readSignedVarLong();
+                tiltX += (int) reader.readSignedVarLong();
+                tiltY += (int) reader.readSignedVarLong();
+                time += reader.readSignedVarLong();
+                
+                xs[i] = x / POSITION_SCALE;
+                ys[i] = y / POSITION_SCALE;
+                pressures[i] = pressure / PRESSURE_SCALE;
+                tiltXs[i] = tiltX / TILT_SCALE;
+                tiltYs[i] = tiltY / TILT_SCALE;
+                timeOffsets[i] = (int) (time - startTime);
+            }
+            
+            int[] keyIndices = null;
+            int keyCount = version == VERSION_WITHOUT_KEYS ? 0 : (int) reader.readVarLong();
+            if (keyCount > 0) {
+                keyIndices = new int[keyCount];
+                int index = 0;
+                for (int k = 0; k < keyCount; k++) {
+                    index += (int) reader.readVarLong();
+                    if (index >= pointCount) {
+                        throw new IOException("Key point out of range");
+                    }
+                    keyIndices[k] = index;
+                }
+            }
+            strokes.add(new StrokeData(color, width, xs, ys, pressures, tiltXs, tiltYs, startTime, timeOffsets, keyIndices));
+        }
+        return strokes;
+    }
+    
+    /**
+     * 可変長整数の書き込み（内部バッファでまとめて出力）
+     */
+    private static final class Writer {
+        private final OutputStream out;
+        private final byte[] buffer = new byte[8192];
+        private int count;
+        
+        Writer(OutputStream out) {
+            this.out = out;
+        }
+        
+        void writeByte(int b) throws IOException {
+            if (count == buffer.length) {
+                flushBuffer();
+            }
+            buffer[count++] = (byte) b;
+        }
+        
+        void writeInt(int v) throws IOException {
+            writeByte(v >>> 24);
+            writeByte(v >>> 16);
+            writeByte(v >>> 8);
+            writeByte(v);
+        }
+        
+        void writeVarLong(long v) throws IOException {
+            while ((v & ~0x7FL) != 0) {
+                writeByte((int) ((v & 0x7F) | 0x80));
+                v >>>= 7;
+            }
+            writeByte((int) v);
+        }
+        
+        void writeSignedVarLong(long v) throws IOException {
+            writeVarLong((v << 1) ^ (v >> 63));
+        }
+        
+        void flush() throws IOException {
+            flushBuffer();
+            out.flush();
+        }
+        
+        private void flushBuffer() throws IOException {
+            out.write(buffer, 0, count);
+            count = 0;
+        }
+    }
+    
+    /**
+     * 可変長整数の読み込み
+     */
+    private static final class Reader {
+        private final InputStream in;
+        
+        Reader(InputStream in) {
+            this.in = in;
+        }
+        
+        int readByte() throws IOException {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            return b;
+        }
+        
+        int readInt() throws IOException {
+            return (readByte() << 24) | (readByte() << 16) | (readByte() << 8) | readByte();
+        }
+        
+        long readVarLong() throws IOException {
+            long result = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                result |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+            }
+            throw new IOException("Malformed varint");
+        }
+        
+        long readSignedVarLong() throws IOException {
+            long v = readVarLong();
+            return (v >>> 1) ^ -(v & 1);
+        }
+    }
+}
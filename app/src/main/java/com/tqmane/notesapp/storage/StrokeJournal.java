@@ -0,0 +1,307 @@
+package com.tqmane.notesapp.storage;
+
+import com.tqmane.notesapp.models.StrokeData;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * 保存前の筆跡変更を記録する先行書き込みジャーナル
+ *
+ * 筆跡の確定やUndoはまずメモリ上のバッファに記録し、一定間隔でまとめて
+ * ファイルに追記してfsyncする（筆跡ごとにfsyncはしない）。
+ * 保存が完了すると破棄され、保存前にプロセスが終了した場合は次回読み込み時に再生される。
+ * ファイルはジャーナルごとに別にするので、閉じた後に届いた保存の完了で
+ * 同じノートを開き直した後のジャーナルを消すことはない。
+ *
+ * 操作は「index番目に追加」「count件に切り詰め」のように位置で表すため、
+ * ジャーナル開始後に保存されたどの時点の筆跡に再生しても同じ結果になる。
+ * 途中の筆跡の削除・挿入（消しゴム・移動）は対象の筆跡も記録し、
+ * 保存済みの筆跡にすでに反映されている場合は再生時に読み飛ばす。
+ *
+ * レコード形式: [op:1][value:4][payloadLen:4][payload][crc32:4]
+ */
+public class StrokeJournal {
+    
+    private static final String TAG = "StrokeJournal";
+    
+    private static final byte OP_ADD = 1;
+    private static final byte OP_TRUNCATE = 2;
+    private static final byte OP_REMOVE = 3;
+    private static final byte OP_INSERT = 4;
+    
+    // この間隔かバッファサイズのどちらかに達したらまとめて書き込む
+    private static final long FLUSH_INTERVAL_MS = 1000;
+    private static final int FLUSH_THRESHOLD_BYTES = 64 * 1024;
+    
+    private static final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "StrokeJournal");
+        thread.setPriority(Thread.NORM_PRIORITY - 1);
+        return thread;
+    });
+    
+    // 書き込み中のジャーナル（起動時の復旧処理の対象外にする）
+    private static final Set<String> openFiles = new HashSet<>();
+    
+    private final File file;
+    private final Object writeLock = new Object();
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private int sequence;
+    private boolean flushScheduled;
+    private boolean closed;
+    
+    StrokeJournal(File file) {
+        this.file = file;
+        synchronized (openFiles) {
+            openFiles.add(file.getAbsolutePath());
+        }
+    }
+    
+    /**
+     * 筆跡の追加を記録
+     */
+    public synchronized void appendStroke(int index, StrokeData stroke) {
+        append(OP_ADD, index, encode(stroke));
+    }
+    
+    /**
+     * 筆跡の切り詰め（Undo・クリア）を記録
+     */
+    public synchronized void truncate(int count) {
+        append(OP_TRUNCATE, count, new byte[0]);
+    }
+    
+    /**
+     * 途中の筆跡の削除（消しゴム・移動）を記録
+     */
+    public synchronized void removeStroke(int index, StrokeData stroke) {
+        append(OP_REMOVE, index, encode(stroke));
+    }
+    
+    /**
+     * 途中への筆跡の挿入（消した筆跡の復元・移動）を記録
+     */
+    public synchronized void insertStroke(int index, StrokeData stroke) {
+        append(OP_INSERT, index, encode(stroke));
+    }
+    
+    /**
+     * これまでに記録した操作の数（保存のスナップショットと対応付ける）
+     */
+    public synchronized int getSequence() {
+        return sequence;
+    }
+    
+    /**
+     * 保存の完了を通知
+     * スナップショット以降に操作がなければジャーナルを破棄する
+     */
+    public void checkpoint(int savedSequence) {
+        synchronized (writeLock) {
+            synchronized (this) {
+                if (sequence != savedSequence) {
+                    return;
+                }
+                buffer.reset();
+            }
+            if (file.exists() && !file.delete()) {
+                android.util.Log.w(TAG, "Failed to delete journal " + file);
+            }
+        }
+    }
+    
+    /**
+     * 未書き込みの操作をファイルに追記してfsync
+     */
+    public void flush() {
+        synchronized (writeLock) {
+            byte[] data;
+            synchronized (this) {
+                flushScheduled = false;
+                if (buffer.size() == 0) {
+                    return;
+                }
+                data = buffer.toByteArray();
+                buffer.reset();
+            }
+            
+            try (FileOutputStream fos = new FileOutputStream(file, true)) {
+                fos.write(data);
+                fos.getFD().sync();
+            } catch (IOException e) {
+                android.util.Log.e(TAG, "Error writing journal " + file, e);
+            }
+        }
+    }
+    
+    /**
+     * 残りを書き込んで閉じる（書き込みが終わるまでは復旧処理の対象外のまま）
+     */
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        flusher.execute(() -> {
+            flush();
+            synchronized (openFiles) {
+                openFiles.remove(file.getAbsolutePath());
+            }
+        });
+    }
+    
+    /**
+     * それまでに閉じたジャーナルの残りの書き込みが終わるまで待つ（保存スレッドから呼ぶ）
+     */
+    static void awaitClosed() {
+        try {
+            flusher.submit(() -> { }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    private void append(byte op, int value, byte[] payload) {
+        if (closed) {
+            return;
+        }
+        
+        try {
+            DataOutputStream out = new DataOutputStream(buffer);
+            ByteArrayOutputStream record = new ByteArrayOutputStream(9 + payload.length);
+            DataOutputStream recordOut = new DataOutputStream(record);
+            recordOut.writeByte(op);
+            recordOut.writeInt(value);
+            recordOut.writeInt(payload.length);
+            recordOut.write(payload);
+            
+            CRC32 crc = new CRC32();
+            crc.update(record.toByteArray(), 0, record.size());
+            record.writeTo(out);
+            out.writeInt((int) crc.getValue());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        sequence++;
+        
+        if (buffer.size() >= FLUSH_THRESHOLD_BYTES) {
+            flushScheduled = true;
+            flusher.execute(this::flush);
+        } else if (!flushScheduled) {
+            flushScheduled = true;
+            flusher.schedule(this::flush, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+    
+    private static byte[] encode(StrokeData stroke) {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        try {
+            StrokeCodec.encode(Collections.singletonList(stroke), payload);
+        } catch (IOException e) {
+            // メモリ上への書き込みなので発生しない
+            throw new IllegalStateException(e);
+        }
+        return payload.toByteArray();
+    }
+    
+    /**
+     * index番目の筆跡が記録された筆跡と同じか（削除・挿入がすでに反映されているかの判定）
+     */
+    private static boolean isStrokeAt(List<StrokeData> strokes, int index, byte[] payload) {
+        return index < strokes.size() && Arrays.equals(encode(strokes.get(index)), payload);
+    }
+    
+    static boolean isOpen(File file) {
+        synchronized (openFiles) {
+            return openFiles.contains(file.getAbsolutePath());
+        }
+    }
+    
+    /**
+     * ジャーナルを筆跡に再生（末尾の書きかけレコードは無視）
+     */
+    static List<StrokeData> replay(File file, List<StrokeData> base) throws IOException {
+        List<StrokeData> strokes = new ArrayList<>(base);
+        
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            CRC32 crc = new CRC32();
+            while (true) {
+                byte op;
+                int value;
+                byte[] payload;
+                try {
+                    op = in.readByte();
+                    value = in.readInt();
+                    int length = in.readInt();
+                    if (length < 0 || length > file.length()) {
+                        break;
+                    }
+                    payload = new byte[length];
+                    in.readFully(payload);
+                    
+                    crc.reset();
+                    crc.update(op);
+                    crc.update(value >>> 24);
+                    crc.update(value >>> 16);
+                    crc.update(value >>> 8);
+                    crc.update(value);
+                    crc.update(length >>> 24);
+                    crc.update(length >>> 16);
+                    crc.update(length >>> 8);
+                    crc.update(length);
+                    crc.update(payload, 0, length);
+                    if ((int) crc.getValue() != in.readInt()) {
+                        break;
+                    }
+                } catch (EOFException e) {
+                    break;
+                }
+                
+                if (op == OP_ADD) {
+                    // 保存済みの筆跡がindexより少ない場合は、後続の切り詰めで消えるので末尾に追加してよい
+                    List<StrokeData> decoded = StrokeCodec.decode(new ByteArrayInputStream(payload));
+                    if (value < strokes.size()) {
+                        strokes.subList(value, strokes.size()).clear();
+                    }
+                    strokes.addAll(decoded);
+                } else if (op == OP_TRUNCATE) {
+                    if (value < strokes.size()) {
+                        strokes.subList(value, strokes.size()).clear();
+                    }
+                } else if (op == OP_REMOVE) {
+                    if (isStrokeAt(strokes, value, payload)) {
+                        strokes.remove(value);
+                    }
+                } else if (op == OP_INSERT) {
+                    if (!isStrokeAt(strokes, value, payload)) {
+                        strokes.addAll(Math.min(value, strokes.size()),
+                                StrokeCodec.decode(new ByteArrayInputStream(payload)));
+                    }
+                } else {
+                    break;
+                }
+            }
+        }
+        return strokes;
+    }
+}
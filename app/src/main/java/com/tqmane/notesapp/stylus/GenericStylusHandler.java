@@ -2,8 +2,6 @@ package com.tqmane.notesapp.stylus;
 
 import android.content.Context;
 import android.view.MotionEvent;
-import java.util.ArrayList;
-import java.util.List;
 
 /**
  * 汎用スタイラスハンドラー
@@ -28,14 +26,26 @@ public class GenericStylusHandler implements StylusHandler {
     }
     
     @Override
-    public TouchPointInfo processTouchEvent(MotionEvent event) {
-        float x = event.getX();
-        float y = event.getY();
-        float pressure = event.getPressure();
-        
+    public void processTouchEvent(MotionEvent event, TouchPointBuffer out) {
         // ツールタイプをチェック（スタイラスか指か）
-        int toolType = event.getToolType(0);
-        if (toolType == MotionEvent.TOOL_TYPE_STYLUS) {
+        boolean stylus = event.getToolType(0) == MotionEvent.TOOL_TYPE_STYLUS;
+        
+        // 前回のイベント以降にまとめられた履歴サンプルを古い順に取り出す
+        int historySize = event.getHistorySize();
+        for (int h = 0; h < historySize; h++) {
+            addPoint(out,
+                    event.getHistoricalX(h),
+                    event.getHistoricalY(h),
+                    event.getHistoricalPressure(h),
+                    event.getHistoricalEventTime(h),
+                    stylus);
+        }
+        addPoint(out, event.getX(), event.getY(), event.getPressure(), event.getEventTime(), stylus);
+    }
+    
+    private static void addPoint(TouchPointBuffer out, float x, float y, float pressure,
+                                 long eventTime, boolean stylus) {
+        if (stylus) {
             // スタイラス使用時は筆圧情報を活用
             pressure = Math.max(pressure, 0.1f);
         } else {
@@ -43,13 +53,7 @@ public class GenericStylusHandler implements StylusHandler {
             pressure = 0.5f;
         }
         
-        return new TouchPointInfo(x, y, pressure);
-    }
-    
-    @Override
-    public List<TouchPointInfo> getPredictedPoints(TouchPointInfo currentPoint) {
-        // 汎用ハンドラーでは予測なし
-        return new ArrayList<>();
+        out.add(x, y, pressure, 0, 0, eventTime);
     }
     
     @Override
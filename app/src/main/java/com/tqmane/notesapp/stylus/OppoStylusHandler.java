@@ -3,8 +3,6 @@ package com.tqmane.notesapp.stylus;
 import android.content.Context;
 import android.os.Build;
 import android.view.MotionEvent;
-import java.util.ArrayList;
-import java.util.List;
 
 /**
  * OPPO/OnePlus デバイス用スタイラスハンドラー
@@ -15,8 +13,6 @@ public class OppoStylusHandler implements StylusHandler {
     private static final String TAG = "OppoStylusHandler";
     private Context context;
     private boolean isInitialized = false;
-    private List<TouchPointInfo> pointHistory = new ArrayList<>();
-    private static final int HISTORY_SIZE = 10;
     
     @Override
     public void initialize(Context context) {
@@ -42,55 +38,41 @@ public class OppoStylusHandler implements StylusHandler {
     }
     
     @Override
-    public TouchPointInfo processTouchEvent(MotionEvent event) {
-        float x = event.getX();
-        float y = event.getY();
-        float pressure = event.getPressure();
-        
-        // 傾き情報を取得（利用可能な場合）
-        float tiltX = 0, tiltY = 0;
-        if (event.getAxisValue(MotionEvent.AXIS_TILT) != 0) {
-            tiltX = event.getAxisValue(MotionEvent.AXIS_TILT);
-            tiltY = event.getAxisValue(MotionEvent.AXIS_ORIENTATION);
-        }
-        
-        TouchPointInfo point = new TouchPointInfo(x, y, pressure, tiltX, tiltY);
-        
-        // 履歴に追加
-        pointHistory.add(point);
-        if (pointHistory.size() > HISTORY_SIZE) {
-            pointHistory.remove(0);
+    public void processTouchEvent(MotionEvent event, TouchPointBuffer out) {
+        // 前回のイベント以降にまとめられた履歴サンプルを古い順に取り出す
+        int historySize = event.getHistorySize();
+        for (int h = 0; h < historySize; h++) {
+            addPoint(out,
+                    event.getHistoricalX(h),
+                    event.getHistoricalY(h),
+                    event.getHistoricalPressure(h),
+                    event.getHistoricalAxisValue(MotionEvent.AXIS_TILT, h),
+                    event.getHistoricalAxisValue(MotionEvent.AXIS_ORIENTATION, h),
+                    event.getHistoricalEventTime(h));
         }
-        
-        return point;
+        addPoint(out,
+                event.getX(),
+                event.getY(),
+                event.getPressure(),
+                event.getAxisValue(MotionEvent.AXIS_TILT),
+                event.getAxisValue(MotionEvent.AXIS_ORIENTATION),
+                event.getEventTime());
     }
     
-    @Override
-    public List<TouchPointInfo> getPredictedPoints(TouchPointInfo currentPoint) {
-        List<TouchPointInfo> predictedPoints = new ArrayList<>();
-        
-        // 簡易的な線形予測（実際のVFX SDKでは高度なアルゴリズムを使用）
-        if (pointHistory.size() >= 2) {
-            TouchPointInfo lastPoint = pointHistory.get(pointHistory.size() - 1);
-            TouchPointInfo secondLastPoint = pointHistory.get(pointHistory.size() - 2);
-            
-            float dx = lastPoint.getX() - secondLastPoint.getX();
-            float dy = lastPoint.getY() - secondLastPoint.getY();
-            
-            // 3つの予測ポイントを生成
-            for (int i = 1; i <= 3; i++) {
-                float predX = lastPoint.getX() + (dx * i * 0.8f);
-                float predY = lastPoint.getY() + (dy * i * 0.8f);
-                predictedPoints.add(new TouchPointInfo(predX, predY, lastPoint.getPressure()));
-            }
+    private void addPoint(TouchPointBuffer out, float x, float y, float pressure,
+                          float tilt, float orientation, long eventTime) {
+        // 傾き情報を取得（利用可能な場合）
+        float tiltX = 0, tiltY = 0;
+        if (tilt != 0) {
+            tiltX = tilt;
+            tiltY = orientation;
         }
         
-        return predictedPoints;
+        out.add(x, y, pressure, tiltX, tiltY, eventTime);
     }
     
     @Override
     public void cleanup() {
-        pointHistory.clear();
         isInitialized = false;
     }
     
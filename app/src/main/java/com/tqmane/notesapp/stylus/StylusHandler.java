@@ -1,8 +1,8 @@
 package com.tqmane.notesapp.stylus;
 
 import android.content.Context;
+import android.os.SystemClock;
 import android.view.MotionEvent;
-import java.util.List;
 
 /**
  * スタイラスハンドラーの基底インターフェース
@@ -21,13 +21,10 @@ public interface StylusHandler {
     
     /**
      * タッチイベントを処理
+     * イベントにまとめられた履歴サンプルも含めて、古い順にoutへ追加する
+     * 時刻はMotionEventのイベント時刻（SystemClock.uptimeMillis()と同じ基準）をそのまま使う
      */
-    TouchPointInfo processTouchEvent(MotionEvent event);
-    
-    /**
-     * 予測ポイントを取得（サポートしている場合）
-     */
-    List<TouchPointInfo> getPredictedPoints(TouchPointInfo currentPoint);
+    void processTouchEvent(MotionEvent event, TouchPointBuffer out);
     
     /**
      * リソースを解放
@@ -38,5 +35,13 @@ public interface StylusHandler {
      * ベンダー名を取得
      */
     String getVendorName();
+    
+    /**
+     * MotionEventの時刻（起動からの経過時間）を壁時計の時刻に変換
+     * 2つの時計を別々に読むので1ms程度ずれる。サンプルの間隔には使わず、保存する開始時刻にだけ使う
+     */
+    static long toWallClockTime(long eventTime) {
+        return System.currentTimeMillis() - (SystemClock.uptimeMillis() - eventTime);
+    }
 }
 
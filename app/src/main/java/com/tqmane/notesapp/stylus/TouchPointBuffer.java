@@ -0,0 +1,140 @@
+package com.tqmane.notesapp.stylus;
+
+/**
+ * タッチポイントをプリミティブ配列で保持するリングバッファ
+ *
+ * 座標・筆圧・傾き・時刻を項目ごとの配列に持ち、ポイントごとのオブジェクトを作らない。
+ * 入力処理のたびに使い回すことで、書いている間のGCを避ける。
+ * 満杯になったときは、overwriteなら最も古いポイントを上書きし、そうでなければ容量を倍にする。
+ * 位置（index）は保持している最も古いポイントを0とする。
+ */
+public class TouchPointBuffer {
+    
+    private final boolean overwrite;
+    private float[] x;
+    private float[] y;
+    private float[] pressure;
+    private float[] tiltX;
+    private float[] tiltY;
+    private long[] time;
+    private int mask;
+    // 最も古いポイントの位置
+    private int head;
+    private int size;
+    
+    /**
+     * @param capacity 初期容量（2のべき乗に切り上げる）
+     * @param overwrite 満杯のとき古いポイントを上書きするか
+     */
+    public TouchPointBuffer(int capacity, boolean overwrite) {
+        this.overwrite = overwrite;
+        allocate(Integer.highestOneBit(Math.max(2, capacity - 1)) << 1);
+    }
+    
+    /**
+     * ポイントを末尾に追加
+     */
+    public void add(float px, float py, float p, float tx, float ty, long t) {
+        if (size == x.length) {
+            if (overwrite) {
+                head = (head + 1) & mask;
+                size--;
+            } else {
+                grow();
+            }
+        }
+        
+        int i = (head + size) & mask;
+        x[i] = px;
+        y[i] = py;
+        pressure[i] = p;
+        tiltX[i] = tx;
+        tiltY[i] = ty;
+        time[i] = t;
+        size++;
+    }
+    
+    /**
+     * 別のバッファのポイントを末尾に追加
+     */
+    public void add(TouchPointBuffer source, int index) {
+        add(source.getX(index), source.getY(index), source.getPressure(index),
+                source.getTiltX(index), source.getTiltY(index), source.getTime(index));
+    }
+    
+    public void clear() {
+        head = 0;
+        size = 0;
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    public boolean isEmpty() {
+        return size == 0;
+    }
+    
+    /**
+     * 最後に追加したポイントの位置
+     */
+    public int last() {
+        return size - 1;
+    }
+    
+    public float getX(int index) {
+        return x[(head + index) & mask];
+    }
+    
+    public float getY(int index) {
+        return y[(head + index) & mask];
+    }
+    
+    public float getPressure(int index) {
+        return pressure[(head + index) & mask];
+    }
+    
+    public float getTiltX(int index) {
+        return tiltX[(head + index) & mask];
+    }
+    
+    public float getTiltY(int index) {
+        return tiltY[(head + index) & mask];
+    }
+    
+    public long getTime(int index) {
+        return time[(head + index) & mask];
+    }
+    
+    private void allocate(int capacity) {
+        x = new float[capacity];
+        y = new float[capacity];
+        pressure = new float[capacity];
+        tiltX = new float[capacity];
+        tiltY = new float[capacity];
+        time = new long[capacity];
+        mask = capacity - 1;
+    }
+    
+    private void grow() {
+        float[] oldX = x;
+        float[] oldY = y;
+        float[] oldPressure = pressure;
+        float[] oldTiltX = tiltX;
+        float[] oldTiltY = tiltY;
+        long[] oldTime = time;
+        int oldMask = mask;
+        
+        allocate(x.length * 2);
+        for (int i = 0; i < size; i++) {
+            int from = (head + i) & oldMask;
+            x[i] = oldX[from];
+            y[i] = oldY[from];
+            pressure[i] = oldPressure[from];
+            tiltX[i] = oldTiltX[from];
+            tiltY[i] = oldTiltY[from];
+            time[i] = oldTime[from];
+        }
+        head = 0;
+    }
+}
@@ -2,6 +2,13 @@ package com.tqmane.notesapp.stylus;
 
 import android.content.Context;
 import android.view.MotionEvent;
+
+import com.tqmane.notesapp.metrics.Counter;
+import com.tqmane.notesapp.metrics.Histogram;
+import com.tqmane.notesapp.metrics.Metrics;
+import com.tqmane.notesapp.stylus.prediction.KalmanPredictor;
+import com.tqmane.notesapp.stylus.prediction.StrokePredictor;
+
 import java.util.ArrayList;
 import java.util.List;
 
@@ -12,15 +19,35 @@ import java.util.List;
 public class UnifiedStylusManager {
     
     private static final String TAG = "UnifiedStylusManager";
+    
+    // 入力の計測（まとめられたサンプルは履歴サンプル、落としたサンプルはキャンセルなどで筆跡に渡さなかったもの）
+    private static final Counter INPUT_EVENTS = Metrics.counter("input.events");
+    private static final Counter INPUT_SAMPLES = Metrics.counter("input.samples");
+    private static final Counter INPUT_COALESCED = Metrics.counter("input.coalescedSamples");
+    private static final Counter INPUT_DROPPED = Metrics.counter("input.droppedSamples");
+    private static final Histogram INPUT_HANDLE = Metrics.histogram("input.handle", "us");
     private Context context;
     private StylusHandler currentHandler;
     private StylusEventCallback callback;
     private List<StylusHandler> availableHandlers;
     
+    // イベントごとに使い回すバッファ（入力処理中にオブジェクトを作らない）
+    private final TouchPointBuffer eventPoints = new TouchPointBuffer(64, false);
+    private final TouchPointBuffer predictedPoints = new TouchPointBuffer(8, false);
+    
+    // どのハンドラーでも共通の動き予測（既定は1フレーム分先）
+    private static final long DEFAULT_PREDICTION_HORIZON_MILLIS = 16;
+    private final StrokePredictor strokePredictor =
+            new StrokePredictor(new KalmanPredictor(), DEFAULT_PREDICTION_HORIZON_MILLIS);
+            
+    /**
+     * イベントにまとめられた履歴サンプルを含むポイント列（古い順）を渡す
+     * バッファは次のイベントで再利用されるため、コールバックの中でだけ有効
+     */
     public interface StylusEventCallback {
-        void onStylusDown(TouchPointInfo point);
-        void onStylusMove(TouchPointInfo point, List<TouchPointInfo> predictedPoints);
-        void onStylusUp(TouchPointInfo point);
+        void onStylusDown(TouchPointBuffer points);
+        void onStylusMove(TouchPointBuffer points, TouchPointBuffer predictedPoints);
+        void onStylusUp(TouchPointBuffer points);
     }
     
     public UnifiedStylusManager(Context context, StylusEventCallback callback) {
@@ -66,32 +93,60 @@ public class UnifiedStylusManager {
             return false;
         }
         
-        TouchPointInfo point = currentHandler.processTouchEvent(event);
+        long traceStart = INPUT_HANDLE.start();
+        eventPoints.clear();
+        currentHandler.processTouchEvent(event, eventPoints);
+        if (Metrics.isEnabled()) {
+            int samples = event.getHistorySize() + 1;
+            INPUT_EVENTS.increment();
+            INPUT_SAMPLES.add(samples);
+            INPUT_COALESCED.add(samples - 1);
+        }
+        
+        if (event.getAction() == MotionEvent.ACTION_DOWN) {
+            strokePredictor.startStroke();
+        }
+        strokePredictor.addSamples(eventPoints);
         
         switch (event.getAction()) {
             case MotionEvent.ACTION_DOWN:
                 if (callback != null) {
-                    callback.onStylusDown(point);
+                    callback.onStylusDown(eventPoints);
                 }
                 break;
                 
             case MotionEvent.ACTION_MOVE:
                 if (callback != null) {
-                    List<TouchPointInfo> predictedPoints = currentHandler.getPredictedPoints(point);
-                    callback.onStylusMove(point, predictedPoints);
+                    strokePredictor.predict(predictedPoints);
+                    callback.onStylusMove(eventPoints, predictedPoints);
                 }
                 break;
                 
             case MotionEvent.ACTION_UP:
                 if (callback != null) {
-                    callback.onStylusUp(point);
+                    callback.onStylusUp(eventPoints);
+                }
+                break;
+                
+            default:
+                // キャンセルや2本目の指のイベントは筆跡に渡さないので、そのサンプルは捨てる
+                if (Metrics.isEnabled()) {
+                    INPUT_DROPPED.add(eventPoints.size());
                 }
                 break;
         }
         
+        INPUT_HANDLE.stop(traceStart);
         return true;
     }
     
+    /**
+     * 動き予測の設定（予測アルゴリズムと予測時間の変更、誤差の参照）
+     */
+    public StrokePredictor getStrokePredictor() {
+        return strokePredictor;
+    }
+    
     /**
      * 現在のハンドラーを取得
      */
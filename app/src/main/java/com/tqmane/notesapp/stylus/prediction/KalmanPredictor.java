@@ -0,0 +1,151 @@
+package com.tqmane.notesapp.stylus.prediction;
+
+/**
+ * 等加速度モデルのカルマンフィルタによる予測
+ *
+ * x・y軸それぞれに位置・速度・加速度の状態を持ち、加速度の変化（ジャーク）を白色雑音として扱う。
+ * サンプル間隔が一定でなくても、間隔に応じて状態遷移とノイズを計算する。
+ */
+public class KalmanPredictor implements MotionPredictor {
+    
+    // 既定値（px・ms単位、合成した筆跡に座標ノイズを加えて誤差が小さくなるよう選んだ値）
+    private static final float DEFAULT_JERK_NOISE = 1e-5f;
+    private static final float DEFAULT_MEASUREMENT_NOISE = 1f;
+    // 同じ時刻のサンプルが続いたときに使う最小の間隔
+    private static final float MIN_DELTA_MILLIS = 0.5f;
+    
+    private final AxisFilter xFilter;
+    private final AxisFilter yFilter;
+    private long lastTime;
+    private int sampleCount;
+    
+    public KalmanPredictor() {
+        this(DEFAULT_JERK_NOISE, DEFAULT_MEASUREMENT_NOISE);
+    }
+    
+    /**
+     * @param jerkNoise ジャークの雑音の強さ（大きいほど動きの変化に速く追従する）
+     * @param measurementNoise 座標の測定誤差の分散（px²、大きいほど滑らかになる）
+     */
+    public KalmanPredictor(float jerkNoise, float measurementNoise) {
+        this.xFilter = new AxisFilter(jerkNoise, measurementNoise);
+        this.yFilter = new AxisFilter(jerkNoise, measurementNoise);
+    }
+    
+    @Override
+    public void reset() {
+        sampleCount = 0;
+    }
+    
+    @Override
+    public void addSample(float x, float y, long timeMillis) {
+        if (sampleCount == 0) {
+            xFilter.start(x);
+            yFilter.start(y);
+        } else {
+            float dt = Math.max(MIN_DELTA_MILLIS, timeMillis - lastTime);
+            xFilter.update(x, dt);
+            yFilter.update(y, dt);
+        }
+        lastTime = timeMillis;
+        sampleCount++;
+    }
+    
+    @Override
+    public boolean canPredict() {
+        // 速度が推定できるまでは予測しない
+        return sampleCount >= 3;
+    }
+    
+    @Override
+    public void predict(float deltaMillis, float[] out) {
+        out[0] = xFilter.extrapolate(deltaMillis);
+        out[1] = yFilter.extrapolate(deltaMillis);
+    }
+    
+    @Override
+    public String getName() {
+        return "Kalman";
+    }
+    
+    /**
+     * 1軸分のフィルタ（状態は位置・速度・加速度）
+     */
+    private static class AxisFilter {
+        private final float jerkNoise;
+        private final float measurementNoise;
+        
+        private float position;
+        private float velocity;
+        private float acceleration;
+        // 共分散行列（対称なので上三角だけ持つ）
+        private float p00, p01, p02, p11, p12, p22;
+        
+        AxisFilter(float jerkNoise, float measurementNoise) {
+            this.jerkNoise = jerkNoise;
+            this.measurementNoise = measurementNoise;
+        }
+        
+        void start(float z) {
+            position = z;
+            velocity = 0f;
+            acceleration = 0f;
+            // 速度・加速度は未知なので大きめの分散から始める
+            p00 = measurementNoise;
+            p01 = 0f;
+            p02 = 0f;
+            p11 = 1f;
+            p12 = 0f;
+            p22 = 0.01f;
+        }
+        
+        void update(float z, float dt) {
+            // 予測: x = F x
+            float halfDt2 = 0.5f * dt * dt;
+            position += velocity * dt + acceleration * halfDt2;
+            velocity += acceleration * dt;
+            
+            // P = F P F^T + Q
+            float n00 = p00 + 2f * dt * p01 + 2f * halfDt2 * p02 + dt * dt * p11 + 2f * dt * halfDt2 * p12 + halfDt2 * halfDt2 * p22;
+            float n01 = p01 + dt * p02 + dt * p11 + (dt * dt + halfDt2) * p12 + dt * halfDt2 * p22;
+            float n02 = p02 + dt * p12 + halfDt2 * p22;
+            float n11 = p11 + 2f * dt * p12 + dt * dt * p22;
+            float n12 = p12 + dt * p22;
+            float n22 = p22;
+            
+            float dt2 = dt * dt;
+            float dt3 = dt2 * dt;
+            p00 = n00 + jerkNoise * dt3 * dt2 / 20f;
+            p01 = n01 + jerkNoise * dt2 * dt2 / 8f;
+            p02 = n02 + jerkNoise * dt3 / 6f;
+            p11 = n11 + jerkNoise * dt3 / 3f;
+            p12 = n12 + jerkNoise * dt2 / 2f;
+            p22 = n22 + jerkNoise * dt;
+            
+            // 更新: 位置だけを観測する（H = [1 0 0]）
+            float s = p00 + measurementNoise;
+            float k0 = p00 / s;
+            float k1 = p01 / s;
+            float k2 = p02 / s;
+            float residual = z - position;
+            position += k0 * residual;
+            velocity += k1 * residual;
+            acceleration += k2 * residual;
+            
+            // P = (I - K H) P
+            float q00 = p00;
+            float q01 = p01;
+            float q02 = p02;
+            p00 -= k0 * q00;
+            p01 -= k0 * q01;
+            p02 -= k0 * q02;
+            p11 -= k1 * q01;
+            p12 -= k1 * q02;
+            p22 -= k2 * q02;
+        }
+        
+        float extrapolate(float dt) {
+            return position + velocity * dt + 0.5f * acceleration * dt * dt;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.tqmane.notesapp.stylus.prediction;
+
+/**
+ * ペンの動きの予測アルゴリズム
+ *
+ * 時刻付きのサンプルを古い順に受け取り、最新のサンプルから指定時間後の位置を予測する。
+ * 時刻はミリ秒、座標はピクセル。筆跡の開始ごとにreset()する。
+ */
+public interface MotionPredictor {
+    
+    /**
+     * 蓄積したサンプルを破棄（筆跡の開始時）
+     */
+    void reset();
+    
+    /**
+     * サンプルを追加
+     */
+    void addSample(float x, float y, long timeMillis);
+    
+    /**
+     * 予測に必要なサンプルが揃っているか
+     */
+    boolean canPredict();
+    
+    /**
+     * 最新のサンプルからdeltaMillis後の位置をout[0]（x）とout[1]（y）に書き込む
+     */
+    void predict(float deltaMillis, float[] out);
+    
+    /**
+     * ログ表示用の名前
+     */
+    String getName();
+}
@@ -0,0 +1,166 @@
+package com.tqmane.notesapp.stylus.prediction;
+
+import java.util.Arrays;
+
+/**
+ * 直近のサンプルへの最小二乗多項式フィットによる予測
+ *
+ * 最新のサンプルの時刻を0とした時間の多項式（既定は2次）をx・yそれぞれに当てはめ、外挿する。
+ * サンプルが次数に足りないうちは次数を下げる。
+ */
+public class PolynomialPredictor implements MotionPredictor {
+    
+    private static final int DEFAULT_WINDOW = 8;
+    private static final int DEFAULT_DEGREE = 2;
+    private static final int MAX_DEGREE = 2;
+    
+    private final int degree;
+    // 直近のサンプル（リングバッファ）
+    private final float[] xs;
+    private final float[] ys;
+    private final long[] times;
+    private int head;
+    private int size;
+    
+    // フィット結果（係数は低次から）
+    private final double[] xCoefficients = new double[MAX_DEGREE + 1];
+    private final double[] yCoefficients = new double[MAX_DEGREE + 1];
+    private boolean fitted;
+    
+    // 正規方程式の作業領域
+    private final double[][] matrix = new double[MAX_DEGREE + 1][MAX_DEGREE + 2];
+    
+    public PolynomialPredictor() {
+        this(DEFAULT_WINDOW, DEFAULT_DEGREE);
+    }
+    
+    /**
+     * @param window フィットに使う直近のサンプル数
+     * @param degree 多項式の次数（1か2）
+     */
+    public PolynomialPredictor(int window, int degree) {
+        this.degree = Math.max(1, Math.min(MAX_DEGREE, degree));
+        int capacity = Math.max(this.degree + 1, window);
+        this.xs = new float[capacity];
+        this.ys = new float[capacity];
+        this.times = new long[capacity];
+    }
+    
+    @Override
+    public void reset() {
+        head = 0;
+        size = 0;
+        fitted = false;
+    }
+    
+    @Override
+    public void addSample(float x, float y, long timeMillis) {
+        int capacity = xs.length;
+        int index = (head + size) % capacity;
+        if (size == capacity) {
+            head = (head + 1) % capacity;
+        } else {
+            size++;
+        }
+        xs[index] = x;
+        ys[index] = y;
+        times[index] = timeMillis;
+        fitted = false;
+    }
+    
+    @Override
+    public boolean canPredict() {
+        return size >= 2;
+    }
+    
+    @Override
+    public void predict(float deltaMillis, float[] out) {
+        if (!fitted) {
+            fit();
+        }
+        out[0] = (float) evaluate(xCoefficients, deltaMillis);
+        out[1] = (float) evaluate(yCoefficients, deltaMillis);
+    }
+    
+    @Override
+    public String getName() {
+        return "Polynomial(" + degree + ")";
+    }
+    
+    private void fit() {
+        int newest = (head + size - 1) % xs.length;
+        long newestTime = times[newest];
+        
+        // 時刻が同じサンプルしかなければ次数を上げられない
+        int distinctTimes = 1;
+        for (int i = 1; i < size; i++) {
+            if (times[(head + i) % xs.length] != times[(head + i - 1) % xs.length]) {
+                distinctTimes++;
+            }
+        }
+        int d = Math.min(degree, distinctTimes - 1);
+        
+        solve(xs, newestTime, d, xCoefficients);
+        solve(ys, newestTime, d, yCoefficients);
+        fitted = true;
+    }
+    
+    /**
+     * 正規方程式 (A^T A) c = A^T v をガウスの消去法で解く
+     */
+    private void solve(float[] values, long newestTime, int d, double[] coefficients) {
+        int n = d + 1;
+        for (int r = 0; r < n; r++) {
+            for (int c = 0; c <= n; c++) {
+                matrix[r][c] = 0;
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            int index = (head + i) % xs.length;
+            double t = times[index] - newestTime;
+            double v = values[index];
+            double tr = 1;
+            for (int r = 0; r < n; r++) {
+                double tc = 1;
+                for (int c = 0; c < n; c++) {
+                    matrix[r][c] += tr * tc;
+                    tc *= t;
+                }
+                matrix[r][n] += tr * v;
+                tr *= t;
+            }
+        }
+        
+        for (int pivot = 0; pivot < n; pivot++) {
+            double diagonal = matrix[pivot][pivot];
+            if (Math.abs(diagonal) < 1e-9) {
+                // 退化している場合は位置を最新のサンプルに固定する
+                Arrays.fill(coefficients, 0);
+                coefficients[0] = values[(head + size - 1) % xs.length];
+                return;
+            }
+            for (int r = pivot + 1; r < n; r++) {
+                double factor = matrix[r][pivot] / diagonal;
+                for (int c = pivot; c <= n; c++) {
+                    matrix[r][c] -= factor * matrix[pivot][c];
+                }
+            }
+        }
+        Arrays.fill(coefficients, 0);
+        for (int r = n - 1; r >= 0; r--) {
+            double sum = matrix[r][n];
+            for (int c = r + 1; c < n; c++) {
+                sum -= matrix[r][c] * coefficients[c];
+            }
+            coefficients[r] = sum / matrix[r][r];
+        }
+    }
+    
+    private static double evaluate(double[] coefficients, double t) {
+        double result = 0;
+        for (int i = coefficients.length - 1; i >= 0; i--) {
+            result = result * t + coefficients[i];
+        }
+        return result;
+    }
+}
@@ -0,0 +1,129 @@
+package com.tqmane.notesapp.stylus.prediction;
+
+import com.tqmane.notesapp.metrics.Histogram;
+import com.tqmane.notesapp.metrics.Metrics;
+
+/**
+ * 予測の誤差の計測
+ *
+ * 予測した位置を目標時刻とともに保留し、その時刻を過ぎる実際のサンプルが届いたら
+ * 前後のサンプルを補間した実際の位置との距離を誤差として集計する。
+ * 筆跡が終わって答え合わせできなかった予測は捨てる。
+ * 誤差は計測が有効ならMetricsの分布（1/100ピクセル単位）にも記録する。
+ */
+public class PredictionErrorTracker {
+    
+    private static final Histogram PREDICTION_ERROR = Metrics.histogram("input.predictionError", "px/100");
+    
+    private static final int MAX_PENDING = 32;
+    
+    // 答え合わせ待ちの予測（目標時刻の古い順のリングバッファ）
+    private final long[] pendingTimes = new long[MAX_PENDING];
+    private final float[] pendingX = new float[MAX_PENDING];
+    private final float[] pendingY = new float[MAX_PENDING];
+    private int pendingHead;
+    private int pendingSize;
+    
+    private boolean hasPrevious;
+    private long previousTime;
+    private float previousX;
+    private float previousY;
+    
+    private int count;
+    private double errorSum;
+    private double squaredErrorSum;
+    private float maxError;
+    
+    /**
+     * 予測を記録
+     */
+    public void onPrediction(long targetTime, float x, float y) {
+        if (pendingSize == MAX_PENDING) {
+            // 最も古い予測を捨てる
+            pendingHead = (pendingHead + 1) % MAX_PENDING;
+            pendingSize--;
+        }
+        int index = (pendingHead + pendingSize) % MAX_PENDING;
+        pendingTimes[index] = targetTime;
+        pendingX[index] = x;
+        pendingY[index] = y;
+        pendingSize++;
+    }
+    
+    /**
+     * 実際のサンプルを記録し、目標時刻を過ぎた予測の誤差を集計
+     */
+    public void onSample(long time, float x, float y) {
+        while (pendingSize > 0 && pendingTimes[pendingHead] <= time) {
+            long target = pendingTimes[pendingHead];
+            float actualX = x;
+            float actualY = y;
+            if (hasPrevious && previousTime < target && time > previousTime) {
+                float f = (float) (target - previousTime) / (time - previousTime);
+                actualX = previousX + (x - previousX) * f;
+                actualY = previousY + (y - previousY) * f;
+            }
+            record((float) Math.hypot(pendingX[pendingHead] - actualX, pendingY[pendingHead] - actualY));
+            pendingHead = (pendingHead + 1) % MAX_PENDING;
+            pendingSize--;
+        }
+        
+        hasPrevious = true;
+        previousTime = time;
+        previousX = x;
+        previousY = y;
+    }
+    
+    /**
+     * 筆跡の区切り（答え合わせ待ちの予測を捨てる、集計は残す）
+     */
+    public void startStroke() {
+        pendingHead = 0;
+        pendingSize = 0;
+        hasPrevious = false;
+    }
+    
+    /**
+     * 集計をリセット
+     */
+    public void reset() {
+        startStroke();
+        count = 0;
+        errorSum = 0;
+        squaredErrorSum = 0;
+        maxError = 0;
+    }
+    
+    private void record(float error) {
+        count++;
+        errorSum += error;
+        squaredErrorSum += (double) error * error;
+        maxError = Math.max(maxError, error);
+        PREDICTION_ERROR.record(Math.round(error * 100));
+    }
+    
+    public int getCount() {
+        return count;
+    }
+    
+    /**
+     * 平均誤差（px）
+     */
+    public float getMeanError() {
+        return count == 0 ? 0f : (float) (errorSum / count);
+    }
+    
+    /**
+     * 二乗平均平方根誤差（px）
+     */
+    public float getRmsError() {
+        return count == 0 ? 0f : (float) Math.sqrt(squaredErrorSum / count);
+    }
+    
+    /**
+     * 最大誤差（px）
+     */
+    public float getMaxError() {
+        return maxError;
+    }
+}
@@ -0,0 +1,119 @@
+package com.tqmane.notesapp.stylus.prediction;
+
+import com.tqmane.notesapp.stylus.TouchPointBuffer;
+
+/**
+ * 入力サンプルから予測ポイントを作る
+ *
+ * 予測アルゴリズム（MotionPredictor）にサンプルを渡し、最新のサンプルから
+ * 予測時間（ミリ秒）先までをサンプル間隔ごとに区切って予測ポイントにする。
+ * 予測時間の終点の位置は誤差の計測（PredictionErrorTracker）にも記録する。
+ * どのスタイラスハンドラーの出力にも使える。
+ */
+public class StrokePredictor {
+    
+    // 予測ポイントの最小間隔と最大数
+    private static final float MIN_STEP_MILLIS = 4f;
+    private static final int MAX_POINTS = 8;
+    // サンプル間隔の推定の平滑化係数
+    private static final float INTERVAL_SMOOTHING = 0.2f;
+    private static final float DEFAULT_INTERVAL_MILLIS = 8f;
+    
+    private MotionPredictor predictor;
+    private long horizonMillis;
+    private final PredictionErrorTracker errorTracker = new PredictionErrorTracker();
+    private final float[] position = new float[2];
+    
+    private boolean hasSample;
+    private long lastTime;
+    private float lastPressure;
+    private float intervalMillis = DEFAULT_INTERVAL_MILLIS;
+    
+    /**
+     * @param horizonMillis 最新のサンプルから何ミリ秒先まで予測するか（0なら予測しない）
+     */
+    public StrokePredictor(MotionPredictor predictor, long horizonMillis) {
+        this.predictor = predictor;
+        this.horizonMillis = horizonMillis;
+    }
+    
+    /**
+     * 予測アルゴリズムを変更（誤差の集計はリセットする）
+     */
+    public void setPredictor(MotionPredictor predictor) {
+        this.predictor = predictor;
+        errorTracker.reset();
+        startStroke();
+    }
+    
+    public MotionPredictor getPredictor() {
+        return predictor;
+    }
+    
+    /**
+     * 予測時間を変更（誤差の集計はリセットする）
+     */
+    public void setHorizonMillis(long horizonMillis) {
+        this.horizonMillis = horizonMillis;
+        errorTracker.reset();
+    }
+    
+    public long getHorizonMillis() {
+        return horizonMillis;
+    }
+    
+    public PredictionErrorTracker getErrorTracker() {
+        return errorTracker;
+    }
+    
+    /**
+     * 筆跡の開始
+     */
+    public void startStroke() {
+        predictor.reset();
+        errorTracker.startStroke();
+        hasSample = false;
+    }
+    
+    /**
+     * 入力サンプルを古い順に追加
+     */
+    public void addSamples(TouchPointBuffer points) {
+        for (int i = 0; i < points.size(); i++) {
+            float x = points.getX(i);
+            float y = points.getY(i);
+            long time = points.getTime(i);
+            
+            errorTracker.onSample(time, x, y);
+            predictor.addSample(x, y, time);
+            
+            if (hasSample && time > lastTime) {
+                intervalMillis += (time - lastTime - intervalMillis) * INTERVAL_SMOOTHING;
+            }
+            hasSample = true;
+            lastTime = time;
+            lastPressure = points.getPressure(i);
+        }
+    }
+    
+    /**
+     * 予測ポイントをoutに書き込む（予測できなければ空にする）
+     */
+    public void predict(TouchPointBuffer out) {
+        out.clear();
+        if (horizonMillis <= 0 || !hasSample || !predictor.canPredict()) {
+            return;
+        }
+        
+        float step = Math.max(MIN_STEP_MILLIS, Math.max(intervalMillis, horizonMillis / (float) MAX_POINTS));
+        for (float t = step; ; t += step) {
+            float delta = Math.min(t, horizonMillis);
+            predictor.predict(delta, position);
+            out.add(position[0], position[1], lastPressure, 0, 0, lastTime + (long) delta);
+            if (delta >= horizonMillis) {
+                break;
+            }
+        }
+        errorTracker.onPrediction(lastTime + horizonMillis, position[0], position[1]);
+    }
+}
@@ -0,0 +1,229 @@
+package com.tqmane.notesapp.thumbnails;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.LruCache;
+import android.view.ViewGroup;
+import android.widget.ImageView;
+
+import com.tqmane.notesapp.R;
+import com.tqmane.notesapp.models.Note;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * ノート一覧のサムネイル読み込み
+ *
+ * 表示先のImageViewのサイズに合わせてinSampleSizeで縮小デコードし、
+ * メモリ上のLRUキャッシュとディスクキャッシュ（ノートIDと更新日時がキー）に保持する。
+ * デコードはバックグラウンドで行い、再利用されたビューの古い読み込みはキャンセルする。
+ */
+public class ThumbnailLoader {
+    
+    private static final String TAG = "ThumbnailLoader";
+    private static final String CACHE_DIR = "thumbnails";
+    private static final int DECODE_THREADS = 2;
+    
+    // 縮小率がこれ以上になる大きな元画像だけ縮小版をディスクに保存する
+    private static final int DISK_CACHE_MIN_RATIO = 2;
+    
+    private static ThumbnailLoader instance;
+    
+    private final File cacheDir;
+    private final int defaultWidth;
+    private final LruCache<String, Bitmap> memoryCache;
+    private final ExecutorService executor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    
+    /**
+     * 読み込み要求（ImageViewのタグに保持して、古い要求の結果を捨てる）
+     */
+    private static class Request {
+        Future<?> future;
+    }
+    
+    public static synchronized ThumbnailLoader getInstance(Context context) {
+        if (instance == null) {
+            instance = new ThumbnailLoader(context.getApplicationContext());
+        }
+        return instance;
+    }
+    
+    private ThumbnailLoader(Context context) {
+        this.cacheDir = new File(context.getCacheDir(), CACHE_DIR);
+        if (!cacheDir.exists()) {
+            cacheDir.mkdirs();
+        }
+        
+        // 2列のグリッドなのでレイアウト前の幅は画面幅の半分とみなす
+        this.defaultWidth = context.getResources().getDisplayMetrics().widthPixels / 2;
+        
+        // 最大ヒープの1/8をサムネイルに使う（単位はKB）
+        int cacheSizeKb = (int) (Runtime.getRuntime().maxMemory() / 1024 / 8);
+        this.memoryCache = new LruCache<String, Bitmap>(cacheSizeKb) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount() / 1024;
+            }
+        };
+        
+        this.executor = Executors.newFixedThreadPool(DECODE_THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "ThumbnailDecode");
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+    
+    /**
+     * ノートのサムネイルをImageViewに読み込む
+     */
+    public void load(Note note, ImageView imageView) {
+        cancel(imageView);
+        
+        if (note.getImagePath() == null) {
+            imageView.setImageResource(R.drawable.ic_note);
+            return;
+        }
+        
+        String key = cacheKey(note);
+        Bitmap cached = memoryCache.get(key);
+        if (cached != null) {
+            imageView.setImageBitmap(cached);
+            return;
+        }
+        
+        imageView.setImageResource(R.drawable.ic_note);
+        
+        int width = imageView.getWidth() > 0 ? imageView.getWidth() : defaultWidth;
+        int height = imageView.getHeight() > 0 ? imageView.getHeight() : layoutHeight(imageView, width);
+        
+        Request request = new Request();
+        imageView.setTag(R.id.note_thumbnail, request);
+        
+        String imagePath = note.getImagePath();
+        String noteId = note.getId();
+        request.future = executor.submit(() -> {
+            Bitmap bitmap = decode(noteId, key, imagePath, width, height);
+            if (bitmap == null || Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            memoryCache.put(key, bitmap);
+            
+            mainHandler.post(() -> {
+                if (imageView.getTag(R.id.note_thumbnail) == request) {
+                    imageView.setTag(R.id.note_thumbnail, null);
+                    imageView.setImageBitmap(bitmap);
+                }
+            });
+        });
+    }
+    
+    /**
+     * ImageViewに対する読み込みをキャンセル（ビューの再利用時）
+     */
+    public void cancel(ImageView imageView) {
+        Object tag = imageView.getTag(R.id.note_thumbnail);
+        if (tag instanceof Request) {
+            Future<?> future = ((Request) tag).future;
+            if (future != null) {
+                future.cancel(true);
+            }
+        }
+        imageView.setTag(R.id.note_thumbnail, null);
+    }
+    
+    /**
+     * ノートのキャッシュを削除
+     */
+    public void remove(String noteId) {
+        File[] files = cacheDir.listFiles((dir, name) -> name.startsWith(noteId + "_"));
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+    }
+    
+    private Bitmap decode(String noteId, String key, String imagePath, int width, int height) {
+        // ディスクキャッシュ
+        File cacheFile = new File(cacheDir, key + ".png");
+        if (cacheFile.exists()) {
+            Bitmap bitmap = decodeSampled(cacheFile.getPath(), width, height, new BitmapFactory.Options());
+            if (bitmap != null) {
+                return bitmap;
+            }
+        }
+        
+        if (!new File(imagePath).exists()) {
+            return null;
+        }
+        
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        Bitmap bitmap = decodeSampled(imagePath, width, height, options);
+        if (bitmap == null) {
+            return null;
+        }
+        
+        // 元画像が大きい（旧形式の全面画像など）場合は縮小版をディスクに残す
+        if (options.inSampleSize >= DISK_CACHE_MIN_RATIO && !Thread.currentThread().isInterrupted()) {
+            remove(noteId);
+            try (FileOutputStream out = new FileOutputStream(cacheFile)) {
+                bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+            } catch (IOException e) {
+                android.util.Log.w(TAG, "Error writing thumbnail cache", e);
+                cacheFile.delete();
+            }
+        }
+        return bitmap;
+    }
+    
+    private static Bitmap decodeSampled(String path, int width, int height, BitmapFactory.Options options) {
+        try {
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeFile(path, options);
+            if (options.outWidth <= 0 || options.outHeight <= 0) {
+                return null;
+            }
+            
+            options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight, width, height);
+            options.inJustDecodeBounds = false;
+            options.inPreferredConfig = Bitmap.Config.RGB_565;
+            return BitmapFactory.decodeFile(path, options);
+            
+        } catch (Exception e) {
+            android.util.Log.e(TAG, "Error decoding thumbnail", e);
+            return null;
+        }
+    }
+    
+    /**
+     * 表示サイズを下回らない最大の2のべき乗の縮小率
+     */
+    static int calculateInSampleSize(int srcWidth, int srcHeight, int reqWidth, int reqHeight) {
+        int sampleSize = 1;
+        while (srcWidth / (sampleSize * 2) >= reqWidth && srcHeight / (sampleSize * 2) >= reqHeight) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+    
+    private static int layoutHeight(ImageView imageView, int fallback) {
+        ViewGroup.LayoutParams params = imageView.getLayoutParams();
+        if (params != null && params.height > 0) {
+            return params.height;
+        }
+        return fallback;
+    }
+    
+    private static String cacheKey(Note note) {
+        return note.getId() + "_" + note.getUpdatedAt();
+    }
+}
@@ -0,0 +1,197 @@
+package com.tqmane.notesapp.views;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 描画操作の履歴（Undo/Redo）
+ *
+ * 操作はコマンドとして記録し、一定数ごとに描画結果のコピー（チェックポイント）を保持する。
+ * Undo時は直前のチェックポイントを復元して、そこから対象の状態までのコマンドだけを描き直す。
+ * チェックポイントはメモリ上限を超えたら古いものから捨て、
+ * 使えるものがなければ取り消した操作の範囲だけをモデルから描き直す。
+ */
+final class DrawingHistory {
+    
+    /**
+     * 履歴に記録する操作
+     */
+    interface Command {
+        /**
+         * 操作をデータに適用（描画はしない）
+         */
+        void redo();
+        
+        /**
+         * 操作をデータから取り消す（描画はしない）
+         */
+        void undo();
+        
+        /**
+         * 操作の描画結果を描き足す
+         */
+        void render();
+        
+        /**
+         * 操作が影響した範囲をデータから描き直す（取り消し後に使う）
+         */
+        void repaint();
+    }
+    
+    /**
+     * チェックポイントを作成・復元できる描画先
+     */
+    interface Raster {
+        /**
+         * 現在の描画結果のコピー（maxBytesを超える場合はnull）
+         */
+        Checkpoint snapshot(long maxBytes);
+        
+        void restore(Checkpoint checkpoint);
+    }
+    
+    interface Checkpoint {
+        long getByteCount();
+        
+        void recycle();
+    }
+    
+    private final Raster raster;
+    private final List<Command> commands = new ArrayList<>();
+    // 適用済みのコマンド数（この位置より後ろはRedoの対象）
+    private int position;
+    
+    // 適用済みのコマンド数 → その時点の描画結果
+    private final TreeMap<Integer, Checkpoint> checkpoints = new TreeMap<>();
+    private long checkpointBytes;
+    private long memoryBudget;
+    private int checkpointInterval;
+    
+    /**
+     * @param memoryBudget チェックポイントに使うメモリの上限（バイト）
+     * @param checkpointInterval チェックポイントの間隔（Undoで描き直すコマンド数の上限）
+     */
+    DrawingHistory(Raster raster, long memoryBudget, int checkpointInterval) {
+        this.raster = raster;
+        configure(memoryBudget, checkpointInterval);
+    }
+    
+    void configure(long memoryBudget, int checkpointInterval) {
+        this.memoryBudget = memoryBudget;
+        this.checkpointInterval = Math.max(1, checkpointInterval);
+        trimCheckpoints();
+    }
+    
+    boolean canUndo() {
+        return position > 0;
+    }
+    
+    boolean canRedo() {
+        return position < commands.size();
+    }
+    
+    /**
+     * 適用・描画済みの操作を記録（Redoの対象は破棄する）
+     */
+    void push(Command command) {
+        while (commands.size() > position) {
+            commands.remove(commands.size() - 1);
+        }
+        dropCheckpointsAfter(position);
+        
+        commands.add(command);
+        position++;
+        maybeCheckpoint();
+    }
+    
+    /**
+     * 直前の操作を取り消して描き直す
+     */
+    void undo() {
+        position--;
+        Command command = commands.get(position);
+        command.undo();
+        
+        Map.Entry<Integer, Checkpoint> checkpoint = checkpoints.floorEntry(position);
+        if (checkpoint == null) {
+            command.repaint();
+            return;
+        }
+        
+        raster.restore(checkpoint.getValue());
+        for (int i = checkpoint.getKey(); i < position; i++) {
+            commands.get(i).render();
+        }
+    }
+    
+    /**
+     * 取り消した操作をやり直して描き足す
+     */
+    void redo() {
+        Command command = commands.get(position);
+        position++;
+        command.redo();
+        command.render();
+        maybeCheckpoint();
+    }
+    
+    /**
+     * 履歴をすべて破棄（ノートの読み込み時）
+     */
+    void clear() {
+        commands.clear();
+        position = 0;
+        discardCheckpoints();
+    }
+    
+    /**
+     * チェックポイントだけを破棄（描画先の解像度が変わったとき。以降のUndoは範囲の描き直しになる）
+     */
+    void discardCheckpoints() {
+        for (Checkpoint checkpoint : checkpoints.values()) {
+            checkpoint.recycle();
+        }
+        checkpoints.clear();
+        checkpointBytes = 0;
+    }
+    
+    private void maybeCheckpoint() {
+        if (position % checkpointInterval != 0 || checkpoints.containsKey(position)) {
+            return;
+        }
+        
+        Checkpoint checkpoint = raster.snapshot(memoryBudget);
+        if (checkpoint == null) {
+            return;
+        }
+        checkpoints.put(position, checkpoint);
+        checkpointBytes += checkpoint.getByteCount();
+        trimCheckpoints();
+    }
+    
+    /**
+     * 上限を超えた分を古いチェックポイントから破棄
+     */
+    private void trimCheckpoints() {
+        Iterator<Checkpoint> iterator = checkpoints.values().iterator();
+        while (checkpointBytes > memoryBudget && iterator.hasNext()) {
+            Checkpoint checkpoint = iterator.next();
+            checkpointBytes -= checkpoint.getByteCount();
+            checkpoint.recycle();
+            iterator.remove();
+        }
+    }
+    
+    private void dropCheckpointsAfter(int index) {
+        Iterator<Checkpoint> iterator = checkpoints.tailMap(index, false).values().iterator();
+        while (iterator.hasNext()) {
+            Checkpoint checkpoint = iterator.next();
+            checkpointBytes -= checkpoint.getByteCount();
+            checkpoint.recycle();
+            iterator.remove();
+        }
+    }
+}
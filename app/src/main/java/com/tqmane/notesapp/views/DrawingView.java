@@ -4,33 +4,138 @@ import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
+import android.graphics.DashPathEffect;
 import android.graphics.Paint;
 import android.graphics.Path;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.os.Bundle;
+import android.os.Parcelable;
+import android.os.SystemClock;
 import android.util.AttributeSet;
 import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
 import android.view.View;
 
-import com.tqmane.notesapp.stylus.TouchPointInfo;
+import com.tqmane.notesapp.metrics.Histogram;
+import com.tqmane.notesapp.metrics.Metrics;
+import com.tqmane.notesapp.models.StrokeData;
+import com.tqmane.notesapp.stylus.TouchPointBuffer;
 import com.tqmane.notesapp.stylus.UnifiedStylusManager;
+import com.tqmane.notesapp.stylus.prediction.StrokePredictor;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 
 /**
  * 筆圧対応の描画ビュー
  * UnifiedStylusManagerと統合して高度な描画機能を提供
+ *
+ * 入力中の筆跡は新しい区間が届くたびにタイルへ描き足し、
+ * その区間と予測線の範囲だけを再描画する（筆跡の長さによらず1イベントの描画量が一定）。
+ *
+ * 描画内容はビューの大きさに依存しないドキュメント座標で持ち、2本指で移動・拡大縮小できる。
+ * ラスター画像は表示範囲のタイル（TileCanvas）だけをメモリに置くため、
+ * キャンバスの広さによらずメモリ使用量は画面の大きさで決まる。
+ *
+ * 低遅延モードでは、入力中の筆跡をビューの再描画を待たずにオーバーレイ（InkOverlayView）へ直接描き、
+ * 確定した時点で通常の描画に引き渡す。タイルへの描き足しとビューの再描画は通常どおり行い、
+ * オーバーレイにはまだビューの画面に出ていない末尾だけを描く（こちらも1イベントの描画量が一定）。
+ *
+ * 確定済みの筆跡は一様グリッド（SpatialGrid）で範囲から引けるようにしてあり、
+ * タイルの描き直しや消しゴム・投げ縄の当たり判定は、ページ全体ではなくその付近の筆跡だけを見る。
  */
 public class DrawingView extends View {
     
     private static final String TAG = "DrawingView";
     
+    // 描画の計測（1フレームの描画と、タイル1枚分の描き直し）
+    private static final Histogram FRAME = Metrics.histogram("draw.frame", "us");
+    private static final Histogram RENDER_REGION = Metrics.histogram("draw.renderRegion", "us");
+    
+    // 表示倍率の範囲（最小倍率がメモリ上のタイル数を決める）
+    private static final float MIN_ZOOM = 1f;
+    private static final float MAX_ZOOM = 4f;
+    
+    // 消しゴムの半径と、選択枠などの線の太さ（画面上のピクセル）
+    private static final float ERASER_RADIUS = 12f;
+    private static final float TOOL_LINE_WIDTH = 2f;
+    // 投げ縄の内側にこの割合以上のポイントがある筆跡を選択する
+    private static final float LASSO_SELECT_RATIO = 0.5f;
+    
+    // 重なり順（筆跡の並び順と同じ）
+    private static final Comparator<DrawingStroke> PAINT_ORDER = (a, b) -> Long.compare(a.order, b.order);
+    
+    /**
+     * 入力の使い方
+     */
+    public enum Tool {
+        PEN,
+        // 触れた筆跡を丸ごと消す
+        ERASER,
+        // 囲んだ筆跡を選択し、選択範囲の内側からドラッグして動かす
+        LASSO
+    }
+    
     // 描画関連
     private Paint paint;
     private Paint predictedPaint;
-    private Path currentPath;
+    // 確定済みの筆跡を描き直すときのペイント（色を筆跡ごとに変えるため入力用とは分ける）
+    private Paint replayPaint;
+    private boolean drawing;
+    // 入力中の筆跡のポイント（ドキュメント座標、筆跡ごとに使い回す）
+    private final TouchPointBuffer currentPoints = new TouchPointBuffer(256, false);
+    // 入力中の筆跡の輪郭（確定時にそのまま筆跡のキャッシュになる）
+    private final StrokeTessellator liveTessellator = new StrokeTessellator();
+    // 入力中の筆跡を描き足した範囲（2本指操作で取り消すときに使う）
+    private final RectF currentBounds = new RectF();
     private List<DrawingStroke> strokes;
-    private Bitmap bitmap;
-    private Canvas bitmapCanvas;
+    // 確定済みの筆跡の空間インデックス（strokesと同じ内容を範囲で引く）
+    private final SpatialGrid<DrawingStroke> strokeIndex = new SpatialGrid<>(TileCanvas.TILE_SIZE);
+    private final List<DrawingStroke> queryResult = new ArrayList<>();
+    // 次に追加する筆跡の重なり順
+    private long nextOrder;
+    private TileCanvas tileCanvas;
+    
+    // 消しゴムと投げ縄
+    private Tool tool = Tool.PEN;
+    private Paint toolPaint;
+    // 1回のなぞりで消した筆跡（離したときに1つの操作として履歴に積む）
+    private final List<DrawingStroke> erasedStrokes = new ArrayList<>();
+    private float eraserX;
+    private float eraserY;
+    private final RectF eraserBounds = new RectF();
+    private final Path lassoPath = new Path();
+    private final RectF lassoBounds = new RectF();
+    private final List<DrawingStroke> selection = new ArrayList<>();
+    private final RectF selectionBounds = new RectF();
+    // 選択した筆跡をドラッグ中か（その間はインデックスから外して上に重ねて描く）
+    private boolean movingSelection;
+    private float moveStartX;
+    private float moveStartY;
+    private float moveDx;
+    private float moveDy;
+    
+    // 表示位置と倍率（画面座標 = ドキュメント座標 * zoom + pan）
+    private float panX;
+    private float panY;
+    private float zoom = 1f;
+    private ScaleGestureDetector scaleDetector;
+    private boolean gesturing;
+    private float lastFocusX;
+    private float lastFocusY;
+    
+    // 再描画範囲の計算用
+    private final Rect dirtyRect = new Rect();
+    private final RectF predictionBounds = new RectF();
+    private final RectF visibleBounds = new RectF();
+    private final Path predictedPath = new Path();
+    
+    // 旧形式のノートから読み込んだラスター画像（筆跡の下に敷く）
+    private Bitmap backgroundBitmap;
+    private final RectF backgroundBounds = new RectF();
     
     // スタイラス管理
     private UnifiedStylusManager stylusManager;
@@ -39,20 +144,238 @@ public class DrawingView extends View {
     private int currentColor = Color.BLACK;
     private float baseStrokeWidth = 5f;
     private boolean showPrediction = true;
-    private List<TouchPointInfo> currentPredictedPoints;
+    
+    // 描画内容が変わるたびに増える番号（未保存の変更の検出に使う）
+    private int contentVersion;
+    
+    // Undo/Redoの履歴（チェックポイントの既定値は最大ヒープの1/16、16操作ごと）
+    private static final int DEFAULT_CHECKPOINT_INTERVAL = 16;
+    private DrawingHistory history;
+    private OnStrokesChangedListener strokesChangedListener;
+    
+    // 低遅延モード（入力中の筆跡をオーバーレイに直接描く）
+    private InkOverlayView inkOverlay;
+    private boolean lowLatencyEnabled;
+    // 入力中の筆跡をオーバーレイに描いているか（筆跡の途中ではモードを変えない）
+    private boolean overlayStroke;
+    private boolean overlayClearPending;
+    // オーバーレイに描く、まだビューの画面に出ていないかもしれない輪郭
+    // （直近のonDraw以降の追加分と、その前のonDrawとの間の追加分。ビューの描画が画面に出るまでの1フレームを埋める）
+    private Path overlayTail = new Path();
+    private Path overlayPrevious = new Path();
+    private final InkOverlayView.Renderer overlayRenderer = this::renderLiveStroke;
+    private final Runnable clearOverlay = () -> {
+        if (inkOverlay != null) {
+            inkOverlay.clear();
+        }
+    };
+    
+    // 入力から描画の送出までの遅延（モードの比較用）
+    private final LatencyStats latencyStats = new LatencyStats();
+    // 次のonDrawで計測する入力の時刻（0なら計測しない）
+    private long pendingInputTime;
+    private OnLatencyUpdatedListener latencyUpdatedListener;
+    
+    /**
+     * 筆跡ごとに遅延の集計を通知するリスナー
+     */
+    public interface OnLatencyUpdatedListener {
+        void onLatencyUpdated(boolean lowLatency, LatencyStats stats);
+    }
+    
+    /**
+     * 確定済みの筆跡の変更を通知するリスナー（ジャーナルへの記録用）
+     */
+    public interface OnStrokesChangedListener {
+        void onStrokeAdded(int index, StrokeData stroke);
+        void onStrokesTruncated(int count);
+        void onStrokeRemoved(int index, StrokeData stroke);
+        void onStrokeInserted(int index, StrokeData stroke);
+    }
     
     /**
      * 一つの筆跡を表すクラス
      */
     private static class DrawingStroke {
-        Path path;
-        Paint paint;
-        List<TouchPointInfo> points;
+        // 確定後は変更されないので、保存時や履歴ではそのまま共有できる
+        final StrokeData data;
+        // 描画範囲（タイルの描き直しの対象を決めるため確定時に1回だけ計算）
+        final RectF bounds = new RectF();
+        // 重なり順（移動しても変わらない）
+        final long order;
+        // 輪郭のキャッシュ（読み込んだ筆跡は初めて描くときに作る）
+        private Path outline;
         
-        DrawingStroke(Paint paint) {
-            this.path = new Path();
-            this.paint = new Paint(paint);
-            this.points = new ArrayList<>();
+        DrawingStroke(StrokeData data, Path outline, long order) {
+            this.data = data;
+            this.outline = outline;
+            this.order = order;
+            StrokeRenderer.computeBounds(data, bounds);
+        }
+        
+        Path getOutline() {
+            if (outline == null) {
+                outline = StrokeTessellator.tessellate(data);
+            }
+            return outline;
+        }
+    }
+    
+    /**
+     * 筆跡の追加操作
+     */
+    private class AddStrokeCommand implements DrawingHistory.Command {
+        private final DrawingStroke stroke;
+        
+        AddStrokeCommand(DrawingStroke stroke) {
+            this.stroke = stroke;
+        }
+        
+        @Override
+        public void redo() {
+            strokes.add(stroke);
+            strokeIndex.add(stroke, stroke.bounds);
+            if (strokesChangedListener != null) {
+                strokesChangedListener.onStrokeAdded(strokes.size() - 1, stroke.data);
+            }
+        }
+        
+        @Override
+        public void undo() {
+            strokes.remove(strokes.size() - 1);
+            strokeIndex.remove(stroke, stroke.bounds);
+            if (strokesChangedListener != null) {
+                strokesChangedListener.onStrokesTruncated(strokes.size());
+            }
+        }
+        
+        @Override
+        public void render() {
+            replayPaint.setColor(stroke.data.getColor());
+            tileCanvas.drawPath(stroke.getOutline(), stroke.bounds, replayPaint);
+        }
+        
+        @Override
+        public void repaint() {
+            tileCanvas.invalidate(stroke.bounds);
+        }
+    }
+    
+    /**
+     * 全消去の操作（消した筆跡とベース画像を保持して元に戻せるようにする）
+     */
+    private class ClearCommand implements DrawingHistory.Command {
+        private final List<DrawingStroke> removed;
+        private final Bitmap removedBackground;
+        
+        ClearCommand(List<DrawingStroke> removed, Bitmap removedBackground) {
+            this.removed = new ArrayList<>(removed);
+            this.removedBackground = removedBackground;
+        }
+        
+        @Override
+        public void redo() {
+            strokes.clear();
+            strokeIndex.clear();
+            backgroundBitmap = null;
+            if (strokesChangedListener != null) {
+                strokesChangedListener.onStrokesTruncated(0);
+            }
+        }
+        
+        @Override
+        public void undo() {
+            backgroundBitmap = removedBackground;
+            for (DrawingStroke stroke : removed) {
+                strokes.add(stroke);
+                strokeIndex.add(stroke, stroke.bounds);
+                if (strokesChangedListener != null) {
+                    strokesChangedListener.onStrokeAdded(strokes.size() - 1, stroke.data);
+                }
+            }
+        }
+        
+        @Override
+        public void render() {
+            tileCanvas.clear();
+        }
+        
+        @Override
+        public void repaint() {
+            invalidateContent();
+        }
+    }
+    
+    /**
+     * 消しゴムで途中の筆跡を消す操作
+     */
+    private class EraseCommand implements DrawingHistory.Command {
+        private final List<DrawingStroke> erased;
+        
+        EraseCommand(List<DrawingStroke> erased) {
+            this.erased = new ArrayList<>(erased);
+        }
+        
+        @Override
+        public void redo() {
+            for (DrawingStroke stroke : erased) {
+                removeStroke(stroke);
+            }
+        }
+        
+        @Override
+        public void undo() {
+            for (DrawingStroke stroke : erased) {
+                insertStroke(stroke);
+            }
+        }
+        
+        @Override
+        public void render() {
+            for (DrawingStroke stroke : erased) {
+                tileCanvas.invalidate(stroke.bounds);
+            }
+        }
+        
+        @Override
+        public void repaint() {
+            render();
+        }
+    }
+    
+    /**
+     * 選択した筆跡の移動（移動前と移動後の筆跡を入れ替える）
+     */
+    private class MoveCommand implements DrawingHistory.Command {
+        private final List<DrawingStroke> from;
+        private final List<DrawingStroke> to;
+        
+        MoveCommand(List<DrawingStroke> from, List<DrawingStroke> to) {
+            this.from = new ArrayList<>(from);
+            this.to = new ArrayList<>(to);
+        }
+        
+        @Override
+        public void redo() {
+            replaceStrokes(from, to);
+        }
+        
+        @Override
+        public void undo() {
+            replaceStrokes(to, from);
+        }
+        
+        @Override
+        public void render() {
+            for (int i = 0; i < from.size(); i++) {
+                tileCanvas.invalidate(from.get(i).bounds);
+                tileCanvas.invalidate(to.get(i).bounds);
+            }
+        }
+        
+        @Override
+        public void repaint() {
+            render();
         }
     }
     
@@ -68,23 +391,37 @@ public class DrawingView extends View {
     
     private void init() {
         // メイン描画用ペイント
-        paint = new Paint();
-        paint.setAntiAlias(true);
-        paint.setDither(true);
+        paint = StrokeRenderer.createPaint();
         paint.setColor(currentColor);
-        paint.setStyle(Paint.Style.STROKE);
-        paint.setStrokeJoin(Paint.Join.ROUND);
-        paint.setStrokeCap(Paint.Cap.ROUND);
         paint.setStrokeWidth(baseStrokeWidth);
         
         // 予測線用ペイント
         predictedPaint = new Paint(paint);
+        predictedPaint.setStyle(Paint.Style.STROKE);
+        predictedPaint.setStrokeJoin(Paint.Join.ROUND);
+        predictedPaint.setStrokeCap(Paint.Cap.ROUND);
         predictedPaint.setAlpha(100);
         predictedPaint.setStrokeWidth(baseStrokeWidth * 0.7f);
         
+        replayPaint = StrokeRenderer.createPaint();
+        
+        // 消しゴムの位置と投げ縄・選択範囲の枠
+        toolPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        toolPaint.setStyle(Paint.Style.STROKE);
+        toolPaint.setColor(Color.GRAY);
+        toolPaint.setPathEffect(new DashPathEffect(new float[] {8f, 6f}, 0f));
+        tileCanvas = new TileCanvas(getContext().getCacheDir(), this::renderRegion);
+        history = new DrawingHistory(tileCanvas, Runtime.getRuntime().maxMemory() / 16, DEFAULT_CHECKPOINT_INTERVAL);
+        
         strokes = new ArrayList<>();
-        currentPath = new Path();
-        currentPredictedPoints = new ArrayList<>();
+        
+        scaleDetector = new ScaleGestureDetector(getContext(), new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+            @Override
+            public boolean onScale(ScaleGestureDetector detector) {
+                zoomAt(detector.getFocusX(), detector.getFocusY(), detector.getScaleFactor());
+                return true;
+            }
+        });
         
         // スタイラスマネージャーの初期化
         initStylusManager();
@@ -93,18 +430,18 @@ public class DrawingView extends View {
     private void initStylusManager() {
         stylusManager = new UnifiedStylusManager(getContext(), new UnifiedStylusManager.StylusEventCallback() {
             @Override
-            public void onStylusDown(TouchPointInfo point) {
-                handleStylusDown(point);
+            public void onStylusDown(TouchPointBuffer points) {
+                handleStylusDown(points);
             }
             
             @Override
-            public void onStylusMove(TouchPointInfo point, List<TouchPointInfo> predictedPoints) {
-                handleStylusMove(point, predictedPoints);
+            public void onStylusMove(TouchPointBuffer points, TouchPointBuffer predictedPoints) {
+                handleStylusMove(points, predictedPoints);
             }
             
             @Override
-            public void onStylusUp(TouchPointInfo point) {
-                handleStylusUp(point);
+            public void onStylusUp(TouchPointBuffer points) {
+                handleStylusUp(points);
             }
         });
         stylusManager.initialize();
@@ -114,44 +451,78 @@ public class DrawingView extends View {
     protected void onSizeChanged(int w, int h, int oldw, int oldh) {
         super.onSizeChanged(w, h, oldw, oldh);
         
+        // 描画内容はドキュメント座標で持っているので、サイズが変わっても描き直しは不要
         if (w > 0 && h > 0) {
-            bitmap = Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888);
-            bitmapCanvas = new Canvas(bitmap);
-            bitmapCanvas.drawColor(Color.WHITE);
+            tileCanvas.setViewport(w, h, MIN_ZOOM);
         }
     }
     
     @Override
     protected void onDraw(Canvas canvas) {
         super.onDraw(canvas);
+        long traceStart = FRAME.start();
+        canvas.drawColor(Color.WHITE);
         
-        // ビットマップに描画された内容を表示
-        if (bitmap != null) {
-            canvas.drawBitmap(bitmap, 0, 0, null);
-        }
+        int saveCount = canvas.save();
+        canvas.translate(panX, panY);
+        canvas.scale(zoom, zoom);
         
-        // 現在の筆跡を描画
-        if (currentPath != null) {
-            canvas.drawPath(currentPath, paint);
+        // 表示範囲のタイルだけを描画（入力中の筆跡も描き込み済み）
+        visibleBounds.set(toDocumentX(0), toDocumentY(0), toDocumentX(getWidth()), toDocumentY(getHeight()));
+        // 表示倍率に合った解像度でタイルを描く（入力中の筆跡はタイルにしかないので、描き終わるまで変えない）
+        if (!drawing && tileCanvas.setScale(TileCanvas.scaleForZoom(zoom))) {
+            history.discardCheckpoints();
+            markContentStale();
         }
+        tileCanvas.draw(canvas, visibleBounds);
         
-        // 予測ポイントを描画
-        if (showPrediction && currentPredictedPoints != null && !currentPredictedPoints.isEmpty()) {
-            Path predictedPath = new Path();
-            TouchPointInfo first = currentPredictedPoints.get(0);
-            predictedPath.moveTo(first.getX(), first.getY());
-            
-            for (int i = 1; i < currentPredictedPoints.size(); i++) {
-                TouchPointInfo point = currentPredictedPoints.get(i);
-                predictedPath.lineTo(point.getX(), point.getY());
-            }
-            
+        // 予測線はタイルに残さず、毎フレーム上に重ねる（オーバーレイに描いている間はオーバーレイだけに描く）
+        if (drawing && !overlayStroke && !predictedPath.isEmpty()) {
             canvas.drawPath(predictedPath, predictedPaint);
         }
+        drawToolOverlay(canvas);
+        canvas.restoreToCount(saveCount);
+        
+        // ここまでの追加分はタイルに描かれてこのフレームで出るので、オーバーレイには次のフレームの分まで残す
+        if (overlayStroke) {
+            Path swap = overlayPrevious;
+            overlayPrevious = overlayTail;
+            overlayTail = swap;
+            overlayTail.rewind();
+        }
+        
+        if (pendingInputTime != 0) {
+            latencyStats.record(SystemClock.uptimeMillis() - pendingInputTime);
+            pendingInputTime = 0;
+        }
+        
+        // 確定した筆跡がこのフレームで描かれたので、次のフレームでオーバーレイを消す
+        if (overlayClearPending) {
+            overlayClearPending = false;
+            postOnAnimation(clearOverlay);
+        }
+        FRAME.stop(traceStart);
     }
     
     @Override
     public boolean onTouchEvent(MotionEvent event) {
+        // ノートの読み込み中などで無効にされている間は何もしない
+        if (!isEnabled()) {
+            return false;
+        }
+        
+        // 2本指の操作は移動・拡大縮小として扱い、指が全部離れるまで描画には回さない
+        scaleDetector.onTouchEvent(event);
+        if (!gesturing && event.getPointerCount() >= 2) {
+            cancelStroke();
+            gesturing = true;
+            updateFocus(event);
+        }
+        if (gesturing) {
+            handleGesture(event);
+            return true;
+        }
+        
         if (stylusManager != null) {
             stylusManager.handleTouchEvent(event);
             return true;
@@ -159,52 +530,585 @@ public class DrawingView extends View {
         return super.onTouchEvent(event);
     }
     
-    private void handleStylusDown(TouchPointInfo point) {
-        currentPath = new Path();
-        currentPath.moveTo(point.getX(), point.getY());
+    private void handleGesture(MotionEvent event) {
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_MOVE:
+                // 指の中点の移動量だけ表示位置をずらす
+                float previousX = lastFocusX;
+                float previousY = lastFocusY;
+                updateFocus(event);
+                panX += lastFocusX - previousX;
+                panY += lastFocusY - previousY;
+                invalidate();
+                break;
+                
+            case MotionEvent.ACTION_POINTER_DOWN:
+            case MotionEvent.ACTION_POINTER_UP:
+                // 指の本数が変わると中点が飛ぶので基準だけ取り直す
+                updateFocus(event);
+                break;
+                
+            case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_CANCEL:
+                gesturing = false;
+                break;
+        }
+    }
+    
+    /**
+     * 触れている指の中点を記録（離れようとしている指は除く）
+     */
+    private void updateFocus(MotionEvent event) {
+        int skipIndex = event.getActionMasked() == MotionEvent.ACTION_POINTER_UP ? event.getActionIndex() : -1;
+        float sumX = 0f;
+        float sumY = 0f;
+        int count = 0;
+        for (int i = 0; i < event.getPointerCount(); i++) {
+            if (i != skipIndex) {
+                sumX += event.getX(i);
+                sumY += event.getY(i);
+                count++;
+            }
+        }
+        if (count > 0) {
+            lastFocusX = sumX / count;
+            lastFocusY = sumY / count;
+        }
+    }
+    
+    /**
+     * 画面上の点を中心に拡大縮小
+     */
+    private void zoomAt(float focusX, float focusY, float scaleFactor) {
+        float newZoom = Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, zoom * scaleFactor));
+        float applied = newZoom / zoom;
+        panX = focusX - (focusX - panX) * applied;
+        panY = focusY - (focusY - panY) * applied;
+        zoom = newZoom;
+        invalidate();
+    }
+    
+    /**
+     * 入力中の筆跡を取り消す（描き足したタイルはモデルから描き直す）
+     */
+    private void cancelStroke() {
+        if (!drawing) {
+            return;
+        }
+        drawing = false;
+        if (tool == Tool.ERASER) {
+            // ここまでに消した分は確定する
+            endErase();
+            return;
+        }
+        if (tool == Tool.LASSO) {
+            if (movingSelection) {
+                // 移動は元の位置に戻す
+                moveDx = 0f;
+                moveDy = 0f;
+                endMove();
+            } else {
+                endLasso(false);
+            }
+            return;
+        }
+        currentPoints.clear();
+        liveTessellator.reset();
+        clearPrediction();
+        if (overlayStroke) {
+            overlayStroke = false;
+            inkOverlay.clear();
+        }
+        overlayTail.rewind();
+        overlayPrevious.rewind();
+        tileCanvas.invalidate(currentBounds);
+        currentBounds.setEmpty();
+        invalidate();
+    }
+    
+    private void handleStylusDown(TouchPointBuffer points) {
+        drawing = true;
+        if (tool == Tool.ERASER) {
+            beginErase(points);
+            return;
+        }
+        if (tool == Tool.LASSO) {
+            beginLasso(points);
+            return;
+        }
+        currentPoints.clear();
+        liveTessellator.reset();
+        currentBounds.setEmpty();
+        clearPrediction();
         
-        // 筆圧に応じて線の太さを調整
-        float pressureWidth = baseStrokeWidth * (0.5f + point.getPressure() * 1.5f);
-        paint.setStrokeWidth(pressureWidth);
+        // 前の筆跡のオーバーレイ消去が残っていれば、この筆跡で上書きする
+        removeCallbacks(clearOverlay);
+        overlayClearPending = false;
+        overlayStroke = lowLatencyEnabled && inkOverlay != null && inkOverlay.isReady();
+        overlayTail.rewind();
+        overlayPrevious.rewind();
         
-        invalidate();
+        // 書き始めの点をすぐに表示する
+        dirtyRect.setEmpty();
+        appendPoint(points, points.last());
+        presentLiveStroke();
     }
     
-    private void handleStylusMove(TouchPointInfo point, List<TouchPointInfo> predictedPoints) {
-        if (currentPath != null) {
-            currentPath.lineTo(point.getX(), point.getY());
+    private void handleStylusMove(TouchPointBuffer points, TouchPointBuffer predictedPoints) {
+        if (drawing) {
+            if (tool == Tool.ERASER) {
+                continueErase(points);
+                return;
+            }
+            if (tool == Tool.LASSO) {
+                continueLasso(points);
+                return;
+            }
             
-            // 筆圧に応じて線の太さを調整
-            float pressureWidth = baseStrokeWidth * (0.5f + point.getPressure() * 1.5f);
-            paint.setStrokeWidth(pressureWidth);
+            // 履歴サンプルを含めて全区間を描き足し、再描画は1回にまとめる
+            dirtyRect.setEmpty();
+            for (int i = 0; i < points.size(); i++) {
+                appendPoint(points, i);
+            }
             
-            // 予測ポイントを保存
-            currentPredictedPoints = predictedPoints;
+            // 前回の予測線を消して新しい予測線を描く
+            includeDirty(predictionBounds);
+            buildPrediction(predictedPoints);
+            includeDirty(predictionBounds);
             
-            invalidate();
+            presentLiveStroke();
+        }
+    }
+    
+    /**
+     * 入力中の筆跡を画面に反映
+     * オーバーレイに描く場合も、タイルが次のフレームで追いつくようにビューの再描画範囲は要求する
+     */
+    private void presentLiveStroke() {
+        long inputTime = currentPoints.getTime(currentPoints.last());
+        if (overlayStroke) {
+            if (inkOverlay.render(overlayRenderer)) {
+                latencyStats.record(SystemClock.uptimeMillis() - inputTime);
+                invalidate(dirtyRect);
+                return;
+            }
+            // サーフェスが使えなくなったら通常の描画に戻す（筆跡はタイルに描き込み済み）
+            overlayStroke = false;
+            inkOverlay.clear();
+        }
+        pendingInputTime = inputTime;
+        invalidate(dirtyRect);
+    }
+    
+    /**
+     * オーバーレイに、ビューの画面にまだ出ていない輪郭の末尾と予測線を描く
+     * （描く量は1フレームあたりの入力分で、筆跡の長さによらない）
+     */
+    private void renderLiveStroke(Canvas canvas) {
+        canvas.translate(panX, panY);
+        canvas.scale(zoom, zoom);
+        canvas.drawPath(overlayPrevious, paint);
+        canvas.drawPath(overlayTail, paint);
+        if (!predictedPath.isEmpty()) {
+            canvas.drawPath(predictedPath, predictedPaint);
         }
     }
     
-    private void handleStylusUp(TouchPointInfo point) {
-        if (currentPath != null) {
-            // 最終ポイントを追加
-            currentPath.lineTo(point.getX(), point.getY());
+    private void handleStylusUp(TouchPointBuffer points) {
+        if (drawing) {
+            if (tool == Tool.ERASER) {
+                continueErase(points);
+                drawing = false;
+                endErase();
+                return;
+            }
+            if (tool == Tool.LASSO) {
+                continueLasso(points);
+                drawing = false;
+                if (movingSelection) {
+                    endMove();
+                } else {
+                    endLasso(true);
+                }
+                return;
+            }
             
-            // ビットマップに描画を確定
-            if (bitmapCanvas != null) {
-                bitmapCanvas.drawPath(currentPath, paint);
+            dirtyRect.setEmpty();
+            
+            // 最終ポイントまでを追加
+            for (int i = 0; i < points.size(); i++) {
+                appendPoint(points, i);
             }
+            includeDirty(predictionBounds);
+            clearPrediction();
+            drawing = false;
             
-            // 筆跡を保存
-            DrawingStroke stroke = new DrawingStroke(paint);
-            stroke.path = new Path(currentPath);
-            strokes.add(stroke);
+            // 筆跡を確定（全サンプルをプリミティブ配列にまとめ、描画に使うキーポイントを選ぶ）
+            StrokeData data = StrokeSimplifier.simplify(
+                    StrokeData.fromBuffer(currentColor, baseStrokeWidth, currentPoints));
+            currentPoints.clear();
+            liveTessellator.reset();
+            if (overlayStroke) {
+                // 最後の追加分がビューに描かれた次のフレームでオーバーレイを消す
+                overlayStroke = false;
+                overlayClearPending = true;
+            }
+            currentBounds.setEmpty();
             
-            currentPath = new Path();
-            currentPredictedPoints.clear();
+            // タイルには描画済みなので、データへの反映と履歴への記録だけを行う
+            // （全サンプルで作った入力中の輪郭は捨て、描き直すときにキーポイントから作る）
+            AddStrokeCommand command = new AddStrokeCommand(new DrawingStroke(data, null, nextOrder++));
+            command.redo();
+            history.push(command);
+            contentVersion++;
             
+            invalidate(dirtyRect);
+            
+            if (latencyUpdatedListener != null) {
+                latencyUpdatedListener.onLatencyUpdated(lowLatencyEnabled, latencyStats);
+            }
+        }
+    }
+    
+    /**
+     * ポイントを追加して輪郭の追加分をタイルに描き足し、その範囲を再描画範囲に加える
+     */
+    private void appendPoint(TouchPointBuffer points, int index) {
+        addDocumentPoint(points, index);
+        int last = currentPoints.last();
+        liveTessellator.addPoint(
+                currentPoints.getX(last),
+                currentPoints.getY(last),
+                StrokeRenderer.pointRadius(baseStrokeWidth, currentPoints.getPressure(last), currentPoints.getTiltX(last)));
+                
+        RectF pieceBounds = liveTessellator.getLastPieceBounds();
+        tileCanvas.drawPath(liveTessellator.getLastPiece(), pieceBounds, paint);
+        if (overlayStroke) {
+            overlayTail.addPath(liveTessellator.getLastPiece());
+        }
+        currentBounds.union(pieceBounds);
+        includeDirty(pieceBounds);
+    }
+    
+    /**
+     * 画面座標のポイントをドキュメント座標にして入力中の筆跡に追加
+     */
+    private void addDocumentPoint(TouchPointBuffer points, int index) {
+        currentPoints.add(
+                toDocumentX(points.getX(index)),
+                toDocumentY(points.getY(index)),
+                points.getPressure(index),
+                points.getTiltX(index),
+                points.getTiltY(index),
+                points.getTime(index));
+    }
+    
+    private void beginErase(TouchPointBuffer points) {
+        erasedStrokes.clear();
+        int last = points.last();
+        eraserX = toDocumentX(points.getX(last));
+        eraserY = toDocumentY(points.getY(last));
+        dirtyRect.setEmpty();
+        eraseAt(eraserX, eraserY);
+        includeEraser();
+        invalidate(dirtyRect);
+    }
+    
+    private void continueErase(TouchPointBuffer points) {
+        dirtyRect.setEmpty();
+        includeEraser();
+        for (int i = 0; i < points.size(); i++) {
+            float x = toDocumentX(points.getX(i));
+            float y = toDocumentY(points.getY(i));
+            eraseAlong(eraserX, eraserY, x, y);
+            eraserX = x;
+            eraserY = y;
+        }
+        includeEraser();
+        invalidate(dirtyRect);
+    }
+    
+    /**
+     * 消した筆跡を1つの操作として履歴に積む（消すたびにデータとタイルには反映済み）
+     */
+    private void endErase() {
+        if (!erasedStrokes.isEmpty()) {
+            history.push(new EraseCommand(erasedStrokes));
+            erasedStrokes.clear();
+            contentVersion++;
+        }
+        dirtyRect.setEmpty();
+        includeEraser();
+        invalidate(dirtyRect);
+    }
+    
+    /**
+     * 前の位置から次の位置までを消しゴムの半径の半分ずつたどって消す（速く動かしても間を飛ばさない）
+     */
+    private void eraseAlong(float fromX, float fromY, float toX, float toY) {
+        float step = ERASER_RADIUS / zoom / 2f;
+        int steps = Math.max(1, (int) Math.ceil(Math.hypot(toX - fromX, toY - fromY) / step));
+        for (int i = 1; i <= steps; i++) {
+            float f = i / (float) steps;
+            eraseAt(fromX + (toX - fromX) * f, fromY + (toY - fromY) * f);
+        }
+    }
+    
+    /**
+     * 消しゴムの円に触れた筆跡を消し、その範囲のタイルを描き直し対象にする
+     */
+    private void eraseAt(float x, float y) {
+        float radius = ERASER_RADIUS / zoom;
+        eraserBounds.set(x - radius, y - radius, x + radius, y + radius);
+        queryStrokes(eraserBounds);
+        for (DrawingStroke stroke : queryResult) {
+            if (StrokeHitTester.hitsCircle(stroke.data, x, y, radius)) {
+                removeStroke(stroke);
+                erasedStrokes.add(stroke);
+                tileCanvas.invalidate(stroke.bounds);
+                includeDirty(stroke.bounds);
+            }
+        }
+        queryResult.clear();
+    }
+    
+    /**
+     * 消しゴムの表示範囲を再描画範囲に加える
+     */
+    private void includeEraser() {
+        float radius = (ERASER_RADIUS + TOOL_LINE_WIDTH) / zoom;
+        eraserBounds.set(eraserX - radius, eraserY - radius, eraserX + radius, eraserY + radius);
+        includeDirty(eraserBounds);
+    }
+    
+    private void beginLasso(TouchPointBuffer points) {
+        int last = points.last();
+        float x = toDocumentX(points.getX(last));
+        float y = toDocumentY(points.getY(last));
+        
+        // 選択範囲の内側から始めたら移動、外側なら選択し直す
+        if (!selection.isEmpty() && selectionBounds.contains(x, y)) {
+            movingSelection = true;
+            moveStartX = x;
+            moveStartY = y;
+            moveDx = 0f;
+            moveDy = 0f;
+            for (DrawingStroke stroke : selection) {
+                strokeIndex.remove(stroke, stroke.bounds);
+                tileCanvas.invalidate(stroke.bounds);
+            }
             invalidate();
+            return;
+        }
+        
+        clearSelection();
+        currentPoints.clear();
+        addDocumentPoint(points, last);
+        lassoPath.rewind();
+        lassoPath.moveTo(x, y);
+        invalidate();
+    }
+    
+    private void continueLasso(TouchPointBuffer points) {
+        if (movingSelection) {
+            int last = points.last();
+            moveDx = toDocumentX(points.getX(last)) - moveStartX;
+            moveDy = toDocumentY(points.getY(last)) - moveStartY;
+        } else {
+            for (int i = 0; i < points.size(); i++) {
+                addDocumentPoint(points, i);
+                int last = currentPoints.last();
+                lassoPath.lineTo(currentPoints.getX(last), currentPoints.getY(last));
+            }
         }
+        invalidate();
+    }
+    
+    /**
+     * 投げ縄を閉じて、内側の筆跡を選択する
+     *
+     * @param select falseなら選択せずに投げ縄を消すだけ
+     */
+    private void endLasso(boolean select) {
+        if (select && currentPoints.size() >= 3) {
+            lassoPath.computeBounds(lassoBounds, false);
+            queryStrokes(lassoBounds);
+            for (DrawingStroke stroke : queryResult) {
+                if (StrokeHitTester.insideRatio(stroke.data, currentPoints, lassoBounds) >= LASSO_SELECT_RATIO) {
+                    selection.add(stroke);
+                    selectionBounds.union(stroke.bounds);
+                }
+            }
+            queryResult.clear();
+        }
+        currentPoints.clear();
+        lassoPath.rewind();
+        invalidate();
+    }
+    
+    /**
+     * ドラッグした分だけ選択した筆跡を動かす（動かしていなければ元に戻すだけ）
+     */
+    private void endMove() {
+        movingSelection = false;
+        for (DrawingStroke stroke : selection) {
+            strokeIndex.add(stroke, stroke.bounds);
+        }
+        if (moveDx == 0f && moveDy == 0f) {
+            for (DrawingStroke stroke : selection) {
+                tileCanvas.invalidate(stroke.bounds);
+            }
+            invalidate();
+            return;
+        }
+        
+        // 移動後の筆跡は同じ重なり順のまま入れ替える（輪郭もずらしてそのまま使う）
+        List<DrawingStroke> moved = new ArrayList<>(selection.size());
+        for (DrawingStroke stroke : selection) {
+            Path outline = new Path(stroke.getOutline());
+            outline.offset(moveDx, moveDy);
+            moved.add(new DrawingStroke(stroke.data.offset(moveDx, moveDy), outline, stroke.order));
+        }
+        MoveCommand command = new MoveCommand(selection, moved);
+        command.redo();
+        command.render();
+        history.push(command);
+        contentVersion++;
+        
+        selection.clear();
+        selection.addAll(moved);
+        selectionBounds.offset(moveDx, moveDy);
+        moveDx = 0f;
+        moveDy = 0f;
+        invalidate();
+    }
+    
+    private void clearSelection() {
+        if (selection.isEmpty()) {
+            return;
+        }
+        selection.clear();
+        selectionBounds.setEmpty();
+        invalidate();
+    }
+    
+    /**
+     * 消しゴムの位置、投げ縄、選択範囲（移動中は選択した筆跡も）を描く
+     */
+    private void drawToolOverlay(Canvas canvas) {
+        toolPaint.setStrokeWidth(TOOL_LINE_WIDTH / zoom);
+        if (drawing && tool == Tool.ERASER) {
+            canvas.drawCircle(eraserX, eraserY, ERASER_RADIUS / zoom, toolPaint);
+        }
+        if (!lassoPath.isEmpty()) {
+            canvas.drawPath(lassoPath, toolPaint);
+        }
+        if (selection.isEmpty()) {
+            return;
+        }
+        
+        int saveCount = canvas.save();
+        canvas.translate(moveDx, moveDy);
+        if (movingSelection) {
+            for (DrawingStroke stroke : selection) {
+                replayPaint.setColor(stroke.data.getColor());
+                canvas.drawPath(stroke.getOutline(), replayPaint);
+            }
+        }
+        canvas.drawRect(selectionBounds, toolPaint);
+        canvas.restoreToCount(saveCount);
+    }
+    
+    /**
+     * 範囲に重なる確定済みの筆跡を重なり順でqueryResultに集める
+     */
+    private void queryStrokes(RectF region) {
+        queryResult.clear();
+        strokeIndex.query(region, queryResult);
+        for (int i = queryResult.size() - 1; i >= 0; i--) {
+            if (!RectF.intersects(queryResult.get(i).bounds, region)) {
+                queryResult.remove(i);
+            }
+        }
+        Collections.sort(queryResult, PAINT_ORDER);
+    }
+    
+    /**
+     * 確定済みの筆跡を途中から取り除く（位置は重なり順の二分探索で求める）
+     */
+    private void removeStroke(DrawingStroke stroke) {
+        int index = Collections.binarySearch(strokes, stroke, PAINT_ORDER);
+        strokes.remove(index);
+        strokeIndex.remove(stroke, stroke.bounds);
+        if (strokesChangedListener != null) {
+            strokesChangedListener.onStrokeRemoved(index, stroke.data);
+        }
+    }
+    
+    /**
+     * 取り除いた筆跡を重なり順の位置に戻す
+     */
+    private void insertStroke(DrawingStroke stroke) {
+        int index = -(Collections.binarySearch(strokes, stroke, PAINT_ORDER) + 1);
+        strokes.add(index, stroke);
+        strokeIndex.add(stroke, stroke.bounds);
+        if (strokesChangedListener != null) {
+            strokesChangedListener.onStrokeInserted(index, stroke.data);
+        }
+    }
+    
+    private void replaceStrokes(List<DrawingStroke> from, List<DrawingStroke> to) {
+        for (int i = 0; i < from.size(); i++) {
+            removeStroke(from.get(i));
+            insertStroke(to.get(i));
+        }
+    }
+    
+    /**
+     * 最新のポイントから予測ポイントまでの線を作成
+     */
+    private void buildPrediction(TouchPointBuffer predictedPoints) {
+        predictedPath.reset();
+        predictionBounds.setEmpty();
+        if (!showPrediction || predictedPoints.isEmpty()) {
+            return;
+        }
+        
+        int last = currentPoints.last();
+        predictedPath.moveTo(currentPoints.getX(last), currentPoints.getY(last));
+        for (int i = 0; i < predictedPoints.size(); i++) {
+            predictedPath.lineTo(toDocumentX(predictedPoints.getX(i)), toDocumentY(predictedPoints.getY(i)));
+        }
+        
+        predictedPath.computeBounds(predictionBounds, false);
+        float radius = predictedPaint.getStrokeWidth() / 2f + 1f;
+        predictionBounds.inset(-radius, -radius);
+    }
+    
+    private void clearPrediction() {
+        predictedPath.reset();
+        predictionBounds.setEmpty();
+    }
+    
+    /**
+     * ドキュメント座標の範囲を画面座標にして再描画範囲に加える
+     */
+    private void includeDirty(RectF bounds) {
+        if (!bounds.isEmpty()) {
+            dirtyRect.union(
+                    (int) Math.floor(bounds.left * zoom + panX),
+                    (int) Math.floor(bounds.top * zoom + panY),
+                    (int) Math.ceil(bounds.right * zoom + panX),
+                    (int) Math.ceil(bounds.bottom * zoom + panY));
+        }
+    }
+    
+    private float toDocumentX(float screenX) {
+        return (screenX - panX) / zoom;
+    }
+    
+    private float toDocumentY(float screenY) {
+        return (screenY - panY) / zoom;
     }
     
     /**
@@ -230,57 +1134,193 @@ public class DrawingView extends View {
      * キャンバスをクリア
      */
     public void clear() {
-        strokes.clear();
-        currentPath = new Path();
-        currentPredictedPoints.clear();
-        
-        if (bitmapCanvas != null) {
-            bitmapCanvas.drawColor(Color.WHITE);
+        cancelStroke();
+        clearSelection();
+        if (strokes.isEmpty() && backgroundBitmap == null) {
+            return;
         }
         
+        ClearCommand command = new ClearCommand(strokes, backgroundBitmap);
+        command.redo();
+        command.render();
+        history.push(command);
+        contentVersion++;
+        
         invalidate();
     }
     
     /**
-     * 最後の筆跡を削除（Undo）
+     * 直前の操作を取り消す（Undo）
+     * 直前のチェックポイントから描き直すため、筆跡の総数によらず一定の時間で終わる
      */
     public void undo() {
-        if (!strokes.isEmpty()) {
-            strokes.remove(strokes.size() - 1);
-            redrawAll();
+        if (drawing || !history.canUndo()) {
+            return;
         }
+        
+        clearSelection();
+        contentVersion++;
+        history.undo();
+        invalidate();
     }
     
     /**
-     * すべての筆跡を再描画
+     * 取り消した操作をやり直す（Redo）
      */
-    private void redrawAll() {
-        if (bitmapCanvas != null) {
-            bitmapCanvas.drawColor(Color.WHITE);
-            
-            for (DrawingStroke stroke : strokes) {
-                bitmapCanvas.drawPath(stroke.path, stroke.paint);
-            }
-            
-            invalidate();
+    public void redo() {
+        if (drawing || !history.canRedo()) {
+            return;
+        }
+        
+        clearSelection();
+        contentVersion++;
+        history.redo();
+        invalidate();
+    }
+    
+    public boolean canUndo() {
+        return history.canUndo();
+    }
+    
+    public boolean canRedo() {
+        return history.canRedo();
+    }
+    
+    /**
+     * 履歴のメモリ使用量とUndoの描き直し量を設定
+     *
+     * @param checkpointMemoryBytes チェックポイントのビットマップに使うメモリの上限
+     * @param maxReplayedOperations Undo時に描き直す操作数の上限（チェックポイントの間隔）
+     */
+    public void setHistoryLimits(long checkpointMemoryBytes, int maxReplayedOperations) {
+        history.configure(checkpointMemoryBytes, maxReplayedOperations);
+    }
+    
+    /**
+     * タイルの範囲をモデルから描画（TileCanvasが表示するタイルに対してだけ呼ぶ）
+     */
+    private void renderRegion(Canvas canvas, RectF region) {
+        long traceStart = RENDER_REGION.start();
+        if (backgroundBitmap != null && RectF.intersects(backgroundBounds, region)) {
+            canvas.drawBitmap(backgroundBitmap, 0, 0, null);
+        }
+        
+        // 重なる筆跡だけを重なり順に描く
+        queryStrokes(region);
+        for (DrawingStroke stroke : queryResult) {
+            replayPaint.setColor(stroke.data.getColor());
+            canvas.drawPath(stroke.getOutline(), replayPaint);
         }
+        queryResult.clear();
+        RENDER_REGION.stop(traceStart);
+    }
+    
+    /**
+     * すべての内容を要再描画にする（実際の描画は表示されたタイルだけ）
+     */
+    private void invalidateContent() {
+        markContentStale();
+        invalidate();
     }
     
     /**
-     * ビットマップを取得
+     * 内容のある範囲のタイルを要再描画にする（ビューの再描画は要求しない）
      */
-    public Bitmap getBitmap() {
-        return bitmap;
+    private void markContentStale() {
+        if (backgroundBitmap != null) {
+            tileCanvas.invalidate(backgroundBounds);
+        }
+        for (DrawingStroke stroke : strokes) {
+            tileCanvas.invalidate(stroke.bounds);
+        }
     }
     
     /**
-     * ビットマップから復元
+     * ビットマップから復元（筆跡の下に敷くベース画像として保持）
      */
     public void setBitmap(Bitmap bitmap) {
-        if (bitmap != null && bitmapCanvas != null) {
-            bitmapCanvas.drawBitmap(bitmap, 0, 0, null);
-            invalidate();
+        this.backgroundBitmap = bitmap;
+        if (bitmap != null) {
+            backgroundBounds.set(0, 0, bitmap.getWidth(), bitmap.getHeight());
+        }
+        history.clear();
+        tileCanvas.clear();
+        invalidateContent();
+    }
+    
+    /**
+     * ベース画像を取得（なければnull）
+     */
+    public Bitmap getBackgroundBitmap() {
+        return backgroundBitmap;
+    }
+    
+    /**
+     * 確定済みの筆跡をベクターデータとして取得
+     */
+    public List<StrokeData> getStrokes() {
+        List<StrokeData> result = new ArrayList<>(strokes.size());
+        for (DrawingStroke stroke : strokes) {
+            result.add(stroke.data);
+        }
+        return result;
+    }
+    
+    /**
+     * 確定済みの筆跡データがメモリ上で占めるおおよそのバイト数（輪郭のキャッシュは含まない）
+     */
+    public long getStrokeFootprintBytes() {
+        long total = 0;
+        for (DrawingStroke stroke : strokes) {
+            total += stroke.data.getFootprintBytes();
+        }
+        return total;
+    }
+    
+    /**
+     * 保存された筆跡から復元
+     */
+    public void setStrokes(List<StrokeData> data) {
+        strokes.clear();
+        strokeIndex.clear();
+        selection.clear();
+        selectionBounds.setEmpty();
+        for (StrokeData stroke : data) {
+            // 間引く前の形式で保存された筆跡はここで間引く
+            DrawingStroke drawingStroke = new DrawingStroke(StrokeSimplifier.simplify(stroke), null, nextOrder++);
+            strokes.add(drawingStroke);
+            strokeIndex.add(drawingStroke, drawingStroke.bounds);
         }
+        history.clear();
+        tileCanvas.clear();
+        invalidateContent();
+    }
+    
+    /**
+     * 筆跡の変更リスナーを設定
+     */
+    public void setOnStrokesChangedListener(OnStrokesChangedListener listener) {
+        this.strokesChangedListener = listener;
+    }
+    
+    /**
+     * 描画内容のバージョン（変更がなければ同じ値を返す）
+     */
+    public int getContentVersion() {
+        return contentVersion;
+    }
+    
+    /**
+     * 入力の使い方を設定（途中の操作は終わらせ、選択は解除する）
+     */
+    public void setTool(Tool tool) {
+        cancelStroke();
+        clearSelection();
+        this.tool = tool;
+    }
+    
+    public Tool getTool() {
+        return tool;
     }
     
     /**
@@ -288,9 +1328,74 @@ public class DrawingView extends View {
      */
     public void setShowPrediction(boolean show) {
         this.showPrediction = show;
+        if (!show) {
+            predictedPath.reset();
+        }
         invalidate();
     }
     
+    /**
+     * 低遅延モードで使うオーバーレイを設定（レイアウトでこのビューに重ねて配置したもの）
+     */
+    public void setInkOverlay(InkOverlayView overlay) {
+        this.inkOverlay = overlay;
+    }
+    
+    /**
+     * 低遅延モードの有効/無効を設定（次の筆跡から反映し、遅延の集計はリセットする）
+     */
+    public void setLowLatencyEnabled(boolean enabled) {
+        this.lowLatencyEnabled = enabled;
+        latencyStats.reset();
+    }
+    
+    public boolean isLowLatencyEnabled() {
+        return lowLatencyEnabled;
+    }
+    
+    /**
+     * 入力から描画の送出までの遅延の集計
+     */
+    public LatencyStats getLatencyStats() {
+        return latencyStats;
+    }
+    
+    /**
+     * 動き予測の設定（予測アルゴリズムと予測時間の実行中の変更、誤差の参照）
+     */
+    public StrokePredictor getStrokePredictor() {
+        return stylusManager.getStrokePredictor();
+    }
+    
+    public void setOnLatencyUpdatedListener(OnLatencyUpdatedListener listener) {
+        this.latencyUpdatedListener = listener;
+    }
+    
+    @Override
+    protected Parcelable onSaveInstanceState() {
+        // 画面回転後も同じ位置・倍率で表示する
+        Bundle state = new Bundle();
+        state.putParcelable("super", super.onSaveInstanceState());
+        state.putFloat("panX", panX);
+        state.putFloat("panY", panY);
+        state.putFloat("zoom", zoom);
+        return state;
+    }
+    
+    @Override
+    protected void onRestoreInstanceState(Parcelable state) {
+        if (state instanceof Bundle) {
+            Bundle bundle = (Bundle) state;
+            panX = bundle.getFloat("panX");
+            panY = bundle.getFloat("panY");
+            zoom = bundle.getFloat("zoom", 1f);
+            super.onRestoreInstanceState(bundle.getParcelable("super"));
+            invalidate();
+            return;
+        }
+        super.onRestoreInstanceState(state);
+    }
+    
     /**
      * クリーンアップ
      */
@@ -299,9 +1404,8 @@ public class DrawingView extends View {
             stylusManager.cleanup();
         }
         
-        if (bitmap != null && !bitmap.isRecycled()) {
-            bitmap.recycle();
-        }
+        removeCallbacks(clearOverlay);
+        history.clear();
+        tileCanvas.release();
     }
 }
-
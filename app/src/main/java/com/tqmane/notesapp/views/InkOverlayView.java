@@ -0,0 +1,114 @@
+package com.tqmane.notesapp.views;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.PixelFormat;
+import android.graphics.PorterDuff;
+import android.util.AttributeSet;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
+
+/**
+ * 入力中の筆跡だけを描く低遅延用のオーバーレイ
+ *
+ * DrawingViewの上に重ねる透明なSurfaceView。ビュー階層の再描画（次のVSYNCでのonDraw）を待たず、
+ * 入力イベントを受けたその場でハードウェアキャンバスに描いて画面へ送る。
+ * 確定した筆跡は通常どおりDrawingViewが描画し、このビューは消去する。
+ * タッチイベントは受け取らず、下のDrawingViewに渡す。
+ */
+public class InkOverlayView extends SurfaceView implements SurfaceHolder.Callback {
+    
+    private static final String TAG = "InkOverlayView";
+    
+    /**
+     * オーバーレイに描く内容（canvasは消去済み）
+     */
+    interface Renderer {
+        void render(Canvas canvas);
+    }
+    
+    private volatile boolean surfaceReady;
+    
+    public InkOverlayView(Context context) {
+        super(context);
+        init();
+    }
+    
+    public InkOverlayView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        init();
+    }
+    
+    private void init() {
+        // ウィンドウより手前に置き、筆跡以外は透過させる
+        setZOrderOnTop(true);
+        getHolder().setFormat(PixelFormat.TRANSLUCENT);
+        getHolder().addCallback(this);
+    }
+    
+    /**
+     * 描画できる状態か（サーフェスの作成前や破棄後はfalse）
+     */
+    boolean isReady() {
+        return surfaceReady;
+    }
+    
+    /**
+     * 内容を描いて画面に送る
+     *
+     * @return 描画できたか（falseなら通常の描画に任せる）
+     */
+    boolean render(Renderer renderer) {
+        if (!surfaceReady) {
+            return false;
+        }
+        
+        Canvas canvas;
+        try {
+            canvas = getHolder().getSurface().lockHardwareCanvas();
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            android.util.Log.w(TAG, "Error locking overlay surface", e);
+            return false;
+        }
+        try {
+            canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+            renderer.render(canvas);
+        } finally {
+            getHolder().getSurface().unlockCanvasAndPost(canvas);
+        }
+        return true;
+    }
+    
+    /**
+     * 表示中の筆跡を消去
+     */
+    void clear() {
+        if (!surfaceReady) {
+            return;
+        }
+        try {
+            Canvas canvas = getHolder().getSurface().lockHardwareCanvas();
+            canvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+            getHolder().getSurface().unlockCanvasAndPost(canvas);
+        } catch (IllegalStateException | IllegalArgumentException e) {
+            android.util.Log.w(TAG, "Error clearing overlay surface", e);
+        }
+    }
+    
+    @Override
+    public void surfaceCreated(SurfaceHolder holder) {
+        surfaceReady = true;
+        clear();
+    }
+    
+    @Override
+    public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+        clear();
+    }
+    
+    @Override
+    public void surfaceDestroyed(SurfaceHolder holder) {
+        surfaceReady = false;
+    }
+}
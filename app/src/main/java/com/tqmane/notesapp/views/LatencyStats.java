@@ -0,0 +1,65 @@
+package com.tqmane.notesapp.views;
+
+import java.util.Arrays;
+
+/**
+ * 入力から描画までの遅延の集計
+ *
+ * 直近のサンプルだけを固定長の配列に保持し、平均と95パーセンタイルを求める。
+ * 描画モードを切り替えたときはリセットして比較する。
+ */
+public final class LatencyStats {
+    
+    private static final int CAPACITY = 512;
+    
+    private final long[] samples = new long[CAPACITY];
+    private final long[] sorted = new long[CAPACITY];
+    private int next;
+    private int count;
+    
+    void record(long latencyMillis) {
+        samples[next] = latencyMillis;
+        next = (next + 1) % CAPACITY;
+        if (count < CAPACITY) {
+            count++;
+        }
+    }
+    
+    void reset() {
+        next = 0;
+        count = 0;
+    }
+    
+    public int getCount() {
+        return count;
+    }
+    
+    /**
+     * 平均（ミリ秒、サンプルがなければ0）
+     */
+    public float getMeanMillis() {
+        if (count == 0) {
+            return 0f;
+        }
+        long sum = 0;
+        for (int i = 0; i < count; i++) {
+            sum += samples[i];
+        }
+        return (float) sum / count;
+    }
+    
+    /**
+     * パーセンタイル（ミリ秒、サンプルがなければ0）
+     *
+     * @param percentile 0〜100
+     */
+    public long getPercentileMillis(int percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        System.arraycopy(samples, 0, sorted, 0, count);
+        Arrays.sort(sorted, 0, count);
+        int index = Math.min(count - 1, (int) Math.ceil(count * percentile / 100.0) - 1);
+        return sorted[Math.max(0, index)];
+    }
+}
@@ -0,0 +1,104 @@
+package com.tqmane.notesapp.views;
+
+import android.graphics.RectF;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 描画範囲で要素を引くための一様グリッドの空間インデックス
+ *
+ * 要素は範囲が重なるすべてのセルに登録し、検索では範囲に重なるセルだけを見る。
+ * そのため検索の処理量はページ全体の要素数ではなく、その付近の要素の密度で決まる。
+ * 削除は登録時と同じ範囲で行うこと（範囲が変わる要素は削除してから登録し直す）。
+ */
+final class SpatialGrid<T> {
+    
+    private final float cellSize;
+    // セルの位置 → そのセルに重なる要素
+    private final Map<Long, List<T>> cells = new HashMap<>();
+    // 複数のセルに登録された要素を検索結果で1回だけ返すための作業用
+    private final Set<T> found = Collections.newSetFromMap(new IdentityHashMap<>());
+    
+    SpatialGrid(float cellSize) {
+        this.cellSize = cellSize;
+    }
+    
+    void add(T item, RectF bounds) {
+        if (bounds.isEmpty()) {
+            return;
+        }
+        int left = cellIndex(bounds.left);
+        int top = cellIndex(bounds.top);
+        int right = cellIndex(bounds.right);
+        int bottom = cellIndex(bounds.bottom);
+        for (int cy = top; cy <= bottom; cy++) {
+            for (int cx = left; cx <= right; cx++) {
+                cells.computeIfAbsent(key(cx, cy), key -> new ArrayList<>()).add(item);
+            }
+        }
+    }
+    
+    void remove(T item, RectF bounds) {
+        if (bounds.isEmpty()) {
+            return;
+        }
+        int left = cellIndex(bounds.left);
+        int top = cellIndex(bounds.top);
+        int right = cellIndex(bounds.right);
+        int bottom = cellIndex(bounds.bottom);
+        for (int cy = top; cy <= bottom; cy++) {
+            for (int cx = left; cx <= right; cx++) {
+                long key = key(cx, cy);
+                List<T> cell = cells.get(key);
+                if (cell != null && cell.remove(item) && cell.isEmpty()) {
+                    cells.remove(key);
+                }
+            }
+        }
+    }
+    
+    void clear() {
+        cells.clear();
+    }
+    
+    /**
+     * regionに重なるセルの要素をoutに追加（順序は不定。要素の範囲とregionが重なるかは呼び出し側で確かめる）
+     */
+    void query(RectF region, List<T> out) {
+        if (region.isEmpty()) {
+            return;
+        }
+        int left = cellIndex(region.left);
+        int top = cellIndex(region.top);
+        int right = cellIndex(region.right);
+        int bottom = cellIndex(region.bottom);
+        for (int cy = top; cy <= bottom; cy++) {
+            for (int cx = left; cx <= right; cx++) {
+                List<T> cell = cells.get(key(cx, cy));
+                if (cell == null) {
+                    continue;
+                }
+                for (T item : cell) {
+                    if (found.add(item)) {
+                        out.add(item);
+                    }
+                }
+            }
+        }
+        found.clear();
+    }
+    
+    private int cellIndex(float coordinate) {
+        return (int) Math.floor(coordinate / cellSize);
+    }
+    
+    private static long key(int cx, int cy) {
+        return ((long) cx << 32) | (cy & 0xFFFFFFFFL);
+    }
+}
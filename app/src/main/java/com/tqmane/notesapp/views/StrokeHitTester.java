@@ -0,0 +1,101 @@
+package com.tqmane.notesapp.views;
+
+import android.graphics.RectF;
+
+import com.tqmane.notesapp.models.StrokeData;
+import com.tqmane.notesapp.stylus.TouchPointBuffer;
+
+/**
+ * 筆跡の当たり判定（消しゴムと投げ縄選択で使う）
+ */
+final class StrokeHitTester {
+    
+    private StrokeHitTester() {
+    }
+    
+    /**
+     * 円が筆跡に触れているか
+     * ポイント間は線分とみなし、太さは両端の半径の大きい方で判定する
+     */
+    static boolean hitsCircle(StrokeData stroke, float cx, float cy, float radius) {
+        float previousX = 0f;
+        float previousY = 0f;
+        float previousRadius = 0f;
+        for (int i = 0; i < stroke.getPointCount(); i++) {
+            float x = stroke.getX(i);
+            float y = stroke.getY(i);
+            float pointRadius = StrokeRenderer.pointRadius(stroke.getWidth(), stroke.getPressure(i), stroke.getTiltX(i));
+            float reach = radius + (i == 0 ? pointRadius : Math.max(previousRadius, pointRadius));
+            float distanceSquared = i == 0
+                    ? distanceSquared(cx, cy, x, y)
+                    : segmentDistanceSquared(cx, cy, previousX, previousY, x, y);
+            if (distanceSquared <= reach * reach) {
+                return true;
+            }
+            previousX = x;
+            previousY = y;
+            previousRadius = pointRadius;
+        }
+        return false;
+    }
+    
+    /**
+     * 筆跡のポイントのうち多角形の内側にある割合
+     *
+     * @param polygonBounds 多角形を囲む矩形（外側のポイントを先に除くため）
+     */
+    static float insideRatio(StrokeData stroke, TouchPointBuffer polygon, RectF polygonBounds) {
+        int count = stroke.getPointCount();
+        if (count == 0) {
+            return 0f;
+        }
+        int inside = 0;
+        for (int i = 0; i < count; i++) {
+            float x = stroke.getX(i);
+            float y = stroke.getY(i);
+            if (polygonBounds.contains(x, y) && contains(polygon, x, y)) {
+                inside++;
+            }
+        }
+        return inside / (float) count;
+    }
+    
+    /**
+     * 点が多角形（最後の頂点と最初の頂点を結んで閉じる）の内側にあるか（偶奇規則）
+     */
+    static boolean contains(TouchPointBuffer polygon, float x, float y) {
+        boolean inside = false;
+        int count = polygon.size();
+        for (int i = 0, j = count - 1; i < count; j = i++) {
+            float xi = polygon.getX(i);
+            float yi = polygon.getY(i);
+            float xj = polygon.getX(j);
+            float yj = polygon.getY(j);
+            if ((yi > y) != (yj > y) && x < (xj - xi) * (y - yi) / (yj - yi) + xi) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+    
+    private static float distanceSquared(float x0, float y0, float x1, float y1) {
+        float dx = x1 - x0;
+        float dy = y1 - y0;
+        return dx * dx + dy * dy;
+    }
+    
+    /**
+     * 点(px, py)から線分(x0, y0)-(x1, y1)までの距離の2乗
+     */
+    private static float segmentDistanceSquared(float px, float py, float x0, float y0, float x1, float y1) {
+        float dx = x1 - x0;
+        float dy = y1 - y0;
+        float lengthSquared = dx * dx + dy * dy;
+        if (lengthSquared == 0f) {
+            return distanceSquared(px, py, x0, y0);
+        }
+        float t = ((px - x0) * dx + (py - y0) * dy) / lengthSquared;
+        t = Math.max(0f, Math.min(1f, t));
+        return distanceSquared(px, py, x0 + dx * t, y0 + dy * t);
+    }
+}
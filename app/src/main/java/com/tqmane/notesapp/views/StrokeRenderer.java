@@ -0,0 +1,94 @@
+package com.tqmane.notesapp.views;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.RectF;
+
+import com.tqmane.notesapp.models.StrokeData;
+
+/**
+ * 筆跡データの描画処理
+ * 描画ビューと保存処理（サムネイル生成）で共通に使う
+ *
+ * 筆跡はポイントごとの筆圧と傾きで太さが変わる輪郭（StrokeTessellator）を塗りつぶして描く。
+ * 入力中の筆跡も同じ輪郭をポイント単位で描き足すため、確定後の再描画と見た目が一致する。
+ */
+public final class StrokeRenderer {
+    
+    // 傾けたときに太くなる割合（真横に倒したときの倍率 - 1）
+    private static final float TILT_WIDENING = 0.5f;
+    // 細くなりすぎて見えなくならないための最小半径
+    private static final float MIN_RADIUS = 0.5f;
+    
+    private StrokeRenderer() {
+    }
+    
+    /**
+     * 筆圧に応じた線の太さ
+     */
+    public static float strokeWidth(float baseWidth, float pressure) {
+        return baseWidth * (0.5f + pressure * 1.5f);
+    }
+    
+    /**
+     * ポイントでの輪郭の半径（筆圧と傾きで決まる）
+     *
+     * @param tilt ペンの傾き（ラジアン、垂直が0）
+     */
+    public static float pointRadius(float baseWidth, float pressure, float tilt) {
+        float clampedTilt = Math.max(0f, Math.min((float) (Math.PI / 2), tilt));
+        float radius = strokeWidth(baseWidth, pressure) / 2f * (1f + TILT_WIDENING * (float) Math.sin(clampedTilt));
+        return Math.max(MIN_RADIUS, radius);
+    }
+    
+    /**
+     * 筆跡ペイントの初期設定（輪郭を塗りつぶす）
+     */
+    public static Paint createPaint() {
+        Paint paint = new Paint();
+        paint.setAntiAlias(true);
+        paint.setDither(true);
+        paint.setStyle(Paint.Style.FILL);
+        return paint;
+    }
+    
+    /**
+     * 筆跡を描画（輪郭はその場で作る。繰り返し描く場合は輪郭をキャッシュして使う）
+     */
+    public static void draw(Canvas canvas, StrokeData stroke, Paint paint) {
+        if (stroke.isEmpty()) {
+            return;
+        }
+        paint.setColor(stroke.getColor());
+        canvas.drawPath(StrokeTessellator.tessellate(stroke), paint);
+    }
+    
+    /**
+     * 筆跡が描画される範囲（線の太さを含む）
+     */
+    public static void computeBounds(StrokeData stroke, RectF bounds) {
+        if (stroke.isEmpty()) {
+            bounds.setEmpty();
+            return;
+        }
+        
+        float left = Float.MAX_VALUE;
+        float top = Float.MAX_VALUE;
+        float right = -Float.MAX_VALUE;
+        float bottom = -Float.MAX_VALUE;
+        float maxRadius = 0f;
+        for (int i = 0; i < stroke.getPointCount(); i++) {
+            float x = stroke.getX(i);
+            float y = stroke.getY(i);
+            left = Math.min(left, x);
+            top = Math.min(top, y);
+            right = Math.max(right, x);
+            bottom = Math.max(bottom, y);
+            maxRadius = Math.max(maxRadius, pointRadius(stroke.getWidth(), stroke.getPressure(i), stroke.getTiltX(i)));
+        }
+        
+        // アンチエイリアスの1pxと、キーポイント間の曲線が元のサンプルからずれる分を足す
+        float radius = maxRadius + 1f + StrokeSimplifier.TOLERANCE;
+        bounds.set(left - radius, top - radius, right + radius, bottom + radius);
+    }
+}
@@ -0,0 +1,101 @@
+package com.tqmane.notesapp.views;
+
+import com.tqmane.notesapp.models.StrokeData;
+
+/**
+ * 確定した筆跡の間引き（Ramer–Douglas–Peucker）
+ *
+ * 残したポイント同士を結ぶ線分から、間のポイントの中心と太さ（半径）のずれが
+ * どちらも許容誤差以内に収まるようにポイントを間引き、残すポイントの番号を筆跡データに付ける。
+ * 元のサンプルは消さない。描画ではキーポイントの間を曲線で補間する（StrokeTessellator）。
+ */
+final class StrokeSimplifier {
+    
+    // 許容誤差（ドキュメント座標のpx、最大倍率でも画面上で1px）
+    static final float TOLERANCE = 0.25f;
+    
+    private StrokeSimplifier() {
+    }
+    
+    /**
+     * 間引いた筆跡（間引き済みならそのまま返す）
+     */
+    static StrokeData simplify(StrokeData stroke) {
+        if (stroke.isSimplified()) {
+            return stroke;
+        }
+        int count = stroke.getPointCount();
+        if (count <= 2) {
+            int[] all = new int[count];
+            for (int i = 0; i < count; i++) {
+                all[i] = i;
+            }
+            return stroke.withKeyIndices(all);
+        }
+        
+        float[] radii = new float[count];
+        for (int i = 0; i < count; i++) {
+            radii[i] = StrokeRenderer.pointRadius(stroke.getWidth(), stroke.getPressure(i), stroke.getTiltX(i));
+        }
+        
+        // 分割する区間を再帰の代わりにスタックで処理する（長い筆跡でもスタックが溢れない）
+        boolean[] keep = new boolean[count];
+        keep[0] = true;
+        keep[count - 1] = true;
+        int keptCount = 2;
+        int[] stack = new int[count * 2];
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = count - 1;
+        while (top > 0) {
+            int last = stack[--top];
+            int first = stack[--top];
+            
+            int farthest = -1;
+            float maxError = TOLERANCE;
+            for (int i = first + 1; i < last; i++) {
+                float error = error(stroke, radii, first, last, i);
+                if (error > maxError) {
+                    maxError = error;
+                    farthest = i;
+                }
+            }
+            if (farthest < 0) {
+                continue;
+            }
+            keep[farthest] = true;
+            keptCount++;
+            stack[top++] = first;
+            stack[top++] = farthest;
+            stack[top++] = farthest;
+            stack[top++] = last;
+        }
+        
+        int[] keys = new int[keptCount];
+        int k = 0;
+        for (int i = 0; i < count; i++) {
+            if (keep[i]) {
+                keys[k++] = i;
+            }
+        }
+        return stroke.withKeyIndices(keys);
+    }
+    
+    /**
+     * ポイントiを線分first-lastで置き換えたときのずれ（中心の距離と半径の差の大きい方）
+     */
+    private static float error(StrokeData stroke, float[] radii, int first, int last, int i) {
+        float x0 = stroke.getX(first);
+        float y0 = stroke.getY(first);
+        float dx = stroke.getX(last) - x0;
+        float dy = stroke.getY(last) - y0;
+        float px = stroke.getX(i) - x0;
+        float py = stroke.getY(i) - y0;
+        
+        float lengthSquared = dx * dx + dy * dy;
+        float t = lengthSquared == 0f ? 0f : Math.max(0f, Math.min(1f, (px * dx + py * dy) / lengthSquared));
+        float distance = (float) Math.hypot(px - dx * t, py - dy * t);
+        float radiusError = Math.abs(radii[i] - (radii[first] + (radii[last] - radii[first]) * t));
+        return Math.max(distance, radiusError);
+    }
+}
@@ -0,0 +1,223 @@
+package com.tqmane.notesapp.views;
+
+import android.graphics.Path;
+import android.graphics.RectF;
+
+import com.tqmane.notesapp.models.StrokeData;
+
+/**
+ * 筆圧と傾きで太さが変わる筆跡の輪郭を作る
+ *
+ * ポイントごとに筆圧・傾きから決めた半径の円を置き、隣の円とは共通外接線で結んだ台形でつなぐ。
+ * 円と台形はすべて時計回りの輪郭として1つのPathに足し、WINDINGで塗って重なりを1つの形にする
+ * （区間ごとに描いても継ぎ目ができず、太さは区間の中でなめらかに変わる）。
+ * ポイントを追加するたびに追加分だけを作るため、入力中も確定後も1ポイントあたりの処理量は一定。
+ *
+ * 確定した筆跡は間引き後のキーポイント（StrokeSimplifier）だけから作る。キーポイントの間は
+ * Catmull-Rom曲線で補間し、弦からのずれが許容誤差を超える区間だけを細かく分ける。
+ */
+final class StrokeTessellator {
+    
+    // アンチエイリアスで輪郭の外側に描かれる幅
+    private static final float AA_MARGIN = 1f;
+    // キーポイント間の曲線を分割する最大数
+    private static final int MAX_SUBDIVISIONS = 16;
+    
+    // これまでの輪郭（入力中の筆跡では持たない）
+    private final Path outline;
+    // 直近に追加した部分（入力中の描き足し用）
+    private final Path piece = newPath();
+    private final RectF pieceBounds = new RectF();
+    private float lastX;
+    private float lastY;
+    private float lastRadius;
+    private int pointCount;
+    
+    /**
+     * 入力中の筆跡用（追加分だけを作り、全体の輪郭はポイント数に比例して大きくなるので持たない）
+     */
+    StrokeTessellator() {
+        this(false);
+    }
+    
+    private StrokeTessellator(boolean keepOutline) {
+        outline = keepOutline ? newPath() : null;
+    }
+    
+    /**
+     * 筆跡データ全体の輪郭をキーポイントから作る（未間引きなら全ポイント）
+     */
+    static Path tessellate(StrokeData stroke) {
+        StrokeTessellator tessellator = new StrokeTessellator(true);
+        int keyCount = stroke.getKeyCount();
+        for (int k = 0; k < keyCount; k++) {
+            if (k > 0) {
+                tessellator.addCurve(stroke,
+                        stroke.getKeyIndex(Math.max(0, k - 2)),
+                        stroke.getKeyIndex(k - 1),
+                        stroke.getKeyIndex(k),
+                        stroke.getKeyIndex(Math.min(keyCount - 1, k + 1)));
+            }
+            int i = stroke.getKeyIndex(k);
+            tessellator.addPoint(stroke.getX(i), stroke.getY(i), radius(stroke, i));
+        }
+        return tessellator.outline;
+    }
+    
+    /**
+     * ポイントi1とi2の間の曲線上の点を追加（両端は含まない）
+     *
+     * 接線は前後のポイントの差を区間の長さで按分したもの（長さの違う区間が隣り合っても膨らみにくい）。
+     */
+    private void addCurve(StrokeData stroke, int i0, int i1, int i2, int i3) {
+        float x0 = stroke.getX(i0);
+        float y0 = stroke.getY(i0);
+        float x1 = stroke.getX(i1);
+        float y1 = stroke.getY(i1);
+        float x2 = stroke.getX(i2);
+        float y2 = stroke.getY(i2);
+        float x3 = stroke.getX(i3);
+        float y3 = stroke.getY(i3);
+        
+        float d01 = (float) Math.hypot(x1 - x0, y1 - y0);
+        float d12 = (float) Math.hypot(x2 - x1, y2 - y1);
+        float d23 = (float) Math.hypot(x3 - x2, y3 - y2);
+        float s1 = d01 + d12 == 0f ? 0f : d12 / (d01 + d12);
+        float s2 = d12 + d23 == 0f ? 0f : d12 / (d12 + d23);
+        float m1x = (x2 - x0) * s1;
+        float m1y = (y2 - y0) * s1;
+        float m2x = (x3 - x1) * s2;
+        float m2y = (y3 - y1) * s2;
+        
+        // 曲線の中点と弦の中点の差は (m1 - m2) / 8 で、分割数の2乗に反比例して小さくなる
+        float deviation = (float) Math.hypot(m1x - m2x, m1y - m2y) / 8f;
+        if (deviation <= StrokeSimplifier.TOLERANCE) {
+            return;
+        }
+        int subdivisions = Math.min(MAX_SUBDIVISIONS, (int) Math.ceil(Math.sqrt(deviation / StrokeSimplifier.TOLERANCE)));
+        
+        float r1 = radius(stroke, i1);
+        float r2 = radius(stroke, i2);
+        for (int j = 1; j < subdivisions; j++) {
+            float t = j / (float) subdivisions;
+            float t2 = t * t;
+            float t3 = t2 * t;
+            // 3次エルミート補間
+            float h00 = 2f * t3 - 3f * t2 + 1f;
+            float h10 = t3 - 2f * t2 + t;
+            float h01 = -2f * t3 + 3f * t2;
+            float h11 = t3 - t2;
+            addPoint(
+                    h00 * x1 + h10 * m1x + h01 * x2 + h11 * m2x,
+                    h00 * y1 + h10 * m1y + h01 * y2 + h11 * m2y,
+                    r1 + (r2 - r1) * t);
+        }
+    }
+    
+    private static float radius(StrokeData stroke, int i) {
+        return StrokeRenderer.pointRadius(stroke.getWidth(), stroke.getPressure(i), stroke.getTiltX(i));
+    }
+    
+    void reset() {
+        if (outline != null) {
+            outline.rewind();
+        }
+        piece.rewind();
+        pieceBounds.setEmpty();
+        pointCount = 0;
+    }
+    
+    /**
+     * ポイントを追加（追加した部分はgetLastPiece()で取得できる）
+     */
+    void addPoint(float x, float y, float radius) {
+        piece.rewind();
+        if (pointCount > 0) {
+            appendTaper(piece, lastX, lastY, lastRadius, x, y, radius);
+        }
+        piece.addCircle(x, y, radius, Path.Direction.CW);
+        if (outline != null) {
+            outline.addPath(piece);
+        }
+        
+        pieceBounds.set(x - radius, y - radius, x + radius, y + radius);
+        if (pointCount > 0) {
+            pieceBounds.union(lastX - lastRadius, lastY - lastRadius, lastX + lastRadius, lastY + lastRadius);
+        }
+        pieceBounds.inset(-AA_MARGIN, -AA_MARGIN);
+        
+        lastX = x;
+        lastY = y;
+        lastRadius = radius;
+        pointCount++;
+    }
+    
+    /**
+     * 直近のaddPoint()で追加した部分
+     */
+    Path getLastPiece() {
+        return piece;
+    }
+    
+    /**
+     * 直近に追加した部分の描画範囲（アンチエイリアスの幅を含む）
+     */
+    RectF getLastPieceBounds() {
+        return pieceBounds;
+    }
+    
+    int getPointCount() {
+        return pointCount;
+    }
+    
+    /**
+     * 2つの円の共通外接線と円周で囲まれる台形を時計回りで追加
+     */
+    private static void appendTaper(Path path, float x0, float y0, float r0, float x1, float y1, float r1) {
+        float dx = x1 - x0;
+        float dy = y1 - y0;
+        float distance = (float) Math.hypot(dx, dy);
+        // 一方の円がもう一方に含まれるときは円だけで足りる
+        if (distance <= Math.abs(r0 - r1)) {
+            return;
+        }
+        
+        float ux = dx / distance;
+        float uy = dy / distance;
+        // 接点の方向 m = u*sin + n*cos（nはuの法線、sinは半径の差で決まる）
+        float sin = (r0 - r1) / distance;
+        float cos = (float) Math.sqrt(1f - sin * sin);
+        float leftX = ux * sin - uy * cos;
+        float leftY = uy * sin + ux * cos;
+        float rightX = ux * sin + uy * cos;
+        float rightY = uy * sin - ux * cos;
+        
+        float ax = x0 + r0 * leftX;
+        float ay = y0 + r0 * leftY;
+        float bx = x1 + r1 * leftX;
+        float by = y1 + r1 * leftY;
+        float cx = x1 + r1 * rightX;
+        float cy = y1 + r1 * rightY;
+        float qx = x0 + r0 * rightX;
+        float qy = y0 + r0 * rightY;
+        
+        path.moveTo(ax, ay);
+        // 画面座標（y軸が下向き）で時計回りになる順に結ぶ
+        if ((bx - ax) * (cy - by) - (by - ay) * (cx - bx) >= 0) {
+            path.lineTo(bx, by);
+            path.lineTo(cx, cy);
+            path.lineTo(qx, qy);
+        } else {
+            path.lineTo(qx, qy);
+            path.lineTo(cx, cy);
+            path.lineTo(bx, by);
+        }
+        path.close();
+    }
+    
+    private static Path newPath() {
+        Path path = new Path();
+        path.setFillType(Path.FillType.WINDING);
+        return path;
+    }
+}
@@ -0,0 +1,635 @@
+package com.tqmane.notesapp.views;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.RectF;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.LongSparseArray;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 固定サイズのタイルに分割した描画キャンバス
+ *
+ * タイルはインクが届いたときに初めて作り、メモリ上に置くのは表示範囲に見合った数だけにする。
+ * 上限を超えたタイルはLRUでディスクに退避する。退避ファイルの読み書きは専用のスレッドで行い、
+ * 表示範囲のすぐ外にある退避済みのタイルを先読みしておく。表示に必要になった時点で
+ * 読み込みが終わっていないタイルは、読み込みを待たずにモデルから描き直す。
+ * 読み込んだ筆跡や取り消し後の範囲は「要再描画」として印を付けるだけで、
+ * 実際のラスタライズは表示されたタイルに対してだけ行う。
+ *
+ * タイルは入力のたびに引くので、longのキーのまま引き（Longを作らない）、
+ * LRUはタイル自身の前後のリンクで持つ（入力中にメモリを確保しない）。
+ *
+ * 座標はすべてドキュメント座標（表示倍率1のピクセル）で扱う。タイルは表示倍率に近い2のべき乗の解像度
+ * （ドキュメント1ピクセルあたりscale画素）でラスタライズし、拡大表示でも1倍の画像を引き伸ばさない。
+ * 解像度の段階が変わったらタイルを捨て、表示されたものからモデルで描き直す。
+ */
+final class TileCanvas implements DrawingHistory.Raster {
+    
+    private static final String TAG = "TileCanvas";
+    
+    static final int TILE_SIZE = 256;
+    private static final int TILE_BYTES = TILE_SIZE * TILE_SIZE * 4;
+    // 表示範囲の周囲に余分に残すタイルの列数
+    private static final int RESIDENT_MARGIN = 2;
+    private static final int POOL_SIZE = 8;
+    // タイルの解像度の上限（表示倍率の上限に合わせる）
+    private static final int MAX_SCALE = 4;
+    // 表示倍率からタイルの解像度を決めるときの切り替え点（2のべき乗の間を対数で半分に分ける）
+    private static final float SQRT2 = (float) Math.sqrt(2);
+    
+    // 退避ファイルの読み書き・削除は1本のスレッドで順番に行う（書き込み前のファイルを読まないように）
+    private static final ExecutorService spillExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "TileSpill");
+        thread.setPriority(Thread.NORM_PRIORITY - 1);
+        return thread;
+    });
+    // 退避・先読みに使う画素のバッファ（保存スレッドとの受け渡しに使うので同期する）
+    private static final ArrayDeque<ByteBuffer> bufferPool = new ArrayDeque<>();
+    // 使用中の退避ディレクトリ（画面を作り直したときに前の画面のディレクトリを消さない）
+    private static final Set<String> activeSpillDirs = new HashSet<>();
+    
+    /**
+     * タイルの内容をモデル（筆跡データ）から描くための描画元
+     */
+    interface Source {
+        /**
+         * regionに重なる内容を描画（canvasはドキュメント座標に合わせてある）
+         */
+        void render(Canvas canvas, RectF region);
+    }
+    
+    private static class Tile {
+        final long key;
+        Bitmap bitmap;
+        Canvas canvas;
+        // モデルから描き直す必要がある
+        boolean stale;
+        // ディスク上の退避ファイルが最新
+        boolean spilled;
+        // 内容が変わるたびに増やす（古い先読みの結果を捨てる）
+        int version;
+        // 先読み中
+        boolean reading;
+        // 先読みした画素（メモリ上に戻すときに使う）
+        ByteBuffer prefetched;
+        // メモリ上のタイルのLRUでの前後（古い側がprev）
+        Tile prev;
+        Tile next;
+        
+        Tile(long key) {
+            this.key = key;
+        }
+    }
+    
+    /**
+     * 全タイルのコピー（Undo用のチェックポイント）
+     */
+    private static class Snapshot implements DrawingHistory.Checkpoint {
+        final LongSparseArray<Bitmap> bitmaps = new LongSparseArray<>();
+        
+        @Override
+        public long getByteCount() {
+            return (long) bitmaps.size() * TILE_BYTES;
+        }
+        
+        @Override
+        public void recycle() {
+            for (int i = 0; i < bitmaps.size(); i++) {
+                bitmaps.valueAt(i).recycle();
+            }
+            bitmaps.clear();
+        }
+    }
+    
+    private final Source source;
+    private final File spillDir;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // 内容のあるタイル（メモリ上・退避済み・要再描画のいずれか）
+    private final LongSparseArray<Tile> tiles = new LongSparseArray<>();
+    // メモリ上のタイルのLRU（番兵のnextが最も古く、prevが最も新しい）
+    private final Tile resident = new Tile(0);
+    private int residentCount;
+    private final ArrayDeque<Bitmap> pool = new ArrayDeque<>();
+    private int maxResident = 64;
+    // ドキュメント1ピクセルあたりのタイルの画素数
+    private int scale = 1;
+    
+    private final Paint tilePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final RectF tileRect = new RectF();
+    private final List<Tile> visitList = new ArrayList<>();
+    // 先読みした画素を持っているタイル
+    private final Set<Tile> prefetchedTiles = new HashSet<>();
+    private final RectF prefetchRegion = new RectF();
+    
+    TileCanvas(File cacheDir, Source source) {
+        this.source = source;
+        resident.prev = resident;
+        resident.next = resident;
+        
+        // 前回のプロセスが残した退避ファイルを片付けてから、この画面専用のディレクトリを作る（退避スレッドで）
+        File root = new File(cacheDir, "tiles");
+        this.spillDir = new File(root, UUID.randomUUID().toString());
+        synchronized (activeSpillDirs) {
+            activeSpillDirs.add(spillDir.getName());
+        }
+        spillExecutor.execute(() -> {
+            File[] leftovers = root.listFiles();
+            if (leftovers != null) {
+                for (File dir : leftovers) {
+                    if (!isActiveSpillDir(dir)) {
+                        deleteDir(dir);
+                    }
+                }
+            }
+            spillDir.mkdirs();
+        });
+    }
+    
+    /**
+     * 表示倍率に近い2のべき乗のタイルの解像度（1以上MAX_SCALE以下）
+     */
+    static int scaleForZoom(float zoom) {
+        int scale = 1;
+        while (scale < MAX_SCALE && zoom >= scale * SQRT2) {
+            scale *= 2;
+        }
+        return scale;
+    }
+    
+    /**
+     * タイルの解像度を変える（変わった場合はすべてのタイルを捨てるので、呼び出し側で内容を要再描画にし直す）
+     *
+     * @return 解像度が変わったか
+     */
+    boolean setScale(int scale) {
+        if (scale == this.scale) {
+            return false;
+        }
+        clear();
+        this.scale = scale;
+        return true;
+    }
+    
+    /**
+     * 表示サイズと最小倍率からメモリ上に置くタイル数を決める
+     * 画面上のタイルが最も小さくなるのは、最小倍率か、解像度を上げた直後（倍率/解像度 = 1/√2）
+     */
+    void setViewport(int width, int height, float minZoom) {
+        float minTileZoom = Math.min(minZoom, 1 / SQRT2);
+        int columns = (int) Math.ceil(width / (TILE_SIZE * minTileZoom)) + 1 + RESIDENT_MARGIN;
+        int rows = (int) Math.ceil(height / (TILE_SIZE * minTileZoom)) + 1 + RESIDENT_MARGIN;
+        maxResident = columns * rows;
+        trim();
+    }
+    
+    /**
+     * 輪郭を描き足す（boundsに重なるタイルは必要に応じて作る）
+     */
+    void drawPath(Path path, RectF bounds, Paint paint) {
+        collectTiles(bounds, true);
+        for (Tile tile : visitList) {
+            tile.canvas.drawPath(path, paint);
+        }
+        visitList.clear();
+    }
+    
+    /**
+     * 範囲に重なるタイルを要再描画にする（表示されたときにモデルから描き直す）
+     */
+    void invalidate(RectF region) {
+        if (region.isEmpty()) {
+            return;
+        }
+        int left = tileIndex(region.left);
+        int top = tileIndex(region.top);
+        int right = tileIndex(region.right);
+        int bottom = tileIndex(region.bottom);
+        for (int ty = top; ty <= bottom; ty++) {
+            for (int tx = left; tx <= right; tx++) {
+                long key = key(tx, ty);
+                Tile tile = tiles.get(key);
+                if (tile == null) {
+                    tile = new Tile(key);
+                    tiles.put(key, tile);
+                }
+                if (tile.bitmap != null) {
+                    release(tile);
+                }
+                discardSpill(tile);
+                tile.stale = true;
+            }
+        }
+    }
+    
+    /**
+     * すべてのタイルを破棄
+     */
+    void clear() {
+        for (int i = 0; i < tiles.size(); i++) {
+            Tile tile = tiles.valueAt(i);
+            if (tile.bitmap != null) {
+                recycleToPool(tile.bitmap);
+            }
+            discardSpill(tile);
+        }
+        tiles.clear();
+        resident.prev = resident;
+        resident.next = resident;
+        residentCount = 0;
+        prefetchedTiles.clear();
+    }
+    
+    /**
+     * 表示範囲のタイルを描画（canvasはドキュメント座標に合わせてある）
+     */
+    void draw(Canvas canvas, RectF visible) {
+        collectTiles(visible, false);
+        for (Tile tile : visitList) {
+            tileBounds(tile.key, tileRect);
+            canvas.drawBitmap(tile.bitmap, null, tileRect, tilePaint);
+        }
+        visitList.clear();
+        trim();
+        prefetchAround(visible);
+    }
+    
+    /**
+     * 後片付け（退避ファイルも削除）
+     */
+    void release() {
+        clear();
+        while (!pool.isEmpty()) {
+            pool.pop().recycle();
+        }
+        spillExecutor.execute(() -> {
+            deleteDir(spillDir);
+            synchronized (activeSpillDirs) {
+                activeSpillDirs.remove(spillDir.getName());
+            }
+        });
+    }
+    
+    /**
+     * チェックポイントは現在の解像度のタイルの画素なので、解像度を変えたら使えない（DrawingHistory側で捨てる）
+     */
+    @Override
+    public DrawingHistory.Checkpoint snapshot(long maxBytes) {
+        // メモリ上にないタイルがあるほど大きい場合は作らない（Undoは範囲の描き直しになる）
+        if (residentCount != tiles.size() || (long) tiles.size() * TILE_BYTES > maxBytes) {
+            return null;
+        }
+        Snapshot snapshot = new Snapshot();
+        for (int i = 0; i < tiles.size(); i++) {
+            Tile tile = tiles.valueAt(i);
+            if (tile.stale) {
+                snapshot.recycle();
+                return null;
+            }
+            snapshot.bitmaps.put(tile.key, tile.bitmap.copy(Bitmap.Config.ARGB_8888, false));
+        }
+        return snapshot;
+    }
+    
+    @Override
+    public void restore(DrawingHistory.Checkpoint checkpoint) {
+        clear();
+        LongSparseArray<Bitmap> bitmaps = ((Snapshot) checkpoint).bitmaps;
+        for (int i = 0; i < bitmaps.size(); i++) {
+            Tile tile = new Tile(bitmaps.keyAt(i));
+            attach(tile, obtainBitmap());
+            tileBounds(tile.key, tileRect);
+            tile.canvas.drawBitmap(bitmaps.valueAt(i), null, tileRect, null);
+            tiles.put(tile.key, tile);
+            linkNewest(tile);
+        }
+        trim();
+    }
+    
+    /**
+     * 範囲に重なるタイルをメモリ上に用意してvisitListに集める
+     *
+     * @param create 内容のないタイルも作るか（描き足すとき）
+     */
+    private void collectTiles(RectF region, boolean create) {
+        int left = tileIndex(region.left);
+        int top = tileIndex(region.top);
+        int right = tileIndex(region.right);
+        int bottom = tileIndex(region.bottom);
+        for (int ty = top; ty <= bottom; ty++) {
+            for (int tx = left; tx <= right; tx++) {
+                long key = key(tx, ty);
+                Tile tile = tiles.get(key);
+                if (tile == null) {
+                    if (!create) {
+                        continue;
+                    }
+                    tile = new Tile(key);
+                    tiles.put(key, tile);
+                }
+                ensureResident(tile);
+                if (create && tile.spilled) {
+                    // 描き足すと退避ファイルは古くなる
+                    discardSpill(tile);
+                }
+                visitList.add(tile);
+            }
+        }
+    }
+    
+    private void ensureResident(Tile tile) {
+        if (tile.bitmap != null) {
+            unlink(tile);
+            linkNewest(tile);
+            return;
+        }
+        
+        attach(tile, obtainBitmap());
+        if (tile.prefetched != null) {
+            // 先読みが終わっていればメモリ上のコピーだけで戻せる
+            tile.bitmap.copyPixelsFromBuffer(tile.prefetched);
+            releasePrefetched(tile);
+        } else if (tile.stale || tile.spilled) {
+            // 要再描画か、退避ファイルの読み込みが間に合わなかったのでモデルから描き直す
+            int saveCount = tile.canvas.save();
+            tileBounds(tile.key, tileRect);
+            tile.canvas.clipRect(tileRect);
+            source.render(tile.canvas, tileRect);
+            tile.canvas.restoreToCount(saveCount);
+            tile.stale = false;
+        }
+        linkNewest(tile);
+    }
+    
+    private void attach(Tile tile, Bitmap bitmap) {
+        tile.bitmap = bitmap;
+        tile.canvas = new Canvas(bitmap);
+        // ドキュメント座標で描けるよう、タイルの解像度に拡大してタイル左上が原点に来るようにずらしておく
+        float span = tileSpan();
+        tile.canvas.scale(scale, scale);
+        tile.canvas.translate(-tileX(tile.key) * span, -tileY(tile.key) * span);
+    }
+    
+    /**
+     * 上限を超えたタイルを古い順に退避
+     */
+    private void trim() {
+        while (residentCount > maxResident) {
+            Tile tile = resident.next;
+            if (!tile.spilled) {
+                writeSpill(tile);
+            }
+            unlink(tile);
+            recycleToPool(tile.bitmap);
+            tile.bitmap = null;
+            tile.canvas = null;
+        }
+    }
+    
+    private void release(Tile tile) {
+        unlink(tile);
+        recycleToPool(tile.bitmap);
+        tile.bitmap = null;
+        tile.canvas = null;
+    }
+    
+    /**
+     * LRUの最も新しい位置に入れる
+     */
+    private void linkNewest(Tile tile) {
+        tile.prev = resident.prev;
+        tile.next = resident;
+        resident.prev.next = tile;
+        resident.prev = tile;
+        residentCount++;
+    }
+    
+    private void unlink(Tile tile) {
+        tile.prev.next = tile.next;
+        tile.next.prev = tile.prev;
+        tile.prev = null;
+        tile.next = null;
+        residentCount--;
+    }
+    
+    /**
+     * タイルの画素をコピーし、ファイルへの書き込みは退避スレッドで行う
+     */
+    private void writeSpill(Tile tile) {
+        ByteBuffer buffer = obtainBuffer();
+        tile.bitmap.copyPixelsToBuffer(buffer);
+        buffer.flip();
+        File file = spillFile(tile.key);
+        // 書き込みが失敗しても、読み込みが失敗するだけでモデルから描き直される
+        tile.spilled = true;
+        spillExecutor.execute(() -> {
+            try (FileOutputStream out = new FileOutputStream(file)) {
+                while (buffer.hasRemaining()) {
+                    out.getChannel().write(buffer);
+                }
+            } catch (IOException e) {
+                android.util.Log.w(TAG, "Error spilling tile", e);
+            } finally {
+                recycleBuffer(buffer);
+            }
+        });
+    }
+    
+    /**
+     * 表示範囲のすぐ外にある退避済みのタイルを先読みし、離れたタイルの先読み結果は捨てる
+     */
+    private void prefetchAround(RectF visible) {
+        float span = tileSpan();
+        prefetchRegion.set(visible.left - span, visible.top - span,
+                visible.right + span, visible.bottom + span);
+        Iterator<Tile> iterator = prefetchedTiles.iterator();
+        while (iterator.hasNext()) {
+            Tile tile = iterator.next();
+            tileBounds(tile.key, tileRect);
+            if (!RectF.intersects(tileRect, prefetchRegion)) {
+                recycleBuffer(tile.prefetched);
+                tile.prefetched = null;
+                iterator.remove();
+            }
+        }
+        
+        int left = tileIndex(prefetchRegion.left);
+        int top = tileIndex(prefetchRegion.top);
+        int right = tileIndex(prefetchRegion.right);
+        int bottom = tileIndex(prefetchRegion.bottom);
+        for (int ty = top; ty <= bottom; ty++) {
+            for (int tx = left; tx <= right; tx++) {
+                Tile tile = tiles.get(key(tx, ty));
+                if (tile != null && tile.spilled && tile.bitmap == null
+                        && tile.prefetched == null && !tile.reading) {
+                    readSpill(tile);
+                }
+            }
+        }
+    }
+    
+    /**
+     * 退避ファイルを退避スレッドで読み、メインスレッドでタイルに渡す
+     */
+    private void readSpill(Tile tile) {
+        tile.reading = true;
+        int version = tile.version;
+        File file = spillFile(tile.key);
+        spillExecutor.execute(() -> {
+            ByteBuffer buffer = obtainBuffer();
+            try (FileInputStream in = new FileInputStream(file)) {
+                while (buffer.hasRemaining() && in.getChannel().read(buffer) >= 0) {
+                    // 読み切るまで続ける
+                }
+                buffer.flip();
+            } catch (IOException e) {
+                android.util.Log.w(TAG, "Error reading spilled tile", e);
+                recycleBuffer(buffer);
+                buffer = null;
+            }
+            ByteBuffer pixels = buffer;
+            mainHandler.post(() -> onSpillRead(tile, version, pixels));
+        });
+    }
+    
+    private void onSpillRead(Tile tile, int version, ByteBuffer pixels) {
+        tile.reading = false;
+        if (pixels == null) {
+            return;
+        }
+        // 読み込み中に描き直された・メモリ上に戻された・破棄されたタイルには使わない
+        if (tile.version != version || !tile.spilled || tile.bitmap != null
+                || pixels.remaining() != TILE_BYTES || tiles.get(tile.key) != tile) {
+            recycleBuffer(pixels);
+            return;
+        }
+        tile.prefetched = pixels;
+        prefetchedTiles.add(tile);
+    }
+    
+    /**
+     * 退避ファイルと先読みした画素を捨てる（内容が変わったとき）
+     */
+    private void discardSpill(Tile tile) {
+        tile.version++;
+        releasePrefetched(tile);
+        if (tile.spilled) {
+            tile.spilled = false;
+            File file = spillFile(tile.key);
+            spillExecutor.execute(file::delete);
+        }
+    }
+    
+    private void releasePrefetched(Tile tile) {
+        if (tile.prefetched != null) {
+            recycleBuffer(tile.prefetched);
+            tile.prefetched = null;
+            prefetchedTiles.remove(tile);
+        }
+    }
+    
+    private static ByteBuffer obtainBuffer() {
+        ByteBuffer buffer;
+        synchronized (bufferPool) {
+            buffer = bufferPool.poll();
+        }
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(TILE_BYTES);
+        }
+        buffer.clear();
+        return buffer;
+    }
+    
+    private static void recycleBuffer(ByteBuffer buffer) {
+        synchronized (bufferPool) {
+            if (bufferPool.size() < POOL_SIZE) {
+                bufferPool.push(buffer);
+            }
+        }
+    }
+    
+    private static boolean isActiveSpillDir(File dir) {
+        synchronized (activeSpillDirs) {
+            return activeSpillDirs.contains(dir.getName());
+        }
+    }
+    
+    private Bitmap obtainBitmap() {
+        Bitmap bitmap = pool.poll();
+        if (bitmap == null) {
+            return Bitmap.createBitmap(TILE_SIZE, TILE_SIZE, Bitmap.Config.ARGB_8888);
+        }
+        bitmap.eraseColor(Color.TRANSPARENT);
+        return bitmap;
+    }
+    
+    private void recycleToPool(Bitmap bitmap) {
+        if (pool.size() < POOL_SIZE) {
+            pool.push(bitmap);
+        } else {
+            bitmap.recycle();
+        }
+    }
+    
+    private File spillFile(long key) {
+        return new File(spillDir, tileX(key) + "_" + tileY(key) + ".tile");
+    }
+    
+    /**
+     * タイル1枚が覆うドキュメント座標の幅
+     */
+    private float tileSpan() {
+        return (float) TILE_SIZE / scale;
+    }
+    
+    private void tileBounds(long key, RectF out) {
+        float span = tileSpan();
+        float left = tileX(key) * span;
+        float top = tileY(key) * span;
+        out.set(left, top, left + span, top + span);
+    }
+    
+    private int tileIndex(float coordinate) {
+        return (int) Math.floor(coordinate * scale / TILE_SIZE);
+    }
+    
+    private static long key(int tx, int ty) {
+        return ((long) tx << 32) | (ty & 0xFFFFFFFFL);
+    }
+    
+    private static int tileX(long key) {
+        return (int) (key >> 32);
+    }
+    
+    private static int tileY(long key) {
+        return (int) key;
+    }
+    
+    private static void deleteDir(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+}
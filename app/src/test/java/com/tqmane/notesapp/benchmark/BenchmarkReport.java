@@ -0,0 +1,98 @@
+package com.tqmane.notesapp.benchmark;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * ベンチマークの結果（JSONで書き出して、CIの実行ごとの推移を比較できるようにする）
+ */
+public final class BenchmarkReport {
+    
+    /**
+     * 計測値の分布（単位は項目名の接尾辞で表す）
+     */
+    public static final class Distribution {
+        public int count;
+        public double mean;
+        public double p50;
+        public double p90;
+        public double p99;
+        public double max;
+    }
+    
+    /**
+     * 1つの計測対象の結果
+     */
+    public static final class Section {
+        public final String name;
+        public final Map<String, Distribution> distributions = new LinkedHashMap<>();
+        public final Map<String, Double> values = new LinkedHashMap<>();
+        
+        public Section(String name) {
+            this.name = name;
+        }
+    }
+    
+    public final long timestamp = System.currentTimeMillis();
+    // 実行環境（JVM上で実行するので、比較は同じ環境の結果どうしで行う）
+    public final String runtime = System.getProperty("java.vm.name") + " " + System.getProperty("java.version");
+    public final String os = System.getProperty("os.name") + " " + System.getProperty("os.arch");
+    public final int processors = Runtime.getRuntime().availableProcessors();
+    public final List<Section> sections = new ArrayList<>();
+    
+    /**
+     * テストのログに出す要約（分布は平均とp99だけ）
+     */
+    public String toSummary() {
+        StringBuilder builder = new StringBuilder();
+        for (Section section : sections) {
+            builder.append(section.name).append('\n');
+            for (Map.Entry<String, Distribution> entry : section.distributions.entrySet()) {
+                Distribution distribution = entry.getValue();
+                builder.append(String.format(Locale.US, "  %s: mean %.1f, p99 %.1f (n=%d)%n",
+                        entry.getKey(), distribution.mean, distribution.p99, distribution.count));
+            }
+            for (Map.Entry<String, Double> entry : section.values.entrySet()) {
+                builder.append(String.format(Locale.US, "  %s: %.1f%n", entry.getKey(), entry.getValue()));
+            }
+        }
+        return builder.toString();
+    }
+    
+    /**
+     * 結果の出力先（システムプロパティbenchmark.outputDir、未指定ならモジュールのbuild/benchmarks）
+     */
+    public static File getOutputDir() {
+        return new File(System.getProperty("benchmark.outputDir", "build/benchmarks"));
+    }
+    
+    /**
+     * ディレクトリにJSONで書き出す（ファイル名は名前と実行日時）
+     */
+    public File writeTo(File dir, String name) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        String date = new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date(timestamp));
+        File file = new File(dir, name + "-" + date + ".json");
+        Gson gson = new GsonBuilder().setPrettyPrinting().serializeSpecialFloatingPointValues().create();
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            gson.toJson(this, writer);
+        }
+        return file;
+    }
+}
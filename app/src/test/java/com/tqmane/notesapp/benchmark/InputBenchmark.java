@@ -0,0 +1,160 @@
+package com.tqmane.notesapp.benchmark;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.os.SystemClock;
+import android.view.MotionEvent;
+import android.view.View;
+
+import com.tqmane.notesapp.stylus.TouchPointBuffer;
+import com.tqmane.notesapp.stylus.prediction.MotionPredictor;
+import com.tqmane.notesapp.stylus.prediction.PredictionErrorTracker;
+import com.tqmane.notesapp.stylus.prediction.StrokePredictor;
+import com.tqmane.notesapp.views.DrawingView;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * 入力から描画までの処理のベンチマーク
+ *
+ * 入力イベントの列（InputTrace）を画面に出していないDrawingViewに流し、
+ * イベントごとの処理時間（UnifiedStylusManagerでの処理からタイルへの描き込みまで）と
+ * 確保したメモリのバイト数、イベントごとに1フレームとした描画時間を計測する。
+ * 動き予測の誤差は、ビューで使った予測の分とpredictionで予測アルゴリズムと予測時間を変えた分を出す。
+ * Robolectricのテストから実行する（InputBenchmarkTest）。
+ */
+public final class InputBenchmark {
+    
+    private final String name;
+    private final InputTrace trace;
+    private final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    private final DrawingView view;
+    private final Bitmap frame;
+    private final Canvas frameCanvas;
+    
+    private final Samples eventNanos = new Samples();
+    private final Samples eventAllocatedBytes = new Samples();
+    private final Samples frameNanos = new Samples();
+    private final long startTime;
+    private long downTime;
+    private int nextEvent;
+    private int strokeCount;
+    
+    public InputBenchmark(Context context, String name, InputTrace trace, int width, int height) {
+        this.name = name;
+        this.trace = trace;
+        
+        view = new DrawingView(context);
+        view.measure(View.MeasureSpec.makeMeasureSpec(width, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(height, View.MeasureSpec.EXACTLY));
+        view.layout(0, 0, width, height);
+        frame = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        frameCanvas = new Canvas(frame);
+        startTime = SystemClock.uptimeMillis();
+    }
+    
+    /**
+     * 次の筆跡の終わりまでを再生
+     *
+     * @return まだ残りがあるか
+     */
+    public boolean step() {
+        while (nextEvent < trace.getEventCount()) {
+            int index = nextEvent++;
+            int action = trace.getAction(index);
+            if (action == MotionEvent.ACTION_DOWN) {
+                downTime = startTime + trace.getEventTime(index);
+                strokeCount++;
+            }
+            MotionEvent event = trace.obtainEvent(index, startTime, downTime);
+            
+            long allocatedBefore = threads.getCurrentThreadAllocatedBytes();
+            long begin = System.nanoTime();
+            view.dispatchTouchEvent(event);
+            long end = System.nanoTime();
+            eventAllocatedBytes.add(threads.getCurrentThreadAllocatedBytes() - allocatedBefore);
+            eventNanos.add(end - begin);
+            event.recycle();
+            
+            // 入力イベントごとに1フレーム描く（実機では表示の更新ごとに1イベントにまとめられる）
+            begin = System.nanoTime();
+            view.draw(frameCanvas);
+            frameNanos.add(System.nanoTime() - begin);
+            
+            if (action == MotionEvent.ACTION_UP) {
+                break;
+            }
+        }
+        return nextEvent < trace.getEventCount();
+    }
+    
+    /**
+     * 全体を再生
+     */
+    public void run() {
+        while (step()) {
+            // 1筆跡ずつ進める
+        }
+    }
+    
+    /**
+     * 結果をまとめて後片付けする
+     */
+    public BenchmarkReport.Section finish() {
+        PredictionErrorTracker predictionErrors = view.getStrokePredictor().getErrorTracker();
+        view.cleanup();
+        frame.recycle();
+        
+        BenchmarkReport.Section section = new BenchmarkReport.Section(name);
+        section.distributions.put("eventMicros", eventNanos.summarize(1000));
+        section.distributions.put("allocatedBytesPerEvent", eventAllocatedBytes.summarize(1));
+        section.distributions.put("frameMicros", frameNanos.summarize(1000));
+        section.values.put("events", (double) eventNanos.size());
+        section.values.put("samples", (double) trace.getSampleCount());
+        section.values.put("strokes", (double) strokeCount);
+        section.values.put("strokeFootprintBytes", (double) view.getStrokeFootprintBytes());
+        section.values.put("predictionHorizonMillis", (double) view.getStrokePredictor().getHorizonMillis());
+        putPredictionErrors(section, predictionErrors);
+        return section;
+    }
+    
+    /**
+     * 入力イベントの列のサンプルだけを予測アルゴリズムに流し、予測時間先の位置の誤差を集計
+     *
+     * ビューと同じく移動イベントごとに予測し、以降のサンプルで答え合わせする。
+     */
+    public static BenchmarkReport.Section prediction(String name, InputTrace trace,
+                                                     MotionPredictor predictor, long horizonMillis) {
+        StrokePredictor strokePredictor = new StrokePredictor(predictor, horizonMillis);
+        TouchPointBuffer samples = new TouchPointBuffer(64, false);
+        TouchPointBuffer predicted = new TouchPointBuffer(16, false);
+        for (int e = 0; e < trace.getEventCount(); e++) {
+            int action = trace.getAction(e);
+            if (action == MotionEvent.ACTION_DOWN) {
+                strokePredictor.startStroke();
+            }
+            samples.clear();
+            for (int i = trace.getFirstSample(e); i < trace.getSampleEnd(e); i++) {
+                samples.add(trace.getX(i), trace.getY(i), trace.getPressure(i), 0, 0, trace.getSampleTime(i));
+            }
+            strokePredictor.addSamples(samples);
+            if (action == MotionEvent.ACTION_MOVE) {
+                strokePredictor.predict(predicted);
+            }
+        }
+        
+        BenchmarkReport.Section section = new BenchmarkReport.Section(name);
+        section.values.put("predictionHorizonMillis", (double) horizonMillis);
+        putPredictionErrors(section, strokePredictor.getErrorTracker());
+        return section;
+    }
+    
+    private static void putPredictionErrors(BenchmarkReport.Section section, PredictionErrorTracker errors) {
+        section.values.put("predictions", (double) errors.getCount());
+        section.values.put("predictionMeanErrorPx", (double) errors.getMeanError());
+        section.values.put("predictionRmsErrorPx", (double) errors.getRmsError());
+        section.values.put("predictionMaxErrorPx", (double) errors.getMaxError());
+    }
+}
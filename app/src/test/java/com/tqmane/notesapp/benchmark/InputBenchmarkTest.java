@@ -0,0 +1,150 @@
+package com.tqmane.notesapp.benchmark;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.view.MotionEvent;
+
+import com.tqmane.notesapp.stylus.prediction.KalmanPredictor;
+import com.tqmane.notesapp.stylus.prediction.MotionPredictor;
+import com.tqmane.notesapp.stylus.prediction.PolynomialPredictor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.GraphicsMode;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.Arrays;
+
+/**
+ * 入力から描画までのベンチマーク（合成した入力と、リソースのtraces/*.traceを再生する）
+ * 同じ入力で予測アルゴリズムと予測時間ごとの予測誤差も出す。
+ *
+ * 描画の時間を計測できるように、Robolectricの実際に描画するモード（NATIVE）で実行する。
+ * 結果はBenchmarkReport.getOutputDir()にJSONで書き出す。
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+public class InputBenchmarkTest {
+    
+    // 再生に使う画面の大きさ（一般的なタブレットの縦向き）
+    private static final int VIEW_WIDTH = 1200;
+    private static final int VIEW_HEIGHT = 1920;
+    private static final int SYNTHETIC_STROKES = 40;
+    // 予測誤差を比べる予測時間（ミリ秒）
+    private static final long[] PREDICTION_HORIZONS = {8, 16, 24, 32};
+    
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+    
+    @Test
+    public void replayTraces() throws IOException, URISyntaxException {
+        Context context = RuntimeEnvironment.getApplication();
+        BenchmarkReport report = new BenchmarkReport();
+        
+        InputTrace batched = InputTrace.synthetic(1, SYNTHETIC_STROKES, 240, 4, VIEW_WIDTH, VIEW_HEIGHT);
+        InputTrace single = InputTrace.synthetic(1, SYNTHETIC_STROKES, 120, 1, VIEW_WIDTH, VIEW_HEIGHT);
+        report.sections.add(replay(context, "input/synthetic-240hz-batched", batched, SYNTHETIC_STROKES));
+        report.sections.add(replay(context, "input/synthetic-120hz", single, SYNTHETIC_STROKES));
+        addPredictionSweep(report, "synthetic-240hz-batched", batched);
+        addPredictionSweep(report, "synthetic-120hz", single);
+        
+        URL traces = getClass().getClassLoader().getResource("traces");
+        File[] recorded = traces != null
+                ? new File(traces.toURI()).listFiles((dir, name) -> name.endsWith(".trace"))
+                : null;
+        if (recorded != null) {
+            Arrays.sort(recorded);
+            for (File file : recorded) {
+                InputTrace trace = InputTrace.readFrom(file);
+                report.sections.add(replay(context, "input/" + file.getName(), trace, -1));
+                addPredictionSweep(report, file.getName(), trace);
+            }
+        }
+        
+        File file = report.writeTo(BenchmarkReport.getOutputDir(), "input");
+        System.out.println(report.toSummary() + file.getAbsolutePath());
+    }
+    
+    @Test
+    public void traceSurvivesFileRoundTrip() throws IOException {
+        InputTrace trace = InputTrace.synthetic(7, 3, 240, 4, VIEW_WIDTH, VIEW_HEIGHT);
+        File file = temporaryFolder.newFile("round-trip.trace");
+        trace.writeTo(file);
+        InputTrace read = InputTrace.readFrom(file);
+        
+        assertEquals(trace.getEventCount(), read.getEventCount());
+        assertEquals(trace.getSampleCount(), read.getSampleCount());
+        for (int e = 0; e < trace.getEventCount(); e++) {
+            assertEquals(trace.getAction(e), read.getAction(e));
+            assertEquals(trace.getEventTime(e), read.getEventTime(e));
+        }
+    }
+    
+    @Test(expected = IOException.class)
+    public void rejectsOtherFiles() throws IOException {
+        try (InputStream in = new ByteArrayInputStream(new byte[] {'P', 'N', 'G', 0, 0, 0, 0, 1})) {
+            InputTrace.readFrom(in, "image.png");
+        }
+    }
+    
+    @Test
+    public void syntheticTraceHasWholeStrokes() {
+        InputTrace trace = InputTrace.synthetic(1, 5, 240, 4, VIEW_WIDTH, VIEW_HEIGHT);
+        int downs = 0;
+        int ups = 0;
+        for (int e = 0; e < trace.getEventCount(); e++) {
+            if (trace.getAction(e) == MotionEvent.ACTION_DOWN) {
+                assertEquals(downs, ups);
+                downs++;
+            } else if (trace.getAction(e) == MotionEvent.ACTION_UP) {
+                ups++;
+            }
+        }
+        assertEquals(5, downs);
+        assertEquals(5, ups);
+    }
+    
+    /**
+     * 予測アルゴリズムと予測時間の組み合わせごとの予測誤差
+     */
+    private static void addPredictionSweep(BenchmarkReport report, String traceName, InputTrace trace) {
+        for (long horizon : PREDICTION_HORIZONS) {
+            for (MotionPredictor predictor : new MotionPredictor[] {
+                    new KalmanPredictor(), new PolynomialPredictor(8, 2), new PolynomialPredictor(8, 1)}) {
+                String name = "prediction/" + traceName + "/" + predictor.getName() + "/" + horizon + "ms";
+                BenchmarkReport.Section section = InputBenchmark.prediction(name, trace, predictor, horizon);
+                
+                assertTrue(section.values.get("predictions") > 0);
+                report.sections.add(section);
+            }
+        }
+    }
+    
+    private static BenchmarkReport.Section replay(Context context, String name, InputTrace trace,
+                                                  int expectedStrokes) {
+        InputBenchmark benchmark = new InputBenchmark(context, name, trace, VIEW_WIDTH, VIEW_HEIGHT);
+        benchmark.run();
+        BenchmarkReport.Section section = benchmark.finish();
+        
+        assertEquals((double) trace.getEventCount(), section.values.get("events"), 0);
+        if (expectedStrokes >= 0) {
+            assertEquals((double) expectedStrokes, section.values.get("strokes"), 0);
+        }
+        // 再生した筆跡がビューに残っている
+        assertTrue(section.values.get("strokeFootprintBytes") > 0);
+        return section;
+    }
+}
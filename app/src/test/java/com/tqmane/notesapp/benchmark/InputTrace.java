@@ -0,0 +1,269 @@
+package com.tqmane.notesapp.benchmark;
+
+import android.view.InputDevice;
+import android.view.MotionEvent;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * 記録または合成した入力イベントの列（ベンチマークで再生する）
+ * 記録した入力はテストのリソース（traces/*.trace）に置く。
+ *
+ * イベントごとに動作とサンプルの範囲を持ち、サンプル（座標・筆圧・傾き・時刻）は項目ごとの配列に並べる。
+ * 1つのイベントに複数のサンプルがある場合、最後以外は履歴サンプルとして再生する。
+ * 時刻は最初のイベントからの経過ミリ秒。
+ *
+ * ファイル形式: [magic:4][version:4][eventCount:4][sampleCount:4]
+ *              event = [action:1][firstSample:4]、sample = [time:8][x:4][y:4][pressure:4][tilt:4][orientation:4]
+ */
+public final class InputTrace {
+    
+    private static final int MAGIC = 0x4E545243; // "NTRC"
+    private static final int VERSION = 1;
+    
+    private int eventCount;
+    private int[] actions = new int[64];
+    // イベントの最初のサンプルの番号（最後は次のイベントの最初まで）
+    private int[] firstSamples = new int[64];
+    
+    private int sampleCount;
+    private long[] times = new long[256];
+    private float[] xs = new float[256];
+    private float[] ys = new float[256];
+    private float[] pressures = new float[256];
+    private float[] tilts = new float[256];
+    private float[] orientations = new float[256];
+    
+    /**
+     * 手書きに近い筆跡の入力を合成（同じ引数なら同じ入力になる）
+     *
+     * @param sampleRateHz ペンのサンプリングレート
+     * @param samplesPerEvent 1イベントにまとめるサンプル数（表示のリフレッシュレートとの比）
+     */
+    public static InputTrace synthetic(long seed, int strokeCount, int sampleRateHz, int samplesPerEvent,
+                                       float width, float height) {
+        InputTrace trace = new InputTrace();
+        Random random = new Random(seed);
+        double interval = 1000.0 / sampleRateHz;
+        double time = 0;
+        
+        for (int s = 0; s < strokeCount; s++) {
+            // ループを含む曲線（リサージュ）を0.3〜1秒かけて描く
+            float centerX = width * (0.2f + 0.6f * random.nextFloat());
+            float centerY = height * (0.2f + 0.6f * random.nextFloat());
+            float radiusX = width * (0.05f + 0.1f * random.nextFloat());
+            float radiusY = height * (0.03f + 0.06f * random.nextFloat());
+            double frequencyX = 1 + random.nextInt(3);
+            double frequencyY = 1 + random.nextInt(3);
+            double phase = random.nextDouble() * Math.PI * 2;
+            int samples = (int) (sampleRateHz * (0.3 + 0.7 * random.nextDouble()));
+            
+            for (int i = 0; i < samples; i++) {
+                double t = i / (double) samples;
+                float x = centerX + radiusX * (float) Math.sin(2 * Math.PI * frequencyX * t + phase);
+                float y = centerY + radiusY * (float) Math.sin(2 * Math.PI * frequencyY * t);
+                // 書き始めと書き終わりで筆圧が抜ける
+                float pressure = (float) (0.2 + 0.6 * Math.sin(Math.PI * t) + 0.05 * random.nextGaussian());
+                pressure = Math.max(0.05f, Math.min(1f, pressure));
+                float tilt = 0.5f + 0.1f * (float) random.nextGaussian();
+                
+                if (i == 0) {
+                    trace.beginEvent(MotionEvent.ACTION_DOWN);
+                } else if (i == samples - 1) {
+                    trace.beginEvent(MotionEvent.ACTION_UP);
+                } else if ((i - 1) % samplesPerEvent == 0) {
+                    trace.beginEvent(MotionEvent.ACTION_MOVE);
+                }
+                trace.addSample((long) time, x, y, pressure, tilt, 0f);
+                time += interval;
+            }
+            // 次の筆跡までの間
+            time += 200 + random.nextInt(300);
+        }
+        return trace;
+    }
+    
+    public int getEventCount() {
+        return eventCount;
+    }
+    
+    public int getSampleCount() {
+        return sampleCount;
+    }
+    
+    public int getAction(int event) {
+        return actions[event];
+    }
+    
+    /**
+     * イベントの時刻（最後のサンプルの時刻、経過ミリ秒）
+     */
+    public long getEventTime(int event) {
+        return times[getSampleEnd(event) - 1];
+    }
+    
+    /**
+     * イベントの最初のサンプルの番号
+     */
+    public int getFirstSample(int event) {
+        return firstSamples[event];
+    }
+    
+    /**
+     * イベントの最後のサンプルの次の番号
+     */
+    public int getSampleEnd(int event) {
+        return event + 1 < eventCount ? firstSamples[event + 1] : sampleCount;
+    }
+    
+    /**
+     * サンプルの時刻（経過ミリ秒）
+     */
+    public long getSampleTime(int sample) {
+        return times[sample];
+    }
+    
+    public float getX(int sample) {
+        return xs[sample];
+    }
+    
+    public float getY(int sample) {
+        return ys[sample];
+    }
+    
+    public float getPressure(int sample) {
+        return pressures[sample];
+    }
+    
+    /**
+     * イベントを再生用のMotionEventにする（呼び出し側でrecycleすること）
+     *
+     * @param startTime 再生開始時刻（SystemClock.uptimeMillis()の基準）
+     * @param downTime 筆跡の開始時刻（同じ基準）
+     */
+    public MotionEvent obtainEvent(int event, long startTime, long downTime) {
+        MotionEvent.PointerProperties[] properties = {new MotionEvent.PointerProperties()};
+        properties[0].id = 0;
+        properties[0].toolType = MotionEvent.TOOL_TYPE_STYLUS;
+        MotionEvent.PointerCoords[] coords = {new MotionEvent.PointerCoords()};
+        
+        int first = firstSamples[event];
+        int end = getSampleEnd(event);
+        setCoords(coords[0], first);
+        MotionEvent motionEvent = MotionEvent.obtain(downTime, startTime + times[first], actions[event],
+                1, properties, coords, 0, 0, 1f, 1f, 0, 0, InputDevice.SOURCE_STYLUS, 0);
+        // 後から追加したサンプルが現在の値になり、それまでのものは履歴サンプルになる
+        for (int i = first + 1; i < end; i++) {
+            setCoords(coords[0], i);
+            motionEvent.addBatch(startTime + times[i], coords, 0);
+        }
+        return motionEvent;
+    }
+    
+    public void writeTo(File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(eventCount);
+            out.writeInt(sampleCount);
+            for (int e = 0; e < eventCount; e++) {
+                out.writeByte(actions[e]);
+                out.writeInt(firstSamples[e]);
+            }
+            for (int i = 0; i < sampleCount; i++) {
+                out.writeLong(times[i]);
+                out.writeFloat(xs[i]);
+                out.writeFloat(ys[i]);
+                out.writeFloat(pressures[i]);
+                out.writeFloat(tilts[i]);
+                out.writeFloat(orientations[i]);
+            }
+        }
+    }
+    
+    public static InputTrace readFrom(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            return readFrom(in, file.getName());
+        }
+    }
+    
+    /**
+     * ストリームから読み込む（閉じるのは呼び出し側）
+     */
+    public static InputTrace readFrom(InputStream stream, String name) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("Not an input trace: " + name);
+        }
+        InputTrace trace = new InputTrace();
+        int events = in.readInt();
+        int samples = in.readInt();
+        if (events < 0 || samples < 0) {
+            throw new IOException("Corrupt input trace: " + name);
+        }
+        for (int e = 0; e < events; e++) {
+            trace.ensureEventCapacity();
+            trace.actions[e] = in.readByte();
+            trace.firstSamples[e] = in.readInt();
+            trace.eventCount++;
+        }
+        for (int i = 0; i < samples; i++) {
+            trace.addSample(in.readLong(), in.readFloat(), in.readFloat(), in.readFloat(),
+                    in.readFloat(), in.readFloat());
+        }
+        return trace;
+    }
+    
+    private void beginEvent(int action) {
+        ensureEventCapacity();
+        actions[eventCount] = action;
+        firstSamples[eventCount] = sampleCount;
+        eventCount++;
+    }
+    
+    private void addSample(long time, float x, float y, float pressure, float tilt, float orientation) {
+        if (sampleCount == times.length) {
+            int capacity = times.length * 2;
+            times = Arrays.copyOf(times, capacity);
+            xs = Arrays.copyOf(xs, capacity);
+            ys = Arrays.copyOf(ys, capacity);
+            pressures = Arrays.copyOf(pressures, capacity);
+            tilts = Arrays.copyOf(tilts, capacity);
+            orientations = Arrays.copyOf(orientations, capacity);
+        }
+        times[sampleCount] = time;
+        xs[sampleCount] = x;
+        ys[sampleCount] = y;
+        pressures[sampleCount] = pressure;
+        tilts[sampleCount] = tilt;
+        orientations[sampleCount] = orientation;
+        sampleCount++;
+    }
+    
+    private void ensureEventCapacity() {
+        if (eventCount == actions.length) {
+            actions = Arrays.copyOf(actions, eventCount * 2);
+            firstSamples = Arrays.copyOf(firstSamples, eventCount * 2);
+        }
+    }
+    
+    private void setCoords(MotionEvent.PointerCoords coords, int sample) {
+        coords.clear();
+        coords.x = xs[sample];
+        coords.y = ys[sample];
+        coords.pressure = pressures[sample];
+        coords.size = 0f;
+        coords.setAxisValue(MotionEvent.AXIS_TILT, tilts[sample]);
+        coords.orientation = orientations[sample];
+    }
+}
@@ -0,0 +1,59 @@
+package com.tqmane.notesapp.benchmark;
+
+import java.util.Arrays;
+
+/**
+ * 計測値の列（分布の集計用、計測中は配列への追加だけを行う）
+ */
+public final class Samples {
+    
+    private long[] values = new long[1024];
+    private int count;
+    
+    public void add(long value) {
+        if (count == values.length) {
+            values = Arrays.copyOf(values, count * 2);
+        }
+        values[count++] = value;
+    }
+    
+    public int size() {
+        return count;
+    }
+    
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i < count; i++) {
+            sum += values[i];
+        }
+        return sum;
+    }
+    
+    /**
+     * 分布の要約（scaleで割った単位にする。例: ナノ秒をマイクロ秒にするなら1000）
+     */
+    public BenchmarkReport.Distribution summarize(double scale) {
+        BenchmarkReport.Distribution distribution = new BenchmarkReport.Distribution();
+        distribution.count = count;
+        if (count == 0) {
+            return distribution;
+        }
+        long[] sorted = Arrays.copyOf(values, count);
+        Arrays.sort(sorted);
+        double sum = 0;
+        for (long value : sorted) {
+            sum += value;
+        }
+        distribution.mean = sum / count / scale;
+        distribution.p50 = percentile(sorted, 50) / scale;
+        distribution.p90 = percentile(sorted, 90) / scale;
+        distribution.p99 = percentile(sorted, 99) / scale;
+        distribution.max = sorted[count - 1] / scale;
+        return distribution;
+    }
+    
+    private static long percentile(long[] sorted, int percent) {
+        int index = (int) Math.ceil(sorted.length * percent / 100.0) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+}
@@ -0,0 +1,97 @@
+package com.tqmane.notesapp.models;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.tqmane.notesapp.stylus.TouchPointBuffer;
+
+import org.junit.Test;
+
+public class StrokeDataTest {
+    
+    @Test
+    public void fromBufferKeepsSamplesAndIntervals() {
+        TouchPointBuffer buffer = new TouchPointBuffer(4, false);
+        for (int i = 0; i < 10; i++) {
+            buffer.add(i, 2 * i, 0.1f * i, 0.3f, -0.3f, 5000 + i * 4L);
+        }
+        StrokeData stroke = StrokeData.fromBuffer(0xFF112233, 6f, buffer);
+        
+        assertEquals(0xFF112233, stroke.getColor());
+        assertEquals(6f, stroke.getWidth(), 0f);
+        assertEquals(10, stroke.getPointCount());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i, stroke.getX(i), 0f);
+            assertEquals(2 * i, stroke.getY(i), 0f);
+            assertEquals(0.1f * i, stroke.getPressure(i), 0f);
+            assertEquals(0.3f, stroke.getTiltX(i), 0f);
+            assertEquals(-0.3f, stroke.getTiltY(i), 0f);
+            // 開始時刻は壁時計に直すが、サンプルの間隔はイベント時刻のまま
+            assertEquals(i * 4L, stroke.getTime(i) - stroke.getTime(0));
+        }
+        assertFalse(stroke.isSimplified());
+        assertEquals(10, stroke.getKeyCount());
+        assertEquals(7, stroke.getKeyIndex(7));
+    }
+    
+    @Test
+    public void fromEmptyBuffer() {
+        StrokeData stroke = StrokeData.fromBuffer(0, 3f, new TouchPointBuffer(4, false));
+        
+        assertTrue(stroke.isEmpty());
+        assertEquals(0, stroke.getPointCount());
+        assertEquals(0, stroke.getKeyCount());
+    }
+    
+    @Test
+    public void withKeyIndicesUsesKeysOnly() {
+        StrokeData stroke = line(5).withKeyIndices(new int[] {0, 2, 4});
+        
+        assertTrue(stroke.isSimplified());
+        assertEquals(3, stroke.getKeyCount());
+        assertEquals(2, stroke.getKeyIndex(1));
+        assertEquals(5, stroke.getPointCount());
+    }
+    
+    @Test
+    public void offsetMovesCoordinatesOnly() {
+        StrokeData stroke = line(3).withKeyIndices(new int[] {0, 2});
+        StrokeData moved = stroke.offset(10f, -5f);
+        
+        for (int i = 0; i < 3; i++) {
+            assertEquals(stroke.getX(i) + 10f, moved.getX(i), 0f);
+            assertEquals(stroke.getY(i) - 5f, moved.getY(i), 0f);
+            assertEquals(stroke.getTime(i), moved.getTime(i));
+            assertEquals(stroke.getPressure(i), moved.getPressure(i), 0f);
+        }
+        assertEquals(2, moved.getKeyCount());
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsArraysOfDifferentLengths() {
+        new StrokeData(0, 1f, new float[2], new float[2], new float[1], new float[2], new float[2], 0, new int[2]);
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMoreKeysThanPoints() {
+        line(2).withKeyIndices(new int[] {0, 1, 1});
+    }
+    
+    @Test
+    public void footprintGrowsWithPoints() {
+        assertTrue(line(100).getFootprintBytes() > line(10).getFootprintBytes());
+    }
+    
+    private static StrokeData line(int count) {
+        float[] xs = new float[count];
+        float[] ys = new float[count];
+        int[] timeOffsets = new int[count];
+        for (int i = 0; i < count; i++) {
+            xs[i] = i;
+            ys[i] = i;
+            timeOffsets[i] = i * 8;
+        }
+        return new StrokeData(0, 2f, xs, ys, new float[count], new float[count], new float[count], 1000, timeOffsets);
+    }
+}
@@ -0,0 +1,124 @@
+package com.tqmane.notesapp.recognition;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+import com.tqmane.notesapp.models.StrokeData;
+import com.tqmane.notesapp.storage.RecognizedInk;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class RecognitionWorkerTest {
+    
+    /**
+     * 渡された筆跡の数を数えるスタブ
+     */
+    private static final class CountingRecognizer implements HandwritingRecognizer {
+        private final StubRecognizer stub = new StubRecognizer();
+        int calls;
+        int strokes;
+        
+        @Override
+        public String getName() {
+            return stub.getName();
+        }
+        
+        @Override
+        public String recognize(List<StrokeData> batch) {
+            calls++;
+            strokes += batch.size();
+            return stub.recognize(batch);
+        }
+    }
+    
+    @Test
+    public void splitsBatchesAtTimeGaps() {
+        CountingRecognizer engine = new CountingRecognizer();
+        // 1つ目の単語は2画、1.5秒以上空けて2つ目の単語を1画
+        List<StrokeData> strokes = Arrays.asList(
+                horizontal(1000), vertical(1200), horizontal(5000));
+        RecognizedInk ink = RecognitionWorker.recognize(engine, null, strokes);
+        
+        assertEquals(2, ink.getBatches().size());
+        assertEquals("一丨", ink.getBatches().get(0).getText());
+        assertEquals("一", ink.getBatches().get(1).getText());
+        assertEquals(2, engine.calls);
+        assertEquals(3, engine.strokes);
+    }
+    
+    @Test
+    public void recognizesOnlyAddedStrokes() {
+        CountingRecognizer first = new CountingRecognizer();
+        List<StrokeData> strokes = new ArrayList<>(Arrays.asList(horizontal(1000), vertical(1200)));
+        RecognizedInk previous = RecognitionWorker.recognize(first, null, strokes);
+        
+        CountingRecognizer second = new CountingRecognizer();
+        strokes.add(horizontal(9000));
+        RecognizedInk ink = RecognitionWorker.recognize(second, previous, strokes);
+        
+        // 前回のまとまりはそのまま使い、書き足した1画だけを認識する
+        assertEquals(1, second.strokes);
+        assertEquals(2, ink.getBatches().size());
+        assertEquals("一丨", ink.getBatches().get(0).getText());
+    }
+    
+    @Test
+    public void unchangedStrokesNeedNoWork() {
+        List<StrokeData> strokes = Arrays.asList(horizontal(1000), vertical(1200));
+        RecognizedInk previous = RecognitionWorker.recognize(new CountingRecognizer(), null, strokes);
+        
+        CountingRecognizer engine = new CountingRecognizer();
+        assertNull(RecognitionWorker.recognize(engine, previous, strokes));
+        assertEquals(0, engine.calls);
+    }
+    
+    @Test
+    public void erasedStrokeDropsItsBatch() {
+        StrokeData kept = horizontal(1000);
+        StrokeData erased = vertical(9000);
+        RecognizedInk previous = RecognitionWorker.recognize(new CountingRecognizer(), null,
+                Arrays.asList(kept, erased));
+                
+        CountingRecognizer engine = new CountingRecognizer();
+        RecognizedInk ink = RecognitionWorker.recognize(engine, previous, Arrays.asList(kept));
+        
+        assertEquals(1, ink.getBatches().size());
+        assertEquals("一", ink.getText().trim());
+        assertEquals(0, engine.calls);
+    }
+    
+    @Test
+    public void longRunsAreSplitIntoBoundedBatches() {
+        List<StrokeData> strokes = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            strokes.add(horizontal(1000 + i * 100L));
+        }
+        CountingRecognizer engine = new CountingRecognizer();
+        RecognizedInk ink = RecognitionWorker.recognize(engine, null, strokes);
+        
+        assertEquals(2, ink.getBatches().size());
+        assertEquals(100, engine.strokes);
+    }
+    
+    @Test
+    public void strokeKeyDependsOnContent() {
+        StrokeData stroke = horizontal(1000);
+        
+        assertEquals(RecognitionWorker.strokeKey(stroke), RecognitionWorker.strokeKey(horizontal(1000)));
+        assertNotEquals(RecognitionWorker.strokeKey(stroke), RecognitionWorker.strokeKey(stroke.offset(1, 0)));
+        assertNotEquals(RecognitionWorker.strokeKey(stroke), RecognitionWorker.strokeKey(horizontal(1001)));
+    }
+    
+    private static StrokeData horizontal(long startTime) {
+        return StubRecognizerTest.line(0, 0, 100, 0, startTime);
+    }
+    
+    private static StrokeData vertical(long startTime) {
+        return StubRecognizerTest.line(0, 0, 0, 100, startTime);
+    }
+}
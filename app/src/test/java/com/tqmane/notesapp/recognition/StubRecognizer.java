@@ -0,0 +1,76 @@
+package com.tqmane.notesapp.recognition;
+
+import com.tqmane.notesapp.models.StrokeData;
+
+import java.util.List;
+
+/**
+ * 筆跡の形だけを見る決定的な認識エンジン（テスト用）
+ *
+ * 1本の筆跡を点・輪・横線・縦線・斜め線に分け、それぞれ漢字の部首の文字にする。
+ * 同じ筆跡からは常に同じ文字列になるので、認識の流れを確かめられる。
+ */
+public class StubRecognizer implements HandwritingRecognizer {
+    
+    private static final String NAME = "stub-1";
+    
+    // 外接矩形の長辺がこれ未満なら点とみなす（ピクセル）
+    private static final float DOT_SIZE = 12f;
+    // 始点と終点の距離が長さのこの割合未満なら輪とみなす
+    private static final float LOOP_RATIO = 0.2f;
+    // 縦横の比がこれ以上なら横線・縦線とみなす
+    private static final float LINE_ASPECT = 3f;
+    
+    @Override
+    public String getName() {
+        return NAME;
+    }
+    
+    @Override
+    public String recognize(List<StrokeData> strokes) {
+        StringBuilder builder = new StringBuilder(strokes.size());
+        for (StrokeData stroke : strokes) {
+            if (!stroke.isEmpty()) {
+                builder.append(classify(stroke));
+            }
+        }
+        return builder.toString();
+    }
+    
+    private static char classify(StrokeData stroke) {
+        int count = stroke.getPointCount();
+        float minX = stroke.getX(0);
+        float maxX = minX;
+        float minY = stroke.getY(0);
+        float maxY = minY;
+        float length = 0;
+        for (int i = 1; i < count; i++) {
+            float x = stroke.getX(i);
+            float y = stroke.getY(i);
+            length += (float) Math.hypot(x - stroke.getX(i - 1), y - stroke.getY(i - 1));
+            minX = Math.min(minX, x);
+            maxX = Math.max(maxX, x);
+            minY = Math.min(minY, y);
+            maxY = Math.max(maxY, y);
+        }
+        float width = maxX - minX;
+        float height = maxY - minY;
+        if (Math.max(width, height) < DOT_SIZE) {
+            return '丶';
+        }
+        
+        float dx = stroke.getX(count - 1) - stroke.getX(0);
+        float dy = stroke.getY(count - 1) - stroke.getY(0);
+        if (Math.hypot(dx, dy) < length * LOOP_RATIO) {
+            return '口';
+        }
+        if (width >= height * LINE_ASPECT) {
+            return '一';
+        }
+        if (height >= width * LINE_ASPECT) {
+            return '丨';
+        }
+        // 右上から左下へ（またはその逆）の払いと、左上から右下への払い
+        return (dx < 0) == (dy > 0) ? '丿' : '乀';
+    }
+}
@@ -0,0 +1,83 @@
+package com.tqmane.notesapp.recognition;
+
+import static org.junit.Assert.assertEquals;
+
+import com.tqmane.notesapp.models.StrokeData;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class StubRecognizerTest {
+    
+    private final StubRecognizer recognizer = new StubRecognizer();
+    
+    @Test
+    public void classifiesStrokeShapes() {
+        assertEquals("丶", recognize(line(0, 0, 5, 5)));
+        assertEquals("一", recognize(line(0, 0, 100, 5)));
+        assertEquals("丨", recognize(line(0, 0, 5, 100)));
+        assertEquals("丿", recognize(line(100, 0, 0, 100)));
+        assertEquals("乀", recognize(line(0, 0, 100, 100)));
+        assertEquals("口", recognize(circle(50, 50, 40)));
+    }
+    
+    @Test
+    public void joinsStrokesInOrderAndSkipsEmptyOnes() {
+        StrokeData empty = new StrokeData(0, 1f, new float[0], new float[0], new float[0],
+                new float[0], new float[0], 0, new int[0]);
+                
+        assertEquals("一丨", recognizer.recognize(Arrays.asList(line(0, 0, 100, 0), empty, line(0, 0, 0, 100))));
+        assertEquals("", recognizer.recognize(Collections.emptyList()));
+    }
+    
+    @Test
+    public void sameStrokesGiveSameText() {
+        StrokeData stroke = circle(10, 10, 30);
+        
+        assertEquals(recognize(stroke), recognize(stroke.offset(200, 300)));
+    }
+    
+    private String recognize(StrokeData stroke) {
+        return recognizer.recognize(Collections.singletonList(stroke));
+    }
+    
+    private static StrokeData line(float x0, float y0, float x1, float y1) {
+        return line(x0, y0, x1, y1, 0);
+    }
+    
+    static StrokeData line(float x0, float y0, float x1, float y1, long startTime) {
+        int count = 10;
+        float[] xs = new float[count];
+        float[] ys = new float[count];
+        for (int i = 0; i < count; i++) {
+            float t = i / (float) (count - 1);
+            xs[i] = x0 + (x1 - x0) * t;
+            ys[i] = y0 + (y1 - y0) * t;
+        }
+        return stroke(xs, ys, startTime);
+    }
+    
+    private static StrokeData circle(float centerX, float centerY, float radius) {
+        int count = 33;
+        float[] xs = new float[count];
+        float[] ys = new float[count];
+        for (int i = 0; i < count; i++) {
+            double angle = 2 * Math.PI * i / (count - 1);
+            xs[i] = centerX + radius * (float) Math.cos(angle);
+            ys[i] = centerY + radius * (float) Math.sin(angle);
+        }
+        return stroke(xs, ys, 0);
+    }
+    
+    private static StrokeData stroke(float[] xs, float[] ys, long startTime) {
+        int count = xs.length;
+        int[] timeOffsets = new int[count];
+        for (int i = 0; i < count; i++) {
+            timeOffsets[i] = i * 4;
+        }
+        return new StrokeData(0xFF000000, 4f, xs, ys, new float[count], new float[count], new float[count],
+                startTime, timeOffsets);
+    }
+}
@@ -0,0 +1,261 @@
+package com.tqmane.notesapp.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.gson.Gson;
+import com.tqmane.notesapp.models.Note;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+public class NoteCatalogTest {
+    
+    private static final int MAGIC = 0x4E434154;
+    private static final byte OP_PUT = 1;
+    private static final byte OP_DELETE = 2;
+    
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+    
+    private File dir;
+    private NoteCatalog catalog;
+    
+    @Before
+    public void setUp() throws IOException {
+        dir = temporaryFolder.newFolder("notes");
+    }
+    
+    @After
+    public void tearDown() throws IOException {
+        NoteCatalog.close(dir);
+    }
+    
+    @Test
+    public void putGetAndDelete() throws IOException {
+        catalog = NoteCatalog.open(dir);
+        Note first = new Note("最初");
+        Note second = new Note("次");
+        
+        assertEquals(NoteChange.Type.INSERTED, catalog.put(first));
+        assertEquals(NoteChange.Type.INSERTED, catalog.put(second));
+        assertEquals(NoteChange.Type.UPDATED, catalog.put(second));
+        assertEquals(NoteChange.Type.MOVED, catalog.put(first));
+        assertEquals(Arrays.asList(first.getId(), second.getId()), catalog.getIdsNewestFirst());
+        
+        assertTrue(catalog.delete(first.getId()));
+        assertFalse(catalog.delete(first.getId()));
+        assertNull(catalog.get(first.getId()));
+        assertEquals(signature(second), signature(catalog.get(second.getId())));
+    }
+    
+    @Test
+    public void migratesJsonPayloadVersion() throws IOException {
+        // ペイロードがJSONだったバージョン1のログ
+        Gson gson = new Gson();
+        List<Note> notes = new ArrayList<>();
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(new File(dir, NoteCatalog.CATALOG_FILE)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(1);
+            for (int i = 0; i < 10; i++) {
+                Note note = new Note("旧 " + i);
+                if (i % 2 == 0) {
+                    note.setImagePath("/images/note_" + i + ".png");
+                }
+                notes.add(note);
+                out.write(record(OP_PUT, note.getId(), gson.toJson(note).getBytes(StandardCharsets.UTF_8)));
+            }
+            out.write(record(OP_DELETE, notes.get(3).getId(), new byte[0]));
+            notes.get(1).setTitle("更新");
+            out.write(record(OP_PUT, notes.get(1).getId(), gson.toJson(notes.get(1)).getBytes(StandardCharsets.UTF_8)));
+        }
+        
+        catalog = NoteCatalog.open(dir);
+        List<Note> migrated = catalog.getAll();
+        assertEquals(9, migrated.size());
+        assertEquals(signature(notes.get(1)), signature(migrated.get(0)));
+        assertEquals(signature(notes.get(9)), signature(migrated.get(1)));
+        assertNull(catalog.get(notes.get(3).getId()));
+        
+        // 書き直したログを開き直しても同じ内容
+        reopen();
+        assertEquals(signatures(migrated), signatures(catalog.getAll()));
+    }
+    
+    @Test
+    public void migratesLegacyJsonFile() throws IOException {
+        // notes.jsonは新しい順
+        List<Note> notes = Arrays.asList(new Note("新しい"), new Note("古い"));
+        try (FileOutputStream out = new FileOutputStream(new File(dir, NoteCatalog.LEGACY_FILE))) {
+            out.write(new Gson().toJson(notes).getBytes(StandardCharsets.UTF_8));
+        }
+        
+        catalog = NoteCatalog.open(dir);
+        assertEquals(signatures(notes), signatures(catalog.getAll()));
+        assertFalse(new File(dir, NoteCatalog.LEGACY_FILE).exists());
+    }
+    
+    @Test
+    public void roundTripsManyNotes() throws IOException {
+        catalog = NoteCatalog.open(dir);
+        Map<String, Note> notes = new HashMap<>();
+        Note newest = null;
+        for (int i = 0; i < 100_000; i++) {
+            Note note = new Note("ノート " + (i % 500));
+            note.setImagePath("/images/note_" + note.getId() + ".png");
+            catalog.put(note);
+            notes.put(note.getId(), note);
+            newest = note;
+        }
+        catalog.sync();
+        
+        reopen();
+        List<Note> all = catalog.getAll();
+        assertEquals(notes.size(), all.size());
+        assertEquals(newest.getId(), all.get(0).getId());
+        for (Note note : all) {
+            assertEquals(signature(notes.get(note.getId())), signature(note));
+        }
+    }
+    
+    @Test
+    public void unchangedStringsAreNotWrittenAgain() throws IOException {
+        catalog = NoteCatalog.open(dir);
+        List<Note> notes = new ArrayList<>();
+        // 上書きで圧縮が始まらない件数
+        for (int i = 0; i < 50; i++) {
+            Note note = new Note("タイトル " + i);
+            note.setImagePath("/images/note_" + note.getId() + ".png");
+            catalog.put(note);
+            notes.add(note);
+        }
+        
+        // 開き直して書き込み中の文字列表を空にし、前回のPUTから文字列を引く
+        reopen();
+        File file = new File(dir, NoteCatalog.CATALOG_FILE);
+        long before = file.length();
+        for (Note note : notes) {
+            note.setUpdatedAt(note.getUpdatedAt() + 1);
+            catalog.put(note);
+        }
+        
+        // PUTレコードだけ: op + idLen + id(UUID) + payloadLen + payload + crc
+        long putRecordSize = 1 + 2 + 36 + 4 + 24 + 4;
+        assertEquals(putRecordSize * notes.size(), file.length() - before);
+        for (Note note : notes) {
+            assertEquals(signature(note), signature(catalog.get(note.getId())));
+        }
+    }
+    
+    @Test
+    public void compactionKeepsLiveNotes() throws IOException {
+        catalog = NoteCatalog.open(dir);
+        Map<String, Note> live = new HashMap<>();
+        List<Note> notes = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            Note note = new Note("ノート " + i);
+            catalog.put(note);
+            notes.add(note);
+        }
+        for (int i = 0; i < notes.size(); i++) {
+            Note note = notes.get(i);
+            if (i % 2 == 0) {
+                catalog.delete(note.getId());
+            } else {
+                note.setTitle("変更 " + i);
+                catalog.put(note);
+                live.put(note.getId(), note);
+            }
+        }
+        
+        File file = new File(dir, NoteCatalog.CATALOG_FILE);
+        long before = file.length();
+        catalog.compact();
+        assertTrue(file.length() < before);
+        
+        reopen();
+        List<Note> all = catalog.getAll();
+        assertEquals(live.size(), all.size());
+        for (Note note : all) {
+            assertEquals(signature(live.get(note.getId())), signature(note));
+        }
+    }
+    
+    @Test
+    public void tornTailIsTruncated() throws IOException {
+        catalog = NoteCatalog.open(dir);
+        Note kept = new Note("残る");
+        Note torn = new Note("書きかけ");
+        catalog.put(kept);
+        catalog.put(torn);
+        catalog.sync();
+        NoteCatalog.close(dir);
+        
+        // 最後のレコードの途中で書き込みが止まった状態
+        try (RandomAccessFile file = new RandomAccessFile(new File(dir, NoteCatalog.CATALOG_FILE), "rw")) {
+            file.setLength(file.length() - 5);
+        }
+        
+        catalog = NoteCatalog.open(dir);
+        assertEquals(Arrays.asList(kept.getId()), catalog.getIdsNewestFirst());
+        
+        // 切り捨てた後に追記したレコードは読める
+        catalog.put(torn);
+        reopen();
+        assertEquals(Arrays.asList(torn.getId(), kept.getId()), catalog.getIdsNewestFirst());
+        assertEquals(signature(torn), signature(catalog.get(torn.getId())));
+    }
+    
+    private void reopen() throws IOException {
+        NoteCatalog.close(dir);
+        catalog = NoteCatalog.open(dir);
+    }
+    
+    private static byte[] record(byte op, String noteId, byte[] payload) throws IOException {
+        byte[] id = noteId.getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(op);
+        out.writeShort(id.length);
+        out.write(id);
+        out.writeInt(payload.length);
+        out.write(payload);
+        
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeInt((int) crc.getValue());
+        return bytes.toByteArray();
+    }
+    
+    private static String signature(Note note) {
+        return note.getId() + "|" + note.getTitle() + "|" + note.getImagePath()
+                + "|" + note.getCreatedAt() + "|" + note.getUpdatedAt();
+    }
+    
+    private static List<String> signatures(List<Note> notes) {
+        List<String> signatures = new ArrayList<>();
+        for (Note note : notes) {
+            signatures.add(signature(note));
+        }
+        return signatures;
+    }
+}
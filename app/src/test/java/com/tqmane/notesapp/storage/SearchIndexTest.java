@@ -0,0 +1,198 @@
+package com.tqmane.notesapp.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.tqmane.notesapp.models.Note;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class SearchIndexTest {
+    
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+    
+    private final Map<String, String> texts = new HashMap<>();
+    private File dir;
+    private NoteCatalog catalog;
+    private SearchIndex index;
+    
+    @Before
+    public void setUp() throws IOException {
+        dir = temporaryFolder.newFolder("notes");
+        catalog = NoteCatalog.open(dir);
+        index = SearchIndex.open(dir, catalog, noteId -> texts.getOrDefault(noteId, ""));
+    }
+    
+    @After
+    public void tearDown() throws IOException {
+        SearchIndex.close(dir);
+        NoteCatalog.close(dir);
+    }
+    
+    @Test
+    public void latinWordsMatchByPrefix() throws IOException {
+        Note report = add("Weekly report", date(2026, 3, 1));
+        Note repair = add("repair bike", date(2026, 3, 2));
+        add("prepare slides", date(2026, 3, 3));
+        
+        assertEquals(Arrays.asList(repair.getId(), report.getId()), search("rep"));
+        assertEquals(Arrays.asList(report.getId()), search("ＲＥＰＯ"));
+        assertEquals(Arrays.asList(), search("reports"));
+    }
+    
+    @Test
+    public void cjkWordsMatchAsContiguousPhrases() throws IOException {
+        Note homework = add("数学の宿題", date(2026, 3, 1));
+        Note other = add("数学と宿題の確認", date(2026, 3, 2));
+        
+        assertEquals(Arrays.asList(other.getId(), homework.getId()), search("宿題"));
+        // bi-gramはすべて含まれていても、連続していなければ当たらない
+        assertEquals(Arrays.asList(homework.getId()), search("数学の宿"));
+        assertEquals(Arrays.asList(other.getId(), homework.getId()), search("学"));
+    }
+    
+    @Test
+    public void wordsAreCombinedWithAnd() throws IOException {
+        Note both = add("会議 設計 todo", date(2026, 3, 1));
+        add("会議メモ", date(2026, 3, 2));
+        add("設計 draft", date(2026, 3, 3));
+        
+        assertEquals(Arrays.asList(both.getId()), search("会議 設計"));
+        assertEquals(Arrays.asList(both.getId()), search("to 会議"));
+    }
+    
+    @Test
+    public void tagsMatchOnlyTaggedNotes() throws IOException {
+        Note tagged = add("会議 #重要", date(2026, 3, 1));
+        Note plain = add("重要な会議", date(2026, 3, 2));
+        
+        assertEquals(Arrays.asList(tagged.getId()), search("#重要"));
+        assertEquals(Arrays.asList(plain.getId(), tagged.getId()), search("重要"));
+    }
+    
+    @Test
+    public void createdDateRanges() throws IOException {
+        Note march = add("a", date(2025, 3, 10));
+        Note marchEnd = add("b", date(2025, 3, 31));
+        add("c", date(2025, 4, 1));
+        add("d", date(2024, 3, 15));
+        
+        assertEquals(Arrays.asList(marchEnd.getId(), march.getId()), search("created:2025-03"));
+        assertEquals(Arrays.asList(march.getId()), search("created:2025-03-10"));
+        assertEquals(3, search("created:2025").size());
+        assertEquals(1, search("created:2024-03").size());
+    }
+    
+    @Test
+    public void updatedDateRangesAndText() throws IOException {
+        Note old = add("report", date(2025, 12, 31));
+        Note recent = add("report", date(2026, 1, 1));
+        recent.setUpdatedAt(date(2026, 2, 14));
+        put(recent);
+        old.setUpdatedAt(date(2026, 2, 15));
+        put(old);
+        
+        assertEquals(Arrays.asList(old.getId(), recent.getId()), search("updated:2026-02"));
+        assertEquals(Arrays.asList(recent.getId()), search("updated:2026-02-14 rep"));
+        assertEquals(Arrays.asList(recent.getId()), search("created:2026 updated:2026"));
+        assertEquals(Arrays.asList(), search("updated:2026-03"));
+    }
+    
+    @Test
+    public void updateAndDeleteChangeResults() throws IOException {
+        Note note = add("旅行計画", date(2026, 3, 1));
+        note.setTitle("買い物リスト");
+        put(note);
+        
+        assertEquals(Arrays.asList(), search("旅行"));
+        assertEquals(Arrays.asList(note.getId()), search("リスト"));
+        
+        catalog.delete(note.getId());
+        index.delete(note.getId());
+        assertEquals(Arrays.asList(), search("リスト"));
+        assertEquals(0, index.size());
+    }
+    
+    @Test
+    public void recognizedTextIsSearchable() throws IOException {
+        Note note = add("手書き", date(2026, 3, 1));
+        index.putText(note.getId(), "hello 世界");
+        
+        assertEquals(Arrays.asList(note.getId()), search("hel"));
+        assertEquals(Arrays.asList(note.getId()), search("世界"));
+        // 索引にないノートの認識結果は無視する
+        index.putText("missing", "hello");
+        assertEquals(1, search("hello").size());
+    }
+    
+    @Test
+    public void reopenedIndexGivesSameResults() throws IOException {
+        Note first = add("会議 report", date(2026, 3, 1));
+        Note second = add("設計 report", date(2026, 3, 2));
+        index.putText(first.getId(), "議事録");
+        catalog.sync();
+        
+        SearchIndex.close(dir);
+        index = SearchIndex.open(dir, catalog, noteId -> texts.getOrDefault(noteId, ""));
+        
+        assertEquals(Arrays.asList(second.getId(), first.getId()), search("report"));
+        assertEquals(Arrays.asList(first.getId()), search("議事録"));
+    }
+    
+    @Test
+    public void rebuildsFromCatalogWhenNotesDiffer() throws IOException {
+        Note indexed = add("会議", date(2026, 3, 1));
+        SearchIndex.close(dir);
+        // 索引を閉じている間にカタログだけが変わる
+        Note missed = new Note("会議 追加");
+        missed.setCreatedAt(date(2026, 3, 2));
+        missed.setUpdatedAt(date(2026, 3, 2));
+        catalog.put(missed);
+        texts.put(missed.getId(), "認識した文字");
+        
+        index = SearchIndex.open(dir, catalog, noteId -> texts.getOrDefault(noteId, ""));
+        
+        assertEquals(Arrays.asList(missed.getId(), indexed.getId()), search("会議"));
+        assertEquals(Arrays.asList(missed.getId()), search("認識"));
+    }
+    
+    private Note add(String title, long createdAt) throws IOException {
+        Note note = new Note(title);
+        note.setCreatedAt(createdAt);
+        note.setUpdatedAt(createdAt);
+        put(note);
+        return note;
+    }
+    
+    private void put(Note note) throws IOException {
+        catalog.put(note);
+        index.put(note);
+    }
+    
+    private List<String> search(String text) {
+        return index.search(NoteQuery.parse(text));
+    }
+    
+    /**
+     * 端末のタイムゾーンでの日付の正午
+     */
+    private static long date(int year, int month, int day) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(year, month - 1, day, 12, 0);
+        return calendar.getTimeInMillis();
+    }
+}
@@ -0,0 +1,64 @@
+package com.tqmane.notesapp.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class SearchTokenizerTest {
+    
+    @Test
+    public void normalizesWidthAndCase() {
+        assertEquals("report 2026", SearchTokenizer.normalize("ＲｅＰｏｒｔ　２０２６"));
+        assertEquals("カタカナ", SearchTokenizer.normalize("ｶﾀｶﾅ"));
+        assertEquals("", SearchTokenizer.normalize(null));
+    }
+    
+    @Test
+    public void cjkRunsBecomeUnigramsAndBigrams() {
+        assertEquals(Arrays.asList("数", "数学", "学", "学の", "の", "の宿", "宿", "宿題", "題"),
+                tokenize("数学の宿題"));
+    }
+    
+    @Test
+    public void singleCjkCharacterIsOneToken() {
+        assertEquals(Arrays.asList("会"), tokenize("会"));
+    }
+    
+    @Test
+    public void longVowelMarkStaysInTheRun() {
+        assertEquals(Arrays.asList("メ", "メー", "ー", "ール", "ル"), tokenize("メール"));
+    }
+    
+    @Test
+    public void latinAndDigitsAreWholeWords() {
+        assertEquals(Arrays.asList("draft", "v2", "2026"), tokenize("draft, v2 (2026)"));
+    }
+    
+    @Test
+    public void mixedScriptsSplitAtTheBoundary() {
+        assertEquals(Arrays.asList("abc", "会", "会議", "議", "42"), tokenize("abc会議42"));
+    }
+    
+    @Test
+    public void tagsKeepThePrefixAndTheWord() {
+        List<String> tokens = tokenize("#重要 #todo");
+        
+        assertTrue(tokens.contains("#重要"));
+        assertTrue(tokens.contains("重要"));
+        assertTrue(tokens.contains("#todo"));
+        assertTrue(tokens.contains("todo"));
+        // 「#」だけ、空白の前の「#」は語にしない
+        assertEquals(new ArrayList<String>(), tokenize("# #"));
+    }
+    
+    private static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        SearchTokenizer.tokenize(SearchTokenizer.normalize(text), tokens);
+        return tokens;
+    }
+}
@@ -0,0 +1,342 @@
+package com.tqmane.notesapp.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.tqmane.notesapp.benchmark.BenchmarkReport;
+import com.tqmane.notesapp.benchmark.Samples;
+import com.tqmane.notesapp.metrics.Counter;
+import com.tqmane.notesapp.metrics.Metrics;
+import com.tqmane.notesapp.models.Note;
+import com.tqmane.notesapp.models.StrokeData;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * ノートの保存・読み込みのベンチマーク（JVMだけで実行する）
+ *
+ * 指定した件数のノートで合成したカタログと検索索引を一時ディレクトリに作り、
+ * 読み込み（起動直後と2回目以降、一覧の最初のページだけ）・追加・更新・IDでの取得・検索・削除・
+ * 筆跡ファイルの保存と読み込みについて、1操作ごとの時間の分布とスループット、
+ * 書き込んだバイト数を計測する。
+ * 書き込んだバイト数はカタログと索引の追記・圧縮のカウンター（Metrics）の増分で、
+ * 圧縮で縮んだ分は差し引かない。筆跡ファイルは書き込んだストリームのバイト数を数える。
+ * 件数はシステムプロパティbenchmark.noteCounts（カンマ区切り）で変えられる。
+ * 結果はBenchmarkReport.getOutputDir()にJSONで書き出す。
+ */
+public class StorageBenchmarkTest {
+    
+    private static final String DEFAULT_NOTE_COUNTS = "100,1000,10000";
+    private static final int COLD_LOADS = 10;
+    private static final int WARM_LOADS = 20;
+    private static final int LOOKUPS = 2000;
+    private static final int UPDATES = 1000;
+    private static final int SEARCHES = 200;
+    // 合成するタイトルの語（検索でカタログの数%〜1割程度が当たる）
+    private static final String[] TITLE_WORDS = {
+            "会議", "メモ", "数学の宿題", "英語", "アイデア", "買い物リスト", "旅行計画", "設計",
+            "report", "sketch", "todo", "draft"
+    };
+    private static final String[] SEARCH_QUERIES = {
+            "会議", "宿題", "数学の宿", "リスト", "rep", "#重要", "会議 設計", "todo created:2025"
+    };
+    // 削除はカタログの1割（圧縮が走る件数を含める）
+    private static final float DELETE_RATIO = 0.1f;
+    private static final int DRAWINGS = 50;
+    private static final int STROKES_PER_DRAWING = 200;
+    private static final int POINTS_PER_STROKE = 120;
+    
+    // 索引の作り直しで認識結果は使わない
+    private static final SearchIndex.TextSource NO_TEXT = noteId -> "";
+    
+    private static final Counter CATALOG_BYTES = Metrics.counter("storage.catalogBytesWritten");
+    private static final Counter INDEX_BYTES = Metrics.counter("storage.searchIndexBytesWritten");
+    
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+    
+    @Test
+    public void benchmarkCatalogSizes() throws IOException {
+        BenchmarkReport report = new BenchmarkReport();
+        // 書き込んだバイト数をカウンターで数える
+        boolean metricsEnabled = Metrics.isEnabled();
+        Metrics.setEnabled(true);
+        try {
+            for (String count : System.getProperty("benchmark.noteCounts", DEFAULT_NOTE_COUNTS).split(",")) {
+                report.sections.addAll(run(Integer.parseInt(count.trim())));
+            }
+        } finally {
+            Metrics.setEnabled(metricsEnabled);
+        }
+        File file = report.writeTo(BenchmarkReport.getOutputDir(), "storage");
+        System.out.println(report.toSummary() + file.getAbsolutePath());
+    }
+    
+    private List<BenchmarkReport.Section> run(int noteCount) throws IOException {
+        File dir = temporaryFolder.newFolder("storage-" + noteCount);
+        String name = "storage/" + noteCount;
+        List<BenchmarkReport.Section> sections = new ArrayList<>();
+        try {
+            NoteCatalog catalog = NoteCatalog.open(dir);
+            SearchIndex index = SearchIndex.open(dir, catalog, NO_TEXT);
+            Random random = new Random(noteCount);
+            List<Note> notes = new ArrayList<>(noteCount);
+            
+            // 追加（カタログの作成）
+            Samples insertNanos = new Samples();
+            long bytesBefore = bytesWritten();
+            for (int i = 0; i < noteCount; i++) {
+                Note note = syntheticNote(random, i);
+                notes.add(note);
+                long begin = System.nanoTime();
+                catalog.put(note);
+                index.put(note);
+                insertNanos.add(System.nanoTime() - begin);
+            }
+            catalog.sync();
+            sections.add(section(name, "insert", noteCount, insertNanos, bytesWritten() - bytesBefore));
+            assertEquals(noteCount, catalog.size());
+            
+            // 読み込み（起動直後はログの走査と索引の構築を含む）
+            Samples coldNanos = new Samples();
+            for (int i = 0; i < COLD_LOADS; i++) {
+                SearchIndex.close(dir);
+                NoteCatalog.close(dir);
+                long begin = System.nanoTime();
+                catalog = NoteCatalog.open(dir);
+                index = SearchIndex.open(dir, catalog, NO_TEXT);
+                List<Note> all = catalog.getAll();
+                coldNanos.add(System.nanoTime() - begin);
+                assertEquals(noteCount, all.size());
+            }
+            sections.add(section(name, "loadCold", noteCount, coldNanos, 0));
+            
+            Samples warmNanos = new Samples();
+            for (int i = 0; i < WARM_LOADS; i++) {
+                long begin = System.nanoTime();
+                catalog.getAll();
+                warmNanos.add(System.nanoTime() - begin);
+            }
+            sections.add(section(name, "loadWarm", noteCount, warmNanos, 0));
+            
+            // 一覧を開く（起動直後にIDの並びと最初のページだけを読む）
+            Samples firstPageNanos = new Samples();
+            for (int i = 0; i < COLD_LOADS; i++) {
+                SearchIndex.close(dir);
+                NoteCatalog.close(dir);
+                long begin = System.nanoTime();
+                catalog = NoteCatalog.open(dir);
+                List<String> ids = catalog.getIdsNewestFirst();
+                catalog.get(ids.subList(0, Math.min(PagedNoteList.PAGE_SIZE, ids.size())));
+                firstPageNanos.add(System.nanoTime() - begin);
+            }
+            index = SearchIndex.open(dir, catalog, NO_TEXT);
+            sections.add(section(name, "openFirstPage", noteCount, firstPageNanos, 0));
+            
+            // IDで取得（1割は存在しないID）
+            Samples lookupNanos = new Samples();
+            for (int i = 0; i < LOOKUPS; i++) {
+                boolean miss = random.nextInt(10) == 0;
+                String id = miss ? "missing-" + i : notes.get(random.nextInt(noteCount)).getId();
+                long begin = System.nanoTime();
+                Note note = catalog.get(id);
+                lookupNanos.add(System.nanoTime() - begin);
+                if (miss) {
+                    assertNull(note);
+                } else {
+                    assertNotNull(note);
+                }
+            }
+            sections.add(section(name, "lookup", noteCount, lookupNanos, 0));
+            
+            // 検索（索引の照会と、当たったノートの読み込み）
+            Samples searchNanos = new Samples();
+            long results = 0;
+            for (int i = 0; i < SEARCHES; i++) {
+                NoteQuery query = NoteQuery.parse(SEARCH_QUERIES[i % SEARCH_QUERIES.length]);
+                long begin = System.nanoTime();
+                results += catalog.get(index.search(query)).size();
+                searchNanos.add(System.nanoTime() - begin);
+            }
+            BenchmarkReport.Section search = section(name, "search", noteCount, searchNanos, 0);
+            search.values.put("resultsPerQuery", results / (double) SEARCHES);
+            sections.add(search);
+            assertTrue(results > 0);
+            
+            // 更新（既存のノートを一覧の先頭に移す）
+            Samples updateNanos = new Samples();
+            bytesBefore = bytesWritten();
+            for (int i = 0; i < UPDATES; i++) {
+                Note note = notes.get(random.nextInt(noteCount));
+                note.setTitle("更新 " + i);
+                note.setUpdatedAt(note.getUpdatedAt() + 1000);
+                long begin = System.nanoTime();
+                catalog.put(note);
+                index.put(note);
+                updateNanos.add(System.nanoTime() - begin);
+            }
+            catalog.sync();
+            sections.add(section(name, "upsert", noteCount, updateNanos, bytesWritten() - bytesBefore));
+            
+            // 削除
+            Collections.shuffle(notes, random);
+            int deletes = Math.max(1, (int) (noteCount * DELETE_RATIO));
+            Samples deleteNanos = new Samples();
+            bytesBefore = bytesWritten();
+            for (int i = 0; i < deletes; i++) {
+                String id = notes.get(i).getId();
+                long begin = System.nanoTime();
+                catalog.delete(id);
+                index.delete(id);
+                deleteNanos.add(System.nanoTime() - begin);
+            }
+            catalog.sync();
+            sections.add(section(name, "delete", noteCount, deleteNanos, bytesWritten() - bytesBefore));
+            assertEquals(noteCount - deletes, catalog.size());
+            
+            runDrawings(dir, name, noteCount, random, sections);
+            
+        } finally {
+            SearchIndex.close(dir);
+            NoteCatalog.close(dir);
+        }
+        return sections;
+    }
+    
+    /**
+     * 筆跡ファイルの保存（符号化と一時ファイルからの置き換えを含む）と読み込み
+     */
+    private static void runDrawings(File dir, String name, int noteCount, Random random,
+                                    List<BenchmarkReport.Section> sections) throws IOException {
+        File strokesDir = new File(dir, "note_strokes");
+        assertTrue(strokesDir.mkdirs());
+        List<StrokeData> strokes = new ArrayList<>(STROKES_PER_DRAWING);
+        for (int i = 0; i < STROKES_PER_DRAWING; i++) {
+            strokes.add(syntheticStroke(random));
+        }
+        
+        Samples saveNanos = new Samples();
+        List<File> files = new ArrayList<>(DRAWINGS);
+        long[] bytesWritten = new long[1];
+        for (int i = 0; i < DRAWINGS; i++) {
+            File file = new File(strokesDir, "note_" + i + ".strokes");
+            long begin = System.nanoTime();
+            AtomicFileWriter.write(file, out -> StrokeCodec.encode(strokes, counting(out, bytesWritten)));
+            saveNanos.add(System.nanoTime() - begin);
+            files.add(file);
+        }
+        
+        Samples loadNanos = new Samples();
+        for (File file : files) {
+            long begin = System.nanoTime();
+            List<StrokeData> loaded;
+            try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+                loaded = StrokeCodec.decode(in);
+            }
+            loadNanos.add(System.nanoTime() - begin);
+            assertEquals(STROKES_PER_DRAWING, loaded.size());
+        }
+        BenchmarkReport.Section save = section(name, "strokesSave", noteCount, saveNanos, bytesWritten[0]);
+        save.values.put("pointsPerDrawing", (double) STROKES_PER_DRAWING * POINTS_PER_STROKE);
+        sections.add(save);
+        sections.add(section(name, "strokesLoad", noteCount, loadNanos, 0));
+    }
+    
+    private static BenchmarkReport.Section section(String name, String operation, int noteCount,
+                                                   Samples nanos, long bytesWritten) {
+        BenchmarkReport.Section section = new BenchmarkReport.Section(name + "/" + operation);
+        section.distributions.put("latencyMicros", nanos.summarize(1000));
+        long total = nanos.sum();
+        section.values.put("opsPerSecond", total > 0 ? nanos.size() * 1e9 / total : 0);
+        section.values.put("notes", (double) noteCount);
+        if (bytesWritten > 0) {
+            section.values.put("bytesWritten", (double) bytesWritten);
+            section.values.put("bytesPerOp", bytesWritten / (double) nanos.size());
+        }
+        return section;
+    }
+    
+    private static Note syntheticNote(Random random, int index) {
+        String title = TITLE_WORDS[random.nextInt(TITLE_WORDS.length)] + " "
+                + TITLE_WORDS[random.nextInt(TITLE_WORDS.length)] + " " + index;
+        Note note = new Note(index % 100 == 0 ? title + " #重要" : title);
+        // 作成日時は過去1年に散らす
+        long createdAt = note.getCreatedAt() - (long) (random.nextDouble() * 365L * 24 * 60 * 60 * 1000);
+        note.setCreatedAt(createdAt);
+        note.setUpdatedAt(createdAt + random.nextInt(7 * 24 * 60 * 60) * 1000L);
+        if (random.nextInt(4) != 0) {
+            note.setImagePath("/data/note_images/note_" + note.getId() + ".png");
+        }
+        return note;
+    }
+    
+    /**
+     * 手書きに近い筆跡（なめらかに曲がる線、240Hzのサンプル間隔）
+     */
+    private static StrokeData syntheticStroke(Random random) {
+        float[] xs = new float[POINTS_PER_STROKE];
+        float[] ys = new float[POINTS_PER_STROKE];
+        float[] pressures = new float[POINTS_PER_STROKE];
+        float[] tiltXs = new float[POINTS_PER_STROKE];
+        float[] tiltYs = new float[POINTS_PER_STROKE];
+        int[] timeOffsets = new int[POINTS_PER_STROKE];
+        float x = random.nextFloat() * 1200;
+        float y = random.nextFloat() * 1920;
+        double angle = random.nextDouble() * Math.PI * 2;
+        for (int i = 0; i < POINTS_PER_STROKE; i++) {
+            angle += random.nextGaussian() * 0.1;
+            x += (float) Math.cos(angle) * 2f;
+            y += (float) Math.sin(angle) * 2f;
+            xs[i] = x;
+            ys[i] = y;
+            pressures[i] = 0.3f + 0.4f * (float) Math.sin(Math.PI * i / POINTS_PER_STROKE);
+            tiltXs[i] = 0.4f;
+            tiltYs[i] = 0.1f;
+            timeOffsets[i] = i * 4;
+        }
+        return new StrokeData(0xFF000000, 4f, xs, ys, pressures, tiltXs, tiltYs,
+                1_700_000_000_000L, timeOffsets);
+    }
+    
+    /**
+     * カタログと索引に書き込んだバイト数の累計
+     */
+    private static long bytesWritten() {
+        return CATALOG_BYTES.get() + INDEX_BYTES.get();
+    }
+    
+    /**
+     * 書き込んだバイト数をcount[0]に足していくストリーム
+     */
+    private static OutputStream counting(OutputStream out, long[] count) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                count[0]++;
+            }
+            
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                count[0] += len;
+            }
+        };
+    }
+}
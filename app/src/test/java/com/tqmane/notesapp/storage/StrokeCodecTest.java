@@ -0,0 +1,213 @@
+package com.tqmane.notesapp.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.tqmane.notesapp.models.StrokeData;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class StrokeCodecTest {
+    
+    @Test
+    public void roundTripKeepsQuantizedSamples() throws IOException {
+        StrokeData stroke = stroke(1_700_000_000_000L, 0, 12.3f, 45.6f, 4);
+        List<StrokeData> decoded = roundTrip(Collections.singletonList(stroke));
+        
+        assertEquals(1, decoded.size());
+        StrokeData result = decoded.get(0);
+        assertEquals(stroke.getColor(), result.getColor());
+        assertEquals(stroke.getWidth(), result.getWidth(), 0f);
+        assertEquals(stroke.getPointCount(), result.getPointCount());
+        for (int i = 0; i < stroke.getPointCount(); i++) {
+            // 座標は1/8px、筆圧は10bit、傾きはミリラジアンに量子化される
+            assertEquals(stroke.getX(i), result.getX(i), 1f / 16);
+            assertEquals(stroke.getY(i), result.getY(i), 1f / 16);
+            assertEquals(stroke.getPressure(i), result.getPressure(i), 1f / 2046);
+            assertEquals(stroke.getTiltX(i), result.getTiltX(i), 0.0005f);
+            assertEquals(stroke.getTiltY(i), result.getTiltY(i), 0.0005f);
+            assertEquals(stroke.getTime(i), result.getTime(i));
+        }
+        assertFalse(result.isSimplified());
+    }
+    
+    @Test
+    public void roundTripKeepsKeyIndices() throws IOException {
+        StrokeData stroke = stroke(1000, 0, 0, 0, 10).withKeyIndices(new int[] {0, 3, 7, 9});
+        StrokeData result = roundTrip(Collections.singletonList(stroke)).get(0);
+        
+        assertTrue(result.isSimplified());
+        assertEquals(4, result.getKeyCount());
+        for (int k = 0; k < 4; k++) {
+            assertEquals(stroke.getKeyIndex(k), result.getKeyIndex(k));
+        }
+    }
+    
+    @Test
+    public void roundTripEmptyStrokeAndEmptyList() throws IOException {
+        StrokeData empty = new StrokeData(0xFF000000, 5f, new float[0], new float[0], new float[0],
+                new float[0], new float[0], 0, new int[0]);
+        List<StrokeData> decoded = roundTrip(Arrays.asList(empty, stroke(5, 1, 0, 0, 3)));
+        
+        assertEquals(2, decoded.size());
+        assertTrue(decoded.get(0).isEmpty());
+        assertEquals(3, decoded.get(1).getPointCount());
+        assertTrue(roundTrip(new ArrayList<>()).isEmpty());
+    }
+    
+    @Test
+    public void roundTripNegativeCoordinatesAndLargeJumps() throws IOException {
+        float[] xs = {-5000f, 5000f, -0.125f};
+        float[] ys = {100000f, -100000f, 0f};
+        StrokeData stroke = new StrokeData(1, 2f, xs, ys, new float[] {0f, 1f, 0.5f},
+                new float[3], new float[3], 0, new int[] {0, 100000, 7});
+        StrokeData result = roundTrip(Collections.singletonList(stroke)).get(0);
+        
+        for (int i = 0; i < 3; i++) {
+            assertEquals(xs[i], result.getX(i), 0f);
+            assertEquals(ys[i], result.getY(i), 0f);
+            assertEquals(stroke.getTime(i), result.getTime(i));
+        }
+    }
+    
+    @Test
+    public void readsVersion1WithoutKeyIndices() throws IOException {
+        StrokeData stroke = stroke(2000, 0, 1f, 2f, 5);
+        List<StrokeData> decoded = StrokeCodec.decode(new ByteArrayInputStream(
+                writeRaw(1, stroke, null)));
+                
+        StrokeData result = decoded.get(0);
+        assertFalse(result.isSimplified());
+        assertEquals(5, result.getPointCount());
+        assertEquals(stroke.getX(4), result.getX(4), 1f / 16);
+        assertEquals(stroke.getTime(4), result.getTime(4));
+    }
+    
+    @Test
+    public void rejectsKeyIndexOutOfRange() {
+        StrokeData stroke = stroke(0, 0, 0, 0, 3);
+        try {
+            StrokeCodec.decode(new ByteArrayInputStream(writeRaw(2, stroke, new int[] {0, 3})));
+            fail();
+        } catch (IOException e) {
+            // キーポイントの番号がポイント数を超えている
+        }
+    }
+    
+    @Test(expected = IOException.class)
+    public void rejectsUnknownVersion() throws IOException {
+        StrokeCodec.decode(new ByteArrayInputStream(writeRaw(3, stroke(0, 0, 0, 0, 1), null)));
+    }
+    
+    @Test(expected = IOException.class)
+    public void rejectsWrongMagic() throws IOException {
+        StrokeCodec.decode(new ByteArrayInputStream(new byte[] {'N', 'O', 'P', 'E', 2, 0}));
+    }
+    
+    @Test(expected = IOException.class)
+    public void rejectsTruncatedFile() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StrokeCodec.encode(Collections.singletonList(stroke(0, 0, 0, 0, 20)), out);
+        byte[] data = out.toByteArray();
+        StrokeCodec.decode(new ByteArrayInputStream(Arrays.copyOf(data, data.length / 2)));
+    }
+    
+    private static List<StrokeData> roundTrip(List<StrokeData> strokes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StrokeCodec.encode(strokes, out);
+        return StrokeCodec.decode(new ByteArrayInputStream(out.toByteArray()));
+    }
+    
+    private static StrokeData stroke(long startTime, int color, float x0, float y0, int count) {
+        float[] xs = new float[count];
+        float[] ys = new float[count];
+        float[] pressures = new float[count];
+        float[] tiltXs = new float[count];
+        float[] tiltYs = new float[count];
+        int[] timeOffsets = new int[count];
+        for (int i = 0; i < count; i++) {
+            xs[i] = x0 + i * 3.3f;
+            ys[i] = y0 + (float) Math.sin(i) * 7f;
+            pressures[i] = 0.2f + 0.07f * i % 0.8f;
+            tiltXs[i] = 0.01f * i;
+            tiltYs[i] = -0.02f * i;
+            timeOffsets[i] = i * 4;
+        }
+        return new StrokeData(color, 5f, xs, ys, pressures, tiltXs, tiltYs, startTime, timeOffsets);
+    }
+    
+    /**
+     * 形式の説明どおりにバイト列を組み立てる（以前のバージョンや壊れたデータの再現用）
+     */
+    private static byte[] writeRaw(int version, StrokeData stroke, int[] keyIndices) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeInt(out, 0x4E53544B);
+        out.write(version);
+        writeVarLong(out, 1);
+        writeInt(out, stroke.getColor());
+        writeInt(out, Float.floatToIntBits(stroke.getWidth()));
+        writeVarLong(out, stroke.getPointCount());
+        long startTime = stroke.getPointCount() == 0 ? 0 : stroke.getTime(0);
+        writeVarLong(out, startTime);
+        long lastX = 0, lastY = 0, lastPressure = 0, lastTiltX = 0, lastTiltY = 0, lastTime = startTime;
+        for (int i = 0; i < stroke.getPointCount(); i++) {
+            long x = Math.round(stroke.getX(i) * 8f);
+            long y = Math.round(stroke.getY(i) * 8f);
+            long pressure = Math.round(stroke.getPressure(i) * 1023f);
+            long tiltX = Math.round(stroke.getTiltX(i) * 1000f);
+            long tiltY = Math.round(stroke.getTiltY(i) * 1000f);
+            long time = stroke.getTime(i);
+            writeSignedVarLong(out, x - lastX);
+            writeSignedVarLong(out, y - lastY);
+            writeSignedVarLong(out, pressure - lastPressure);
+            writeSignedVarLong(out, tiltX - lastTiltX);
+            writeSignedVarLong(out, tiltY - lastTiltY);
+            writeSignedVarLong(out, time - lastTime);
+            lastX = x;
+            lastY = y;
+            lastPressure = pressure;
+            lastTiltX = tiltX;
+            lastTiltY = tiltY;
+            lastTime = time;
+        }
+        if (version >= 2) {
+            int keyCount = keyIndices != null ? keyIndices.length : 0;
+            writeVarLong(out, keyCount);
+            int lastIndex = 0;
+            for (int k = 0; k < keyCount; k++) {
+                writeVarLong(out, keyIndices[k] - lastIndex);
+                lastIndex = keyIndices[k];
+            }
+        }
+        return out.toByteArray();
+    }
+    
+    private static void writeInt(ByteArrayOutputStream out, int v) {
+        out.write(v >>> 24);
+        out.write(v >>> 16);
+        out.write(v >>> 8);
+        out.write(v);
+    }
+    
+    private static void writeVarLong(ByteArrayOutputStream out, long v) {
+        while ((v & ~0x7FL) != 0) {
+            out.write((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.write((int) v);
+    }
+    
+    private static void writeSignedVarLong(ByteArrayOutputStream out, long v) {
+        writeVarLong(out, (v << 1) ^ (v >> 63));
+    }
+}
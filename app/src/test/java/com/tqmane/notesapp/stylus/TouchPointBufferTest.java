@@ -0,0 +1,98 @@
+package com.tqmane.notesapp.stylus;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TouchPointBufferTest {
+    
+    @Test
+    public void keepsPointsInOrder() {
+        TouchPointBuffer buffer = new TouchPointBuffer(4, false);
+        add(buffer, 0, 3);
+        
+        assertEquals(3, buffer.size());
+        assertEquals(2, buffer.last());
+        for (int i = 0; i < 3; i++) {
+            assertPoint(buffer, i, i);
+        }
+    }
+    
+    @Test
+    public void growsWhenFullWithoutOverwrite() {
+        TouchPointBuffer buffer = new TouchPointBuffer(2, false);
+        add(buffer, 0, 100);
+        
+        assertEquals(100, buffer.size());
+        for (int i = 0; i < 100; i++) {
+            assertPoint(buffer, i, i);
+        }
+    }
+    
+    @Test
+    public void overwritesOldestWhenFull() {
+        TouchPointBuffer buffer = new TouchPointBuffer(4, true);
+        add(buffer, 0, 10);
+        
+        // 容量は4のまま、最後の4点が古い順に残る
+        assertEquals(4, buffer.size());
+        for (int i = 0; i < 4; i++) {
+            assertPoint(buffer, i, 6 + i);
+        }
+    }
+    
+    @Test
+    public void growsAfterWrappingKeepsOrder() {
+        TouchPointBuffer ring = new TouchPointBuffer(4, true);
+        add(ring, 0, 6);
+        
+        // 折り返した状態のリングから伸びるバッファへ移しても順番が保たれる
+        TouchPointBuffer copy = new TouchPointBuffer(2, false);
+        for (int i = 0; i < ring.size(); i++) {
+            copy.add(ring, i);
+        }
+        add(copy, 100, 3);
+        assertEquals(7, copy.size());
+        for (int i = 0; i < 4; i++) {
+            assertPoint(copy, i, 2 + i);
+        }
+        assertPoint(copy, 6, 102);
+    }
+    
+    @Test
+    public void roundsCapacityUpToPowerOfTwo() {
+        TouchPointBuffer buffer = new TouchPointBuffer(5, true);
+        add(buffer, 0, 20);
+        
+        assertEquals(8, buffer.size());
+        assertPoint(buffer, 0, 12);
+    }
+    
+    @Test
+    public void clearResetsSize() {
+        TouchPointBuffer buffer = new TouchPointBuffer(4, true);
+        add(buffer, 0, 7);
+        buffer.clear();
+        
+        assertTrue(buffer.isEmpty());
+        add(buffer, 50, 2);
+        assertPoint(buffer, 0, 50);
+        assertPoint(buffer, 1, 51);
+    }
+    
+    private static void add(TouchPointBuffer buffer, int first, int count) {
+        for (int v = first; v < first + count; v++) {
+            buffer.add(v, v * 2, v / 100f, v + 0.5f, v - 0.5f, 1000L + v);
+        }
+    }
+    
+    private static void assertPoint(TouchPointBuffer buffer, int index, int v) {
+        assertEquals(v, buffer.getX(index), 0f);
+        assertEquals(v * 2, buffer.getY(index), 0f);
+        assertEquals(v / 100f, buffer.getPressure(index), 0f);
+        assertEquals(v + 0.5f, buffer.getTiltX(index), 0f);
+        assertEquals(v - 0.5f, buffer.getTiltY(index), 0f);
+        assertEquals(1000L + v, buffer.getTime(index));
+    }
+}
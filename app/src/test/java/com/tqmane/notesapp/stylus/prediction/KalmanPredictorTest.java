@@ -0,0 +1,69 @@
+package com.tqmane.notesapp.stylus.prediction;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class KalmanPredictorTest {
+    
+    private static final long INTERVAL_MILLIS = 4;
+    private static final float HORIZON_MILLIS = 16f;
+    
+    @Test
+    public void convergesOnConstantVelocity() {
+        // 速度 (0.8, -0.3) px/ms
+        KalmanPredictor predictor = new KalmanPredictor();
+        assertTrack(predictor, 0.8, -0.3, 0, 0, 0.05f);
+    }
+    
+    @Test
+    public void convergesOnConstantAcceleration() {
+        // 速度 (0.2, 0.1) px/ms、加速度 (0.004, -0.002) px/ms²
+        KalmanPredictor predictor = new KalmanPredictor();
+        assertTrack(predictor, 0.2, 0.1, 0.004, -0.002, 0.5f);
+    }
+    
+    @Test
+    public void needsThreeSamples() {
+        KalmanPredictor predictor = new KalmanPredictor();
+        predictor.addSample(0, 0, 0);
+        predictor.addSample(1, 0, 4);
+        assertFalse(predictor.canPredict());
+        predictor.addSample(2, 0, 8);
+        assertTrue(predictor.canPredict());
+        
+        predictor.reset();
+        assertFalse(predictor.canPredict());
+    }
+    
+    /**
+     * 等加速度の軌跡を流し、予測時間先の誤差が収束後にtolerance以下になることを確認
+     */
+    static void assertTrack(MotionPredictor predictor, double vx, double vy, double ax, double ay,
+                            float tolerance) {
+        float[] predicted = new float[2];
+        float firstError = -1;
+        float lastError = -1;
+        for (long t = 0; t <= 400; t += INTERVAL_MILLIS) {
+            predictor.addSample(position(vx, ax, t), position(vy, ay, t), t);
+            if (!predictor.canPredict()) {
+                continue;
+            }
+            predictor.predict(HORIZON_MILLIS, predicted);
+            double target = t + HORIZON_MILLIS;
+            lastError = (float) Math.hypot(predicted[0] - position(vx, ax, target),
+                    predicted[1] - position(vy, ay, target));
+            if (firstError < 0) {
+                firstError = lastError;
+            }
+        }
+        
+        assertTrue("last error " + lastError, lastError <= tolerance);
+        assertTrue(lastError <= firstError);
+    }
+    
+    private static float position(double v, double a, double t) {
+        return (float) (100 + v * t + 0.5 * a * t * t);
+    }
+}
@@ -0,0 +1,68 @@
+package com.tqmane.notesapp.stylus.prediction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class PolynomialPredictorTest {
+    
+    @Test
+    public void quadraticFitIsExactOnQuadratic() {
+        PolynomialPredictor predictor = new PolynomialPredictor(8, 2);
+        // 不等間隔でも時刻の2次式ならそのまま外挿できる
+        long[] times = {0, 4, 9, 12, 16, 21, 24, 28, 33, 36};
+        for (long t : times) {
+            predictor.addSample(quadraticX(t), quadraticY(t), t);
+        }
+        
+        float[] predicted = new float[2];
+        for (float delta : new float[] {0, 8, 16, 32}) {
+            predictor.predict(delta, predicted);
+            assertEquals(quadraticX(36 + delta), predicted[0], 1e-2f);
+            assertEquals(quadraticY(36 + delta), predicted[1], 1e-2f);
+        }
+    }
+    
+    @Test
+    public void linearFitIsExactOnLine() {
+        PolynomialPredictor predictor = new PolynomialPredictor(8, 1);
+        for (long t = 0; t <= 40; t += 4) {
+            predictor.addSample(10 + 0.5f * t, 20 - 0.25f * t, t);
+        }
+        
+        float[] predicted = new float[2];
+        predictor.predict(16, predicted);
+        assertEquals(10 + 0.5f * 56, predicted[0], 1e-3f);
+        assertEquals(20 - 0.25f * 56, predicted[1], 1e-3f);
+    }
+    
+    @Test
+    public void lowersDegreeForFewSamples() {
+        PolynomialPredictor predictor = new PolynomialPredictor(8, 2);
+        predictor.addSample(0, 0, 0);
+        assertFalse(predictor.canPredict());
+        predictor.addSample(2, 1, 4);
+        assertTrue(predictor.canPredict());
+        
+        // 2点なら直線で外挿する
+        float[] predicted = new float[2];
+        predictor.predict(8, predicted);
+        assertEquals(6, predicted[0], 1e-3f);
+        assertEquals(3, predicted[1], 1e-3f);
+    }
+    
+    @Test
+    public void convergesOnConstantAcceleration() {
+        KalmanPredictorTest.assertTrack(new PolynomialPredictor(8, 2), 0.2, 0.1, 0.004, -0.002, 0.05f);
+    }
+    
+    private static float quadraticX(double t) {
+        return (float) (100 + 0.6 * t + 0.003 * t * t);
+    }
+    
+    private static float quadraticY(double t) {
+        return (float) (50 - 0.2 * t + 0.001 * t * t);
+    }
+}
@@ -0,0 +1,67 @@
+package com.tqmane.notesapp.stylus.prediction;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class PredictionErrorTrackerTest {
+    
+    @Test
+    public void comparesWithInterpolatedPosition() {
+        PredictionErrorTracker tracker = new PredictionErrorTracker();
+        tracker.onSample(0, 0, 0);
+        tracker.onPrediction(6, 9, 4);
+        // 時刻6の実際の位置は(0,0)と(10,0)の間の(6,0)
+        tracker.onSample(10, 10, 0);
+        
+        assertEquals(1, tracker.getCount());
+        assertEquals(5f, tracker.getMeanError(), 1e-4f);
+    }
+    
+    @Test
+    public void waitsUntilTargetTimeIsReached() {
+        PredictionErrorTracker tracker = new PredictionErrorTracker();
+        tracker.onSample(0, 0, 0);
+        tracker.onPrediction(16, 16, 0);
+        tracker.onSample(8, 8, 0);
+        assertEquals(0, tracker.getCount());
+        
+        tracker.onSample(16, 16, 0);
+        assertEquals(1, tracker.getCount());
+        assertEquals(0f, tracker.getMaxError(), 0);
+    }
+    
+    @Test
+    public void aggregatesMeanRmsAndMax() {
+        PredictionErrorTracker tracker = new PredictionErrorTracker();
+        // 誤差 3, 4, 0
+        tracker.onPrediction(0, 3, 0);
+        tracker.onPrediction(1, 0, 4);
+        tracker.onPrediction(2, 0, 0);
+        tracker.onSample(0, 0, 0);
+        tracker.onSample(1, 0, 0);
+        tracker.onSample(2, 0, 0);
+        
+        assertEquals(3, tracker.getCount());
+        assertEquals(7f / 3, tracker.getMeanError(), 1e-4f);
+        assertEquals((float) Math.sqrt(25.0 / 3), tracker.getRmsError(), 1e-4f);
+        assertEquals(4f, tracker.getMaxError(), 0);
+    }
+    
+    @Test
+    public void dropsPredictionsOfFinishedStroke() {
+        PredictionErrorTracker tracker = new PredictionErrorTracker();
+        tracker.onSample(0, 0, 0);
+        tracker.onPrediction(16, 100, 100);
+        tracker.startStroke();
+        tracker.onSample(20, 0, 0);
+        assertEquals(0, tracker.getCount());
+        
+        tracker.onPrediction(24, 3, 4);
+        tracker.onSample(24, 0, 0);
+        tracker.reset();
+        assertEquals(0, tracker.getCount());
+        assertEquals(0f, tracker.getMeanError(), 0);
+        assertEquals(0f, tracker.getMaxError(), 0);
+    }
+}
@@ -0,0 +1,126 @@
+package com.tqmane.notesapp.views;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.tqmane.notesapp.models.StrokeData;
+
+import org.junit.Test;
+
+public class StrokeSimplifierTest {
+    
+    @Test
+    public void straightLineKeepsEndpoints() {
+        StrokeData line = stroke(new float[] {0, 1, 2, 3, 4, 5}, new float[] {0, 1, 2, 3, 4, 5});
+        StrokeData simplified = StrokeSimplifier.simplify(line);
+        
+        assertEquals(2, simplified.getKeyCount());
+        assertEquals(0, simplified.getKeyIndex(0));
+        assertEquals(5, simplified.getKeyIndex(1));
+        // 元のサンプルは残す
+        assertEquals(6, simplified.getPointCount());
+    }
+    
+    @Test
+    public void keepsCornersBeyondTolerance() {
+        StrokeData zigzag = stroke(new float[] {0, 10, 20, 30, 40}, new float[] {0, 10, 0, 10, 0});
+        StrokeData simplified = StrokeSimplifier.simplify(zigzag);
+        
+        assertEquals(5, simplified.getKeyCount());
+    }
+    
+    @Test
+    public void dropsDeviationWithinTolerance() {
+        float small = StrokeSimplifier.TOLERANCE * 0.5f;
+        StrokeData wobble = stroke(new float[] {0, 10, 20, 30}, new float[] {0, small, -small, 0});
+        
+        assertEquals(2, StrokeSimplifier.simplify(wobble).getKeyCount());
+    }
+    
+    @Test
+    public void droppedPointsStayWithinTolerance() {
+        int count = 400;
+        float[] xs = new float[count];
+        float[] ys = new float[count];
+        for (int i = 0; i < count; i++) {
+            xs[i] = i * 0.7f;
+            ys[i] = (float) (30 * Math.sin(i * 0.05) + 2 * Math.sin(i * 0.9));
+        }
+        StrokeData simplified = StrokeSimplifier.simplify(stroke(xs, ys));
+        
+        assertTrue(simplified.getKeyCount() < count);
+        for (int k = 0; k + 1 < simplified.getKeyCount(); k++) {
+            int first = simplified.getKeyIndex(k);
+            int last = simplified.getKeyIndex(k + 1);
+            assertTrue(first < last);
+            for (int i = first + 1; i < last; i++) {
+                float distance = distanceToSegment(xs[i], ys[i], xs[first], ys[first], xs[last], ys[last]);
+                assertTrue("point " + i + " is " + distance + "px off", distance <= StrokeSimplifier.TOLERANCE + 1e-4f);
+            }
+        }
+    }
+    
+    @Test
+    public void pressureChangeIsKept() {
+        float[] xs = {0, 1, 2, 3, 4};
+        float[] ys = {0, 0, 0, 0, 0};
+        float[] pressures = {0.2f, 0.2f, 1f, 0.2f, 0.2f};
+        StrokeData stroke = new StrokeData(0, 8f, xs, ys, pressures, new float[5], new float[5], 0, new int[5]);
+        StrokeData simplified = StrokeSimplifier.simplify(stroke);
+        
+        // 筆圧による太さの変化も誤差に含めるので、中央の太い点は残る
+        assertTrue(contains(simplified, 2));
+    }
+    
+    @Test
+    public void shortStrokesKeepAllPoints() {
+        assertEquals(0, StrokeSimplifier.simplify(stroke(new float[0], new float[0])).getKeyCount());
+        StrokeData one = StrokeSimplifier.simplify(stroke(new float[] {1}, new float[] {1}));
+        assertEquals(1, one.getKeyCount());
+        assertTrue(one.isSimplified());
+        StrokeData two = StrokeSimplifier.simplify(stroke(new float[] {1, 2}, new float[] {1, 2}));
+        assertArrayEquals(new int[] {0, 1}, keys(two));
+    }
+    
+    @Test
+    public void alreadySimplifiedIsReturnedAsIs() {
+        StrokeData simplified = stroke(new float[] {0, 1, 2}, new float[] {0, 5, 0}).withKeyIndices(new int[] {0, 2});
+        
+        assertSame(simplified, StrokeSimplifier.simplify(simplified));
+    }
+    
+    private static StrokeData stroke(float[] xs, float[] ys) {
+        int count = xs.length;
+        float[] pressures = new float[count];
+        java.util.Arrays.fill(pressures, 0.5f);
+        return new StrokeData(0, 4f, xs, ys, pressures, new float[count], new float[count], 0, new int[count]);
+    }
+    
+    private static int[] keys(StrokeData stroke) {
+        int[] keys = new int[stroke.getKeyCount()];
+        for (int k = 0; k < keys.length; k++) {
+            keys[k] = stroke.getKeyIndex(k);
+        }
+        return keys;
+    }
+    
+    private static boolean contains(StrokeData stroke, int index) {
+        for (int key : keys(stroke)) {
+            if (key == index) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private static float distanceToSegment(float x, float y, float x0, float y0, float x1, float y1) {
+        float dx = x1 - x0;
+        float dy = y1 - y0;
+        float lengthSquared = dx * dx + dy * dy;
+        float t = lengthSquared == 0f ? 0f
+                : Math.max(0f, Math.min(1f, ((x - x0) * dx + (y - y0) * dy) / lengthSquared));
+        return (float) Math.hypot(x - x0 - dx * t, y - y0 - dy * t);
+    }
+}
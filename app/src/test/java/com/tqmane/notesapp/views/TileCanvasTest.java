@@ -0,0 +1,113 @@
+package com.tqmane.notesapp.views;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.RectF;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.GraphicsMode;
+
+import java.io.IOException;
+
+/**
+ * タイルの解像度と描き直しの確認（画素を読むのでNATIVEの描画で実行する）
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+public class TileCanvasTest {
+    
+    // モデルにある四角形（ドキュメント座標、タイルの境界をまたがない）
+    private static final RectF CONTENT = new RectF(300, 300, 310, 310);
+    
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+    
+    private final Paint paint = new Paint();
+    private TileCanvas tileCanvas;
+    
+    @Before
+    public void setUp() throws IOException {
+        paint.setColor(Color.BLACK);
+        tileCanvas = new TileCanvas(temporaryFolder.newFolder("cache"),
+                (canvas, region) -> canvas.drawRect(CONTENT, paint));
+        tileCanvas.setViewport(1000, 1000, 1f);
+    }
+    
+    @After
+    public void tearDown() {
+        tileCanvas.release();
+    }
+    
+    @Test
+    public void scaleIsNearestPowerOfTwo() {
+        assertEquals(1, TileCanvas.scaleForZoom(0.5f));
+        assertEquals(1, TileCanvas.scaleForZoom(1.4f));
+        assertEquals(2, TileCanvas.scaleForZoom(1.5f));
+        assertEquals(2, TileCanvas.scaleForZoom(2.8f));
+        assertEquals(4, TileCanvas.scaleForZoom(2.9f));
+        assertEquals(4, TileCanvas.scaleForZoom(8f));
+    }
+    
+    @Test
+    public void staleTilesAreRenderedAtTheirPosition() {
+        tileCanvas.invalidate(CONTENT);
+        Bitmap screen = draw(1f);
+        
+        assertEquals(255, Color.alpha(screen.getPixel(305, 305)));
+        assertEquals(0, Color.alpha(screen.getPixel(295, 295)));
+    }
+    
+    @Test
+    public void zoomedTilesAreRasterizedAtTheZoom() {
+        assertFalse(tileCanvas.setScale(1));
+        assertTrue(tileCanvas.setScale(2));
+        tileCanvas.invalidate(CONTENT);
+        Bitmap screen = draw(2f);
+        
+        // 1倍の画像を引き伸ばすと境界の画素は半透明になる
+        assertEquals(255, Color.alpha(screen.getPixel(600, 600)));
+        assertEquals(0, Color.alpha(screen.getPixel(599, 599)));
+        assertEquals(255, Color.alpha(screen.getPixel(619, 619)));
+        assertEquals(0, Color.alpha(screen.getPixel(620, 620)));
+    }
+    
+    @Test
+    public void pathsAreDrawnInDocumentCoordinates() {
+        tileCanvas.setScale(4);
+        Path path = new Path();
+        path.addRect(CONTENT, Path.Direction.CW);
+        tileCanvas.drawPath(path, CONTENT, paint);
+        Bitmap screen = draw(4f);
+        
+        assertEquals(255, Color.alpha(screen.getPixel(1200, 1200)));
+        assertEquals(255, Color.alpha(screen.getPixel(1239, 1239)));
+        assertEquals(0, Color.alpha(screen.getPixel(1199, 1199)));
+        assertEquals(0, Color.alpha(screen.getPixel(1240, 1240)));
+    }
+    
+    /**
+     * 表示倍率zoomで内容のある範囲を描いた画面
+     */
+    private Bitmap draw(float zoom) {
+        Bitmap screen = Bitmap.createBitmap(Math.round(400 * zoom), Math.round(400 * zoom), Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(screen);
+        canvas.scale(zoom, zoom);
+        tileCanvas.draw(canvas, new RectF(0, 0, 400, 400));
+        return screen;
+    }
+}